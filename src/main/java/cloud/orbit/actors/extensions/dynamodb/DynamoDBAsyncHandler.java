@@ -0,0 +1,73 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Bridges the callback based async client API to a {@link Task}, so requests complete without
+ * blocking a thread while waiting on the network.
+ */
+class DynamoDBAsyncHandler<REQUEST extends AmazonWebServiceRequest, RESULT> implements AsyncHandler<REQUEST, RESULT>
+{
+    private final Task<RESULT> task = new Task<>();
+
+    public Task<RESULT> submit(final Function<AsyncHandler<REQUEST, RESULT>, Future<RESULT>> call)
+    {
+        try
+        {
+            call.apply(this);
+        }
+        catch (RuntimeException e)
+        {
+            // the client rejects requests synchronously once it has been shut down
+            task.completeExceptionally(e);
+        }
+
+        return task;
+    }
+
+    @Override
+    public void onError(final Exception exception)
+    {
+        task.completeExceptionally(exception);
+    }
+
+    @Override
+    public void onSuccess(final REQUEST request, final RESULT result)
+    {
+        task.complete(result);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts items to and from DynamoDB's typed JSON form ({"S": ...}, {"M": {...}}, ...), which keeps every attribute
+ * type, including binary values and sets, so items survive a round trip through a file unchanged.
+ */
+class DynamoDBAttributeCodec
+{
+    private static final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static ObjectNode encodeItem(final Map<String, AttributeValue> item)
+    {
+        final ObjectNode node = nodeFactory.objectNode();
+        for (final Map.Entry<String, AttributeValue> attribute : item.entrySet())
+        {
+            node.set(attribute.getKey(), encode(attribute.getValue()));
+        }
+        return node;
+    }
+
+    public static Map<String, AttributeValue> decodeItem(final JsonNode node)
+    {
+        final Map<String, AttributeValue> item = new LinkedHashMap<>();
+        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext())
+        {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            item.put(field.getKey(), decode(field.getValue()));
+        }
+        return item;
+    }
+
+    public static byte[] encodeItemBytes(final Map<String, AttributeValue> item)
+    {
+        try
+        {
+            return mapper.writeValueAsBytes(encodeItem(item));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    public static Map<String, AttributeValue> decodeItemBytes(final byte[] bytes)
+    {
+        try
+        {
+            return decodeItem(mapper.readTree(bytes));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    private static JsonNode encode(final AttributeValue value)
+    {
+        final ObjectNode node = nodeFactory.objectNode();
+        if (value.getS() != null)
+        {
+            node.put("S", value.getS());
+        }
+        else if (value.getN() != null)
+        {
+            node.put("N", value.getN());
+        }
+        else if (value.getB() != null)
+        {
+            node.put("B", encodeBinary(value.getB()));
+        }
+        else if (value.getBOOL() != null)
+        {
+            node.put("BOOL", value.getBOOL());
+        }
+        else if (value.getNULL() != null)
+        {
+            node.put("NULL", true);
+        }
+        else if (value.getSS() != null)
+        {
+            final ArrayNode values = node.putArray("SS");
+            value.getSS().forEach(values::add);
+        }
+        else if (value.getNS() != null)
+        {
+            final ArrayNode values = node.putArray("NS");
+            value.getNS().forEach(values::add);
+        }
+        else if (value.getBS() != null)
+        {
+            final ArrayNode values = node.putArray("BS");
+            value.getBS().forEach(binary -> values.add(encodeBinary(binary)));
+        }
+        else if (value.getM() != null)
+        {
+            node.set("M", encodeItem(value.getM()));
+        }
+        else if (value.getL() != null)
+        {
+            final ArrayNode values = node.putArray("L");
+            value.getL().forEach(element -> values.add(encode(element)));
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported attribute value: " + value);
+        }
+        return node;
+    }
+
+    private static AttributeValue decode(final JsonNode node)
+    {
+        final Map.Entry<String, JsonNode> typed = node.fields().next();
+        final JsonNode value = typed.getValue();
+
+        switch (typed.getKey())
+        {
+            case "S":
+                return new AttributeValue().withS(value.textValue());
+            case "N":
+                return new AttributeValue().withN(value.textValue());
+            case "B":
+                return new AttributeValue().withB(decodeBinary(value));
+            case "BOOL":
+                return new AttributeValue().withBOOL(value.booleanValue());
+            case "NULL":
+                return new AttributeValue().withNULL(true);
+            case "SS":
+                return new AttributeValue().withSS(decodeStrings(value));
+            case "NS":
+                return new AttributeValue().withNS(decodeStrings(value));
+            case "BS":
+            {
+                final List<ByteBuffer> binaries = new ArrayList<>(value.size());
+                value.forEach(element -> binaries.add(decodeBinary(element)));
+                return new AttributeValue().withBS(binaries);
+            }
+            case "M":
+                return new AttributeValue().withM(decodeItem(value));
+            case "L":
+            {
+                final List<AttributeValue> elements = new ArrayList<>(value.size());
+                value.forEach(element -> elements.add(decode(element)));
+                return new AttributeValue().withL(elements);
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported attribute type: " + typed.getKey());
+        }
+    }
+
+    private static String encodeBinary(final ByteBuffer binary)
+    {
+        final byte[] bytes = new byte[binary.remaining()];
+        binary.duplicate().get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static ByteBuffer decodeBinary(final JsonNode node)
+    {
+        return ByteBuffer.wrap(Base64.getDecoder().decode(node.textValue()));
+    }
+
+    private static List<String> decodeStrings(final JsonNode node)
+    {
+        final List<String> strings = new ArrayList<>(node.size());
+        node.forEach(element -> strings.add(element.textValue()));
+        return strings;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.exception.UncheckedException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs BatchGetItem and BatchWriteItem requests against a single table, retrying unprocessed items with
+ * exponential backoff until they are all processed.
+ */
+class DynamoDBBatchExecutor
+{
+    final static int MAX_BATCH_GET_ITEMS = 100;
+    final static int MAX_BATCH_WRITE_ITEMS = 25;
+    final static private int MAX_UNPROCESSED_RETRIES = 10;
+    final static private long UNPROCESSED_RETRY_BASE_DELAY_MILLIS = 25;
+    final static private long UNPROCESSED_RETRY_MAX_DELAY_MILLIS = 2000;
+
+    private final DynamoDBConnection dynamoDBConnection;
+
+    DynamoDBBatchExecutor(final DynamoDBConnection dynamoDBConnection)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+    }
+
+    /**
+     * Reads up to {@link #MAX_BATCH_GET_ITEMS} distinct items.
+     *
+     * @return the items found, by document id
+     */
+    public Task<Map<String, Item>> getItems(final String tableName, final Collection<String> itemIds)
+    {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>(itemIds.size());
+        for (final String itemId : itemIds)
+        {
+            keys.add(DynamoDBUtils.createKey(dynamoDBConnection, itemId));
+        }
+
+        final KeysAndAttributes keysAndAttributes = new KeysAndAttributes()
+                .withKeys(keys)
+                .withConsistentRead(true);
+
+        return getItems(tableName, keysAndAttributes, new ConcurrentHashMap<>(), 0);
+    }
+
+    /**
+     * Writes up to {@link #MAX_BATCH_WRITE_ITEMS} puts or deletes of distinct items.
+     */
+    public Task<Void> writeItems(final String tableName, final List<WriteRequest> writeRequests)
+    {
+        return writeItems(tableName, writeRequests, 0);
+    }
+
+    private Task<Map<String, Item>> getItems(final String tableName, final KeysAndAttributes keysAndAttributes, final Map<String, Item> found, final int attempt)
+    {
+        final BatchGetItemRequest request = new BatchGetItemRequest()
+                .withRequestItems(Collections.singletonMap(tableName, keysAndAttributes));
+
+        return DynamoDBUtils.batchGetItem(dynamoDBConnection, request)
+                .thenCompose(result ->
+                {
+                    final List<Map<String, AttributeValue>> responses = result.getResponses().get(tableName);
+                    if (responses != null)
+                    {
+                        for (final Map<String, AttributeValue> attributes : responses)
+                        {
+                            final Item item = ItemUtils.toItem(attributes);
+                            found.put(DynamoDBUtils.getDocumentId(dynamoDBConnection, item), item);
+                        }
+                    }
+
+                    final KeysAndAttributes unprocessed = result.getUnprocessedKeys().get(tableName);
+                    if (unprocessed == null || unprocessed.getKeys().isEmpty())
+                    {
+                        return Task.fromValue(found);
+                    }
+
+                    return retryDelay(tableName, attempt)
+                            .thenCompose(ignored -> getItems(tableName, unprocessed, found, attempt + 1));
+                });
+    }
+
+    private Task<Void> writeItems(final String tableName, final List<WriteRequest> writeRequests, final int attempt)
+    {
+        final BatchWriteItemRequest request = new BatchWriteItemRequest()
+                .withRequestItems(Collections.singletonMap(tableName, writeRequests));
+
+        return DynamoDBUtils.batchWriteItem(dynamoDBConnection, request)
+                .thenCompose(result ->
+                {
+                    final List<WriteRequest> unprocessed = result.getUnprocessedItems().get(tableName);
+                    if (unprocessed == null || unprocessed.isEmpty())
+                    {
+                        return Task.done();
+                    }
+
+                    return retryDelay(tableName, attempt)
+                            .thenCompose(ignored -> writeItems(tableName, unprocessed, attempt + 1));
+                });
+    }
+
+    private Task<Void> retryDelay(final String tableName, final int attempt)
+    {
+        if (attempt >= MAX_UNPROCESSED_RETRIES)
+        {
+            throw new UncheckedException("Hit max retry attempts for unprocessed batch items on table: " + tableName);
+        }
+
+        final long maxDelay = Math.min(UNPROCESSED_RETRY_MAX_DELAY_MILLIS, UNPROCESSED_RETRY_BASE_DELAY_MILLIS << attempt);
+        return DynamoDBUtils.delay(dynamoDBConnection, ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free Bloom filter over document ids.
+ */
+class DynamoDBBloomFilter
+{
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    DynamoDBBloomFilter(final long expectedItems, final double falsePositiveRate)
+    {
+        final long items = Math.max(1, expectedItems);
+        final long optimalBits = (long) Math.ceil(-items * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        final int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+
+        bits = new AtomicLongArray(words);
+        bitCount = (long) words * 64;
+        hashCount = Math.max(1, (int) Math.round((double) optimalBits / items * Math.log(2)));
+    }
+
+    public void put(final String itemId)
+    {
+        final long hash = hash(itemId);
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++)
+        {
+            final long bitIndex = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+            final int word = (int) (bitIndex >>> 6);
+            final long mask = 1L << bitIndex;
+
+            long current;
+            do
+            {
+                current = bits.get(word);
+                if ((current & mask) != 0)
+                {
+                    break;
+                }
+            }
+            while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(final String itemId)
+    {
+        final long hash = hash(itemId);
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+
+        for (int i = 0; i < hashCount; i++)
+        {
+            final long bitIndex = Math.floorMod(hash1 + (long) i * hash2, bitCount);
+            if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds every id contained in the other filter, which must have been created with the same parameters.
+     */
+    public void putAll(final DynamoDBBloomFilter other)
+    {
+        if (other.bitCount != bitCount || other.hashCount != hashCount)
+        {
+            throw new IllegalArgumentException("Bloom filters have different parameters");
+        }
+
+        for (int word = 0; word < bits.length(); word++)
+        {
+            final long otherBits = other.bits.get(word);
+
+            long current;
+            do
+            {
+                current = bits.get(word);
+            }
+            while ((current | otherBits) != current && !bits.compareAndSet(word, current, current | otherBits));
+        }
+    }
+
+    private static long hash(final String value)
+    {
+        // FNV-1a over the chars, finished with the murmur3 mixer to spread FNV's weak low bits
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++)
+        {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
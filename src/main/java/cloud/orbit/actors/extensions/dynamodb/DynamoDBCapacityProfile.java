@@ -0,0 +1,165 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.List;
+
+/**
+ * What the states of one class, held by actors of one interface, cost in DynamoDB capacity and size since the
+ * extension started, as reported by {@link DynamoDBStorageExtension#getCapacityProfiles()}.
+ * <p>
+ * Item sizes are estimated with DynamoDB's sizing rules and bucketed by powers of two, so percentiles are the upper
+ * bounds of their buckets. Capacity is as reported by DynamoDB for reads and direct writes; coalesced writes go out
+ * in batches, and their capacity is estimated from the item size.
+ */
+public class DynamoDBCapacityProfile
+{
+    /**
+     * A document among the largest seen for the profile.
+     */
+    public static class LargeDocument
+    {
+        private final String documentId;
+        private final long itemBytes;
+
+        public LargeDocument(final String documentId, final long itemBytes)
+        {
+            this.documentId = documentId;
+            this.itemBytes = itemBytes;
+        }
+
+        public String getDocumentId()
+        {
+            return documentId;
+        }
+
+        public long getItemBytes()
+        {
+            return itemBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return documentId + "=" + itemBytes;
+        }
+    }
+
+    private final String actorType;
+    private final String stateClass;
+    private final long reads;
+    private final long writes;
+    private final double consumedReadCapacity;
+    private final double consumedWriteCapacity;
+    private final long medianItemBytes;
+    private final long p99ItemBytes;
+    private final long maxItemBytes;
+    private final List<LargeDocument> largestDocuments;
+
+    public DynamoDBCapacityProfile(final String actorType, final String stateClass, final long reads, final long writes,
+                                   final double consumedReadCapacity, final double consumedWriteCapacity,
+                                   final long medianItemBytes, final long p99ItemBytes, final long maxItemBytes,
+                                   final List<LargeDocument> largestDocuments)
+    {
+        this.actorType = actorType;
+        this.stateClass = stateClass;
+        this.reads = reads;
+        this.writes = writes;
+        this.consumedReadCapacity = consumedReadCapacity;
+        this.consumedWriteCapacity = consumedWriteCapacity;
+        this.medianItemBytes = medianItemBytes;
+        this.p99ItemBytes = p99ItemBytes;
+        this.maxItemBytes = maxItemBytes;
+        this.largestDocuments = largestDocuments;
+    }
+
+    public String getActorType()
+    {
+        return actorType;
+    }
+
+    public String getStateClass()
+    {
+        return stateClass;
+    }
+
+    /**
+     * Reads that found a state, including those served from caches.
+     */
+    public long getReads()
+    {
+        return reads;
+    }
+
+    public long getWrites()
+    {
+        return writes;
+    }
+
+    public double getConsumedReadCapacity()
+    {
+        return consumedReadCapacity;
+    }
+
+    public double getConsumedWriteCapacity()
+    {
+        return consumedWriteCapacity;
+    }
+
+    public long getMedianItemBytes()
+    {
+        return medianItemBytes;
+    }
+
+    public long getP99ItemBytes()
+    {
+        return p99ItemBytes;
+    }
+
+    public long getMaxItemBytes()
+    {
+        return maxItemBytes;
+    }
+
+    /**
+     * @return the largest documents, largest first
+     */
+    public List<LargeDocument> getLargestDocuments()
+    {
+        return largestDocuments;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s/%s: %d reads (%.1f RCU), %d writes (%.1f WCU), item bytes p50 %d p99 %d max %d, largest %s",
+                actorType, stateClass, reads, consumedReadCapacity, writes, consumedWriteCapacity,
+                medianItemBytes, p99ItemBytes, maxItemBytes, largestDocuments);
+    }
+}
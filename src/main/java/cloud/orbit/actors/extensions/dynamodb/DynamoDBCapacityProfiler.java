@@ -0,0 +1,420 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the capacity and item sizes of state reads and writes per actor interface and state class.
+ * <p>
+ * Recording only touches striped counters, and the largest documents are only locked for items larger than the
+ * smallest one already kept, so the cost on the hot path is the size estimate, which walks the item once.
+ */
+class DynamoDBCapacityProfiler
+{
+    final static private int SIZE_BUCKETS = 32;
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBCapacityProfiler.class);
+
+    /**
+     * The counters of one actor interface and state class.
+     */
+    static class Counters
+    {
+        private final String actorType;
+        private final String stateClass;
+        private final int largestDocumentCount;
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final DoubleAdder consumedReadCapacity = new DoubleAdder();
+        private final DoubleAdder consumedWriteCapacity = new DoubleAdder();
+        private final AtomicLongArray sizeBuckets = new AtomicLongArray(SIZE_BUCKETS);
+        private final LongAccumulator maxItemBytes = new LongAccumulator(Math::max, 0);
+        private final Map<String, Long> largestDocuments = new HashMap<>();
+        private volatile long largestDocumentsThreshold;
+
+        private Counters(final String actorType, final String stateClass, final int largestDocumentCount)
+        {
+            this.actorType = actorType;
+            this.stateClass = stateClass;
+            this.largestDocumentCount = largestDocumentCount;
+        }
+
+        public void recordRead(final String documentId, final long itemBytes)
+        {
+            reads.increment();
+            recordSize(documentId, itemBytes);
+        }
+
+        public void recordReadCapacity(final double capacityUnits)
+        {
+            consumedReadCapacity.add(capacityUnits);
+        }
+
+        public void recordWrite(final String documentId, final long itemBytes)
+        {
+            writes.increment();
+            recordSize(documentId, itemBytes);
+        }
+
+        public void recordWriteCapacity(final double capacityUnits)
+        {
+            consumedWriteCapacity.add(capacityUnits);
+        }
+
+        private void recordSize(final String documentId, final long itemBytes)
+        {
+            sizeBuckets.incrementAndGet(getSizeBucket(itemBytes));
+            maxItemBytes.accumulate(itemBytes);
+
+            if (largestDocumentCount > 0 && itemBytes > largestDocumentsThreshold)
+            {
+                synchronized (largestDocuments)
+                {
+                    largestDocuments.put(documentId, itemBytes);
+                    if (largestDocuments.size() > largestDocumentCount)
+                    {
+                        largestDocuments.remove(getSmallestDocument());
+                        largestDocumentsThreshold = largestDocuments.get(getSmallestDocument());
+                    }
+                }
+            }
+        }
+
+        private String getSmallestDocument()
+        {
+            String smallest = null;
+            for (final Map.Entry<String, Long> entry : largestDocuments.entrySet())
+            {
+                if (smallest == null || entry.getValue() < largestDocuments.get(smallest))
+                {
+                    smallest = entry.getKey();
+                }
+            }
+            return smallest;
+        }
+
+        private DynamoDBCapacityProfile toProfile()
+        {
+            final List<DynamoDBCapacityProfile.LargeDocument> largest = new ArrayList<>();
+            synchronized (largestDocuments)
+            {
+                largestDocuments.forEach((documentId, itemBytes) -> largest.add(new DynamoDBCapacityProfile.LargeDocument(documentId, itemBytes)));
+            }
+            largest.sort(Comparator.comparingLong(DynamoDBCapacityProfile.LargeDocument::getItemBytes).reversed());
+
+            return new DynamoDBCapacityProfile(actorType, stateClass, reads.sum(), writes.sum(),
+                    consumedReadCapacity.sum(), consumedWriteCapacity.sum(),
+                    getPercentileBytes(0.5), getPercentileBytes(0.99), maxItemBytes.get(), largest);
+        }
+
+        private long getPercentileBytes(final double percentile)
+        {
+            long total = 0;
+            for (int bucket = 0; bucket < SIZE_BUCKETS; bucket++)
+            {
+                total += sizeBuckets.get(bucket);
+            }
+            if (total == 0)
+            {
+                return 0;
+            }
+
+            final long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int bucket = 0; bucket < SIZE_BUCKETS; bucket++)
+            {
+                seen += sizeBuckets.get(bucket);
+                if (seen >= rank)
+                {
+                    return Math.min(1L << bucket, maxItemBytes.get());
+                }
+            }
+            return maxItemBytes.get();
+        }
+    }
+
+    private final int largestDocumentCount;
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, Counters>> counters = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> reporter;
+
+    DynamoDBCapacityProfiler(final int largestDocumentCount)
+    {
+        this.largestDocumentCount = largestDocumentCount;
+    }
+
+    /**
+     * Logs the profiles periodically, most expensive first.
+     *
+     * @param scheduler the scheduler of the connection, shared with its other delayed work
+     */
+    public void start(final ScheduledExecutorService scheduler, final long reportIntervalMillis)
+    {
+        if (reportIntervalMillis <= 0)
+        {
+            return;
+        }
+
+        reporter = scheduler.scheduleWithFixedDelay(this::report, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        if (reporter != null)
+        {
+            reporter.cancel(false);
+        }
+    }
+
+    public Counters getCounters(final Class<?> actorType, final Class<?> stateClass)
+    {
+        ConcurrentMap<Class<?>, Counters> byActorType = counters.get(stateClass);
+        if (byActorType == null)
+        {
+            byActorType = counters.computeIfAbsent(stateClass, key -> new ConcurrentHashMap<>());
+        }
+
+        final Counters existing = byActorType.get(actorType);
+        return existing != null
+                ? existing
+                : byActorType.computeIfAbsent(actorType, key -> new Counters(actorType.getName(), stateClass.getName(), largestDocumentCount));
+    }
+
+    /**
+     * @return the profiles, the one that consumed the most capacity first
+     */
+    public List<DynamoDBCapacityProfile> getProfiles()
+    {
+        final List<DynamoDBCapacityProfile> profiles = new ArrayList<>();
+        for (final ConcurrentMap<Class<?>, Counters> byActorType : counters.values())
+        {
+            for (final Counters profileCounters : byActorType.values())
+            {
+                profiles.add(profileCounters.toProfile());
+            }
+        }
+        profiles.sort(Comparator.comparingDouble((DynamoDBCapacityProfile profile) ->
+                profile.getConsumedReadCapacity() + profile.getConsumedWriteCapacity()).reversed());
+        return profiles;
+    }
+
+    private void report()
+    {
+        final List<DynamoDBCapacityProfile> profiles = getProfiles();
+        if (profiles.isEmpty())
+        {
+            return;
+        }
+
+        final StringBuilder report = new StringBuilder("DynamoDB capacity by actor type and state class:");
+        for (final DynamoDBCapacityProfile profile : profiles)
+        {
+            report.append(System.lineSeparator()).append("  ").append(profile);
+        }
+        logger.info(report.toString());
+    }
+
+    /**
+     * Estimates the size DynamoDB bills for an item, from the lengths of its attribute names and values.
+     */
+    static long estimateItemBytes(final Item item)
+    {
+        long bytes = 0;
+        for (final Map.Entry<String, Object> attribute : item.attributes())
+        {
+            bytes += utf8Length(attribute.getKey()) + estimateValueBytes(attribute.getValue());
+        }
+        return bytes;
+    }
+
+    static long estimateItemBytes(final Map<String, AttributeValue> attributes)
+    {
+        long bytes = 0;
+        for (final Map.Entry<String, AttributeValue> attribute : attributes.entrySet())
+        {
+            bytes += utf8Length(attribute.getKey()) + estimateAttributeValueBytes(attribute.getValue());
+        }
+        return bytes;
+    }
+
+    private static long estimateAttributeValueBytes(final AttributeValue value)
+    {
+        if (value.getS() != null)
+        {
+            return utf8Length(value.getS());
+        }
+        if (value.getN() != null)
+        {
+            return estimateValueBytes(new BigDecimal(value.getN()));
+        }
+        if (value.getB() != null)
+        {
+            return value.getB().remaining();
+        }
+        if (value.getSS() != null)
+        {
+            return estimateValueBytes(value.getSS());
+        }
+        if (value.getNS() != null)
+        {
+            long bytes = 0;
+            for (final String number : value.getNS())
+            {
+                bytes += estimateValueBytes(new BigDecimal(number));
+            }
+            return bytes;
+        }
+        if (value.getBS() != null)
+        {
+            return estimateValueBytes(value.getBS());
+        }
+        if (value.getM() != null)
+        {
+            long bytes = 3;
+            for (final Map.Entry<String, AttributeValue> entry : value.getM().entrySet())
+            {
+                bytes += 1 + utf8Length(entry.getKey()) + estimateAttributeValueBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value.getL() != null)
+        {
+            long bytes = 3;
+            for (final AttributeValue element : value.getL())
+            {
+                bytes += 1 + estimateAttributeValueBytes(element);
+            }
+            return bytes;
+        }
+        // booleans and nulls
+        return 1;
+    }
+
+    private static long estimateValueBytes(final Object value)
+    {
+        if (value == null || value instanceof Boolean)
+        {
+            return 1;
+        }
+        if (value instanceof String)
+        {
+            return utf8Length((String) value);
+        }
+        if (value instanceof Number)
+        {
+            // numbers are stored as base 100 digits plus a byte
+            final BigDecimal number = value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+            return (number.precision() + 1) / 2 + 1;
+        }
+        if (value instanceof byte[])
+        {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof ByteBuffer)
+        {
+            return ((ByteBuffer) value).remaining();
+        }
+        if (value instanceof Map)
+        {
+            // three bytes for the document, one per element
+            long bytes = 3;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+            {
+                bytes += 1 + utf8Length(String.valueOf(entry.getKey())) + estimateValueBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection)
+        {
+            // lists are documents, sets are the sum of their elements
+            long bytes = value instanceof List ? 3 : 0;
+            for (final Object element : (Collection<?>) value)
+            {
+                bytes += (value instanceof List ? 1 : 0) + estimateValueBytes(element);
+            }
+            return bytes;
+        }
+        return utf8Length(value.toString());
+    }
+
+    private static long utf8Length(final String value)
+    {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                bytes++;
+            }
+            else if (c < 0x800)
+            {
+                bytes += 2;
+            }
+            else if (Character.isHighSurrogate(c))
+            {
+                bytes += 4;
+                i++;
+            }
+            else
+            {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static int getSizeBucket(final long itemBytes)
+    {
+        // bucket b holds sizes up to 2^b
+        return itemBytes <= 1 ? 0 : Math.min(SIZE_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(itemBytes - 1));
+    }
+}
@@ -28,6 +28,12 @@
 
 package cloud.orbit.actors.extensions.dynamodb;
 
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
+
+import java.util.Collections;
+import java.util.List;
+
 public class DynamoDBConfiguration
 {
     public static class Builder
@@ -81,6 +87,300 @@ public class DynamoDBConfiguration
             return this;
         }
 
+        public Builder withShutdownTimeoutMillis(final long shutdownTimeoutMillis)
+        {
+            dynamoConfig.setShutdownTimeoutMillis(shutdownTimeoutMillis);
+            return this;
+        }
+
+        public Builder withExistenceFilterEnabled(final boolean existenceFilterEnabled)
+        {
+            dynamoConfig.setExistenceFilterEnabled(existenceFilterEnabled);
+            return this;
+        }
+
+        public Builder withExistenceFilterExpectedItems(final long existenceFilterExpectedItems)
+        {
+            dynamoConfig.setExistenceFilterExpectedItems(existenceFilterExpectedItems);
+            return this;
+        }
+
+        public Builder withExistenceFilterFalsePositiveRate(final double existenceFilterFalsePositiveRate)
+        {
+            dynamoConfig.setExistenceFilterFalsePositiveRate(existenceFilterFalsePositiveRate);
+            return this;
+        }
+
+        public Builder withExistenceFilterScanSegments(final int existenceFilterScanSegments)
+        {
+            dynamoConfig.setExistenceFilterScanSegments(existenceFilterScanSegments);
+            return this;
+        }
+
+        public Builder withExistenceFilterRefreshMillis(final long existenceFilterRefreshMillis)
+        {
+            dynamoConfig.setExistenceFilterRefreshMillis(existenceFilterRefreshMillis);
+            return this;
+        }
+
+        public Builder withExistenceFilterWritesAnnounced(final boolean existenceFilterWritesAnnounced)
+        {
+            dynamoConfig.setExistenceFilterWritesAnnounced(existenceFilterWritesAnnounced);
+            return this;
+        }
+
+        public Builder withExistenceFilterMaxStreamLagMillis(final long existenceFilterMaxStreamLagMillis)
+        {
+            dynamoConfig.setExistenceFilterMaxStreamLagMillis(existenceFilterMaxStreamLagMillis);
+            return this;
+        }
+
+        public Builder withOwningTypeIndexEnabled(final boolean owningTypeIndexEnabled)
+        {
+            dynamoConfig.setOwningTypeIndexEnabled(owningTypeIndexEnabled);
+            return this;
+        }
+
+        public Builder withOwningTypeIndexProjection(final ProjectionType owningTypeIndexProjection)
+        {
+            dynamoConfig.setOwningTypeIndexProjection(owningTypeIndexProjection);
+            return this;
+        }
+
+        public Builder withOwningTypeIndexAttributes(final List<String> owningTypeIndexAttributes)
+        {
+            dynamoConfig.setOwningTypeIndexAttributes(owningTypeIndexAttributes);
+            return this;
+        }
+
+        public Builder withKeyLayout(final DynamoDBKeyLayout keyLayout)
+        {
+            dynamoConfig.setKeyLayout(keyLayout);
+            return this;
+        }
+
+        public Builder withTableResolver(final DynamoDBTableResolver tableResolver)
+        {
+            dynamoConfig.setTableResolver(tableResolver);
+            return this;
+        }
+
+        public Builder withShardConnections(final List<DynamoDBConfiguration> shardConnections)
+        {
+            dynamoConfig.setShardConnections(shardConnections);
+            return this;
+        }
+
+        public Builder withLocalCacheDirectory(final String localCacheDirectory)
+        {
+            dynamoConfig.setLocalCacheDirectory(localCacheDirectory);
+            return this;
+        }
+
+        public Builder withLocalCacheMaxBytes(final long localCacheMaxBytes)
+        {
+            dynamoConfig.setLocalCacheMaxBytes(localCacheMaxBytes);
+            return this;
+        }
+
+        public Builder withLocalCacheSegmentBytes(final int localCacheSegmentBytes)
+        {
+            dynamoConfig.setLocalCacheSegmentBytes(localCacheSegmentBytes);
+            return this;
+        }
+
+        public Builder withLocalCacheCompactionMillis(final long localCacheCompactionMillis)
+        {
+            dynamoConfig.setLocalCacheCompactionMillis(localCacheCompactionMillis);
+            return this;
+        }
+
+        public Builder withLocalCacheMaxStreamLagMillis(final long localCacheMaxStreamLagMillis)
+        {
+            dynamoConfig.setLocalCacheMaxStreamLagMillis(localCacheMaxStreamLagMillis);
+            return this;
+        }
+
+        public Builder withGeneratedSerializersEnabled(final boolean generatedSerializersEnabled)
+        {
+            dynamoConfig.setGeneratedSerializersEnabled(generatedSerializersEnabled);
+            return this;
+        }
+
+        public Builder withGeneratedSerializerClasses(final List<Class<?>> generatedSerializerClasses)
+        {
+            dynamoConfig.setGeneratedSerializerClasses(generatedSerializerClasses);
+            return this;
+        }
+
+        public Builder withJournalDirectory(final String journalDirectory)
+        {
+            dynamoConfig.setJournalDirectory(journalDirectory);
+            return this;
+        }
+
+        public Builder withJournalSyncPolicy(final DynamoDBJournalSyncPolicy journalSyncPolicy)
+        {
+            dynamoConfig.setJournalSyncPolicy(journalSyncPolicy);
+            return this;
+        }
+
+        public Builder withJournalSyncIntervalMillis(final long journalSyncIntervalMillis)
+        {
+            dynamoConfig.setJournalSyncIntervalMillis(journalSyncIntervalMillis);
+            return this;
+        }
+
+        public Builder withJournalSegmentBytes(final long journalSegmentBytes)
+        {
+            dynamoConfig.setJournalSegmentBytes(journalSegmentBytes);
+            return this;
+        }
+
+        public Builder withStreamInvalidationEnabled(final boolean streamInvalidationEnabled)
+        {
+            dynamoConfig.setStreamInvalidationEnabled(streamInvalidationEnabled);
+            return this;
+        }
+
+        public Builder withStreamPollMillis(final long streamPollMillis)
+        {
+            dynamoConfig.setStreamPollMillis(streamPollMillis);
+            return this;
+        }
+
+        public Builder withStreamCheckpointDirectory(final String streamCheckpointDirectory)
+        {
+            dynamoConfig.setStreamCheckpointDirectory(streamCheckpointDirectory);
+            return this;
+        }
+
+        public Builder withCapacityProfilingEnabled(final boolean capacityProfilingEnabled)
+        {
+            dynamoConfig.setCapacityProfilingEnabled(capacityProfilingEnabled);
+            return this;
+        }
+
+        public Builder withCapacityReportMillis(final long capacityReportMillis)
+        {
+            dynamoConfig.setCapacityReportMillis(capacityReportMillis);
+            return this;
+        }
+
+        public Builder withCapacityProfileLargestDocuments(final int capacityProfileLargestDocuments)
+        {
+            dynamoConfig.setCapacityProfileLargestDocuments(capacityProfileLargestDocuments);
+            return this;
+        }
+
+        public Builder withTraceSampleRate(final double traceSampleRate)
+        {
+            dynamoConfig.setTraceSampleRate(traceSampleRate);
+            return this;
+        }
+
+        public Builder withTraceSink(final DynamoDBTraceSink traceSink)
+        {
+            dynamoConfig.setTraceSink(traceSink);
+            return this;
+        }
+
+        public Builder withHedgePercentile(final double hedgePercentile)
+        {
+            dynamoConfig.setHedgePercentile(hedgePercentile);
+            return this;
+        }
+
+        public Builder withHedgeMinDelayMillis(final long hedgeMinDelayMillis)
+        {
+            dynamoConfig.setHedgeMinDelayMillis(hedgeMinDelayMillis);
+            return this;
+        }
+
+        public Builder withHedgeBudgetPercent(final double hedgeBudgetPercent)
+        {
+            dynamoConfig.setHedgeBudgetPercent(hedgeBudgetPercent);
+            return this;
+        }
+
+        public Builder withReadTimeoutMillis(final long readTimeoutMillis)
+        {
+            dynamoConfig.setReadTimeoutMillis(readTimeoutMillis);
+            return this;
+        }
+
+        public Builder withWriteTimeoutMillis(final long writeTimeoutMillis)
+        {
+            dynamoConfig.setWriteTimeoutMillis(writeTimeoutMillis);
+            return this;
+        }
+
+        public Builder withClearTimeoutMillis(final long clearTimeoutMillis)
+        {
+            dynamoConfig.setClearTimeoutMillis(clearTimeoutMillis);
+            return this;
+        }
+
+        public Builder withTableResolveTimeoutMillis(final long tableResolveTimeoutMillis)
+        {
+            dynamoConfig.setTableResolveTimeoutMillis(tableResolveTimeoutMillis);
+            return this;
+        }
+
+        public Builder withMutationLogCompactRecords(final int mutationLogCompactRecords)
+        {
+            dynamoConfig.setMutationLogCompactRecords(mutationLogCompactRecords);
+            return this;
+        }
+
+        public Builder withMutationLogCompactBytes(final long mutationLogCompactBytes)
+        {
+            dynamoConfig.setMutationLogCompactBytes(mutationLogCompactBytes);
+            return this;
+        }
+
+        public Builder withMutationLogMaxCachedStates(final int mutationLogMaxCachedStates)
+        {
+            dynamoConfig.setMutationLogMaxCachedStates(mutationLogMaxCachedStates);
+            return this;
+        }
+
+        public Builder withSchemaRegistry(final DynamoDBSchemaRegistry schemaRegistry)
+        {
+            dynamoConfig.setSchemaRegistry(schemaRegistry);
+            return this;
+        }
+
+        public Builder withSchemaUpgradeUnitsPerSecond(final double schemaUpgradeUnitsPerSecond)
+        {
+            dynamoConfig.setSchemaUpgradeUnitsPerSecond(schemaUpgradeUnitsPerSecond);
+            return this;
+        }
+
+        public Builder withTypeCodes(final DynamoDBTypeCodes typeCodes)
+        {
+            dynamoConfig.setTypeCodes(typeCodes);
+            return this;
+        }
+
+        public Builder withLegacyDocumentIdsEnabled(final boolean legacyDocumentIdsEnabled)
+        {
+            dynamoConfig.setLegacyDocumentIdsEnabled(legacyDocumentIdsEnabled);
+            return this;
+        }
+
+        public Builder withTransport(final AmazonDynamoDBAsync transport)
+        {
+            dynamoConfig.setTransport(transport);
+            return this;
+        }
+
+        public Builder withFaultScenario(final DynamoDBFaultScenario faultScenario)
+        {
+            dynamoConfig.setFaultScenario(faultScenario);
+            return this;
+        }
+
         public DynamoDBConfiguration build()
         {
             return dynamoConfig;
@@ -94,6 +394,55 @@ public class DynamoDBConfiguration
     private String region;
     private String endpoint;
     private DynamoDBMapperConfigurer mapperConfigurer;
+    private long shutdownTimeoutMillis = 10000;
+    private boolean existenceFilterEnabled = false;
+    private long existenceFilterExpectedItems = 1000000;
+    private double existenceFilterFalsePositiveRate = 0.01;
+    private int existenceFilterScanSegments = 4;
+    private long existenceFilterRefreshMillis = 0;
+    private boolean existenceFilterWritesAnnounced = false;
+    private long existenceFilterMaxStreamLagMillis = 1000;
+    private boolean owningTypeIndexEnabled = false;
+    private ProjectionType owningTypeIndexProjection = ProjectionType.INCLUDE;
+    private List<String> owningTypeIndexAttributes = Collections.emptyList();
+    private DynamoDBKeyLayout keyLayout = DynamoDBKeyLayout.DOCUMENT_ID;
+    private DynamoDBTableResolver tableResolver = new DynamoDBDefaultTableResolver();
+    private List<DynamoDBConfiguration> shardConnections = Collections.emptyList();
+    private String localCacheDirectory;
+    private long localCacheMaxBytes = 1024L * 1024 * 1024;
+    private int localCacheSegmentBytes = 64 * 1024 * 1024;
+    private long localCacheCompactionMillis = 60000;
+    private long localCacheMaxStreamLagMillis = 0;
+    private boolean generatedSerializersEnabled = false;
+    private List<Class<?>> generatedSerializerClasses = Collections.emptyList();
+    private String journalDirectory;
+    private DynamoDBJournalSyncPolicy journalSyncPolicy = DynamoDBJournalSyncPolicy.EVERY_COMMIT;
+    private long journalSyncIntervalMillis = 100;
+    private long journalSegmentBytes = 64 * 1024 * 1024;
+    private boolean streamInvalidationEnabled = false;
+    private long streamPollMillis = 1000;
+    private String streamCheckpointDirectory;
+    private boolean capacityProfilingEnabled = false;
+    private long capacityReportMillis = 300000;
+    private int capacityProfileLargestDocuments = 10;
+    private double traceSampleRate = 0;
+    private DynamoDBTraceSink traceSink;
+    private double hedgePercentile = 0.95;
+    private long hedgeMinDelayMillis = 2;
+    private double hedgeBudgetPercent = 5;
+    private long readTimeoutMillis;
+    private long writeTimeoutMillis;
+    private long clearTimeoutMillis;
+    private long tableResolveTimeoutMillis;
+    private int mutationLogCompactRecords = 32;
+    private long mutationLogCompactBytes = 65536;
+    private int mutationLogMaxCachedStates = 10000;
+    private DynamoDBSchemaRegistry schemaRegistry = new DynamoDBSchemaRegistry();
+    private double schemaUpgradeUnitsPerSecond;
+    private DynamoDBTypeCodes typeCodes;
+    private boolean legacyDocumentIdsEnabled = true;
+    private AmazonDynamoDBAsync transport;
+    private DynamoDBFaultScenario faultScenario;
 
     public AmazonCredentialType getCredentialType()
     {
@@ -158,4 +507,677 @@ public class DynamoDBConfiguration
     public DynamoDBMapperConfigurer getMapperConfigurer() { return mapperConfigurer; }
 
     public void setMapperConfigurer(DynamoDBMapperConfigurer mapperConfigurer) { this.mapperConfigurer = mapperConfigurer; }
+
+    /**
+     * How long stop() waits for in-flight operations before abandoning them and closing the client.
+     */
+    public long getShutdownTimeoutMillis()
+    {
+        return shutdownTimeoutMillis;
+    }
+
+    public void setShutdownTimeoutMillis(final long shutdownTimeoutMillis)
+    {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    /**
+     * Keeps a per-table filter of the document ids that may exist, so reads of documents that were never persisted
+     * do not reach DynamoDB. The filter only sees this node's writes between refreshes, so when several nodes write
+     * the same table a refresh interval must be configured and reads may miss documents written by other nodes
+     * until the next refresh.
+     */
+    public boolean isExistenceFilterEnabled()
+    {
+        return existenceFilterEnabled;
+    }
+
+    public void setExistenceFilterEnabled(final boolean existenceFilterEnabled)
+    {
+        this.existenceFilterEnabled = existenceFilterEnabled;
+    }
+
+    public long getExistenceFilterExpectedItems()
+    {
+        return existenceFilterExpectedItems;
+    }
+
+    public void setExistenceFilterExpectedItems(final long existenceFilterExpectedItems)
+    {
+        this.existenceFilterExpectedItems = existenceFilterExpectedItems;
+    }
+
+    public double getExistenceFilterFalsePositiveRate()
+    {
+        return existenceFilterFalsePositiveRate;
+    }
+
+    public void setExistenceFilterFalsePositiveRate(final double existenceFilterFalsePositiveRate)
+    {
+        this.existenceFilterFalsePositiveRate = existenceFilterFalsePositiveRate;
+    }
+
+    /**
+     * Number of parallel scan segments used to seed and refresh the existence filter.
+     */
+    public int getExistenceFilterScanSegments()
+    {
+        return existenceFilterScanSegments;
+    }
+
+    public void setExistenceFilterScanSegments(final int existenceFilterScanSegments)
+    {
+        this.existenceFilterScanSegments = existenceFilterScanSegments;
+    }
+
+    /**
+     * Interval between rescans of the table into the existence filter, 0 to only scan once.
+     */
+    public long getExistenceFilterRefreshMillis()
+    {
+        return existenceFilterRefreshMillis;
+    }
+
+    public void setExistenceFilterRefreshMillis(final long existenceFilterRefreshMillis)
+    {
+        this.existenceFilterRefreshMillis = existenceFilterRefreshMillis;
+    }
+
+    /**
+     * Whether writes by other nodes to the documents this node reads are announced to it with
+     * {@link DynamoDBStorageExtension#announceExternalWrites}, for instance when actors move after a cluster membership
+     * change, or whether there are no other nodes. Misses of the existence filter are then trusted once a refresh
+     * started after the last announcement completes. Otherwise they are only trusted while the table's stream keeps
+     * the filter current, and checked against DynamoDB when neither holds.
+     */
+    public boolean isExistenceFilterWritesAnnounced()
+    {
+        return existenceFilterWritesAnnounced;
+    }
+
+    public void setExistenceFilterWritesAnnounced(final boolean existenceFilterWritesAnnounced)
+    {
+        this.existenceFilterWritesAnnounced = existenceFilterWritesAnnounced;
+    }
+
+    /**
+     * With stream invalidation enabled, how long beyond the stream poll interval after the table's stream was last
+     * read to its end misses of the existence filter are still trusted. Writes by other nodes within this lag, plus
+     * the stream's own delivery delay, may not be in the filter yet, so clusters whose actors move right after writing
+     * should announce their writes instead.
+     */
+    public long getExistenceFilterMaxStreamLagMillis()
+    {
+        return existenceFilterMaxStreamLagMillis;
+    }
+
+    public void setExistenceFilterMaxStreamLagMillis(final long existenceFilterMaxStreamLagMillis)
+    {
+        this.existenceFilterMaxStreamLagMillis = existenceFilterMaxStreamLagMillis;
+    }
+
+    /**
+     * Creates a global secondary index on the owning actor type, and adds it to existing tables that lack it,
+     * so {@link DynamoDBStorageExtension#queryActors} can enumerate the actors of one type without scanning the table.
+     * The index is built in the background when added to an existing table, and cannot be queried until it is active.
+     */
+    public boolean isOwningTypeIndexEnabled()
+    {
+        return owningTypeIndexEnabled;
+    }
+
+    public void setOwningTypeIndexEnabled(final boolean owningTypeIndexEnabled)
+    {
+        this.owningTypeIndexEnabled = owningTypeIndexEnabled;
+    }
+
+    /**
+     * Attributes copied into the owning type index. Unless {@link ProjectionType#ALL}, the index includes
+     * {@link DynamoDBUtils#FIELD_NAME_EXPIRES_AT} besides the keys and the configured attributes, so that expired
+     * states are skipped before DynamoDB deletes them; {@link ProjectionType#KEYS_ONLY} is treated as including it.
+     */
+    public ProjectionType getOwningTypeIndexProjection()
+    {
+        return owningTypeIndexProjection;
+    }
+
+    public void setOwningTypeIndexProjection(final ProjectionType owningTypeIndexProjection)
+    {
+        this.owningTypeIndexProjection = owningTypeIndexProjection;
+    }
+
+    /**
+     * Non-key attributes projected into the owning type index when the projection is {@link ProjectionType#INCLUDE}.
+     */
+    public List<String> getOwningTypeIndexAttributes()
+    {
+        return owningTypeIndexAttributes;
+    }
+
+    public void setOwningTypeIndexAttributes(final List<String> owningTypeIndexAttributes)
+    {
+        this.owningTypeIndexAttributes = owningTypeIndexAttributes;
+    }
+
+    /**
+     * Key schema of the tables the extension creates. Must match the schema of existing tables, since items are
+     * not migrated between layouts.
+     */
+    public DynamoDBKeyLayout getKeyLayout()
+    {
+        return keyLayout;
+    }
+
+    public void setKeyLayout(final DynamoDBKeyLayout keyLayout)
+    {
+        this.keyLayout = keyLayout;
+    }
+
+    /**
+     * Maps the default table and state collections to the physical tables and connections that store them.
+     */
+    public DynamoDBTableResolver getTableResolver()
+    {
+        return tableResolver;
+    }
+
+    public void setTableResolver(final DynamoDBTableResolver tableResolver)
+    {
+        this.tableResolver = tableResolver;
+    }
+
+    /**
+     * Connections to further endpoints or accounts that {@link #getTableResolver()} can place shards on, as
+     * connection indexes 1 and above. They must use the same key layout as this configuration.
+     */
+    public List<DynamoDBConfiguration> getShardConnections()
+    {
+        return shardConnections;
+    }
+
+    public void setShardConnections(final List<DynamoDBConfiguration> shardConnections)
+    {
+        this.shardConnections = shardConnections;
+    }
+
+    /**
+     * Directory of a node-local cache of serialized states that survives restarts, or null to disable it.
+     * Cached states are only used after a read of their version attribute confirms they are current, which
+     * saves transferring and deserializing the state but still costs the read capacity of the item.
+     */
+    public String getLocalCacheDirectory()
+    {
+        return localCacheDirectory;
+    }
+
+    public void setLocalCacheDirectory(final String localCacheDirectory)
+    {
+        this.localCacheDirectory = localCacheDirectory;
+    }
+
+    /**
+     * Disk budget of the local cache. The oldest segments are evicted once compaction cannot keep it under budget.
+     */
+    public long getLocalCacheMaxBytes()
+    {
+        return localCacheMaxBytes;
+    }
+
+    public void setLocalCacheMaxBytes(final long localCacheMaxBytes)
+    {
+        this.localCacheMaxBytes = localCacheMaxBytes;
+    }
+
+    /**
+     * Size of each memory-mapped segment file of the local cache. States larger than a segment are not cached.
+     */
+    public int getLocalCacheSegmentBytes()
+    {
+        return localCacheSegmentBytes;
+    }
+
+    public void setLocalCacheSegmentBytes(final int localCacheSegmentBytes)
+    {
+        this.localCacheSegmentBytes = localCacheSegmentBytes;
+    }
+
+    /**
+     * Interval between background compactions of the local cache, 0 to only compact when the disk budget is exceeded.
+     */
+    public long getLocalCacheCompactionMillis()
+    {
+        return localCacheCompactionMillis;
+    }
+
+    public void setLocalCacheCompactionMillis(final long localCacheCompactionMillis)
+    {
+        this.localCacheCompactionMillis = localCacheCompactionMillis;
+    }
+
+    /**
+     * With stream invalidation enabled, how long beyond the stream poll interval after the table's stream was last
+     * read to its end a locally cached state that was confirmed against DynamoDB since the stream was positioned is
+     * used without reading its version again. Such reads consume no capacity, but may miss writes by other nodes
+     * made within this lag. 0 to always confirm the version.
+     */
+    public long getLocalCacheMaxStreamLagMillis()
+    {
+        return localCacheMaxStreamLagMillis;
+    }
+
+    public void setLocalCacheMaxStreamLagMillis(final long localCacheMaxStreamLagMillis)
+    {
+        this.localCacheMaxStreamLagMillis = localCacheMaxStreamLagMillis;
+    }
+
+    /**
+     * Replaces reflective field and method access in state serializers with generated bytecode accessors.
+     * Private fields and properties with custom serializers, such as the empty value placeholders, keep the
+     * reflective path.
+     */
+    public boolean isGeneratedSerializersEnabled()
+    {
+        return generatedSerializersEnabled;
+    }
+
+    public void setGeneratedSerializersEnabled(final boolean generatedSerializersEnabled)
+    {
+        this.generatedSerializersEnabled = generatedSerializersEnabled;
+    }
+
+    /**
+     * State classes whose serializers are built when the connection is created instead of on their first use.
+     */
+    public List<Class<?>> getGeneratedSerializerClasses()
+    {
+        return generatedSerializerClasses;
+    }
+
+    public void setGeneratedSerializerClasses(final List<Class<?>> generatedSerializerClasses)
+    {
+        this.generatedSerializerClasses = generatedSerializerClasses;
+    }
+
+    /**
+     * Directory of the node's write-ahead journal for {@link DynamoDBStateConfiguration#writeBehind()} states,
+     * or null to disable write-behind. Unacknowledged writes found there are replayed when the extension starts.
+     */
+    public String getJournalDirectory()
+    {
+        return journalDirectory;
+    }
+
+    public void setJournalDirectory(final String journalDirectory)
+    {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public DynamoDBJournalSyncPolicy getJournalSyncPolicy()
+    {
+        return journalSyncPolicy;
+    }
+
+    public void setJournalSyncPolicy(final DynamoDBJournalSyncPolicy journalSyncPolicy)
+    {
+        this.journalSyncPolicy = journalSyncPolicy;
+    }
+
+    /**
+     * Longest time between syncs of the journal with {@link DynamoDBJournalSyncPolicy#INTERVAL}.
+     */
+    public long getJournalSyncIntervalMillis()
+    {
+        return journalSyncIntervalMillis;
+    }
+
+    public void setJournalSyncIntervalMillis(final long journalSyncIntervalMillis)
+    {
+        this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+    }
+
+    /**
+     * Size at which the journal starts a new segment. Segments are deleted once all of their writes are acknowledged.
+     */
+    public long getJournalSegmentBytes()
+    {
+        return journalSegmentBytes;
+    }
+
+    public void setJournalSegmentBytes(final long journalSegmentBytes)
+    {
+        this.journalSegmentBytes = journalSegmentBytes;
+    }
+
+    /**
+     * Enables a keys-only stream on the tables the extension uses, and tails it to invalidate this node's cached
+     * reads and to add documents written by other nodes to the existence filters.
+     */
+    public boolean isStreamInvalidationEnabled()
+    {
+        return streamInvalidationEnabled;
+    }
+
+    public void setStreamInvalidationEnabled(final boolean streamInvalidationEnabled)
+    {
+        this.streamInvalidationEnabled = streamInvalidationEnabled;
+    }
+
+    /**
+     * Interval between reads of each stream shard. Every node reads every shard, and DynamoDB Streams throttles shards
+     * read by more than two readers at a time, so the interval should grow with the number of nodes; throttled nodes
+     * back off on their own, at the cost of a larger lag.
+     */
+    public long getStreamPollMillis()
+    {
+        return streamPollMillis;
+    }
+
+    public void setStreamPollMillis(final long streamPollMillis)
+    {
+        this.streamPollMillis = streamPollMillis;
+    }
+
+    /**
+     * Directory where the position in each table's stream is kept, so a restarted node catches up on the changes
+     * it missed. Without it, a node starts at the end of the streams.
+     */
+    public String getStreamCheckpointDirectory()
+    {
+        return streamCheckpointDirectory;
+    }
+
+    public void setStreamCheckpointDirectory(final String streamCheckpointDirectory)
+    {
+        this.streamCheckpointDirectory = streamCheckpointDirectory;
+    }
+
+    /**
+     * Records the consumed capacity, item sizes and largest documents of state reads and writes per actor interface
+     * and state class, see {@link DynamoDBStorageExtension#getCapacityProfiles()}.
+     */
+    public boolean isCapacityProfilingEnabled()
+    {
+        return capacityProfilingEnabled;
+    }
+
+    public void setCapacityProfilingEnabled(final boolean capacityProfilingEnabled)
+    {
+        this.capacityProfilingEnabled = capacityProfilingEnabled;
+    }
+
+    /**
+     * Interval between logs of the capacity profiles, 0 to only expose them through the extension.
+     */
+    public long getCapacityReportMillis()
+    {
+        return capacityReportMillis;
+    }
+
+    public void setCapacityReportMillis(final long capacityReportMillis)
+    {
+        this.capacityReportMillis = capacityReportMillis;
+    }
+
+    /**
+     * Number of largest documents kept per profile.
+     */
+    public int getCapacityProfileLargestDocuments()
+    {
+        return capacityProfileLargestDocuments;
+    }
+
+    public void setCapacityProfileLargestDocuments(final int capacityProfileLargestDocuments)
+    {
+        this.capacityProfileLargestDocuments = capacityProfileLargestDocuments;
+    }
+
+    /**
+     * Fraction of readState, writeState and clearState operations traced to the trace sink, between 0 and 1.
+     */
+    public double getTraceSampleRate()
+    {
+        return traceSampleRate;
+    }
+
+    public void setTraceSampleRate(final double traceSampleRate)
+    {
+        this.traceSampleRate = traceSampleRate;
+    }
+
+    /**
+     * Receives the spans of sampled operations; tracing is disabled without one.
+     */
+    public DynamoDBTraceSink getTraceSink()
+    {
+        return traceSink;
+    }
+
+    public void setTraceSink(final DynamoDBTraceSink traceSink)
+    {
+        this.traceSink = traceSink;
+    }
+
+    /**
+     * Percentile of the recent read latencies of a table after which reads of states configured with
+     * {@link DynamoDBStateConfiguration#hedgeReads()} send a second request.
+     */
+    public double getHedgePercentile()
+    {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(final double hedgePercentile)
+    {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Lower bound of the delay before a hedge, so fast tables are not hedged on noise.
+     */
+    public long getHedgeMinDelayMillis()
+    {
+        return hedgeMinDelayMillis;
+    }
+
+    public void setHedgeMinDelayMillis(final long hedgeMinDelayMillis)
+    {
+        this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+    }
+
+    /**
+     * Maximum hedges as a percentage of hedged reads, with a burst of 10 hedges.
+     */
+    public double getHedgeBudgetPercent()
+    {
+        return hedgeBudgetPercent;
+    }
+
+    public void setHedgeBudgetPercent(final double hedgeBudgetPercent)
+    {
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+    }
+
+    /**
+     * Milliseconds a readState may take, table resolution and retries included, before it fails with a
+     * {@link DynamoDBTimeoutException}; 0 for no timeout. Overridden per state by
+     * {@link DynamoDBStateConfiguration#readTimeoutMillis()}.
+     */
+    public long getReadTimeoutMillis()
+    {
+        return readTimeoutMillis;
+    }
+
+    public void setReadTimeoutMillis(final long readTimeoutMillis)
+    {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Milliseconds a writeState may take before it fails with a {@link DynamoDBTimeoutException}; 0 for no timeout.
+     * A coalesced write whose callers have all timed out is dropped instead of sent. Overridden per state by
+     * {@link DynamoDBStateConfiguration#writeTimeoutMillis()}.
+     */
+    public long getWriteTimeoutMillis()
+    {
+        return writeTimeoutMillis;
+    }
+
+    public void setWriteTimeoutMillis(final long writeTimeoutMillis)
+    {
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    /**
+     * Milliseconds a clearState may take before it fails with a {@link DynamoDBTimeoutException}; 0 for no timeout.
+     * Overridden per state by {@link DynamoDBStateConfiguration#clearTimeoutMillis()}.
+     */
+    public long getClearTimeoutMillis()
+    {
+        return clearTimeoutMillis;
+    }
+
+    public void setClearTimeoutMillis(final long clearTimeoutMillis)
+    {
+        this.clearTimeoutMillis = clearTimeoutMillis;
+    }
+
+    /**
+     * Milliseconds a state operation waits for its table to be described or created; 0 for no timeout.
+     */
+    public long getTableResolveTimeoutMillis()
+    {
+        return tableResolveTimeoutMillis;
+    }
+
+    public void setTableResolveTimeoutMillis(final long tableResolveTimeoutMillis)
+    {
+        this.tableResolveTimeoutMillis = tableResolveTimeoutMillis;
+    }
+
+    /**
+     * Patches a mutation-logged state accumulates before its next write is a new snapshot,
+     * see {@link DynamoDBStateConfiguration#mutationLog()}.
+     */
+    public int getMutationLogCompactRecords()
+    {
+        return mutationLogCompactRecords;
+    }
+
+    public void setMutationLogCompactRecords(final int mutationLogCompactRecords)
+    {
+        this.mutationLogCompactRecords = mutationLogCompactRecords;
+    }
+
+    /**
+     * Bytes of patches a mutation-logged state accumulates before its next write is a new snapshot.
+     */
+    public long getMutationLogCompactBytes()
+    {
+        return mutationLogCompactBytes;
+    }
+
+    public void setMutationLogCompactBytes(final long mutationLogCompactBytes)
+    {
+        this.mutationLogCompactBytes = mutationLogCompactBytes;
+    }
+
+    /**
+     * Mutation-logged states whose last persisted version a node keeps to diff writes against. A write of a
+     * state that is not kept first queries it.
+     */
+    public int getMutationLogMaxCachedStates()
+    {
+        return mutationLogMaxCachedStates;
+    }
+
+    public void setMutationLogMaxCachedStates(final int mutationLogMaxCachedStates)
+    {
+        this.mutationLogMaxCachedStates = mutationLogMaxCachedStates;
+    }
+
+    /**
+     * The upcasters converting states persisted in an older schema version, see
+     * {@link DynamoDBStateConfiguration#schemaVersion()}.
+     */
+    public DynamoDBSchemaRegistry getSchemaRegistry()
+    {
+        return schemaRegistry;
+    }
+
+    public void setSchemaRegistry(final DynamoDBSchemaRegistry schemaRegistry)
+    {
+        this.schemaRegistry = schemaRegistry;
+    }
+
+    /**
+     * Write capacity units per second spent rewriting states that were read in an older schema version, in their
+     * current shape; 0 to only rewrite them on their next write. The rewrite is skipped if the state was written since.
+     */
+    public double getSchemaUpgradeUnitsPerSecond()
+    {
+        return schemaUpgradeUnitsPerSecond;
+    }
+
+    public void setSchemaUpgradeUnitsPerSecond(final double schemaUpgradeUnitsPerSecond)
+    {
+        this.schemaUpgradeUnitsPerSecond = schemaUpgradeUnitsPerSecond;
+    }
+
+    /**
+     * When set, document ids and the owning type attribute hold short type codes instead of actor interface names.
+     * Items written with the names are still read while {@link #isLegacyDocumentIdsEnabled legacy document ids are
+     * enabled}, and are replaced by items with codes when they are read. Null to always write the names.
+     */
+    public DynamoDBTypeCodes getTypeCodes()
+    {
+        return typeCodes;
+    }
+
+    public void setTypeCodes(final DynamoDBTypeCodes typeCodes)
+    {
+        this.typeCodes = typeCodes;
+    }
+
+    /**
+     * Whether states are still looked up under the document id they had before type codes were enabled when their
+     * document is missing, and those documents deleted when the states are cleared. Each read miss and clear then
+     * costs a second request, so turn this off once every legacy document has been read, and thereby migrated.
+     */
+    public boolean isLegacyDocumentIdsEnabled()
+    {
+        return legacyDocumentIdsEnabled;
+    }
+
+    public void setLegacyDocumentIdsEnabled(final boolean legacyDocumentIdsEnabled)
+    {
+        this.legacyDocumentIdsEnabled = legacyDocumentIdsEnabled;
+    }
+
+    /**
+     * Client the connections use instead of one built from the credentials, region and endpoint, such as the
+     * in-memory transport of the tests. Null to connect to DynamoDB.
+     */
+    public AmazonDynamoDBAsync getTransport()
+    {
+        return transport;
+    }
+
+    public void setTransport(final AmazonDynamoDBAsync transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Faults injected into the requests of the connections' client, for benchmarking and testing behaviour
+     * under latency, throttling and errors. Null to inject none.
+     */
+    public DynamoDBFaultScenario getFaultScenario()
+    {
+        return faultScenario;
+    }
+
+    public void setFaultScenario(final DynamoDBFaultScenario faultScenario)
+    {
+        this.faultScenario = faultScenario;
+    }
 }
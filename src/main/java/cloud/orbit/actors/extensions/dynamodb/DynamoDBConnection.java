@@ -33,7 +33,9 @@ import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
@@ -47,6 +49,7 @@ import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 
 import cloud.orbit.actors.extensions.json.ActorReferenceModule;
 import cloud.orbit.actors.runtime.DefaultDescriptorFactory;
@@ -55,6 +58,8 @@ import cloud.orbit.util.StringUtils;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class DynamoDBConnection
 {
@@ -64,21 +69,47 @@ public class DynamoDBConnection
     final static public byte[] EMPTY_BYTE_ARRAY_PLACEHOLDER = "OrbitEmptyByteArray.a643e4a1-96dc-45b3-9606-479bae6bb3f2".getBytes();
 
     // Dynamo
-    private AmazonDynamoDBAsyncClient dynamoClient;
+    private AmazonDynamoDBAsync dynamoClient;
+    private AmazonDynamoDBAsyncClient createdClient;
     private DynamoDB dynamoDB;
 
     private ObjectMapper mapper;
 
     private UUID connectionId;
 
+    private DynamoDBConfiguration dynamoDBConfiguration;
+
+    private ScheduledExecutorService scheduler;
+
+    private AmazonDynamoDBStreamsClient streamsClient;
+
     public DynamoDBConnection(final DynamoDBConfiguration dynamoDBConfiguration)
     {
         connectionId = UUID.randomUUID();
+        this.dynamoDBConfiguration = dynamoDBConfiguration;
         initializeDynamoDB(dynamoDBConfiguration);
         initializeMapper(dynamoDBConfiguration);
     }
 
+    /**
+     * @return the client this connection built from the credentials, region and endpoint; requests sent through it
+     * bypass an injected fault scenario
+     * @throws IllegalStateException if the connection uses a configured transport, see {@link #getAsyncClient()}
+     */
     public AmazonDynamoDBAsyncClient getDynamoClient()
+    {
+        if (createdClient == null)
+        {
+            throw new IllegalStateException("The connection uses a configured transport, use getAsyncClient()");
+        }
+        return createdClient;
+    }
+
+    /**
+     * @return the client requests of this connection go through: the configured transport or the client built for
+     * the connection, wrapped by the fault scenario if there is one
+     */
+    public AmazonDynamoDBAsync getAsyncClient()
     {
         return dynamoClient;
     }
@@ -93,6 +124,66 @@ public class DynamoDBConnection
         return mapper;
     }
 
+    public DynamoDBConfiguration getConfiguration()
+    {
+        return dynamoDBConfiguration;
+    }
+
+    /**
+     * Scheduler for delayed work such as retry backoff, created on first use.
+     */
+    public synchronized ScheduledExecutorService getScheduler()
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                final Thread thread = new Thread(runnable, "orbit-dynamodb-scheduler-" + connectionId);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Client of the tables' change streams, created on first use with the credentials, region and endpoint of the connection.
+     */
+    public synchronized AmazonDynamoDBStreamsClient getStreamsClient()
+    {
+        if (streamsClient == null)
+        {
+            switch (dynamoDBConfiguration.getCredentialType())
+            {
+                case BASIC_CREDENTIALS:
+                    streamsClient = new AmazonDynamoDBStreamsClient(new BasicAWSCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey()));
+                    break;
+
+                case BASIC_SESSION_CREDENTIALS:
+                    streamsClient = new AmazonDynamoDBStreamsClient(new BasicSessionCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey(), dynamoDBConfiguration.getSessionToken()));
+                    break;
+
+                case DEFAULT_PROVIDER_CHAIN:
+                default:
+                    streamsClient = new AmazonDynamoDBStreamsClient(new DefaultAWSCredentialsProviderChain());
+                    break;
+            }
+
+            String awsRegion = StringUtils.defaultIfBlank(dynamoDBConfiguration.getRegion(), AWSConfigValue.getRegion());
+            if (StringUtils.isNotBlank(awsRegion))
+            {
+                streamsClient.setRegion(Region.getRegion(Regions.fromName(awsRegion)));
+            }
+
+            // DynamoDB Local serves streams on the table endpoint
+            if (StringUtils.isNotBlank(dynamoDBConfiguration.getEndpoint()))
+            {
+                streamsClient.setEndpoint(dynamoDBConfiguration.getEndpoint());
+            }
+        }
+        return streamsClient;
+    }
+
     private void initializeMapper(DynamoDBConfiguration dynamoDBConfiguration)
     {
         final SimpleModule serializersModule = createSerializersForMapper();
@@ -102,6 +193,12 @@ public class DynamoDBConnection
         mapper.registerModule(new ActorReferenceModule(DefaultDescriptorFactory.get()));
         mapper.registerModule(serializersModule);
 
+        if (dynamoDBConfiguration.isGeneratedSerializersEnabled())
+        {
+            // properties it cannot optimize, including those using the placeholder serializers, stay reflective
+            mapper.registerModule(new AfterburnerModule());
+        }
+
         mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 
         mapper.setVisibility(mapper.getSerializationConfig().getDefaultVisibilityChecker()
@@ -116,6 +213,13 @@ public class DynamoDBConnection
         if (dynamoDBConfiguration.getMapperConfigurer() != null) {
             mapper = dynamoDBConfiguration.getMapperConfigurer().configure(mapper);
         }
+
+        for (final Class<?> stateClass : dynamoDBConfiguration.getGeneratedSerializerClasses())
+        {
+            // eager fetching is on by default, so creating the writer and reader builds the serializers
+            mapper.writerFor(stateClass);
+            mapper.readerFor(stateClass);
+        }
     }
 
     /**
@@ -189,38 +293,80 @@ public class DynamoDBConnection
 
     private void initializeDynamoDB(final DynamoDBConfiguration dynamoDBConfiguration)
     {
+        if (dynamoDBConfiguration.getTransport() == null)
+        {
+            createdClient = createClient(dynamoDBConfiguration);
+        }
+        final AmazonDynamoDBAsync client = createdClient != null ? createdClient : dynamoDBConfiguration.getTransport();
+        dynamoClient = dynamoDBConfiguration.getFaultScenario() != null
+                ? new DynamoDBFaultInjectingClient(client, dynamoDBConfiguration.getFaultScenario()) : client;
+        dynamoDB = new DynamoDB(dynamoClient);
+    }
+
+    private AmazonDynamoDBAsyncClient createClient(final DynamoDBConfiguration dynamoDBConfiguration)
+    {
+        final AmazonDynamoDBAsyncClient client;
         switch (dynamoDBConfiguration.getCredentialType())
         {
             case BASIC_CREDENTIALS:
-                dynamoClient = new AmazonDynamoDBAsyncClient(new BasicAWSCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey()));
+                client = new AmazonDynamoDBAsyncClient(new BasicAWSCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey()));
                 break;
 
             case BASIC_SESSION_CREDENTIALS:
-                dynamoClient = new AmazonDynamoDBAsyncClient(new BasicSessionCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey(), dynamoDBConfiguration.getSessionToken()));
+                client = new AmazonDynamoDBAsyncClient(new BasicSessionCredentials(dynamoDBConfiguration.getAccessKey(), dynamoDBConfiguration.getSecretKey(), dynamoDBConfiguration.getSessionToken()));
                 break;
 
             case DEFAULT_PROVIDER_CHAIN:
             default:
-                dynamoClient = new AmazonDynamoDBAsyncClient(new DefaultAWSCredentialsProviderChain());
+                client = new AmazonDynamoDBAsyncClient(new DefaultAWSCredentialsProviderChain());
                 break;
         }
 
         String awsRegion = StringUtils.defaultIfBlank(dynamoDBConfiguration.getRegion(), AWSConfigValue.getRegion());
         if (StringUtils.isNotBlank(awsRegion))
         {
-            dynamoClient.setRegion(Region.getRegion(Regions.fromName(awsRegion)));
+            client.setRegion(Region.getRegion(Regions.fromName(awsRegion)));
         }
 
         if (StringUtils.isNotBlank(dynamoDBConfiguration.getEndpoint()))
         {
-            dynamoClient.setEndpoint(dynamoDBConfiguration.getEndpoint());
+            client.setEndpoint(dynamoDBConfiguration.getEndpoint());
         }
 
-        dynamoDB = new DynamoDB(dynamoClient);
+        return client;
     }
 
     public UUID getConnectionId()
     {
         return connectionId;
     }
+
+    /**
+     * Releases the thread and connection pools of the client this connection built, and evicts the tables cached for
+     * this connection. A configured transport belongs to the caller and is left running.
+     */
+    public void close()
+    {
+        DynamoDBUtils.evictTables(this);
+        if (dynamoClient instanceof DynamoDBFaultInjectingClient)
+        {
+            ((DynamoDBFaultInjectingClient) dynamoClient).stopInjecting();
+        }
+        if (createdClient != null)
+        {
+            createdClient.shutdown();
+        }
+
+        synchronized (this)
+        {
+            if (scheduler != null)
+            {
+                scheduler.shutdownNow();
+            }
+            if (streamsClient != null)
+            {
+                streamsClient.shutdown();
+            }
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A connection used by the storage extension, with the collaborators that batch and coalesce its requests.
+ */
+class DynamoDBConnectionContext
+{
+    private final DynamoDBConnection dynamoDBConnection;
+    private final DynamoDBWriteCoalescer writeCoalescer;
+    private final DynamoDBReadCoalescer readCoalescer;
+    private final DynamoDBBatchExecutor batchExecutor;
+    private final DynamoDBMutationLog mutationLog;
+    private final ConcurrentMap<String, DynamoDBExistenceFilter> existenceFilters = new ConcurrentHashMap<>();
+    private volatile DynamoDBStreamConsumer streamConsumer;
+
+    DynamoDBConnectionContext(final DynamoDBConnection dynamoDBConnection)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.writeCoalescer = new DynamoDBWriteCoalescer(dynamoDBConnection);
+        this.readCoalescer = new DynamoDBReadCoalescer(dynamoDBConnection);
+        this.batchExecutor = new DynamoDBBatchExecutor(dynamoDBConnection);
+        this.mutationLog = new DynamoDBMutationLog(dynamoDBConnection, batchExecutor);
+    }
+
+    public DynamoDBConnection getConnection()
+    {
+        return dynamoDBConnection;
+    }
+
+    public DynamoDBWriteCoalescer getWriteCoalescer()
+    {
+        return writeCoalescer;
+    }
+
+    public DynamoDBReadCoalescer getReadCoalescer()
+    {
+        return readCoalescer;
+    }
+
+    public DynamoDBBatchExecutor getBatchExecutor()
+    {
+        return batchExecutor;
+    }
+
+    public DynamoDBMutationLog getMutationLog()
+    {
+        return mutationLog;
+    }
+
+    /**
+     * Existence filters by table name.
+     */
+    public ConcurrentMap<String, DynamoDBExistenceFilter> getExistenceFilters()
+    {
+        return existenceFilters;
+    }
+
+    /**
+     * @return the consumer tailing the streams of the connection's tables, or null without stream invalidation
+     */
+    public DynamoDBStreamConsumer getStreamConsumer()
+    {
+        return streamConsumer;
+    }
+
+    public void setStreamConsumer(final DynamoDBStreamConsumer streamConsumer)
+    {
+        this.streamConsumer = streamConsumer;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.AmazonWebServiceRequest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time after which the caller of a storage operation has given up on it, so requests still to be
+ * sent for it are dropped and requests in flight are abandoned by the client.
+ */
+final class DynamoDBDeadline
+{
+    static final DynamoDBDeadline NONE = new DynamoDBDeadline(0, 0);
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+
+    private DynamoDBDeadline(final long timeoutMillis, final long deadlineNanos)
+    {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeoutMillis 0 or less for no deadline
+     */
+    static DynamoDBDeadline after(final long timeoutMillis)
+    {
+        return timeoutMillis > 0 ? new DynamoDBDeadline(timeoutMillis, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) : NONE;
+    }
+
+    public boolean isBounded()
+    {
+        return timeoutMillis > 0;
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    public boolean isExpired()
+    {
+        return isBounded() && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    public long getRemainingMillis()
+    {
+        return isBounded() ? Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime())) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return whichever of the deadlines leaves more time, as a write coalescing several callers must honour the last of them
+     */
+    public DynamoDBDeadline latest(final DynamoDBDeadline other)
+    {
+        if (!isBounded() || !other.isBounded())
+        {
+            return NONE;
+        }
+        return deadlineNanos - other.deadlineNanos >= 0 ? this : other;
+    }
+
+    /**
+     * Bounds the client's execution of the request, retries included, by the time left.
+     */
+    public <T extends AmazonWebServiceRequest> T apply(final T request)
+    {
+        if (isBounded())
+        {
+            request.setSdkClientExecutionTimeout((int) Math.max(1, Math.min(Integer.MAX_VALUE, getRemainingMillis())));
+        }
+        return request;
+    }
+
+    /**
+     * @throws DynamoDBTimeoutException if the deadline has passed
+     */
+    public void check(final String operation)
+    {
+        if (isExpired())
+        {
+            throw new DynamoDBTimeoutException(operation, timeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stores each logical table in a physical table of the same name on the extension's own connection.
+ */
+public class DynamoDBDefaultTableResolver implements DynamoDBTableResolver
+{
+    private final ConcurrentMap<String, List<DynamoDBTableShard>> shards = new ConcurrentHashMap<>();
+
+    @Override
+    public DynamoDBTableShard resolve(final String logicalTableName, final String actorId)
+    {
+        return getShards(logicalTableName).get(0);
+    }
+
+    @Override
+    public List<DynamoDBTableShard> getShards(final String logicalTableName)
+    {
+        final List<DynamoDBTableShard> tableShards = shards.get(logicalTableName);
+        return tableShards != null ? tableShards : shards.computeIfAbsent(logicalTableName, DynamoDBDefaultTableResolver::createShards);
+    }
+
+    private static List<DynamoDBTableShard> createShards(final String logicalTableName)
+    {
+        return Collections.singletonList(new DynamoDBTableShard(logicalTableName, 0));
+    }
+}
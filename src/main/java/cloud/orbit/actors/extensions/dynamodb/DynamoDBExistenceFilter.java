@@ -0,0 +1,289 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tracks which document ids may exist in a table, so reads of documents that were never persisted can skip the network.
+ * The filter is seeded by a parallel key-only scan and updated by this node's writes. Until the first scan
+ * completes every document is assumed to exist.
+ * <p>
+ * Writes made by other nodes reach the filter through the table's stream, or through a refresh that rescans the table.
+ * A miss is only trusted while one of them keeps the filter current: the stream was positioned before the scan the
+ * filter came from started and was read to its end recently, or the scan started after the last announced write by
+ * another node. Otherwise the document is assumed to exist and read from the table, so a document persisted elsewhere
+ * is never taken for a new one. Refreshing only ever adds ids, so cleared documents remain false positives until the
+ * node restarts.
+ */
+class DynamoDBExistenceFilter
+{
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBExistenceFilter.class);
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final DynamoDBConfiguration dynamoDBConfiguration;
+    private final String tableName;
+    private final DynamoDBStreamConsumer streamConsumer;
+
+    // writes hold the read lock so a refresh cannot swap filters between their updates of the current and the next filter
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private volatile DynamoDBBloomFilter filter;
+    private volatile DynamoDBBloomFilter rebuilding;
+    private Task<Void> refresh;
+    private volatile long refreshStartedAtMillis;
+    private volatile long filterStartedAtMillis;
+    private volatile long filterAnnouncement;
+    private final AtomicLong announcements = new AtomicLong();
+
+    /**
+     * @param streamConsumer the consumer tailing the table's stream, or null without stream invalidation
+     */
+    DynamoDBExistenceFilter(final DynamoDBConnection dynamoDBConnection, final DynamoDBConfiguration dynamoDBConfiguration, final String tableName,
+                            final DynamoDBStreamConsumer streamConsumer)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.dynamoDBConfiguration = dynamoDBConfiguration;
+        this.tableName = tableName;
+        this.streamConsumer = streamConsumer;
+    }
+
+    /**
+     * Starts seeding the filter and schedules its periodic refresh. A filter fed by the stream is only seeded once
+     * the stream is positioned, as a scan before then could miss the writes made in between.
+     */
+    public void start()
+    {
+        if (!isStreamFed())
+        {
+            refresh();
+        }
+
+        final long refreshMillis = dynamoDBConfiguration.getExistenceFilterRefreshMillis();
+        if (refreshMillis > 0)
+        {
+            dynamoDBConnection.getScheduler().scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean mightExist(final String itemId)
+    {
+        // checked first, as it also seeds a stream-fed filter once the stream is positioned
+        if (!isCurrent())
+        {
+            return true;
+        }
+        final DynamoDBBloomFilter current = filter;
+        return current == null || current.mightContain(itemId);
+    }
+
+    /**
+     * Notes that other nodes may have written to the table, so misses are not trusted until a refresh that started
+     * afterwards completes.
+     *
+     * @return completes with that refresh
+     */
+    public Task<Void> announceExternalWrites()
+    {
+        final long announcement = announcements.incrementAndGet();
+        // a refresh already in progress may have scanned past the announced writes, so another one may be needed
+        return refresh().thenCompose(ignored -> filterAnnouncement >= announcement ? Task.done() : refresh());
+    }
+
+    private boolean isCurrent()
+    {
+        if (dynamoDBConfiguration.isExistenceFilterWritesAnnounced())
+        {
+            return filterAnnouncement == announcements.get();
+        }
+        if (!isStreamFed())
+        {
+            return false;
+        }
+
+        final long positionedAtMillis = streamConsumer.getPositionedAtMillis(tableName);
+        if (positionedAtMillis == 0)
+        {
+            return false;
+        }
+        if (positionedAtMillis >= filterStartedAtMillis)
+        {
+            // the stream was (re)positioned after the scan started, writes in between may have been missed
+            if (positionedAtMillis >= refreshStartedAtMillis)
+            {
+                refresh();
+            }
+            return false;
+        }
+
+        final long caughtUpForMillis = System.currentTimeMillis() - streamConsumer.getCaughtUpAtMillis(tableName);
+        return caughtUpForMillis <= dynamoDBConfiguration.getStreamPollMillis() + dynamoDBConfiguration.getExistenceFilterMaxStreamLagMillis();
+    }
+
+    private boolean isStreamFed()
+    {
+        return streamConsumer != null && !dynamoDBConfiguration.isExistenceFilterWritesAnnounced();
+    }
+
+    public void recordExistence(final String itemId)
+    {
+        swapLock.readLock().lock();
+        try
+        {
+            final DynamoDBBloomFilter current = filter;
+            if (current != null)
+            {
+                current.put(itemId);
+            }
+
+            final DynamoDBBloomFilter next = rebuilding;
+            if (next != null)
+            {
+                next.put(itemId);
+            }
+        }
+        finally
+        {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rescans the table and replaces the filter, joining the refresh in progress if there is one.
+     */
+    public synchronized Task<Void> refresh()
+    {
+        if (refresh != null && !refresh.isDone())
+        {
+            return refresh;
+        }
+
+        final long startedAtMillis = System.currentTimeMillis();
+        final long announcement = announcements.get();
+        refreshStartedAtMillis = startedAtMillis;
+
+        final DynamoDBBloomFilter next = new DynamoDBBloomFilter(
+                dynamoDBConfiguration.getExistenceFilterExpectedItems(),
+                dynamoDBConfiguration.getExistenceFilterFalsePositiveRate());
+
+        swapLock.writeLock().lock();
+        try
+        {
+            rebuilding = next;
+        }
+        finally
+        {
+            swapLock.writeLock().unlock();
+        }
+
+        final int totalSegments = Math.max(1, dynamoDBConfiguration.getExistenceFilterScanSegments());
+        final List<Task<Void>> segments = new ArrayList<>(totalSegments);
+        for (int segment = 0; segment < totalSegments; segment++)
+        {
+            segments.add(scanSegment(next, segment, totalSegments, null));
+        }
+
+        refresh = Task.allOf(segments)
+                .thenApply(ignored ->
+                {
+                    swapLock.writeLock().lock();
+                    try
+                    {
+                        if (filter != null)
+                        {
+                            next.putAll(filter);
+                        }
+                        filter = next;
+                        filterStartedAtMillis = startedAtMillis;
+                        filterAnnouncement = announcement;
+                        rebuilding = null;
+                    }
+                    finally
+                    {
+                        swapLock.writeLock().unlock();
+                    }
+                    return (Void) null;
+                })
+                .exceptionally(error ->
+                {
+                    // keep serving from the previous filter, or from the table if there is none yet
+                    logger.warn("Failed to refresh the existence filter of table " + tableName, error);
+                    rebuilding = null;
+                    return null;
+                });
+
+        return refresh;
+    }
+
+    private Task<Void> scanSegment(final DynamoDBBloomFilter next, final int segment, final int totalSegments, final Map<String, AttributeValue> exclusiveStartKey)
+    {
+        final Map<String, String> keyAttributeNames = new HashMap<>();
+        keyAttributeNames.put("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID);
+        keyAttributeNames.put("#decoration", DynamoDBUtils.FIELD_NAME_DECORATION);
+
+        final ScanRequest scanRequest = new ScanRequest()
+                .withTableName(tableName)
+                .withProjectionExpression("#id, #decoration")
+                .withExpressionAttributeNames(keyAttributeNames)
+                .withConsistentRead(true)
+                .withSegment(segment)
+                .withTotalSegments(totalSegments)
+                .withExclusiveStartKey(exclusiveStartKey);
+
+        return DynamoDBUtils.scan(dynamoDBConnection, scanRequest)
+                .thenCompose(result ->
+                {
+                    for (final Map<String, AttributeValue> key : result.getItems())
+                    {
+                        next.put(DynamoDBUtils.getDocumentId(dynamoDBConnection, key));
+                    }
+
+                    if (result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty())
+                    {
+                        return Task.done();
+                    }
+
+                    return scanSegment(next, segment, totalSegments, result.getLastEvaluatedKey());
+                });
+    }
+}
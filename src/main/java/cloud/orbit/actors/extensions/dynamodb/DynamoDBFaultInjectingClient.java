@@ -0,0 +1,706 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Decorates a client with the faults of a {@link DynamoDBFaultScenario}: added latency, slow responses, throttling,
+ * server errors, connection resets and unprocessed batch items. Set {@link DynamoDBConfiguration#setFaultScenario}
+ * to have connections wrap their client, whether built or a {@link DynamoDBConfiguration#getTransport() transport}.
+ * <p>
+ * Faults are decided when a request is made, from the profile in effect at that time, and only item operations are
+ * affected; table management passes through unchanged. Connection resets are raised after the request was applied,
+ * the worst case for a caller that retries.
+ */
+public class DynamoDBFaultInjectingClient extends AbstractAmazonDynamoDBAsync
+{
+    private static class Injection
+    {
+        private static final Injection NONE = new Injection(0, null, false, null);
+
+        private final long delayMillis;
+        private final RuntimeException failure;
+        private final boolean failureAfterSending;
+        private final boolean[] unprocessed;
+
+        Injection(final long delayMillis, final RuntimeException failure, final boolean failureAfterSending, final boolean[] unprocessed)
+        {
+            this.delayMillis = delayMillis;
+            this.failure = failure;
+            this.failureAfterSending = failureAfterSending;
+            this.unprocessed = unprocessed;
+        }
+    }
+
+    private final AmazonDynamoDBAsync delegate;
+    private final DynamoDBFaultScenario scenario;
+    private final Random random;
+    private final long startNanos = System.nanoTime();
+    private final Map<DynamoDBFault, LongAdder> injectedFaults = new EnumMap<>(DynamoDBFault.class);
+    private ScheduledExecutorService scheduler;
+
+    public DynamoDBFaultInjectingClient(final AmazonDynamoDBAsync delegate, final DynamoDBFaultScenario scenario)
+    {
+        this.delegate = delegate;
+        this.scenario = scenario;
+        this.random = new Random(scenario.getSeed());
+        for (final DynamoDBFault fault : DynamoDBFault.values())
+        {
+            injectedFaults.put(fault, new LongAdder());
+        }
+    }
+
+    public AmazonDynamoDBAsync getDelegate()
+    {
+        return delegate;
+    }
+
+    /**
+     * @return the number of requests the fault was injected into; unprocessed items count once per batch
+     */
+    public long getInjectedCount(final DynamoDBFault fault)
+    {
+        return injectedFaults.get(fault).sum();
+    }
+
+    // ----- items
+
+    @Override
+    public GetItemResult getItem(final GetItemRequest request)
+    {
+        return call(decide("GetItem", 0), () -> delegate.getItem(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<GetItemResult> getItemAsync(final GetItemRequest request, final AsyncHandler<GetItemRequest, GetItemResult> asyncHandler)
+    {
+        return submit(decide("GetItem", 0), request, asyncHandler, handler -> delegate.getItemAsync(request, handler), UnaryOperator.identity());
+    }
+
+    @Override
+    public PutItemResult putItem(final PutItemRequest request)
+    {
+        return call(decide("PutItem", 0), () -> delegate.putItem(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<PutItemResult> putItemAsync(final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> asyncHandler)
+    {
+        return submit(decide("PutItem", 0), request, asyncHandler, handler -> delegate.putItemAsync(request, handler), UnaryOperator.identity());
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(final DeleteItemRequest request)
+    {
+        return call(decide("DeleteItem", 0), () -> delegate.deleteItem(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest request, final AsyncHandler<DeleteItemRequest, DeleteItemResult> asyncHandler)
+    {
+        return submit(decide("DeleteItem", 0), request, asyncHandler, handler -> delegate.deleteItemAsync(request, handler), UnaryOperator.identity());
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(final BatchGetItemRequest request)
+    {
+        final Injection injection = decide("BatchGetItem", countKeys(request));
+        final Map<String, KeysAndAttributes> unprocessedKeys = new HashMap<>();
+        final BatchGetItemRequest processedRequest = removeUnprocessed(request, injection.unprocessed, unprocessedKeys);
+        return call(injection, processedRequest != null ? () -> delegate.batchGetItem(processedRequest) : null,
+                result -> addUnprocessed(result, unprocessedKeys));
+    }
+
+    @Override
+    public Future<BatchGetItemResult> batchGetItemAsync(final BatchGetItemRequest request, final AsyncHandler<BatchGetItemRequest, BatchGetItemResult> asyncHandler)
+    {
+        final Injection injection = decide("BatchGetItem", countKeys(request));
+        final Map<String, KeysAndAttributes> unprocessedKeys = new HashMap<>();
+        final BatchGetItemRequest processedRequest = removeUnprocessed(request, injection.unprocessed, unprocessedKeys);
+        return submit(injection, request, asyncHandler, processedRequest != null ? handler -> delegate.batchGetItemAsync(processedRequest, handler) : null,
+                result -> addUnprocessed(result, unprocessedKeys));
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(final BatchWriteItemRequest request)
+    {
+        final Injection injection = decide("BatchWriteItem", countWrites(request));
+        final Map<String, List<WriteRequest>> unprocessedItems = new HashMap<>();
+        final BatchWriteItemRequest processedRequest = removeUnprocessed(request, injection.unprocessed, unprocessedItems);
+        return call(injection, processedRequest != null ? () -> delegate.batchWriteItem(processedRequest) : null,
+                result -> addUnprocessed(result, unprocessedItems));
+    }
+
+    @Override
+    public Future<BatchWriteItemResult> batchWriteItemAsync(final BatchWriteItemRequest request, final AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> asyncHandler)
+    {
+        final Injection injection = decide("BatchWriteItem", countWrites(request));
+        final Map<String, List<WriteRequest>> unprocessedItems = new HashMap<>();
+        final BatchWriteItemRequest processedRequest = removeUnprocessed(request, injection.unprocessed, unprocessedItems);
+        return submit(injection, request, asyncHandler, processedRequest != null ? handler -> delegate.batchWriteItemAsync(processedRequest, handler) : null,
+                result -> addUnprocessed(result, unprocessedItems));
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(final TransactWriteItemsRequest request)
+    {
+        return call(decide("TransactWriteItems", 0), () -> delegate.transactWriteItems(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<TransactWriteItemsResult> transactWriteItemsAsync(final TransactWriteItemsRequest request,
+                                                                    final AsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult> asyncHandler)
+    {
+        return submit(decide("TransactWriteItems", 0), request, asyncHandler, handler -> delegate.transactWriteItemsAsync(request, handler), UnaryOperator.identity());
+    }
+
+    @Override
+    public QueryResult query(final QueryRequest request)
+    {
+        return call(decide("Query", 0), () -> delegate.query(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<QueryResult> queryAsync(final QueryRequest request, final AsyncHandler<QueryRequest, QueryResult> asyncHandler)
+    {
+        return submit(decide("Query", 0), request, asyncHandler, handler -> delegate.queryAsync(request, handler), UnaryOperator.identity());
+    }
+
+    @Override
+    public ScanResult scan(final ScanRequest request)
+    {
+        return call(decide("Scan", 0), () -> delegate.scan(request), UnaryOperator.identity());
+    }
+
+    @Override
+    public Future<ScanResult> scanAsync(final ScanRequest request, final AsyncHandler<ScanRequest, ScanResult> asyncHandler)
+    {
+        return submit(decide("Scan", 0), request, asyncHandler, handler -> delegate.scanAsync(request, handler), UnaryOperator.identity());
+    }
+
+    // ----- tables, passed through
+
+    @Override
+    public CreateTableResult createTable(final CreateTableRequest request)
+    {
+        return delegate.createTable(request);
+    }
+
+    @Override
+    public Future<CreateTableResult> createTableAsync(final CreateTableRequest request, final AsyncHandler<CreateTableRequest, CreateTableResult> asyncHandler)
+    {
+        return delegate.createTableAsync(request, asyncHandler);
+    }
+
+    @Override
+    public DescribeTableResult describeTable(final DescribeTableRequest request)
+    {
+        return delegate.describeTable(request);
+    }
+
+    @Override
+    public Future<DescribeTableResult> describeTableAsync(final DescribeTableRequest request, final AsyncHandler<DescribeTableRequest, DescribeTableResult> asyncHandler)
+    {
+        return delegate.describeTableAsync(request, asyncHandler);
+    }
+
+    @Override
+    public UpdateTableResult updateTable(final UpdateTableRequest request)
+    {
+        return delegate.updateTable(request);
+    }
+
+    @Override
+    public Future<UpdateTableResult> updateTableAsync(final UpdateTableRequest request, final AsyncHandler<UpdateTableRequest, UpdateTableResult> asyncHandler)
+    {
+        return delegate.updateTableAsync(request, asyncHandler);
+    }
+
+    @Override
+    public DeleteTableResult deleteTable(final DeleteTableRequest request)
+    {
+        return delegate.deleteTable(request);
+    }
+
+    @Override
+    public Future<DeleteTableResult> deleteTableAsync(final DeleteTableRequest request, final AsyncHandler<DeleteTableRequest, DeleteTableResult> asyncHandler)
+    {
+        return delegate.deleteTableAsync(request, asyncHandler);
+    }
+
+    @Override
+    public ListTablesResult listTables(final ListTablesRequest request)
+    {
+        return delegate.listTables(request);
+    }
+
+    @Override
+    public Future<ListTablesResult> listTablesAsync(final ListTablesRequest request, final AsyncHandler<ListTablesRequest, ListTablesResult> asyncHandler)
+    {
+        return delegate.listTablesAsync(request, asyncHandler);
+    }
+
+    @Override
+    public UpdateTimeToLiveResult updateTimeToLive(final UpdateTimeToLiveRequest request)
+    {
+        return delegate.updateTimeToLive(request);
+    }
+
+    @Override
+    public Future<UpdateTimeToLiveResult> updateTimeToLiveAsync(final UpdateTimeToLiveRequest request,
+                                                                final AsyncHandler<UpdateTimeToLiveRequest, UpdateTimeToLiveResult> asyncHandler)
+    {
+        return delegate.updateTimeToLiveAsync(request, asyncHandler);
+    }
+
+    @Override
+    public DescribeTimeToLiveResult describeTimeToLive(final DescribeTimeToLiveRequest request)
+    {
+        return delegate.describeTimeToLive(request);
+    }
+
+    @Override
+    public Future<DescribeTimeToLiveResult> describeTimeToLiveAsync(final DescribeTimeToLiveRequest request,
+                                                                    final AsyncHandler<DescribeTimeToLiveRequest, DescribeTimeToLiveResult> asyncHandler)
+    {
+        return delegate.describeTimeToLiveAsync(request, asyncHandler);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+        stopInjecting();
+    }
+
+    /**
+     * Releases the thread delaying injected responses, leaving the wrapped client running.
+     */
+    synchronized void stopInjecting()
+    {
+        if (scheduler != null)
+        {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // ----- injection
+
+    /**
+     * Draws the faults of a request; for batches, itemCount is the number of keys or writes it holds.
+     */
+    private Injection decide(final String operation, final int itemCount)
+    {
+        final DynamoDBFaultProfile profile = scenario.getProfile(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        if (profile == null || !profile.appliesTo(operation))
+        {
+            return Injection.NONE;
+        }
+
+        // a request draws the same values whatever the rates, so changing one rate does not reshuffle the other faults
+        final double jitterDraw;
+        final double slowDraw;
+        final double throttleDraw;
+        final double serverErrorDraw;
+        final double resetDraw;
+        final boolean[] unprocessed = itemCount > 0 ? new boolean[itemCount] : null;
+        boolean anyUnprocessed = false;
+        synchronized (random)
+        {
+            jitterDraw = random.nextDouble();
+            slowDraw = random.nextDouble();
+            throttleDraw = random.nextDouble();
+            serverErrorDraw = random.nextDouble();
+            resetDraw = random.nextDouble();
+            for (int i = 0; i < itemCount; i++)
+            {
+                unprocessed[i] = random.nextDouble() < profile.getUnprocessedItemsRate();
+                anyUnprocessed |= unprocessed[i];
+            }
+        }
+
+        long delayMillis = profile.getLatencyMillis() + (long) (jitterDraw * (profile.getLatencyJitterMillis() + 1));
+        if (slowDraw < profile.getSlowResponseRate())
+        {
+            delayMillis += profile.getSlowResponseMillis();
+            injectedFaults.get(DynamoDBFault.SLOW_RESPONSE).increment();
+        }
+
+        if (throttleDraw < profile.getThrottleRate())
+        {
+            injectedFaults.get(DynamoDBFault.THROTTLE).increment();
+            return new Injection(delayMillis, serviceException(
+                    new ProvisionedThroughputExceededException("Injected throttling of " + operation), 400), false, null);
+        }
+        if (serverErrorDraw < profile.getServerErrorRate())
+        {
+            injectedFaults.get(DynamoDBFault.SERVER_ERROR).increment();
+            return new Injection(delayMillis, serviceException(
+                    new InternalServerErrorException("Injected server error in " + operation), 500), false, null);
+        }
+        if (resetDraw < profile.getConnectionResetRate())
+        {
+            injectedFaults.get(DynamoDBFault.CONNECTION_RESET).increment();
+            return new Injection(delayMillis, new SdkClientException("Unable to execute HTTP request: Connection reset",
+                    new SocketException("Connection reset")), true, null);
+        }
+        if (anyUnprocessed)
+        {
+            injectedFaults.get(DynamoDBFault.UNPROCESSED_ITEMS).increment();
+        }
+        return new Injection(delayMillis, null, false, anyUnprocessed ? unprocessed : null);
+    }
+
+    /**
+     * Runs a synchronous request with its faults.
+     *
+     * @param send sends the request, null if the faults leave nothing to send
+     * @param completion applies the faults to the result, given null if nothing was sent
+     */
+    private <RESULT> RESULT call(final Injection injection, final Supplier<RESULT> send, final UnaryOperator<RESULT> completion)
+    {
+        if (injection.delayMillis > 0)
+        {
+            try
+            {
+                Thread.sleep(injection.delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AbortedException(e);
+            }
+        }
+
+        if (injection.failure != null && !injection.failureAfterSending)
+        {
+            throw injection.failure;
+        }
+        final RESULT result = completion.apply(send != null ? send.get() : null);
+        if (injection.failure != null)
+        {
+            throw injection.failure;
+        }
+        return result;
+    }
+
+    /**
+     * Runs an asynchronous request with its faults, delaying it on the scheduler.
+     *
+     * @param send sends the request with the given handler, null if the faults leave nothing to send
+     * @param completion applies the faults to the result, given null if nothing was sent
+     */
+    private <REQUEST extends AmazonWebServiceRequest, RESULT> Future<RESULT> submit(final Injection injection, final REQUEST request,
+                                                                                    final AsyncHandler<REQUEST, RESULT> asyncHandler,
+                                                                                    final Function<AsyncHandler<REQUEST, RESULT>, Future<RESULT>> send,
+                                                                                    final UnaryOperator<RESULT> completion)
+    {
+        final CompletableFuture<RESULT> future = new CompletableFuture<>();
+        final AsyncHandler<REQUEST, RESULT> handler = new AsyncHandler<REQUEST, RESULT>()
+        {
+            @Override
+            public void onError(final Exception exception)
+            {
+                if (asyncHandler != null)
+                {
+                    asyncHandler.onError(exception);
+                }
+                future.completeExceptionally(exception);
+            }
+
+            @Override
+            public void onSuccess(final REQUEST sentRequest, final RESULT result)
+            {
+                if (injection.failure != null)
+                {
+                    // the request was applied, but the caller never hears of it
+                    onError(injection.failure);
+                    return;
+                }
+
+                final RESULT completed;
+                try
+                {
+                    completed = completion.apply(result);
+                }
+                catch (RuntimeException e)
+                {
+                    onError(e);
+                    return;
+                }
+                if (asyncHandler != null)
+                {
+                    asyncHandler.onSuccess(request, completed);
+                }
+                future.complete(completed);
+            }
+        };
+
+        final Runnable execution = () ->
+        {
+            if (injection.failure != null && !injection.failureAfterSending)
+            {
+                handler.onError(injection.failure);
+            }
+            else if (send == null)
+            {
+                handler.onSuccess(request, null);
+            }
+            else
+            {
+                try
+                {
+                    send.apply(handler);
+                }
+                catch (RuntimeException e)
+                {
+                    handler.onError(e);
+                }
+            }
+        };
+
+        if (injection.delayMillis > 0)
+        {
+            getScheduler().schedule(execution, injection.delayMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            execution.run();
+        }
+        return future;
+    }
+
+    private synchronized ScheduledExecutorService getScheduler()
+    {
+        if (scheduler == null)
+        {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                final Thread thread = new Thread(runnable, "orbit-dynamodb-fault-injection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    // ----- unprocessed batch items
+
+    private static int countKeys(final BatchGetItemRequest request)
+    {
+        int count = 0;
+        for (final KeysAndAttributes keysAndAttributes : request.getRequestItems().values())
+        {
+            count += keysAndAttributes.getKeys().size();
+        }
+        return count;
+    }
+
+    private static <EXCEPTION extends AmazonServiceException> EXCEPTION serviceException(final EXCEPTION exception, final int statusCode)
+    {
+        exception.setServiceName("AmazonDynamoDBv2");
+        exception.setErrorCode(exception.getClass().getSimpleName());
+        exception.setStatusCode(statusCode);
+        exception.setErrorType(statusCode >= 500 ? AmazonServiceException.ErrorType.Service : AmazonServiceException.ErrorType.Client);
+        return exception;
+    }
+
+    private static int countWrites(final BatchWriteItemRequest request)
+    {
+        int count = 0;
+        for (final List<WriteRequest> writeRequests : request.getRequestItems().values())
+        {
+            count += writeRequests.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the request without the keys drawn as unprocessed, which are moved to unprocessedKeys; null if none remain
+     */
+    private static BatchGetItemRequest removeUnprocessed(final BatchGetItemRequest request, final boolean[] unprocessed,
+                                                         final Map<String, KeysAndAttributes> unprocessedKeys)
+    {
+        if (unprocessed == null)
+        {
+            return request;
+        }
+
+        final Map<String, KeysAndAttributes> processedKeys = new HashMap<>();
+        int index = 0;
+        for (final Map.Entry<String, KeysAndAttributes> entry : request.getRequestItems().entrySet())
+        {
+            final List<Map<String, AttributeValue>> processed = new ArrayList<>();
+            final List<Map<String, AttributeValue>> skipped = new ArrayList<>();
+            for (final Map<String, AttributeValue> key : entry.getValue().getKeys())
+            {
+                (unprocessed[index++] ? skipped : processed).add(key);
+            }
+            if (!processed.isEmpty())
+            {
+                processedKeys.put(entry.getKey(), entry.getValue().clone().withKeys(processed));
+            }
+            if (!skipped.isEmpty())
+            {
+                unprocessedKeys.put(entry.getKey(), entry.getValue().clone().withKeys(skipped));
+            }
+        }
+        return processedKeys.isEmpty() ? null : request.clone().withRequestItems(processedKeys);
+    }
+
+    private static BatchGetItemResult addUnprocessed(final BatchGetItemResult result, final Map<String, KeysAndAttributes> unprocessedKeys)
+    {
+        if (unprocessedKeys.isEmpty())
+        {
+            return result;
+        }
+
+        final BatchGetItemResult completed = result != null ? result : new BatchGetItemResult().withResponses(new HashMap<>());
+        final Map<String, KeysAndAttributes> merged = new HashMap<>();
+        if (completed.getUnprocessedKeys() != null)
+        {
+            completed.getUnprocessedKeys().forEach((tableName, keysAndAttributes) -> merged.put(tableName, keysAndAttributes.clone()
+                    .withKeys(new ArrayList<>(keysAndAttributes.getKeys()))));
+        }
+        unprocessedKeys.forEach((tableName, keysAndAttributes) ->
+        {
+            final KeysAndAttributes existing = merged.get(tableName);
+            if (existing != null)
+            {
+                existing.getKeys().addAll(keysAndAttributes.getKeys());
+            }
+            else
+            {
+                merged.put(tableName, keysAndAttributes);
+            }
+        });
+        completed.setUnprocessedKeys(merged);
+        return completed;
+    }
+
+    /**
+     * @return the request without the writes drawn as unprocessed, which are moved to unprocessedItems; null if none remain
+     */
+    private static BatchWriteItemRequest removeUnprocessed(final BatchWriteItemRequest request, final boolean[] unprocessed,
+                                                           final Map<String, List<WriteRequest>> unprocessedItems)
+    {
+        if (unprocessed == null)
+        {
+            return request;
+        }
+
+        final Map<String, List<WriteRequest>> processedItems = new HashMap<>();
+        int index = 0;
+        for (final Map.Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet())
+        {
+            for (final WriteRequest writeRequest : entry.getValue())
+            {
+                (unprocessed[index++] ? unprocessedItems : processedItems).computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(writeRequest);
+            }
+        }
+        return processedItems.isEmpty() ? null : request.clone().withRequestItems(processedItems);
+    }
+
+    private static BatchWriteItemResult addUnprocessed(final BatchWriteItemResult result, final Map<String, List<WriteRequest>> unprocessedItems)
+    {
+        if (unprocessedItems.isEmpty())
+        {
+            return result;
+        }
+
+        final BatchWriteItemResult completed = result != null ? result : new BatchWriteItemResult();
+        final Map<String, List<WriteRequest>> merged = new HashMap<>();
+        if (completed.getUnprocessedItems() != null)
+        {
+            completed.getUnprocessedItems().forEach((tableName, writeRequests) -> merged.put(tableName, new ArrayList<>(writeRequests)));
+        }
+        unprocessedItems.forEach((tableName, writeRequests) -> merged.computeIfAbsent(tableName, key -> new ArrayList<>()).addAll(writeRequests));
+        completed.setUnprocessedItems(merged);
+        return completed;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * How a {@link DynamoDBFaultInjectingClient} degrades requests during a phase of a {@link DynamoDBFaultScenario}.
+ * Rates are probabilities between 0 and 1, drawn independently for each request.
+ */
+public class DynamoDBFaultProfile
+{
+    public static class Builder
+    {
+        private DynamoDBFaultProfile faultProfile;
+
+        public Builder()
+        {
+            faultProfile = new DynamoDBFaultProfile();
+        }
+
+        public Builder withLatencyMillis(final long latencyMillis)
+        {
+            faultProfile.setLatencyMillis(latencyMillis);
+            return this;
+        }
+
+        public Builder withLatencyJitterMillis(final long latencyJitterMillis)
+        {
+            faultProfile.setLatencyJitterMillis(latencyJitterMillis);
+            return this;
+        }
+
+        public Builder withSlowResponseRate(final double slowResponseRate)
+        {
+            faultProfile.setSlowResponseRate(slowResponseRate);
+            return this;
+        }
+
+        public Builder withSlowResponseMillis(final long slowResponseMillis)
+        {
+            faultProfile.setSlowResponseMillis(slowResponseMillis);
+            return this;
+        }
+
+        public Builder withThrottleRate(final double throttleRate)
+        {
+            faultProfile.setThrottleRate(throttleRate);
+            return this;
+        }
+
+        public Builder withServerErrorRate(final double serverErrorRate)
+        {
+            faultProfile.setServerErrorRate(serverErrorRate);
+            return this;
+        }
+
+        public Builder withConnectionResetRate(final double connectionResetRate)
+        {
+            faultProfile.setConnectionResetRate(connectionResetRate);
+            return this;
+        }
+
+        public Builder withUnprocessedItemsRate(final double unprocessedItemsRate)
+        {
+            faultProfile.setUnprocessedItemsRate(unprocessedItemsRate);
+            return this;
+        }
+
+        public Builder withOperations(final String... operations)
+        {
+            faultProfile.setOperations(new HashSet<>(Arrays.asList(operations)));
+            return this;
+        }
+
+        public DynamoDBFaultProfile build()
+        {
+            return faultProfile;
+        }
+    }
+
+    private long latencyMillis = 0;
+    private long latencyJitterMillis = 0;
+    private double slowResponseRate = 0;
+    private long slowResponseMillis = 0;
+    private double throttleRate = 0;
+    private double serverErrorRate = 0;
+    private double connectionResetRate = 0;
+    private double unprocessedItemsRate = 0;
+    private Set<String> operations = Collections.emptySet();
+
+    /**
+     * Delay added to every request.
+     */
+    public long getLatencyMillis()
+    {
+        return latencyMillis;
+    }
+
+    public void setLatencyMillis(final long latencyMillis)
+    {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Upper bound of a uniformly random delay added on top of {@link #getLatencyMillis()}.
+     */
+    public long getLatencyJitterMillis()
+    {
+        return latencyJitterMillis;
+    }
+
+    public void setLatencyJitterMillis(final long latencyJitterMillis)
+    {
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * Fraction of requests delayed by a further {@link #getSlowResponseMillis()}, shaping the latency tail.
+     */
+    public double getSlowResponseRate()
+    {
+        return slowResponseRate;
+    }
+
+    public void setSlowResponseRate(final double slowResponseRate)
+    {
+        this.slowResponseRate = slowResponseRate;
+    }
+
+    public long getSlowResponseMillis()
+    {
+        return slowResponseMillis;
+    }
+
+    public void setSlowResponseMillis(final long slowResponseMillis)
+    {
+        this.slowResponseMillis = slowResponseMillis;
+    }
+
+    public double getThrottleRate()
+    {
+        return throttleRate;
+    }
+
+    public void setThrottleRate(final double throttleRate)
+    {
+        this.throttleRate = throttleRate;
+    }
+
+    public double getServerErrorRate()
+    {
+        return serverErrorRate;
+    }
+
+    public void setServerErrorRate(final double serverErrorRate)
+    {
+        this.serverErrorRate = serverErrorRate;
+    }
+
+    /**
+     * Fraction of requests failed after being sent, so the caller cannot tell whether they were applied.
+     */
+    public double getConnectionResetRate()
+    {
+        return connectionResetRate;
+    }
+
+    public void setConnectionResetRate(final double connectionResetRate)
+    {
+        this.connectionResetRate = connectionResetRate;
+    }
+
+    /**
+     * Fraction of the items of BatchGetItem and BatchWriteItem requests returned unprocessed.
+     */
+    public double getUnprocessedItemsRate()
+    {
+        return unprocessedItemsRate;
+    }
+
+    public void setUnprocessedItemsRate(final double unprocessedItemsRate)
+    {
+        this.unprocessedItemsRate = unprocessedItemsRate;
+    }
+
+    /**
+     * Operations the profile applies to, such as "GetItem" or "BatchWriteItem". Empty for all of them.
+     */
+    public Set<String> getOperations()
+    {
+        return operations;
+    }
+
+    public void setOperations(final Set<String> operations)
+    {
+        this.operations = operations;
+    }
+
+    boolean appliesTo(final String operation)
+    {
+        return operations.isEmpty() || operations.contains(operation);
+    }
+}
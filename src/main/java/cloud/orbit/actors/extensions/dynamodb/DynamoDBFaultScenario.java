@@ -0,0 +1,156 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A script of fault profiles, each in effect for a duration, that a {@link DynamoDBFaultInjectingClient} plays from
+ * its creation. Faults are drawn from a random generator seeded with {@link #getSeed()}, so a scenario driven by one
+ * thread injects the same faults into the same requests on every run.
+ */
+public class DynamoDBFaultScenario
+{
+    public static class Builder
+    {
+        private DynamoDBFaultScenario faultScenario;
+
+        public Builder()
+        {
+            faultScenario = new DynamoDBFaultScenario();
+        }
+
+        public Builder withPhase(final long durationMillis, final DynamoDBFaultProfile profile)
+        {
+            faultScenario.addPhase(durationMillis, profile);
+            return this;
+        }
+
+        public Builder withSeed(final long seed)
+        {
+            faultScenario.setSeed(seed);
+            return this;
+        }
+
+        public Builder withRepeat(final boolean repeat)
+        {
+            faultScenario.setRepeat(repeat);
+            return this;
+        }
+
+        public DynamoDBFaultScenario build()
+        {
+            return faultScenario;
+        }
+    }
+
+    private static class Phase
+    {
+        private final long durationMillis;
+        private final DynamoDBFaultProfile profile;
+
+        Phase(final long durationMillis, final DynamoDBFaultProfile profile)
+        {
+            this.durationMillis = durationMillis;
+            this.profile = profile;
+        }
+    }
+
+    private final List<Phase> phases = new ArrayList<>();
+    private long totalMillis = 0;
+    private long seed = 0;
+    private boolean repeat = false;
+
+    /**
+     * @return a scenario applying one profile for as long as it runs
+     */
+    public static DynamoDBFaultScenario constant(final DynamoDBFaultProfile profile)
+    {
+        return new Builder().withPhase(Long.MAX_VALUE, profile).build();
+    }
+
+    /**
+     * Appends a phase; a null profile injects no faults, as in the healthy stretches between bursts.
+     */
+    public void addPhase(final long durationMillis, final DynamoDBFaultProfile profile)
+    {
+        if (durationMillis <= 0)
+        {
+            throw new IllegalArgumentException("Phase durations must be positive: " + durationMillis);
+        }
+        phases.add(new Phase(durationMillis, profile));
+        totalMillis = totalMillis + durationMillis < 0 ? Long.MAX_VALUE : totalMillis + durationMillis;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public void setSeed(final long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Whether the phases start over after the last one; otherwise no faults are injected once it ends.
+     */
+    public boolean isRepeat()
+    {
+        return repeat;
+    }
+
+    public void setRepeat(final boolean repeat)
+    {
+        this.repeat = repeat;
+    }
+
+    /**
+     * @return the profile in effect the given time into the scenario, or null if no faults should be injected
+     */
+    public DynamoDBFaultProfile getProfile(final long elapsedMillis)
+    {
+        if (phases.isEmpty() || elapsedMillis >= totalMillis && !repeat)
+        {
+            return null;
+        }
+
+        long remainingMillis = elapsedMillis % totalMillis;
+        for (final Phase phase : phases)
+        {
+            if (remainingMillis < phase.durationMillis)
+            {
+                return phase.profile;
+            }
+            remainingMillis -= phase.durationMillis;
+        }
+        return null;
+    }
+}
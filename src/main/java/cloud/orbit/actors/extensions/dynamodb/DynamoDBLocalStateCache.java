@@ -0,0 +1,693 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Node-local cache of serialized states in memory-mapped, append-only segment files, so states survive restarts of
+ * the node. The index from document id to record offset and version lives in memory and is rebuilt from the segments
+ * when the cache is opened.
+ * <p>
+ * Records are appended by a single writer thread and carry a checksum, so a segment torn by a crash is cut at its
+ * first bad record. Cached states are hints: callers must confirm the version against DynamoDB before using them.
+ */
+class DynamoDBLocalStateCache
+{
+    // record layout: magic, key length, value length (or REMOVED), version, checksum, key bytes, value bytes
+    final static private int RECORD_MAGIC = 0x4F444331;
+    final static private int HEADER_BYTES = 4 + 4 + 4 + 8 + 4;
+    final static private int REMOVED = -1;
+    final static private String SEGMENT_PREFIX = "segment-";
+    final static private String SEGMENT_SUFFIX = ".cache";
+    final static private double COMPACTION_LIVE_RATIO = 0.5;
+    final static private long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBLocalStateCache.class);
+
+    static class CachedState
+    {
+        private final long version;
+        private final byte[] value;
+
+        CachedState(final long version, final byte[] value)
+        {
+            this.version = version;
+            this.value = value;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public byte[] getValue()
+        {
+            return value;
+        }
+    }
+
+    private static class Segment
+    {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        // only changed by the writer thread
+        private int writePosition;
+        private long liveBytes;
+
+        Segment(final long id, final Path path, final MappedByteBuffer buffer)
+        {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Entry
+    {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long version;
+
+        Entry(final Segment segment, final int offset, final int length, final long version)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+        }
+    }
+
+    private static class Record
+    {
+        private final String key;
+        private final long version;
+        private final byte[] value;
+        private final int length;
+
+        Record(final String key, final long version, final byte[] value, final int length)
+        {
+            this.key = key;
+            this.version = version;
+            this.value = value;
+            this.length = length;
+        }
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final long compactionMillis;
+
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<>();
+    // removal records still needed to hide older records of their key, only used by the writer thread
+    private final Map<String, Entry> removals = new HashMap<>();
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService writer;
+    private Segment active;
+
+    DynamoDBLocalStateCache(final Path directory, final long maxBytes, final int segmentBytes, final long compactionMillis)
+    {
+        if (segmentBytes <= HEADER_BYTES || maxBytes < 2L * segmentBytes)
+        {
+            throw new IllegalArgumentException("The local cache budget must hold at least two segments of more than " + HEADER_BYTES + " bytes");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.compactionMillis = compactionMillis;
+    }
+
+    /**
+     * Maps the existing segments, rebuilds the index from their records and starts the writer thread.
+     */
+    public void open() throws IOException
+    {
+        Files.createDirectories(directory);
+
+        final NavigableMap<Long, Path> segmentPaths = new ConcurrentSkipListMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+        {
+            for (final Path path : stream)
+            {
+                final String fileName = path.getFileName().toString();
+                try
+                {
+                    segmentPaths.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())), path);
+                }
+                catch (NumberFormatException e)
+                {
+                    logger.warn("Ignoring unexpected file {} in the local state cache", path);
+                }
+            }
+        }
+
+        // later segments hold newer records, so they are replayed last
+        for (final Map.Entry<Long, Path> segmentPath : segmentPaths.entrySet())
+        {
+            final Path path = segmentPath.getValue();
+            final Segment segment = new Segment(segmentPath.getKey(), path, map(path, Math.max(Files.size(path), HEADER_BYTES)));
+            segments.put(segment.id, segment);
+            recover(segment);
+        }
+
+        if (segments.isEmpty())
+        {
+            active = createSegment(0);
+        }
+        else
+        {
+            active = segments.lastEntry().getValue();
+            if (isTruncated(active))
+            {
+                // appends must not leave fragments of the records past the torn one that a later recovery could read
+                clear(active.buffer, active.writePosition);
+            }
+        }
+        enforceBudget();
+
+        writer = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "orbit-dynamodb-local-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (compactionMillis > 0)
+        {
+            writer.scheduleWithFixedDelay(this::compactSegments, compactionMillis, compactionMillis, TimeUnit.MILLISECONDS);
+        }
+
+        logger.info("Opened the local state cache in {} with {} states in {} segments", directory, index.size(), segments.size());
+    }
+
+    /**
+     * Applies the queued writes and syncs the segments to disk. The mappings are released once they are collected.
+     */
+    public void close()
+    {
+        if (writer == null)
+        {
+            return;
+        }
+
+        writer.shutdown();
+        try
+        {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                logger.warn("Local state cache writes still queued after {} s", CLOSE_TIMEOUT_SECONDS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        for (final Segment segment : segments.values())
+        {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * @return the cached state of the key, or null if none is cached or its record is damaged
+     */
+    public CachedState get(final String key)
+    {
+        final Entry entry = index.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        final Record record = readRecord(entry.segment.buffer, entry.offset);
+        if (record == null || record.value == null || !record.key.equals(key))
+        {
+            submit(() ->
+            {
+                // recorded as a removal, so a recovery does not fall back to an older record of the key
+                if (index.get(key) == entry)
+                {
+                    append(key, 0, null);
+                }
+            });
+            return null;
+        }
+        return new CachedState(record.version, record.value);
+    }
+
+    /**
+     * Queues a write of the state, replacing any state cached for the key.
+     */
+    public void put(final String key, final long version, final byte[] value)
+    {
+        submit(() ->
+        {
+            append(key, version, value);
+            enforceBudget();
+        });
+    }
+
+    /**
+     * Queues the removal of the key.
+     */
+    public void remove(final String key)
+    {
+        submit(() ->
+        {
+            if (index.containsKey(key))
+            {
+                append(key, 0, null);
+                enforceBudget();
+            }
+        });
+    }
+
+    /**
+     * Waits until the writes queued so far are applied.
+     */
+    void flush()
+    {
+        try
+        {
+            writer.submit(() -> { }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw new UncheckedException(e.getCause());
+        }
+    }
+
+    /**
+     * Compacts the segments on the writer thread and waits for it.
+     */
+    void compact()
+    {
+        submit(this::compactSegments);
+        flush();
+    }
+
+    /**
+     * Rewrites the live records of segments that are mostly superseded and deletes those segments. The removal records
+     * are rewritten as well while an older segment could still hold a record they remove.
+     */
+    private void compactSegments()
+    {
+        try
+        {
+            for (final Segment segment : new ArrayList<>(segments.values()))
+            {
+                if (segment != active && segment.liveBytes < segment.buffer.capacity() * COMPACTION_LIVE_RATIO)
+                {
+                    rewrite(segment);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Compaction of the local state cache failed", e);
+        }
+    }
+
+    int size()
+    {
+        return index.size();
+    }
+
+    int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    long getDiskBytes()
+    {
+        long diskBytes = 0;
+        for (final Segment segment : segments.values())
+        {
+            diskBytes += segment.buffer.capacity();
+        }
+        return diskBytes;
+    }
+
+    /**
+     * 64-bit FNV-1a hash, used as the version of a serialized state.
+     */
+    static long fingerprint(final byte[] value)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : value)
+        {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void submit(final Runnable task)
+    {
+        try
+        {
+            writer.execute(() ->
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("Local state cache write failed", e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // closed, the cache only loses a hint
+        }
+    }
+
+    private void append(final String key, final long version, final byte[] value)
+    {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int length = HEADER_BYTES + keyBytes.length + (value != null ? value.length : 0);
+        if (length > segmentBytes)
+        {
+            // too large to cache, but an older state of the key must not be served either
+            if (value != null && index.containsKey(key))
+            {
+                append(key, 0, null);
+            }
+            return;
+        }
+
+        if (active.writePosition + length > active.buffer.capacity())
+        {
+            active = createSegment(active.id + 1);
+        }
+
+        final int offset = active.writePosition;
+        final ByteBuffer view = active.buffer.duplicate();
+        view.position(offset);
+        view.putInt(RECORD_MAGIC)
+                .putInt(keyBytes.length)
+                .putInt(value != null ? value.length : REMOVED)
+                .putLong(version)
+                .putInt(checksum(version, keyBytes, value))
+                .put(keyBytes);
+        if (value != null)
+        {
+            view.put(value);
+        }
+        active.writePosition += length;
+
+        if (value != null)
+        {
+            apply(key, new Entry(active, offset, length, version));
+        }
+        else
+        {
+            applyRemoval(key, new Entry(active, offset, length, 0));
+        }
+    }
+
+    private void apply(final String key, final Entry entry)
+    {
+        final Entry previous = entry != null ? index.put(key, entry) : index.remove(key);
+        if (previous != null)
+        {
+            previous.segment.liveBytes -= previous.length;
+        }
+        if (entry != null)
+        {
+            entry.segment.liveBytes += entry.length;
+            // the new record hides the older ones itself
+            forgetRemoval(key);
+        }
+    }
+
+    /**
+     * Removes the key and keeps its removal record live, as deleting it while an older segment holds a record of the
+     * key would bring that record back at the next recovery.
+     */
+    private void applyRemoval(final String key, final Entry removal)
+    {
+        apply(key, null);
+        forgetRemoval(key);
+        removals.put(key, removal);
+        removal.segment.liveBytes += removal.length;
+    }
+
+    private void forgetRemoval(final String key)
+    {
+        final Entry removal = removals.remove(key);
+        if (removal != null)
+        {
+            removal.segment.liveBytes -= removal.length;
+        }
+    }
+
+    private void recover(final Segment segment)
+    {
+        int position = 0;
+        Record record;
+        while ((record = readRecord(segment.buffer, position)) != null)
+        {
+            if (record.value != null)
+            {
+                apply(record.key, new Entry(segment, position, record.length, record.version));
+            }
+            else
+            {
+                applyRemoval(record.key, new Entry(segment, position, record.length, 0));
+            }
+            position += record.length;
+        }
+
+        segment.writePosition = position;
+        if (isTruncated(segment))
+        {
+            logger.warn("Local state cache segment {} is truncated at offset {}", segment.path, position);
+        }
+    }
+
+    private static boolean isTruncated(final Segment segment)
+    {
+        return segment.writePosition + 4 <= segment.buffer.capacity() && segment.buffer.getInt(segment.writePosition) != 0;
+    }
+
+    private void rewrite(final Segment segment)
+    {
+        for (final Map.Entry<String, Entry> indexed : index.entrySet())
+        {
+            final Entry entry = indexed.getValue();
+            if (entry.segment == segment)
+            {
+                final Record record = readRecord(segment.buffer, entry.offset);
+                if (record != null && record.value != null)
+                {
+                    append(record.key, record.version, record.value);
+                }
+                else
+                {
+                    apply(indexed.getKey(), null);
+                }
+            }
+        }
+
+        // with no older segment left, nothing remains for the removals to hide
+        final boolean oldest = segments.firstKey() == segment.id;
+        final List<String> removedKeys = new ArrayList<>();
+        removals.forEach((key, removal) ->
+        {
+            if (removal.segment == segment)
+            {
+                removedKeys.add(key);
+            }
+        });
+        for (final String key : removedKeys)
+        {
+            if (oldest)
+            {
+                forgetRemoval(key);
+            }
+            else
+            {
+                append(key, 0, null);
+            }
+        }
+        delete(segment);
+    }
+
+    private void enforceBudget()
+    {
+        if (getDiskBytes() <= maxBytes)
+        {
+            return;
+        }
+
+        compactSegments();
+        while (getDiskBytes() > maxBytes && segments.size() > 1)
+        {
+            final Segment oldest = segments.firstEntry().getValue();
+            index.values().removeIf(entry -> entry.segment == oldest);
+            removals.values().removeIf(removal -> removal.segment == oldest);
+            delete(oldest);
+        }
+    }
+
+    private Segment createSegment(final long id)
+    {
+        final Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        try
+        {
+            final Segment segment = new Segment(id, path, map(path, segmentBytes));
+            clear(segment.buffer, 0);
+            segments.put(id, segment);
+            return segment;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    private void delete(final Segment segment)
+    {
+        segments.remove(segment.id);
+        try
+        {
+            // readers holding an entry of the segment keep its mapping alive until they are done
+            Files.deleteIfExists(segment.path);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not delete local state cache segment {}", segment.path, e);
+        }
+    }
+
+    private static MappedByteBuffer map(final Path path, final long size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void clear(final MappedByteBuffer buffer, final int from)
+    {
+        final byte[] zeros = new byte[64 * 1024];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        while (view.hasRemaining())
+        {
+            view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+        }
+    }
+
+    private static Record readRecord(final ByteBuffer buffer, final int offset)
+    {
+        if ((long) offset + HEADER_BYTES > buffer.capacity() || buffer.getInt(offset) != RECORD_MAGIC)
+        {
+            return null;
+        }
+
+        final int keyLength = buffer.getInt(offset + 4);
+        final int valueLength = buffer.getInt(offset + 8);
+        if (keyLength <= 0 || valueLength < REMOVED
+                || (long) offset + HEADER_BYTES + keyLength + Math.max(valueLength, 0) > buffer.capacity())
+        {
+            return null;
+        }
+
+        final long version = buffer.getLong(offset + 12);
+        final int checksum = buffer.getInt(offset + 20);
+        final byte[] key = new byte[keyLength];
+        final byte[] value = valueLength != REMOVED ? new byte[valueLength] : null;
+        final ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.get(key);
+        if (value != null)
+        {
+            view.get(value);
+        }
+
+        if (checksum(version, key, value) != checksum)
+        {
+            return null;
+        }
+        return new Record(new String(key, StandardCharsets.UTF_8), version, value, HEADER_BYTES + keyLength + Math.max(valueLength, 0));
+    }
+
+    private static int checksum(final long version, final byte[] key, final byte[] value)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(16)
+                .putInt(key.length)
+                .putInt(value != null ? value.length : REMOVED)
+                .putLong(version)
+                .array());
+        crc.update(key);
+        if (value != null)
+        {
+            crc.update(value);
+        }
+        return (int) crc.getValue();
+    }
+}
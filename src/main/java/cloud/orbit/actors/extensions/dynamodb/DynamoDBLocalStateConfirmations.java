@@ -0,0 +1,128 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers which versions of locally cached states were confirmed against DynamoDB and when, so that while the
+ * table's stream reports every later change, cached states can be used without reading their version again.
+ * <p>
+ * A confirmation is only recorded if no invalidation of its document, or of another document sharing its stripe,
+ * happened while the confirming read was in flight, so a change seen on the stream before the read completes is
+ * never overridden by it.
+ */
+class DynamoDBLocalStateConfirmations
+{
+    final static private int STRIPES = 256;
+    // confirmations of evicted states are never looked up again, so the map is reset once it grows this large
+    final static private int MAX_CONFIRMATIONS = 1 << 20;
+
+    static class Pending
+    {
+        private final long sentAtMillis;
+        private final long invalidations;
+
+        private Pending(final long sentAtMillis, final long invalidations)
+        {
+            this.sentAtMillis = sentAtMillis;
+            this.invalidations = invalidations;
+        }
+    }
+
+    private static class Confirmation
+    {
+        private final long version;
+        private final long confirmedAtMillis;
+
+        private Confirmation(final long version, final long confirmedAtMillis)
+        {
+            this.version = version;
+            this.confirmedAtMillis = confirmedAtMillis;
+        }
+    }
+
+    private final ConcurrentMap<String, Confirmation> confirmations = new ConcurrentHashMap<>();
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    /**
+     * To be called before the read that confirms the state of the key is sent.
+     */
+    public Pending begin(final String key)
+    {
+        return new Pending(System.currentTimeMillis(), invalidations.get(stripe(key)));
+    }
+
+    /**
+     * Records that the read begun with {@code pending} found the given version, replacing the confirmation of any
+     * other version.
+     */
+    public void confirm(final String key, final long version, final Pending pending)
+    {
+        if (confirmations.size() >= MAX_CONFIRMATIONS)
+        {
+            confirmations.clear();
+        }
+
+        final int stripe = stripe(key);
+        // invalidations of the key run under the same lock, so none can slip between the check and the update
+        confirmations.compute(key, (ignored, existing) -> invalidations.get(stripe) == pending.invalidations
+                ? new Confirmation(version, pending.sentAtMillis)
+                : null);
+    }
+
+    /**
+     * Forgets the confirmation of the key, and fails the confirmations of reads of it in flight.
+     */
+    public void invalidate(final String key)
+    {
+        final int stripe = stripe(key);
+        confirmations.compute(key, (ignored, existing) ->
+        {
+            invalidations.incrementAndGet(stripe);
+            return null;
+        });
+    }
+
+    /**
+     * @return whether the version of the key was confirmed by a read sent after the given time
+     */
+    public boolean isConfirmedSince(final String key, final long version, final long sinceMillis)
+    {
+        final Confirmation confirmation = confirmations.get(key);
+        return confirmation != null && confirmation.version == version && confirmation.confirmedAtMillis > sinceMillis;
+    }
+
+    private static int stripe(final String key)
+    {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores a state as a snapshot followed by a log of patches, so a write costs in proportion to what changed rather
+ * than to the size of the state.
+ * <p>
+ * The snapshot is the regular state item. Each write after it is a patch item in the same partition, with the
+ * state's decoration followed by {@value #LOG_KEY_INFIX} and a sequence number as range key, so a read fetches the
+ * snapshot and its patches with one query. Once the patches since the snapshot exceed
+ * {@link DynamoDBConfiguration#getMutationLogCompactRecords()} records or
+ * {@link DynamoDBConfiguration#getMutationLogCompactBytes()} bytes, the next write is a new snapshot and the
+ * patches it replaces are deleted. Patches numbered at or below the snapshot's sequence are ignored, so a failed
+ * deletion leaves garbage rather than corrupting the state.
+ * <p>
+ * Writers keep the last state they read or wrote of each document to diff against, and assume a single writer per
+ * document, as actor activations are. A patch is written only if its sequence number is unused, so a concurrent
+ * writer fails rather than interleaving with it. Purging an actor's states leaves the patches of its mutation-logged
+ * states behind; without their snapshot they are ignored, and the next snapshot is numbered after them.
+ */
+class DynamoDBMutationLog
+{
+    final static String LOG_KEY_INFIX = "#log#";
+    final static String FIELD_NAME_LOG_SEQUENCE = "_logSequence";
+    final static String FIELD_NAME_PATCH = "_patch";
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBMutationLog.class);
+
+    private static final String PATCH_PATH = "p";
+    private static final String PATCH_VALUE = "v";
+    // sorts after every digit, closing the range of patch keys
+    private static final String LOG_KEY_END = LOG_KEY_INFIX + "~";
+
+    /**
+     * The last persisted state of a document as this node knows it.
+     */
+    private static class LogHead
+    {
+        private final JsonNode state;
+        private final long snapshotSequence;
+        private final long sequence;
+        private final long tailBytes;
+        private final int schemaVersion;
+
+        private LogHead(final JsonNode state, final long snapshotSequence, final long sequence, final long tailBytes, final int schemaVersion)
+        {
+            this.state = state;
+            this.snapshotSequence = snapshotSequence;
+            this.sequence = sequence;
+            this.tailBytes = tailBytes;
+            this.schemaVersion = schemaVersion;
+        }
+    }
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final DynamoDBBatchExecutor batchExecutor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, LogHead> heads;
+
+    DynamoDBMutationLog(final DynamoDBConnection dynamoDBConnection, final DynamoDBBatchExecutor batchExecutor)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.batchExecutor = batchExecutor;
+        final int maxHeads = dynamoDBConnection.getConfiguration().getMutationLogMaxCachedStates();
+        this.heads = Collections.synchronizedMap(new LinkedHashMap<String, LogHead>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, LogHead> eldest)
+            {
+                return size() > maxHeads;
+            }
+        });
+    }
+
+    /**
+     * Reads the snapshot and applies the patches after it.
+     *
+     * @return the snapshot item with its state replaced by the rebuilt state, or null if there is no snapshot
+     */
+    public Task<Item> read(final String tableName, final String itemId, final DynamoDBDeadline deadline)
+    {
+        return query(tableName, itemId, deadline).thenApply(items -> rebuild(tableName, itemId, items));
+    }
+
+    /**
+     * Writes the item as a patch against the last known state of the document, or as a snapshot when none is
+     * known, compaction is due, or the item expires, as patches do not renew the snapshot's expiry.
+     */
+    public Task<Void> write(final String tableName, final String itemId, final Item item, final DynamoDBDeadline deadline)
+    {
+        final String documentKey = getDocumentKey(tableName, itemId);
+        final LogHead head = heads.get(documentKey);
+        if (head == null)
+        {
+            // the sequence of the patches already written is needed to number the next one
+            return query(tableName, itemId, deadline).thenCompose(items ->
+            {
+                rebuild(tableName, itemId, items);
+                return write(tableName, itemId, item, heads.getOrDefault(documentKey, new LogHead(null, 0, 0, 0, 0)), deadline);
+            });
+        }
+        return write(tableName, itemId, item, head, deadline);
+    }
+
+    /**
+     * Deletes the snapshot, then its patches, bounding the delete and the query by the deadline.
+     * Once the snapshot is gone the patches are deleted regardless, so none outlive it.
+     */
+    public Task<Void> clear(final String tableName, final String itemId, final DynamoDBDeadline deadline)
+    {
+        heads.remove(getDocumentKey(tableName, itemId));
+        return DynamoDBUtils.deleteItem(dynamoDBConnection, deadline.apply(new DeleteItemRequest()
+                .withTableName(tableName)
+                .withKey(DynamoDBUtils.createKey(dynamoDBConnection, itemId))))
+                .thenCompose(ignored -> query(tableName, itemId, deadline))
+                .thenCompose(items ->
+                {
+                    final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+                    for (final Map<String, AttributeValue> attributes : items)
+                    {
+                        if (getPatchSequence(itemId, attributes) > 0)
+                        {
+                            keys.add(getKey(attributes));
+                        }
+                    }
+                    return deleteKeys(tableName, keys);
+                });
+    }
+
+    /**
+     * Drops what this node knows of the document after it was changed by other means, so the next write queries it.
+     */
+    public void forget(final String tableName, final String itemId)
+    {
+        heads.remove(getDocumentKey(tableName, itemId));
+    }
+
+    private Task<Void> write(final String tableName, final String itemId, final Item item, final LogHead head, final DynamoDBDeadline deadline)
+    {
+        final String documentKey = getDocumentKey(tableName, itemId);
+        final String stateJson = item.getJSON(DynamoDBUtils.FIELD_NAME_DATA);
+        final JsonNode state = readTree(stateJson);
+        final long sequence = head.sequence + 1;
+        final int schemaVersion = getSchemaVersion(item);
+
+        // patches apply to the snapshot before it is upcast, so a new schema version starts a new snapshot
+        if (head.state != null && state != null && head.schemaVersion == schemaVersion && !item.hasAttribute(DynamoDBUtils.FIELD_NAME_EXPIRES_AT))
+        {
+            final String patch = diff(head.state, state).toString();
+            final int patchBytes = patch.length();
+            final DynamoDBConfiguration configuration = dynamoDBConnection.getConfiguration();
+            if (head.sequence - head.snapshotSequence < configuration.getMutationLogCompactRecords()
+                    && head.tailBytes + patchBytes <= configuration.getMutationLogCompactBytes()
+                    && patchBytes < stateJson.length())
+            {
+                final Map<String, AttributeValue> patchItem = new LinkedHashMap<>(createLogKey(itemId, sequence));
+                patchItem.put(FIELD_NAME_PATCH, new AttributeValue(patch));
+                return DynamoDBUtils.putItem(dynamoDBConnection, deadline.apply(new PutItemRequest()
+                        .withTableName(tableName)
+                        .withItem(patchItem)
+                        .withConditionExpression("attribute_not_exists(#id)")
+                        .addExpressionAttributeNamesEntry("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID)))
+                        .whenComplete((result, error) ->
+                        {
+                            if (error != null)
+                            {
+                                // the sequence may have been taken by another writer, the next write finds out which
+                                heads.remove(documentKey);
+                            }
+                            else
+                            {
+                                heads.put(documentKey, new LogHead(state, head.snapshotSequence, sequence, head.tailBytes + patchBytes, schemaVersion));
+                            }
+                        })
+                        .thenApply(result -> (Void) null);
+            }
+        }
+
+        item.withLong(FIELD_NAME_LOG_SEQUENCE, sequence);
+        return DynamoDBUtils.putItem(dynamoDBConnection, deadline.apply(new PutItemRequest()
+                .withTableName(tableName)
+                .withItem(ItemUtils.toAttributeValues(item))))
+                .whenComplete((result, error) ->
+                {
+                    if (error != null)
+                    {
+                        heads.remove(documentKey);
+                    }
+                    else
+                    {
+                        heads.put(documentKey, new LogHead(state, sequence, sequence, 0, schemaVersion));
+                        deleteReplacedPatches(tableName, itemId, head.snapshotSequence + 1, head.sequence);
+                    }
+                })
+                .thenApply(result -> (Void) null);
+    }
+
+    private void deleteReplacedPatches(final String tableName, final String itemId, final long fromSequence, final long toSequence)
+    {
+        final List<Map<String, AttributeValue>> keys = new ArrayList<>();
+        for (long sequence = fromSequence; sequence <= toSequence; sequence++)
+        {
+            keys.add(createLogKey(itemId, sequence));
+        }
+        deleteKeys(tableName, keys).whenComplete((result, error) ->
+        {
+            if (error != null)
+            {
+                logger.warn("Failed to delete the patches of {} replaced by a snapshot, they will be ignored", itemId, error);
+            }
+        });
+    }
+
+    private Task<Void> deleteKeys(final String tableName, final List<Map<String, AttributeValue>> keys)
+    {
+        final List<Task<Void>> batches = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i += DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS)
+        {
+            final List<WriteRequest> writeRequests = new ArrayList<>();
+            for (final Map<String, AttributeValue> key : keys.subList(i, Math.min(i + DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS, keys.size())))
+            {
+                writeRequests.add(new WriteRequest(new DeleteRequest(key)));
+            }
+            batches.add(batchExecutor.writeItems(tableName, writeRequests));
+        }
+        return Task.allOf(batches).thenApply(ignored -> (Void) null);
+    }
+
+    private Task<List<Map<String, AttributeValue>>> query(final String tableName, final String itemId, final DynamoDBDeadline deadline)
+    {
+        checkKeyLayout();
+        final Map<String, AttributeValue> key = DynamoDBUtils.createKey(dynamoDBConnection, itemId);
+        final String decoration = key.get(DynamoDBUtils.FIELD_NAME_DECORATION).getS();
+        return queryAll(new QueryRequest()
+                .withTableName(tableName)
+                .withConsistentRead(true)
+                .withKeyConditionExpression("#id = :id AND #decoration BETWEEN :snapshot AND :logEnd")
+                .addExpressionAttributeNamesEntry("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID)
+                .addExpressionAttributeNamesEntry("#decoration", DynamoDBUtils.FIELD_NAME_DECORATION)
+                .addExpressionAttributeValuesEntry(":id", key.get(DynamoDBUtils.FIELD_NAME_PRIMARY_ID))
+                .addExpressionAttributeValuesEntry(":snapshot", new AttributeValue(decoration))
+                .addExpressionAttributeValuesEntry(":logEnd", new AttributeValue(decoration + LOG_KEY_END)), new ArrayList<>(), deadline);
+    }
+
+    private Task<List<Map<String, AttributeValue>>> queryAll(final QueryRequest queryRequest, final List<Map<String, AttributeValue>> items, final DynamoDBDeadline deadline)
+    {
+        return DynamoDBUtils.query(dynamoDBConnection, deadline.apply(queryRequest))
+                .thenCompose(result ->
+                {
+                    items.addAll(result.getItems());
+                    if (result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty())
+                    {
+                        return Task.fromValue(items);
+                    }
+                    return queryAll(queryRequest.withExclusiveStartKey(result.getLastEvaluatedKey()), items, deadline);
+                });
+    }
+
+    /**
+     * Applies the patches that follow the snapshot in the queried items and records the result as the document's head.
+     */
+    private Item rebuild(final String tableName, final String itemId, final List<Map<String, AttributeValue>> items)
+    {
+        final String snapshotDecoration = DynamoDBUtils.createKey(dynamoDBConnection, itemId).get(DynamoDBUtils.FIELD_NAME_DECORATION).getS();
+        Map<String, AttributeValue> snapshot = null;
+        final List<Map<String, AttributeValue>> patches = new ArrayList<>();
+        long lastSequence = 0;
+        for (final Map<String, AttributeValue> attributes : items)
+        {
+            final long patchSequence = getPatchSequence(itemId, attributes);
+            if (patchSequence > 0)
+            {
+                patches.add(attributes);
+                lastSequence = Math.max(lastSequence, patchSequence);
+            }
+            else if (attributes.get(DynamoDBUtils.FIELD_NAME_DECORATION).getS().equals(snapshotDecoration))
+            {
+                snapshot = attributes;
+            }
+        }
+
+        final String documentKey = getDocumentKey(tableName, itemId);
+        if (snapshot == null || !snapshot.containsKey(DynamoDBUtils.FIELD_NAME_DATA))
+        {
+            // patches without a snapshot are left over from a clear, the next snapshot must be numbered after them
+            heads.put(documentKey, new LogHead(null, lastSequence, lastSequence, 0, 0));
+            return snapshot != null ? ItemUtils.toItem(snapshot) : null;
+        }
+
+        final Item item = ItemUtils.toItem(snapshot);
+        final long snapshotSequence = item.hasAttribute(FIELD_NAME_LOG_SEQUENCE) ? item.getLong(FIELD_NAME_LOG_SEQUENCE) : 0;
+        JsonNode state = readTree(item.getJSON(DynamoDBUtils.FIELD_NAME_DATA));
+        long sequence = snapshotSequence;
+        long tailBytes = 0;
+        for (final Map<String, AttributeValue> patch : patches)
+        {
+            final long patchSequence = getPatchSequence(itemId, patch);
+            if (patchSequence <= snapshotSequence)
+            {
+                continue;
+            }
+            if (patchSequence != sequence + 1)
+            {
+                logger.warn("Patch {} of {} is missing, the patches after it are ignored", sequence + 1, itemId);
+                break;
+            }
+            final String patchJson = patch.get(FIELD_NAME_PATCH).getS();
+            state = apply(state, readTree(patchJson));
+            sequence = patchSequence;
+            tailBytes += patchJson.length();
+        }
+
+        // the next write must not reuse the number of an ignored patch
+        heads.put(documentKey, new LogHead(state, snapshotSequence, Math.max(sequence, lastSequence), tailBytes, getSchemaVersion(item)));
+        return item.withJSON(DynamoDBUtils.FIELD_NAME_DATA, state.toString());
+    }
+
+    /**
+     * @return the patches that turn one state into the other: a set, with path and value, for each changed value,
+     * and a removal, with a path only, for each removed field. Arrays are replaced as a whole.
+     */
+    static ArrayNode diff(final JsonNode before, final JsonNode after)
+    {
+        final ArrayNode patches = JsonNodeFactory.instance.arrayNode();
+        diff(before, after, JsonNodeFactory.instance.arrayNode(), patches);
+        return patches;
+    }
+
+    private static void diff(final JsonNode before, final JsonNode after, final ArrayNode path, final ArrayNode patches)
+    {
+        if (before.isObject() && after.isObject())
+        {
+            final Iterator<String> removed = before.fieldNames();
+            while (removed.hasNext())
+            {
+                final String field = removed.next();
+                if (!after.has(field))
+                {
+                    patches.addObject().set(PATCH_PATH, path.deepCopy().add(field));
+                }
+            }
+
+            final Iterator<Map.Entry<String, JsonNode>> fields = after.fields();
+            while (fields.hasNext())
+            {
+                final Map.Entry<String, JsonNode> field = fields.next();
+                final JsonNode previous = before.get(field.getKey());
+                if (previous == null)
+                {
+                    addSet(patches, path.deepCopy().add(field.getKey()), field.getValue());
+                }
+                else if (!previous.equals(field.getValue()))
+                {
+                    diff(previous, field.getValue(), path.deepCopy().add(field.getKey()), patches);
+                }
+            }
+        }
+        else if (!before.equals(after))
+        {
+            addSet(patches, path, after);
+        }
+    }
+
+    private static void addSet(final ArrayNode patches, final ArrayNode path, final JsonNode value)
+    {
+        final ObjectNode patch = patches.addObject();
+        patch.set(PATCH_PATH, path);
+        patch.set(PATCH_VALUE, value);
+    }
+
+    /**
+     * @return the state with the patches produced by {@link #diff} applied, which may be the given state modified
+     */
+    static JsonNode apply(JsonNode state, final JsonNode patches)
+    {
+        for (final JsonNode patch : patches)
+        {
+            final JsonNode path = patch.get(PATCH_PATH);
+            if (path.size() == 0)
+            {
+                state = patch.get(PATCH_VALUE);
+                continue;
+            }
+
+            JsonNode parent = state;
+            for (int i = 0; i < path.size() - 1; i++)
+            {
+                parent = parent.get(path.get(i).asText());
+            }
+            final String field = path.get(path.size() - 1).asText();
+            if (patch.has(PATCH_VALUE))
+            {
+                ((ObjectNode) parent).set(field, patch.get(PATCH_VALUE));
+            }
+            else
+            {
+                ((ObjectNode) parent).remove(field);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return the sequence of the patch, or 0 if the item is not a patch of the document
+     */
+    private long getPatchSequence(final String itemId, final Map<String, AttributeValue> attributes)
+    {
+        final String prefix = DynamoDBUtils.createKey(dynamoDBConnection, itemId).get(DynamoDBUtils.FIELD_NAME_DECORATION).getS() + LOG_KEY_INFIX;
+        final String decoration = attributes.get(DynamoDBUtils.FIELD_NAME_DECORATION).getS();
+        if (!decoration.startsWith(prefix) || !attributes.containsKey(FIELD_NAME_PATCH))
+        {
+            return 0;
+        }
+        try
+        {
+            return Long.parseLong(decoration.substring(prefix.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+
+    private static int getSchemaVersion(final Item item)
+    {
+        return item.hasAttribute(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION) ? item.getInt(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION) : 0;
+    }
+
+    private Map<String, AttributeValue> createLogKey(final String itemId, final long sequence)
+    {
+        final Map<String, AttributeValue> key = new LinkedHashMap<>(DynamoDBUtils.createKey(dynamoDBConnection, itemId));
+        key.put(DynamoDBUtils.FIELD_NAME_DECORATION, new AttributeValue(
+                key.get(DynamoDBUtils.FIELD_NAME_DECORATION).getS() + LOG_KEY_INFIX + String.format("%019d", sequence)));
+        return key;
+    }
+
+    private static Map<String, AttributeValue> getKey(final Map<String, AttributeValue> attributes)
+    {
+        final Map<String, AttributeValue> key = new LinkedHashMap<>(2);
+        key.put(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, attributes.get(DynamoDBUtils.FIELD_NAME_PRIMARY_ID));
+        key.put(DynamoDBUtils.FIELD_NAME_DECORATION, attributes.get(DynamoDBUtils.FIELD_NAME_DECORATION));
+        return key;
+    }
+
+    private JsonNode readTree(final String json)
+    {
+        if (json == null)
+        {
+            return null;
+        }
+        try
+        {
+            return mapper.readTree(json);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    private void checkKeyLayout()
+    {
+        if (dynamoDBConnection.getConfiguration().getKeyLayout() != DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            throw new IllegalStateException("Mutation-logged states need the " + DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION
+                    + " key layout, so a state's snapshot and patches share a partition");
+        }
+    }
+
+    private static String getDocumentKey(final String tableName, final String itemId)
+    {
+        return tableName + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + itemId;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * What a state operation asks of the reads it issues: their deadline, whether they are hedged, and the profiler
+ * and trace recording them.
+ */
+class DynamoDBOperationContext
+{
+    static final DynamoDBOperationContext NONE = new DynamoDBOperationContext(DynamoDBDeadline.NONE, false, null, null);
+
+    private final DynamoDBDeadline deadline;
+    private final boolean hedged;
+    private final DoubleConsumer consumedCapacity;
+    private final DynamoDBTrace trace;
+
+    /**
+     * @param consumedCapacity receives the capacity consumed by the requests, may be null
+     * @param trace            receives the queueing and network time of the requests, may be null
+     */
+    DynamoDBOperationContext(final DynamoDBDeadline deadline, final boolean hedged, final DoubleConsumer consumedCapacity,
+                             final DynamoDBTrace trace)
+    {
+        this.deadline = deadline;
+        this.hedged = hedged;
+        this.consumedCapacity = consumedCapacity;
+        this.trace = trace;
+    }
+
+    public DynamoDBDeadline getDeadline()
+    {
+        return deadline;
+    }
+
+    public boolean isHedged()
+    {
+        return hedged;
+    }
+
+    public GetItemRequest prepare(final GetItemRequest getItemRequest)
+    {
+        getItemRequest.setReturnConsumedCapacity(consumedCapacity != null ? ReturnConsumedCapacity.TOTAL : ReturnConsumedCapacity.NONE);
+        if (trace != null)
+        {
+            getItemRequest.setGeneralProgressListener(trace.getProgressListener());
+        }
+        return deadline.apply(getItemRequest);
+    }
+
+    public void recordConsumedCapacity(final GetItemResult getItemResult)
+    {
+        if (consumedCapacity != null && getItemResult.getConsumedCapacity() != null)
+        {
+            consumedCapacity.accept(getItemResult.getConsumedCapacity().getCapacityUnits());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Tracks the storage operations that are still running so the extension can drain them on stop.
+ */
+class DynamoDBOperationTracker
+{
+    private final ConcurrentMap<Task<?>, String> operations = new ConcurrentHashMap<>();
+    private volatile boolean accepting = true;
+
+    public <T> Task<T> track(final String description, final Supplier<Task<T>> operation)
+    {
+        final Task<T> tracked = new Task<>();
+
+        // registered before checking the flag, so an operation is either rejected or seen by drain
+        operations.put(tracked, description);
+        if (!accepting)
+        {
+            operations.remove(tracked);
+            return Task.fromException(new IllegalStateException("DynamoDB storage extension is stopping, rejected: " + description));
+        }
+
+        try
+        {
+            operation.get().whenComplete((result, error) ->
+            {
+                operations.remove(tracked);
+                if (error != null)
+                {
+                    tracked.completeExceptionally(error);
+                }
+                else
+                {
+                    tracked.complete(result);
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            operations.remove(tracked);
+            tracked.completeExceptionally(e);
+        }
+
+        return tracked;
+    }
+
+    /**
+     * Tracks work that an operation still being tracked leaves running after it completes, such as a write-behind
+     * sent after its caller was told the state is durable. Unlike {@link #track}, it is accepted while stopping, as
+     * the operation it belongs to was accepted before.
+     */
+    public <T> Task<T> trackContinuation(final String description, final Task<T> continuation)
+    {
+        operations.put(continuation, description);
+        continuation.whenComplete((result, error) -> operations.remove(continuation));
+        return continuation;
+    }
+
+    public void stopAccepting()
+    {
+        accepting = false;
+    }
+
+    public int getInFlightCount()
+    {
+        return operations.size();
+    }
+
+    /**
+     * Waits for the tracked operations to complete.
+     *
+     * @return the descriptions of the operations still running when the timeout elapsed
+     */
+    public List<String> drain(final long timeoutMillis)
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (!operations.isEmpty())
+        {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+                return new ArrayList<>(operations.values());
+            }
+
+            try
+            {
+                CompletableFuture.allOf(operations.keySet().toArray(new CompletableFuture[0]))
+                        .get(remaining, TimeUnit.NANOSECONDS);
+            }
+            catch (ExecutionException e)
+            {
+                // failed operations are done as far as draining is concerned
+            }
+            catch (TimeoutException e)
+            {
+                return new ArrayList<>(operations.values());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return new ArrayList<>(operations.values());
+            }
+        }
+
+        return Collections.emptyList();
+    }
+}
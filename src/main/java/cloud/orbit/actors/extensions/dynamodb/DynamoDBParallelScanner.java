@@ -0,0 +1,221 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Iterates over the items of a parallel scan. Each segment is scanned by its own worker, which stops fetching pages
+ * while the consumer is behind by more than the configured number of buffered pages.
+ * Must be closed if it is not consumed to the end.
+ */
+class DynamoDBParallelScanner<T> implements Iterator<T>, AutoCloseable
+{
+    private static final AtomicInteger scannerCount = new AtomicInteger();
+
+    private static class Page
+    {
+        private final List<Map<String, AttributeValue>> items;
+        private final boolean lastOfSegment;
+        private final RuntimeException error;
+
+        private Page(final List<Map<String, AttributeValue>> items, final boolean lastOfSegment, final RuntimeException error)
+        {
+            this.items = items;
+            this.lastOfSegment = lastOfSegment;
+            this.error = error;
+        }
+    }
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final Function<Map<String, AttributeValue>, T> converter;
+    private final DynamoDBRateLimiter rateLimiter;
+    private final BlockingQueue<Page> pages;
+    private final ExecutorService workers;
+
+    private int remainingSegments;
+    private Iterator<Map<String, AttributeValue>> currentPage = Collections.emptyIterator();
+    private T next;
+
+    /**
+     * @param converter converts scanned items, items converted to null are skipped
+     */
+    DynamoDBParallelScanner(final DynamoDBConnection dynamoDBConnection, final ScanRequest scanRequest, final DynamoDBScanOptions scanOptions,
+                            final Function<Map<String, AttributeValue>, T> converter)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.converter = converter;
+        this.rateLimiter = new DynamoDBRateLimiter(scanOptions.getMaxReadCapacityPerSecond());
+        this.pages = new ArrayBlockingQueue<>(Math.max(1, scanOptions.getBufferedPages()));
+        this.remainingSegments = Math.max(1, scanOptions.getTotalSegments());
+
+        final String threadName = "orbit-dynamodb-scan-" + scannerCount.incrementAndGet() + "-";
+        final AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(remainingSegments, runnable ->
+        {
+            final Thread thread = new Thread(runnable, threadName + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int segment = 0; segment < remainingSegments; segment++)
+        {
+            final ScanRequest segmentRequest = scanRequest.clone()
+                    .withSegment(segment)
+                    .withTotalSegments(remainingSegments)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+            if (scanOptions.getPageSize() > 0)
+            {
+                segmentRequest.setLimit(scanOptions.getPageSize());
+            }
+
+            workers.execute(() -> scanSegment(segmentRequest));
+        }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (next == null)
+        {
+            if (currentPage.hasNext())
+            {
+                next = converter.apply(currentPage.next());
+                continue;
+            }
+
+            if (remainingSegments == 0)
+            {
+                close();
+                return false;
+            }
+
+            final Page page;
+            try
+            {
+                page = pages.take();
+            }
+            catch (InterruptedException e)
+            {
+                close();
+                Thread.currentThread().interrupt();
+                throw new UncheckedException(e);
+            }
+
+            if (page.error != null)
+            {
+                close();
+                throw page.error;
+            }
+
+            if (page.lastOfSegment)
+            {
+                remainingSegments--;
+            }
+            currentPage = page.items.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        final T current = next;
+        next = null;
+        return current;
+    }
+
+    @Override
+    public void close()
+    {
+        workers.shutdownNow();
+    }
+
+    private void scanSegment(final ScanRequest segmentRequest)
+    {
+        try
+        {
+            Map<String, AttributeValue> exclusiveStartKey = null;
+            do
+            {
+                rateLimiter.acquire();
+
+                final ScanResult result = dynamoDBConnection.getAsyncClient().scan(segmentRequest.withExclusiveStartKey(exclusiveStartKey));
+                if (result.getConsumedCapacity() != null)
+                {
+                    rateLimiter.consume(result.getConsumedCapacity().getCapacityUnits());
+                }
+
+                exclusiveStartKey = result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty()
+                        ? null
+                        : result.getLastEvaluatedKey();
+
+                pages.put(new Page(result.getItems(), exclusiveStartKey == null, null));
+            }
+            while (exclusiveStartKey != null);
+        }
+        catch (InterruptedException e)
+        {
+            // closed by the consumer
+        }
+        catch (RuntimeException e)
+        {
+            try
+            {
+                pages.put(new Page(Collections.emptyList(), true, e));
+            }
+            catch (InterruptedException interruptedException)
+            {
+                // closed by the consumer
+            }
+        }
+    }
+}
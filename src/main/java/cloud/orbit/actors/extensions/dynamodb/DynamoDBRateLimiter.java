@@ -0,0 +1,110 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of capacity units consumed by a background job, such as a table scan, so it can run against a live table.
+ * Consumption is only known once a request completes, so callers wait for capacity before a request and account for
+ * what it actually consumed afterwards; overdrafts delay the next request.
+ */
+class DynamoDBRateLimiter
+{
+    private final double unitsPerSecond;
+    private double availableUnits;
+    private long lastRefillNanos;
+
+    /**
+     * @param unitsPerSecond the sustained rate, 0 or less for no limit
+     */
+    DynamoDBRateLimiter(final double unitsPerSecond)
+    {
+        this.unitsPerSecond = unitsPerSecond;
+        this.availableUnits = unitsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until there is capacity left to spend.
+     */
+    public void acquire() throws InterruptedException
+    {
+        if (unitsPerSecond <= 0)
+        {
+            return;
+        }
+
+        while (true)
+        {
+            final long waitNanos;
+            synchronized (this)
+            {
+                refill();
+                if (availableUnits > 0)
+                {
+                    return;
+                }
+                waitNanos = (long) (-availableUnits / unitsPerSecond * TimeUnit.SECONDS.toNanos(1)) + 1;
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * @return whether there is capacity left to spend, without waiting for it
+     */
+    public synchronized boolean tryAcquire()
+    {
+        if (unitsPerSecond <= 0)
+        {
+            return true;
+        }
+        refill();
+        return availableUnits > 0;
+    }
+
+    public synchronized void consume(final double units)
+    {
+        if (unitsPerSecond <= 0)
+        {
+            return;
+        }
+
+        refill();
+        availableUnits -= units;
+    }
+
+    private void refill()
+    {
+        final long now = System.nanoTime();
+        availableUnits = Math.min(unitsPerSecond, availableUnits + (now - lastRefillNanos) * unitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Shares a single consistent GetItem between concurrent reads of the same document.
+ * Writes invalidate the in-flight read of their document when they start and again when they complete, so reads
+ * started after a write completed never observe the state from before it, even by joining a read that started
+ * while the write was in flight.
+ */
+class DynamoDBReadCoalescer
+{
+    private static class InFlightRead
+    {
+        private final Task<Item> task = new Task<>();
+        private final DynamoDBDeadline deadline;
+        private final boolean hedged;
+
+        private InFlightRead(final DynamoDBDeadline deadline, final boolean hedged)
+        {
+            this.deadline = deadline;
+            this.hedged = hedged;
+        }
+
+        /**
+         * @return whether a read with the given deadline and hedging gets all it asked for by joining this one
+         */
+        private boolean covers(final DynamoDBDeadline otherDeadline, final boolean otherHedged)
+        {
+            return deadline.latest(otherDeadline) == deadline && (hedged || !otherHedged);
+        }
+    }
+
+    private final ConcurrentMap<String, InFlightRead> inFlightReads = new ConcurrentHashMap<>();
+    private final DynamoDBConnection dynamoDBConnection;
+    private final DynamoDBReadHedger hedger;
+
+    DynamoDBReadCoalescer(final DynamoDBConnection dynamoDBConnection)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.hedger = new DynamoDBReadHedger(dynamoDBConnection);
+    }
+
+    /**
+     * @return the item, or null if the document does not exist
+     */
+    public Task<Item> read(final String tableName, final String itemId)
+    {
+        return read(tableName, itemId, DynamoDBOperationContext.NONE);
+    }
+
+    /**
+     * Joins the read of the document in flight if it runs at least as long and is hedged whenever this one is, so
+     * no caller is held to another's shorter deadline or loses its hedging; otherwise sends its own request, which
+     * the reads after it join instead.
+     *
+     * @param operationContext the deadline, hedging, capacity profiling and tracing of the request, the last two
+     *                         applied only if this read issues it rather than joining one in flight
+     */
+    public Task<Item> read(final String tableName, final String itemId, final DynamoDBOperationContext operationContext)
+    {
+        final String documentKey = generateDocumentKey(tableName, itemId);
+        final InFlightRead read = new InFlightRead(operationContext.getDeadline(), operationContext.isHedged());
+
+        final InFlightRead inFlight = inFlightReads.putIfAbsent(documentKey, read);
+        if (inFlight != null)
+        {
+            if (inFlight.covers(read.deadline, read.hedged))
+            {
+                // callers get their own dependent task so none of them can complete the shared one
+                return inFlight.task.thenApply(item -> item);
+            }
+            inFlightReads.replace(documentKey, inFlight, read);
+        }
+
+        final GetItemRequest getItemRequest = new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(DynamoDBUtils.createKey(dynamoDBConnection, itemId))
+                .withConsistentRead(true);
+        operationContext.prepare(getItemRequest);
+
+        (operationContext.isHedged()
+                ? hedger.getItem(tableName, getItemRequest, operationContext.getDeadline())
+                : DynamoDBUtils.getItem(dynamoDBConnection, getItemRequest))
+                .whenComplete((result, error) ->
+                {
+                    inFlightReads.remove(documentKey, read);
+                    if (error != null)
+                    {
+                        read.task.completeExceptionally(error);
+                    }
+                    else
+                    {
+                        operationContext.recordConsumedCapacity(result);
+                        read.task.complete(result.getItem() != null ? ItemUtils.toItem(result.getItem()) : null);
+                    }
+                });
+
+        return read.task.thenApply(item -> item);
+    }
+
+    public DynamoDBReadHedger getHedger()
+    {
+        return hedger;
+    }
+
+    /**
+     * Runs a write of the document, invalidating its in-flight read before the write is sent and once it completes,
+     * before its callers are told.
+     */
+    public <T> Task<T> invalidateDuring(final String tableName, final String itemId, final Supplier<Task<T>> write)
+    {
+        invalidate(tableName, itemId);
+        final Task<T> written;
+        try
+        {
+            written = write.get();
+        }
+        catch (RuntimeException e)
+        {
+            invalidate(tableName, itemId);
+            throw e;
+        }
+        return written.whenComplete((result, error) -> invalidate(tableName, itemId));
+    }
+
+    public void invalidate(final String tableName, final String itemId)
+    {
+        inFlightReads.remove(generateDocumentKey(tableName, itemId));
+    }
+
+    private static String generateDocumentKey(final String tableName, final String itemId)
+    {
+        return tableName + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + itemId;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.event.ProgressListener;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a second GetItem when the first is slower than most recent reads of its table, and completes with
+ * whichever response arrives first. The other response is ignored.
+ * <p>
+ * The delay is a percentile of the latencies of the table's recent reads, so only reads in the tail are hedged.
+ * Hedges are paid for with a budget that every read adds a percentage of a hedge to, which caps the extra traffic.
+ */
+class DynamoDBReadHedger
+{
+    final static private int LATENCY_SAMPLES = 1024;
+    final static private int MIN_LATENCY_SAMPLES = 100;
+    final static private int RECOMPUTE_INTERVAL = 128;
+    // the budget is counted in hundredths of a percent of a hedge
+    final static private long HEDGE_COST = 100 * 100;
+    final static private long MAX_BUDGET = 10 * HEDGE_COST;
+
+    /**
+     * The latencies of a table's recent reads. Samples are written without synchronization, so the delay is an estimate.
+     */
+    private static class LatencyWindow
+    {
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private final AtomicLong count = new AtomicLong();
+        private volatile long delayNanos = -1;
+
+        private void record(final long latencyNanos, final double percentile, final long minDelayNanos)
+        {
+            final long index = count.getAndIncrement();
+            samples[(int) (index % LATENCY_SAMPLES)] = latencyNanos;
+
+            final long recorded = index + 1;
+            if (recorded >= MIN_LATENCY_SAMPLES && recorded % RECOMPUTE_INTERVAL == 0)
+            {
+                final long[] sorted = Arrays.copyOf(samples, (int) Math.min(recorded, LATENCY_SAMPLES));
+                Arrays.sort(sorted);
+                final int rank = (int) Math.min(sorted.length - 1, Math.ceil(sorted.length * percentile) - 1);
+                delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, rank)]);
+            }
+        }
+    }
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long budgetPerRead;
+    private final ConcurrentMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong budget = new AtomicLong();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    DynamoDBReadHedger(final DynamoDBConnection dynamoDBConnection)
+    {
+        final DynamoDBConfiguration configuration = dynamoDBConnection.getConfiguration();
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.percentile = configuration.getHedgePercentile();
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getHedgeMinDelayMillis());
+        this.budgetPerRead = Math.round(configuration.getHedgeBudgetPercent() * 100);
+    }
+
+    /**
+     * @param deadline no hedge is sent once it has passed, and a hedge gets only the time left before it
+     */
+    public Task<GetItemResult> getItem(final String tableName, final GetItemRequest getItemRequest, final DynamoDBDeadline deadline)
+    {
+        final LatencyWindow window = latencies.computeIfAbsent(tableName, key -> new LatencyWindow());
+        addBudget();
+
+        final Task<GetItemResult> result = new Task<>();
+        final AtomicInteger pending = new AtomicInteger(1);
+        send(getItemRequest, window, result, pending, false);
+
+        final long delayNanos = window.delayNanos;
+        if (delayNanos > 0)
+        {
+            final ScheduledFuture<?> hedge = dynamoDBConnection.getScheduler().schedule(() ->
+            {
+                if (!result.isDone() && !deadline.isExpired() && takeBudget())
+                {
+                    // the request may carry a trace listener, which must not see the hedge's progress
+                    final GetItemRequest hedgeRequest = deadline.apply(getItemRequest.clone());
+                    hedgeRequest.setGeneralProgressListener(ProgressListener.NOOP);
+                    pending.incrementAndGet();
+                    hedgesSent.increment();
+                    send(hedgeRequest, window, result, pending, true);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+            result.whenComplete((item, error) -> hedge.cancel(false));
+        }
+
+        return result;
+    }
+
+    public long getHedgesSent()
+    {
+        return hedgesSent.sum();
+    }
+
+    /**
+     * @return the hedges that completed before the read they duplicated
+     */
+    public long getHedgesWon()
+    {
+        return hedgesWon.sum();
+    }
+
+    private void send(final GetItemRequest getItemRequest, final LatencyWindow window, final Task<GetItemResult> result,
+                      final AtomicInteger pending, final boolean hedge)
+    {
+        final long startNanos = System.nanoTime();
+        DynamoDBUtils.getItem(dynamoDBConnection, getItemRequest).whenComplete((getItemResult, error) ->
+        {
+            if (error == null)
+            {
+                window.record(System.nanoTime() - startNanos, percentile, minDelayNanos);
+                if (result.complete(getItemResult) && hedge)
+                {
+                    hedgesWon.increment();
+                }
+            }
+            else if (pending.decrementAndGet() == 0)
+            {
+                // a failure only wins when no other request can still succeed
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void addBudget()
+    {
+        long current;
+        do
+        {
+            current = budget.get();
+            if (current >= MAX_BUDGET)
+            {
+                return;
+            }
+        }
+        while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerRead)));
+    }
+
+    private boolean takeBudget()
+    {
+        long current;
+        do
+        {
+            current = budget.get();
+            if (current < HEDGE_COST)
+            {
+                return false;
+            }
+        }
+        while (!budget.compareAndSet(current, current - HEDGE_COST));
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+/**
+ * Options of a parallel scan over persisted states.
+ */
+public class DynamoDBScanOptions
+{
+    public static class Builder
+    {
+        private DynamoDBScanOptions scanOptions;
+
+        public Builder()
+        {
+            scanOptions = new DynamoDBScanOptions();
+        }
+
+        public Builder withTotalSegments(final int totalSegments)
+        {
+            scanOptions.setTotalSegments(totalSegments);
+            return this;
+        }
+
+        public Builder withPageSize(final int pageSize)
+        {
+            scanOptions.setPageSize(pageSize);
+            return this;
+        }
+
+        public Builder withBufferedPages(final int bufferedPages)
+        {
+            scanOptions.setBufferedPages(bufferedPages);
+            return this;
+        }
+
+        public Builder withMaxReadCapacityPerSecond(final double maxReadCapacityPerSecond)
+        {
+            scanOptions.setMaxReadCapacityPerSecond(maxReadCapacityPerSecond);
+            return this;
+        }
+
+        public Builder withConsistentRead(final boolean consistentRead)
+        {
+            scanOptions.setConsistentRead(consistentRead);
+            return this;
+        }
+
+        public DynamoDBScanOptions build()
+        {
+            return scanOptions;
+        }
+    }
+
+    private int totalSegments = 4;
+    private int pageSize = 0;
+    private int bufferedPages = 8;
+    private double maxReadCapacityPerSecond = 0;
+    private boolean consistentRead = false;
+
+    /**
+     * Number of segments scanned in parallel.
+     */
+    public int getTotalSegments()
+    {
+        return totalSegments;
+    }
+
+    public void setTotalSegments(final int totalSegments)
+    {
+        this.totalSegments = totalSegments;
+    }
+
+    /**
+     * Maximum number of items evaluated per request, 0 to let DynamoDB fill 1 MB pages.
+     */
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public void setPageSize(final int pageSize)
+    {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Number of pages fetched ahead of the consumer, segments stop scanning while the buffer is full.
+     */
+    public int getBufferedPages()
+    {
+        return bufferedPages;
+    }
+
+    public void setBufferedPages(final int bufferedPages)
+    {
+        this.bufferedPages = bufferedPages;
+    }
+
+    /**
+     * Read capacity units the whole scan may consume per second, 0 for no limit.
+     */
+    public double getMaxReadCapacityPerSecond()
+    {
+        return maxReadCapacityPerSecond;
+    }
+
+    public void setMaxReadCapacityPerSecond(final double maxReadCapacityPerSecond)
+    {
+        this.maxReadCapacityPerSecond = maxReadCapacityPerSecond;
+    }
+
+    public boolean isConsistentRead()
+    {
+        return consistentRead;
+    }
+
+    public void setConsistentRead(final boolean consistentRead)
+    {
+        this.consistentRead = consistentRead;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The upcasters that bring states persisted in an older schema version to the version of their state class,
+ * {@link DynamoDBStateConfiguration#schemaVersion()}. States are upcast when read and rewritten in the current shape
+ * on their next write, or in the background, see {@link DynamoDBConfiguration#getSchemaUpgradeUnitsPerSecond()}.
+ */
+public class DynamoDBSchemaRegistry
+{
+    private final ConcurrentMap<Class<?>, Map<Integer, DynamoDBUpcaster>> upcasters = new ConcurrentHashMap<>();
+
+    /**
+     * Registers the conversion of a state class's JSON from a version to the next one.
+     */
+    public DynamoDBSchemaRegistry register(final Class<?> stateClass, final int fromVersion, final DynamoDBUpcaster upcaster)
+    {
+        if (fromVersion < 0)
+        {
+            throw new IllegalArgumentException("Schema versions start at 0, not " + fromVersion);
+        }
+        upcasters.computeIfAbsent(stateClass, key -> new ConcurrentHashMap<>()).put(fromVersion, upcaster);
+        return this;
+    }
+
+    /**
+     * @return the version of the state class, 0 when it does not declare one
+     */
+    public static int getSchemaVersion(final Class<?> stateClass)
+    {
+        final DynamoDBStateConfiguration dynamoDBStateConfiguration = stateClass.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null ? dynamoDBStateConfiguration.schemaVersion() : 0;
+    }
+
+    /**
+     * Applies the upcasters from the given version up to the version of the state class.
+     *
+     * @throws IllegalStateException if an upcaster of the chain is missing
+     */
+    public JsonNode upcast(final Class<?> stateClass, final int fromVersion, final JsonNode state)
+    {
+        final Map<Integer, DynamoDBUpcaster> stateUpcasters = upcasters.get(stateClass);
+        JsonNode upcast = state;
+        for (int version = fromVersion; version < getSchemaVersion(stateClass); version++)
+        {
+            final DynamoDBUpcaster upcaster = stateUpcasters != null ? stateUpcasters.get(version) : null;
+            if (upcaster == null)
+            {
+                throw new IllegalStateException("No upcaster registered for " + stateClass.getName() + " from schema version " + version);
+            }
+            upcast = upcaster.upcast(upcast);
+        }
+        return upcast;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Moves the documents of a logical table to the shards a new {@link DynamoDBTableResolver} assigns them to.
+ * Each shard of the previous resolver is scanned on its own thread, and documents that now belong elsewhere are
+ * copied to their new shard and then deleted from the old one.
+ * <p>
+ * Nodes should already use the new resolver when the rebalancer runs. A copy never overwrites a document that a
+ * node has written to the new shard in the meantime, the outdated one is just removed. Until a document is moved,
+ * nodes on the new resolver read it as missing.
+ */
+public class DynamoDBShardRebalancer
+{
+    private final List<DynamoDBConnection> connections;
+    private final String logicalTableName;
+    private final DynamoDBTableResolver previousResolver;
+    private final DynamoDBTableResolver resolver;
+    private final DynamoDBRateLimiter rateLimiter;
+    private final AtomicLong scannedItems = new AtomicLong();
+    private final AtomicLong movedItems = new AtomicLong();
+    private BiConsumer<DynamoDBTableShard, String> moveListener = (shard, itemId) -> { };
+
+    /**
+     * @param connections              the connections shards are placed on, by connection index
+     * @param maxCapacityPerSecond     capacity units the rebalancing may consume per second, 0 for no limit
+     */
+    public DynamoDBShardRebalancer(final List<DynamoDBConnection> connections, final String logicalTableName,
+                                   final DynamoDBTableResolver previousResolver, final DynamoDBTableResolver resolver,
+                                   final double maxCapacityPerSecond)
+    {
+        this.connections = connections;
+        this.logicalTableName = logicalTableName;
+        this.previousResolver = previousResolver;
+        this.resolver = resolver;
+        this.rateLimiter = new DynamoDBRateLimiter(maxCapacityPerSecond);
+    }
+
+    /**
+     * Called before a document is copied to its new shard.
+     */
+    void setMoveListener(final BiConsumer<DynamoDBTableShard, String> moveListener)
+    {
+        this.moveListener = moveListener;
+    }
+
+    public void rebalance() throws InterruptedException
+    {
+        for (final DynamoDBTableShard shard : resolver.getShards(logicalTableName))
+        {
+            DynamoDBUtils.getTable(connections.get(shard.getConnectionIndex()), shard.getTableName()).join();
+        }
+
+        final List<DynamoDBTableShard> sourceShards = previousResolver.getShards(logicalTableName);
+        final ExecutorService workers = Executors.newFixedThreadPool(sourceShards.size());
+        try
+        {
+            final List<Future<?>> shards = new ArrayList<>(sourceShards.size());
+            for (final DynamoDBTableShard sourceShard : sourceShards)
+            {
+                shards.add(workers.submit(() ->
+                {
+                    rebalanceShard(sourceShard);
+                    return null;
+                }));
+            }
+
+            for (final Future<?> shard : shards)
+            {
+                shard.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new UncheckedException(e.getCause());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    public long getScannedItems()
+    {
+        return scannedItems.get();
+    }
+
+    public long getMovedItems()
+    {
+        return movedItems.get();
+    }
+
+    private void rebalanceShard(final DynamoDBTableShard sourceShard) throws InterruptedException
+    {
+        final DynamoDBConnection source = connections.get(sourceShard.getConnectionIndex());
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do
+        {
+            rateLimiter.acquire();
+
+            final ScanResult result = source.getAsyncClient().scan(new ScanRequest()
+                    .withTableName(sourceShard.getTableName())
+                    .withConsistentRead(true)
+                    .withExclusiveStartKey(exclusiveStartKey)
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+            consume(result.getConsumedCapacity() != null ? result.getConsumedCapacity().getCapacityUnits() : null);
+
+            for (final Map<String, AttributeValue> item : result.getItems())
+            {
+                scannedItems.incrementAndGet();
+
+                final String itemId = DynamoDBUtils.getDocumentId(source, item);
+                final DynamoDBTableShard targetShard = resolver.resolve(logicalTableName, getActorId(itemId));
+                if (!targetShard.equals(sourceShard))
+                {
+                    move(source, sourceShard, targetShard, itemId, item);
+                }
+            }
+
+            exclusiveStartKey = result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty()
+                    ? null
+                    : result.getLastEvaluatedKey();
+        }
+        while (exclusiveStartKey != null);
+    }
+
+    private void move(final DynamoDBConnection source, final DynamoDBTableShard sourceShard, final DynamoDBTableShard targetShard,
+                      final String itemId, final Map<String, AttributeValue> item) throws InterruptedException
+    {
+        final DynamoDBConnection target = connections.get(targetShard.getConnectionIndex());
+
+        moveListener.accept(targetShard, itemId);
+
+        rateLimiter.acquire();
+        try
+        {
+            final PutItemResult putResult = target.getAsyncClient().putItem(new PutItemRequest()
+                    .withTableName(targetShard.getTableName())
+                    .withItem(item)
+                    .withConditionExpression("attribute_not_exists(#id)")
+                    .withExpressionAttributeNames(Collections.singletonMap("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID))
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+            consume(putResult.getConsumedCapacity() != null ? putResult.getConsumedCapacity().getCapacityUnits() : null);
+        }
+        catch (ConditionalCheckFailedException e)
+        {
+            // written on the new shard since the scan started, which makes the copy on the old shard outdated
+        }
+
+        rateLimiter.acquire();
+        final DeleteItemResult deleteResult = source.getAsyncClient().deleteItem(new DeleteItemRequest()
+                .withTableName(sourceShard.getTableName())
+                .withKey(DynamoDBUtils.createKey(source, itemId))
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+        consume(deleteResult.getConsumedCapacity() != null ? deleteResult.getConsumedCapacity().getCapacityUnits() : null);
+
+        movedItems.incrementAndGet();
+    }
+
+    private void consume(final Double capacityUnits)
+    {
+        if (capacityUnits != null)
+        {
+            rateLimiter.consume(capacityUnits);
+        }
+    }
+
+    private static String getActorId(final String itemId)
+    {
+        return itemId.substring(0, itemId.lastIndexOf(DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR));
+    }
+}
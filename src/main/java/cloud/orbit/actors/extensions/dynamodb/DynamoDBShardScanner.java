@@ -0,0 +1,92 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Scans the shards of a logical table one after another, starting the scan of a shard only once the previous
+ * one is exhausted. Must be closed if it is not consumed to the end.
+ */
+class DynamoDBShardScanner<T> implements Iterator<T>, AutoCloseable
+{
+    private final Iterator<Supplier<DynamoDBParallelScanner<T>>> shardScanners;
+    private DynamoDBParallelScanner<T> current;
+
+    DynamoDBShardScanner(final List<Supplier<DynamoDBParallelScanner<T>>> shardScanners)
+    {
+        this.shardScanners = shardScanners.iterator();
+    }
+
+    @Override
+    public synchronized boolean hasNext()
+    {
+        while (current == null || !current.hasNext())
+        {
+            if (current != null)
+            {
+                current.close();
+                current = null;
+            }
+            if (!shardScanners.hasNext())
+            {
+                return false;
+            }
+            current = shardScanners.next().get();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized T next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (current != null)
+        {
+            current.close();
+            current = null;
+        }
+        while (shardScanners.hasNext())
+        {
+            shardScanners.next();
+        }
+    }
+}
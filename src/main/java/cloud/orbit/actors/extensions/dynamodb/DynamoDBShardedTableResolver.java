@@ -0,0 +1,149 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spreads the documents of configured logical tables over several physical tables, picked by a stable hash of the
+ * actor id, so all states of an actor stay in one shard. Tables that are not configured resolve like
+ * {@link DynamoDBDefaultTableResolver}.
+ * <p>
+ * Shard 0 keeps the logical table name and shard {@code i} is named {@code <logical>-<i>}. Shards are assigned
+ * with a jump consistent hash, so growing a table from N to M shards only moves about (M - N) / M of its documents,
+ * all into the new shards; {@link DynamoDBShardRebalancer} moves them. Shard {@code i} is reached through
+ * connection {@code i % connectionCount}.
+ */
+public class DynamoDBShardedTableResolver implements DynamoDBTableResolver
+{
+    public static class Builder
+    {
+        private final Map<String, Integer> shardCounts = new HashMap<>();
+        private int connectionCount = 1;
+
+        public Builder withShardedTable(final String logicalTableName, final int shardCount)
+        {
+            if (shardCount < 1)
+            {
+                throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+            }
+            shardCounts.put(logicalTableName, shardCount);
+            return this;
+        }
+
+        /**
+         * Number of connections the shards are spread over, the extension's own connection plus its shard connections.
+         */
+        public Builder withConnectionCount(final int connectionCount)
+        {
+            if (connectionCount < 1)
+            {
+                throw new IllegalArgumentException("Connection count must be at least 1: " + connectionCount);
+            }
+            this.connectionCount = connectionCount;
+            return this;
+        }
+
+        public DynamoDBShardedTableResolver build()
+        {
+            return new DynamoDBShardedTableResolver(shardCounts, connectionCount);
+        }
+    }
+
+    private final Map<String, DynamoDBTableShard[]> shardedTables = new HashMap<>();
+    private final Map<String, List<DynamoDBTableShard>> shardLists = new HashMap<>();
+    private final DynamoDBDefaultTableResolver unshardedTables = new DynamoDBDefaultTableResolver();
+
+    private DynamoDBShardedTableResolver(final Map<String, Integer> shardCounts, final int connectionCount)
+    {
+        shardCounts.forEach((logicalTableName, shardCount) ->
+        {
+            final DynamoDBTableShard[] shards = new DynamoDBTableShard[shardCount];
+            for (int i = 0; i < shardCount; i++)
+            {
+                shards[i] = new DynamoDBTableShard(i == 0 ? logicalTableName : logicalTableName + "-" + i, i % connectionCount);
+            }
+            shardedTables.put(logicalTableName, shards);
+            shardLists.put(logicalTableName, Collections.unmodifiableList(new ArrayList<>(Arrays.asList(shards))));
+        });
+    }
+
+    @Override
+    public DynamoDBTableShard resolve(final String logicalTableName, final String actorId)
+    {
+        final DynamoDBTableShard[] shards = shardedTables.get(logicalTableName);
+        if (shards == null)
+        {
+            return unshardedTables.resolve(logicalTableName, actorId);
+        }
+        return shards[jumpConsistentHash(hash(actorId), shards.length)];
+    }
+
+    @Override
+    public List<DynamoDBTableShard> getShards(final String logicalTableName)
+    {
+        final List<DynamoDBTableShard> shards = shardLists.get(logicalTableName);
+        return shards != null ? shards : unshardedTables.getShards(logicalTableName);
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters of the id, which unlike {@link String#hashCode()} spreads sequential ids well.
+     */
+    static long hash(final String actorId)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < actorId.length(); i++)
+        {
+            hash ^= actorId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm".
+     */
+    static int jumpConsistentHash(long key, final int buckets)
+    {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets)
+        {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+}
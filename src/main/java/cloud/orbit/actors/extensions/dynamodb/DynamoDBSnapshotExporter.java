@@ -0,0 +1,221 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports a table into gzip compressed, newline delimited JSON chunk files using a parallel scan.
+ * Items are written in DynamoDB's typed JSON form, so every attribute is restored exactly by {@link DynamoDBSnapshotImporter}.
+ * <p>
+ * Each segment records its position in a checkpoint file after every completed chunk, and an interrupted export
+ * resumes from there when run again against the same directory.
+ */
+public class DynamoDBSnapshotExporter
+{
+    final static String CHUNK_FILE_SUFFIX = ".ndjson.gz";
+    final static private String PART_FILE_SUFFIX = ".part";
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final String tableName;
+    private final Path directory;
+    private final int totalSegments;
+    private final int itemsPerChunk;
+    private final DynamoDBRateLimiter rateLimiter;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong exportedItems = new AtomicLong();
+
+    /**
+     * @param maxReadCapacityPerSecond read capacity units the export may consume per second, 0 for no limit
+     */
+    public DynamoDBSnapshotExporter(final DynamoDBConnection dynamoDBConnection, final String tableName, final Path directory,
+                                    final int totalSegments, final int itemsPerChunk, final double maxReadCapacityPerSecond)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.tableName = tableName;
+        this.directory = directory;
+        this.totalSegments = Math.max(1, totalSegments);
+        this.itemsPerChunk = Math.max(1, itemsPerChunk);
+        this.rateLimiter = new DynamoDBRateLimiter(maxReadCapacityPerSecond);
+    }
+
+    public void export() throws IOException, InterruptedException
+    {
+        Files.createDirectories(directory);
+
+        final ExecutorService workers = Executors.newFixedThreadPool(totalSegments);
+        try
+        {
+            final List<Future<?>> segments = new ArrayList<>(totalSegments);
+            for (int segment = 0; segment < totalSegments; segment++)
+            {
+                final int currentSegment = segment;
+                segments.add(workers.submit(() ->
+                {
+                    exportSegment(currentSegment);
+                    return null;
+                }));
+            }
+
+            for (final Future<?> segment : segments)
+            {
+                segment.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new UncheckedException(e.getCause());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    public long getExportedItems()
+    {
+        return exportedItems.get();
+    }
+
+    private void exportSegment(final int segment) throws IOException, InterruptedException
+    {
+        final Path checkpointFile = directory.resolve(String.format("segment-%05d.checkpoint", segment));
+
+        int chunk = 0;
+        long segmentItems = 0;
+        Map<String, AttributeValue> exclusiveStartKey = null;
+
+        if (Files.exists(checkpointFile))
+        {
+            final JsonNode checkpoint = mapper.readTree(checkpointFile.toFile());
+            segmentItems = checkpoint.get("items").asLong();
+            exportedItems.addAndGet(segmentItems);
+
+            if (checkpoint.get("complete").asBoolean())
+            {
+                return;
+            }
+
+            chunk = checkpoint.get("nextChunk").asInt();
+            exclusiveStartKey = DynamoDBAttributeCodec.decodeItem(checkpoint.get("lastEvaluatedKey"));
+        }
+
+        do
+        {
+            final Path chunkFile = directory.resolve(String.format("segment-%05d-chunk-%06d%s", segment, chunk, CHUNK_FILE_SUFFIX));
+            final Path partFile = chunkFile.resolveSibling(chunkFile.getFileName() + PART_FILE_SUFFIX);
+
+            int chunkItems = 0;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(partFile)), StandardCharsets.UTF_8)))
+            {
+                // chunks end on page boundaries, since a scan can only resume from the last evaluated key of a page
+                do
+                {
+                    rateLimiter.acquire();
+
+                    final ScanResult result = dynamoDBConnection.getAsyncClient().scan(new ScanRequest()
+                            .withTableName(tableName)
+                            .withConsistentRead(true)
+                            .withSegment(segment)
+                            .withTotalSegments(totalSegments)
+                            .withExclusiveStartKey(exclusiveStartKey)
+                            .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+
+                    if (result.getConsumedCapacity() != null)
+                    {
+                        rateLimiter.consume(result.getConsumedCapacity().getCapacityUnits());
+                    }
+
+                    for (final Map<String, AttributeValue> item : result.getItems())
+                    {
+                        writer.write(mapper.writeValueAsString(DynamoDBAttributeCodec.encodeItem(item)));
+                        writer.write('\n');
+                    }
+
+                    chunkItems += result.getItems().size();
+                    exportedItems.addAndGet(result.getItems().size());
+
+                    exclusiveStartKey = result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty()
+                            ? null
+                            : result.getLastEvaluatedKey();
+                }
+                while (exclusiveStartKey != null && chunkItems < itemsPerChunk);
+            }
+
+            Files.move(partFile, chunkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            chunk++;
+            segmentItems += chunkItems;
+            writeCheckpoint(checkpointFile, chunk, exclusiveStartKey, segmentItems);
+        }
+        while (exclusiveStartKey != null);
+    }
+
+    private void writeCheckpoint(final Path checkpointFile, final int nextChunk, final Map<String, AttributeValue> lastEvaluatedKey, final long items) throws IOException
+    {
+        final ObjectNode checkpoint = mapper.createObjectNode();
+        checkpoint.put("nextChunk", nextChunk);
+        checkpoint.put("items", items);
+        checkpoint.put("complete", lastEvaluatedKey == null);
+        if (lastEvaluatedKey != null)
+        {
+            checkpoint.set("lastEvaluatedKey", DynamoDBAttributeCodec.encodeItem(lastEvaluatedKey));
+        }
+
+        final Path partFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + PART_FILE_SUFFIX);
+        mapper.writeValue(partFile.toFile(), checkpoint);
+        Files.move(partFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
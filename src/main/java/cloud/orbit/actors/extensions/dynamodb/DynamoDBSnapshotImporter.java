@@ -0,0 +1,224 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads the chunk files written by {@link DynamoDBSnapshotExporter} back into a table, creating it if needed.
+ * <p>
+ * Completed chunks are appended to a checkpoint file and skipped when the import is run again. Items are written
+ * with plain puts, so replaying a partially imported chunk after an interruption is harmless.
+ */
+public class DynamoDBSnapshotImporter
+{
+    final static private String CHECKPOINT_FILE_NAME = "import.checkpoint";
+    final static private int MAX_ATTEMPTS = 10;
+    final static private long BASE_BACKOFF_MILLIS = 25;
+    final static private long MAX_BACKOFF_MILLIS = 2000;
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final String tableName;
+    private final Path directory;
+    private final int parallelism;
+    private final DynamoDBRateLimiter rateLimiter;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong importedItems = new AtomicLong();
+
+    /**
+     * @param maxWriteCapacityPerSecond write capacity units the import may consume per second, 0 for no limit
+     */
+    public DynamoDBSnapshotImporter(final DynamoDBConnection dynamoDBConnection, final String tableName, final Path directory,
+                                    final int parallelism, final double maxWriteCapacityPerSecond)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.tableName = tableName;
+        this.directory = directory;
+        this.parallelism = Math.max(1, parallelism);
+        this.rateLimiter = new DynamoDBRateLimiter(maxWriteCapacityPerSecond);
+    }
+
+    public void importSnapshot() throws IOException, InterruptedException
+    {
+        DynamoDBUtils.getTable(dynamoDBConnection, tableName).join();
+
+        final Path checkpointFile = directory.resolve(CHECKPOINT_FILE_NAME);
+        final Set<String> completedChunks = Files.exists(checkpointFile)
+                ? new HashSet<>(Files.readAllLines(checkpointFile, StandardCharsets.UTF_8))
+                : Collections.emptySet();
+
+        final List<Path> chunkFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DynamoDBSnapshotExporter.CHUNK_FILE_SUFFIX))
+        {
+            for (final Path chunkFile : files)
+            {
+                if (!completedChunks.contains(chunkFile.getFileName().toString()))
+                {
+                    chunkFiles.add(chunkFile);
+                }
+            }
+        }
+        Collections.sort(chunkFiles);
+
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try (BufferedWriter checkpoint = Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+        {
+            final List<Future<?>> chunks = new ArrayList<>(chunkFiles.size());
+            for (final Path chunkFile : chunkFiles)
+            {
+                chunks.add(workers.submit(() ->
+                {
+                    importChunk(chunkFile);
+                    synchronized (checkpoint)
+                    {
+                        checkpoint.write(chunkFile.getFileName().toString());
+                        checkpoint.newLine();
+                        checkpoint.flush();
+                    }
+                    return null;
+                }));
+            }
+
+            for (final Future<?> chunk : chunks)
+            {
+                chunk.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new UncheckedException(e.getCause());
+        }
+        finally
+        {
+            workers.shutdownNow();
+        }
+    }
+
+    public long getImportedItems()
+    {
+        return importedItems.get();
+    }
+
+    private void importChunk(final Path chunkFile) throws IOException, InterruptedException
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(chunkFile)), StandardCharsets.UTF_8)))
+        {
+            List<WriteRequest> batch = new ArrayList<>(DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS);
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.isEmpty())
+                {
+                    continue;
+                }
+
+                batch.add(new WriteRequest(new PutRequest(DynamoDBAttributeCodec.decodeItem(mapper.readTree(line)))));
+                if (batch.size() == DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS)
+                {
+                    writeBatch(batch);
+                    batch = new ArrayList<>(DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS);
+                }
+            }
+
+            if (!batch.isEmpty())
+            {
+                writeBatch(batch);
+            }
+        }
+    }
+
+    private void writeBatch(final List<WriteRequest> batch) throws InterruptedException
+    {
+        List<WriteRequest> pending = batch;
+        int attempt = 0;
+        while (!pending.isEmpty())
+        {
+            rateLimiter.acquire();
+
+            final BatchWriteItemResult result = dynamoDBConnection.getAsyncClient().batchWriteItem(new BatchWriteItemRequest()
+                    .withRequestItems(Collections.singletonMap(tableName, pending))
+                    .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+
+            if (result.getConsumedCapacity() != null)
+            {
+                for (final ConsumedCapacity consumedCapacity : result.getConsumedCapacity())
+                {
+                    rateLimiter.consume(consumedCapacity.getCapacityUnits());
+                }
+            }
+
+            final List<WriteRequest> unprocessed = result.getUnprocessedItems() != null && result.getUnprocessedItems().containsKey(tableName)
+                    ? result.getUnprocessedItems().get(tableName)
+                    : Collections.emptyList();
+            importedItems.addAndGet(pending.size() - unprocessed.size());
+            pending = unprocessed;
+
+            if (!pending.isEmpty())
+            {
+                if (++attempt >= MAX_ATTEMPTS)
+                {
+                    throw new UncheckedException("Gave up writing " + pending.size() + " items to " + tableName + " after " + attempt + " attempts");
+                }
+
+                final long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            }
+        }
+    }
+}
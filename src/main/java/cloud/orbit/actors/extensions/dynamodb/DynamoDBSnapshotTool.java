@@ -0,0 +1,147 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Command line entry point for {@link DynamoDBSnapshotExporter} and {@link DynamoDBSnapshotImporter}.
+ * <pre>
+ * export|import &lt;table&gt; &lt;directory&gt; [--endpoint url] [--region name] [--access-key key --secret-key secret]
+ *               [--segments n] [--chunk-items n] [--capacity units-per-second]
+ * </pre>
+ */
+public class DynamoDBSnapshotTool
+{
+    final static private long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    public static void main(final String[] args) throws Exception
+    {
+        final List<String> arguments = new ArrayList<>();
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++)
+        {
+            if (args[i].startsWith("--") && i + 1 < args.length)
+            {
+                options.put(args[i].substring(2), args[++i]);
+            }
+            else
+            {
+                arguments.add(args[i]);
+            }
+        }
+
+        if (arguments.size() != 3 || !(arguments.get(0).equals("export") || arguments.get(0).equals("import")))
+        {
+            System.err.println("usage: export|import <table> <directory> [--endpoint url] [--region name] [--access-key key --secret-key secret]"
+                    + " [--segments n] [--chunk-items n] [--capacity units-per-second]");
+            System.exit(1);
+            return;
+        }
+
+        final String command = arguments.get(0);
+        final String tableName = arguments.get(1);
+        final Path directory = Paths.get(arguments.get(2));
+        final int segments = Integer.parseInt(options.getOrDefault("segments", "4"));
+        final int itemsPerChunk = Integer.parseInt(options.getOrDefault("chunk-items", "100000"));
+        final double capacity = Double.parseDouble(options.getOrDefault("capacity", "0"));
+
+        final DynamoDBConfiguration.Builder builder = new DynamoDBConfiguration.Builder();
+        if (options.containsKey("access-key"))
+        {
+            builder.withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                    .withAccessKey(options.get("access-key"))
+                    .withSecretKey(options.get("secret-key"));
+        }
+        if (options.containsKey("region"))
+        {
+            builder.withRegion(options.get("region"));
+        }
+        if (options.containsKey("endpoint"))
+        {
+            builder.withEndpoint(options.get("endpoint"));
+        }
+
+        final DynamoDBConnection dynamoDBConnection = new DynamoDBConnection(builder.build());
+        try
+        {
+            if (command.equals("export"))
+            {
+                final DynamoDBSnapshotExporter exporter = new DynamoDBSnapshotExporter(dynamoDBConnection, tableName, directory, segments, itemsPerChunk, capacity);
+                runWithProgress(dynamoDBConnection, "exported", exporter::getExportedItems, exporter::export);
+            }
+            else
+            {
+                final DynamoDBSnapshotImporter importer = new DynamoDBSnapshotImporter(dynamoDBConnection, tableName, directory, segments, capacity);
+                runWithProgress(dynamoDBConnection, "imported", importer::getImportedItems, importer::importSnapshot);
+            }
+        }
+        finally
+        {
+            dynamoDBConnection.close();
+        }
+    }
+
+    private static void runWithProgress(final DynamoDBConnection dynamoDBConnection, final String verb, final LongSupplier items, final SnapshotAction action) throws Exception
+    {
+        final long startTime = System.currentTimeMillis();
+        final ScheduledFuture<?> reporter = dynamoDBConnection.getScheduler().scheduleAtFixedRate(
+                () -> printProgress(verb, items.getAsLong(), startTime),
+                PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        try
+        {
+            action.run();
+        }
+        finally
+        {
+            reporter.cancel(false);
+        }
+        printProgress(verb, items.getAsLong(), startTime);
+    }
+
+    private static void printProgress(final String verb, final long items, final long startTime)
+    {
+        final double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+        System.out.println(String.format("%s %d items (%.0f items/s)", verb, items, items / seconds));
+    }
+
+    @FunctionalInterface
+    private interface SnapshotAction
+    {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A traced storage operation, shaped like an OpenTelemetry span: a name, a start and duration, attributes naming
+ * the table and state class, and one timed event per stage.
+ */
+public class DynamoDBSpan
+{
+    public static final String ATTRIBUTE_DB_SYSTEM = "db.system";
+    public static final String ATTRIBUTE_TABLE_NAME = "aws.dynamodb.table_names";
+    public static final String ATTRIBUTE_STATE_CLASS = "orbit.state.class";
+    public static final String ATTRIBUTE_DOCUMENT_ID = "orbit.document.id";
+
+    /**
+     * A stage of the operation, its offset from the start of the span and its duration.
+     */
+    public static class Stage
+    {
+        private final DynamoDBTraceStage stage;
+        private final long startOffsetNanos;
+        private final long durationNanos;
+
+        public Stage(final DynamoDBTraceStage stage, final long startOffsetNanos, final long durationNanos)
+        {
+            this.stage = stage;
+            this.startOffsetNanos = startOffsetNanos;
+            this.durationNanos = durationNanos;
+        }
+
+        public DynamoDBTraceStage getStage()
+        {
+            return stage;
+        }
+
+        public long getStartOffsetNanos()
+        {
+            return startOffsetNanos;
+        }
+
+        public long getDurationNanos()
+        {
+            return durationNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return stage + "=" + durationNanos / 1000 + "us";
+        }
+    }
+
+    private final String name;
+    private final long startEpochMillis;
+    private final long durationNanos;
+    private final Map<String, String> attributes;
+    private final List<Stage> stages;
+    private final Throwable error;
+
+    public DynamoDBSpan(final String name, final long startEpochMillis, final long durationNanos,
+                        final Map<String, String> attributes, final List<Stage> stages, final Throwable error)
+    {
+        this.name = name;
+        this.startEpochMillis = startEpochMillis;
+        this.durationNanos = durationNanos;
+        this.attributes = attributes;
+        this.stages = stages;
+        this.error = error;
+    }
+
+    /**
+     * The operation, such as readState.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getStartEpochMillis()
+    {
+        return startEpochMillis;
+    }
+
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    public Map<String, String> getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * @return the stages in the order they ended; a stage may be missing, for instance the network when a read
+     * joined one in flight
+     */
+    public List<Stage> getStages()
+    {
+        return stages;
+    }
+
+    /**
+     * @return the failure of the operation, or null if it succeeded
+     */
+    public Throwable getError()
+    {
+        return error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " " + attributes + " " + durationNanos / 1000 + "us " + stages + (error != null ? " failed: " + error : "");
+    }
+}
@@ -50,4 +50,66 @@ public @interface DynamoDBStateConfiguration
      * Helps to persist data across Actor Interface renames.
      */
     String idDecorationOverride() default "";
+
+    /**
+     * Coalesces writes to the same document.
+     * While a write is in flight, further writes replace the pending payload instead of issuing another request,
+     * and every coalesced caller completes once the surviving write is acknowledged.
+     */
+    boolean coalesceWrites() default false;
+
+    /**
+     * Completes writes once they are recorded in the node's write-ahead journal instead of when DynamoDB acknowledges
+     * them, and sends them in the background, coalesced. Failed writes are retried with backoff until they succeed or
+     * a newer write of the document does; until then other nodes read the previous state. Writes still
+     * unacknowledged when the node stops are replayed from the journal at the next start. Only takes effect when a
+     * journal directory is configured.
+     */
+    boolean writeBehind() default false;
+
+    /**
+     * Sends a second read when the first is slower than most recent reads of the table, and uses whichever answers
+     * first. See {@link DynamoDBConfiguration#getHedgePercentile()} and {@link DynamoDBConfiguration#getHedgeBudgetPercent()}.
+     */
+    boolean hedgeReads() default false;
+
+    /**
+     * Persists each write as a patch against the previous one, with a full snapshot every few patches, so writes cost
+     * in proportion to what changed. Suits large states that change a little at a time. Needs the
+     * {@link DynamoDBKeyLayout#ACTOR_ID_AND_DECORATION} key layout; mutation-logged states are not coalesced, cached
+     * locally or supported by bulk operations and transactions. See {@link DynamoDBConfiguration#getMutationLogCompactRecords()}.
+     */
+    boolean mutationLog() default false;
+
+    /**
+     * The version of the state's JSON shape, written with each state. States written with an earlier version are
+     * converted when read by the upcasters of {@link DynamoDBConfiguration#getSchemaRegistry()}.
+     */
+    int schemaVersion() default 0;
+
+    /**
+     * Milliseconds a read may take, 0 for no timeout, or -1 to use {@link DynamoDBConfiguration#getReadTimeoutMillis()}.
+     */
+    long readTimeoutMillis() default -1;
+
+    /**
+     * Milliseconds a write may take, 0 for no timeout, or -1 to use {@link DynamoDBConfiguration#getWriteTimeoutMillis()}.
+     */
+    long writeTimeoutMillis() default -1;
+
+    /**
+     * Milliseconds a clear may take, 0 for no timeout, or -1 to use {@link DynamoDBConfiguration#getClearTimeoutMillis()}.
+     */
+    long clearTimeoutMillis() default -1;
+
+    /**
+     * Number of seconds the state lives after each write, 0 to never expire.
+     * Expired states read as absent and are deleted by DynamoDB in the background instead of by clearState.
+     */
+    long timeToLiveSeconds() default 0;
+
+    /**
+     * Computes the expiry from the state itself, takes precedence over timeToLiveSeconds.
+     */
+    Class<? extends DynamoDBTimeToLiveProvider> timeToLiveProvider() default DynamoDBTimeToLiveProvider.class;
 }
@@ -28,126 +28,1877 @@
 
 package cloud.orbit.actors.extensions.dynamodb;
 
+import cloud.orbit.actors.Actor;
 import cloud.orbit.actors.extensions.StorageExtension;
 import cloud.orbit.actors.runtime.RemoteReference;
 import cloud.orbit.concurrent.Task;
 import cloud.orbit.exception.UncheckedException;
 import cloud.orbit.util.StringUtils;
 
+import com.amazonaws.ClientExecutionTimeoutException;
 import com.amazonaws.services.dynamodbv2.document.Item;
-import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DynamoDBStorageExtension implements StorageExtension
 {
     final static public String DOCUMENT_ID_DECORATION_SEPARATOR = "/";
+    final static private String PAGE_TOKEN_SHARD = "#shard";
+    final static private int MAX_TRANSACTION_ITEMS = 100;
+    final static private long WRITE_BEHIND_RETRY_BASE_DELAY_MILLIS = 100;
+    final static private long WRITE_BEHIND_RETRY_MAX_DELAY_MILLIS = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBStorageExtension.class);
 
     private String name = "default";
 
     private DynamoDBConnection dynamoDBConnection;
+    private List<DynamoDBConnectionContext> connectionContexts;
+    private DynamoDBTableResolver tableResolver;
+    private DynamoDBOperationTracker operationTracker;
+    private DynamoDBLocalStateCache localStateCache;
+    private DynamoDBLocalStateConfirmations localStateConfirmations;
+    private DynamoDBWriteJournal writeJournal;
+    // the journal sequence of the latest write-behind of each document, so retries never overwrite a newer state
+    private final ConcurrentMap<String, Long> latestWriteBehinds = new ConcurrentHashMap<>();
+    private volatile boolean writeBehindStopped;
+    private List<DynamoDBStreamConsumer> streamConsumers = new ArrayList<>();
+    private DynamoDBCapacityProfiler capacityProfiler;
+    private DynamoDBRateLimiter schemaUpgradeLimiter;
+    private final Set<String> legacyDocuments = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Class<?>, DynamoDBTimeToLiveProvider> timeToLiveProviders = new ConcurrentHashMap<>();
+
+    private DynamoDBConfiguration dynamoDBConfiguration = new DynamoDBConfiguration();
+    private String defaultTableName = "orbit";
+
+
+    public DynamoDBStorageExtension()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration();
+    }
+
+    public DynamoDBStorageExtension(final DynamoDBConfiguration dynamoDBConfiguration)
+    {
+        this.dynamoDBConfiguration = dynamoDBConfiguration;
+    }
+
+    @Override
+     public Task<Void> start()
+    {
+        for (final DynamoDBConfiguration shardConnection : dynamoDBConfiguration.getShardConnections())
+        {
+            // document ids are mapped to keys the same way on every connection
+            if (shardConnection.getKeyLayout() != dynamoDBConfiguration.getKeyLayout())
+            {
+                throw new IllegalArgumentException("Shard connections must use the key layout " + dynamoDBConfiguration.getKeyLayout());
+            }
+        }
+
+        tableResolver = dynamoDBConfiguration.getTableResolver();
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+        connectionContexts = new ArrayList<>();
+        connectionContexts.add(new DynamoDBConnectionContext(dynamoDBConnection));
+        for (final DynamoDBConfiguration shardConnection : dynamoDBConfiguration.getShardConnections())
+        {
+            connectionContexts.add(new DynamoDBConnectionContext(new DynamoDBConnection(shardConnection)));
+        }
+        operationTracker = new DynamoDBOperationTracker();
+
+        if (dynamoDBConfiguration.getLocalCacheDirectory() != null)
+        {
+            localStateCache = new DynamoDBLocalStateCache(Paths.get(dynamoDBConfiguration.getLocalCacheDirectory()),
+                    dynamoDBConfiguration.getLocalCacheMaxBytes(), dynamoDBConfiguration.getLocalCacheSegmentBytes(),
+                    dynamoDBConfiguration.getLocalCacheCompactionMillis());
+            try
+            {
+                localStateCache.open();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedException(e);
+            }
+
+            if (dynamoDBConfiguration.isStreamInvalidationEnabled() && dynamoDBConfiguration.getLocalCacheMaxStreamLagMillis() > 0)
+            {
+                localStateConfirmations = new DynamoDBLocalStateConfirmations();
+            }
+        }
+
+        for (final DynamoDBTableShard shard : tableResolver.getShards(defaultTableName))
+        {
+            DynamoDBUtils.getTable(getContext(shard).getConnection(), shard.getTableName()).join();
+        }
+
+        if (dynamoDBConfiguration.getJournalDirectory() != null)
+        {
+            writeJournal = new DynamoDBWriteJournal(Paths.get(dynamoDBConfiguration.getJournalDirectory()),
+                    dynamoDBConfiguration.getJournalSyncPolicy(), dynamoDBConfiguration.getJournalSyncIntervalMillis(),
+                    dynamoDBConfiguration.getJournalSegmentBytes());
+            try
+            {
+                replayJournal(writeJournal.recover());
+                writeJournal.start();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedException(e);
+            }
+        }
+
+        if (dynamoDBConfiguration.isStreamInvalidationEnabled())
+        {
+            startStreamConsumers();
+        }
+        else if (dynamoDBConfiguration.isExistenceFilterEnabled() && !dynamoDBConfiguration.isExistenceFilterWritesAnnounced())
+        {
+            logger.warn("The existence filter needs stream invalidation or announced writes to be kept current, every read will go to DynamoDB");
+        }
+
+        if (dynamoDBConfiguration.isCapacityProfilingEnabled())
+        {
+            capacityProfiler = new DynamoDBCapacityProfiler(dynamoDBConfiguration.getCapacityProfileLargestDocuments());
+            capacityProfiler.start(dynamoDBConnection.getScheduler(), dynamoDBConfiguration.getCapacityReportMillis());
+        }
+
+        if (dynamoDBConfiguration.getSchemaUpgradeUnitsPerSecond() > 0)
+        {
+            schemaUpgradeLimiter = new DynamoDBRateLimiter(dynamoDBConfiguration.getSchemaUpgradeUnitsPerSecond());
+        }
+
+        return Task.done();
+    }
+
+    @Override
+    public Task<Void> stop()
+    {
+        if (operationTracker == null)
+        {
+            return Task.done();
+        }
+
+        // coalesced writes are tracked through their callers, so draining also flushes pending writes
+        operationTracker.stopAccepting();
+
+        // draining waits for up to the shutdown timeout, which is not the caller's thread to spend
+        final Task<Void> stopped = new Task<>();
+        final Thread shutdown = new Thread(() ->
+        {
+            try
+            {
+                drainAndRelease();
+                stopped.complete(null);
+            }
+            catch (RuntimeException e)
+            {
+                stopped.completeExceptionally(e);
+            }
+        }, "orbit-dynamodb-shutdown");
+        shutdown.start();
+        return stopped;
+    }
+
+    private void drainAndRelease()
+    {
+        final List<String> abandoned = operationTracker.drain(dynamoDBConfiguration.getShutdownTimeoutMillis());
+        if (!abandoned.isEmpty())
+        {
+            logger.warn("Abandoned {} DynamoDB operations still in flight after {} ms: {}",
+                    abandoned.size(), dynamoDBConfiguration.getShutdownTimeoutMillis(), abandoned);
+        }
+
+        if (writeJournal != null)
+        {
+            // write-behinds still failing are left to the journal replay at the next start
+            writeBehindStopped = true;
+            writeJournal.close();
+        }
+
+        for (final DynamoDBStreamConsumer streamConsumer : streamConsumers)
+        {
+            streamConsumer.stop();
+        }
+
+        if (capacityProfiler != null)
+        {
+            capacityProfiler.stop();
+        }
+
+        for (final DynamoDBConnectionContext context : connectionContexts)
+        {
+            context.getConnection().close();
+        }
+
+        if (localStateCache != null)
+        {
+            localStateCache.close();
+        }
+    }
+
+    @Override
+    public Task<Void> clearState(final RemoteReference<?> reference, final Object state)
+    {
+        return clearState(reference, state, state.getClass());
+    }
+
+    public Task<Void> clearState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    {
+        final DynamoDBTableShard shard = getTableShard(reference, stateClass);
+        final DynamoDBConnectionContext context = getContext(shard);
+        final String tableName = shard.getTableName();
+        final String itemId = generateDocumentId(reference, stateClass);
+        final String legacyItemId = generateLegacyDocumentId(reference, stateClass);
+        final DynamoDBTrace trace = startTrace("clearState", tableName, stateClass, itemId);
+        final DynamoDBDeadline deadline = DynamoDBDeadline.after(getClearTimeoutMillis(stateClass));
+
+        return finishTrace(trace, withDeadline(operationTracker.track("clearState " + itemId, () -> removeLegacyDocument(context, shard, legacyItemId, stateClass, true, deadline,
+                () -> context.getReadCoalescer().invalidateDuring(tableName, itemId, () ->
+        {
+            removeFromLocalCache(shard, itemId);
+
+            if (isMutationLogged(stateClass))
+            {
+                return resolveTable(context, tableName)
+                        .thenCompose(table ->
+                        {
+                            mark(trace, DynamoDBTraceStage.RESOLVE);
+                            deadline.check("clearState " + itemId);
+                            return context.getMutationLog().clear(tableName, itemId, deadline)
+                                    .whenComplete((result, error) -> mark(trace, DynamoDBTraceStage.NETWORK));
+                        });
+            }
+
+            if (isCoalescingWrites(stateClass))
+            {
+                return resolveTable(context, tableName)
+                        .thenCompose(table ->
+                        {
+                            mark(trace, DynamoDBTraceStage.RESOLVE);
+                            return submitCoalescedWrite(context, shard, itemId, null, stateClass, deadline, null)
+                                    .whenComplete((result, error) -> mark(trace, DynamoDBTraceStage.QUEUE));
+                        });
+            }
+
+            return resolveTable(context, tableName)
+                    .thenCompose(table ->
+                    {
+                        mark(trace, DynamoDBTraceStage.RESOLVE);
+                        deadline.check("clearState " + itemId);
+                        return DynamoDBUtils.deleteItem(context.getConnection(), deadline.apply(new DeleteItemRequest()
+                                .withTableName(tableName)
+                                .withKey(DynamoDBUtils.createKey(context.getConnection(), itemId))));
+                    })
+                    .thenAccept(result -> mark(trace, DynamoDBTraceStage.NETWORK));
+        }))), deadline, "clearState " + itemId));
+    }
+
+    @Override
+    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state)
+    {
+        return readState(reference, state, state.getClass());
+    }
+
+    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    {
+        final ObjectMapper mapper = dynamoDBConnection.getMapper();
+        final DynamoDBTableShard shard = getTableShard(reference, stateClass);
+        final DynamoDBConnectionContext context = getContext(shard);
+        final String tableName = shard.getTableName();
+        final String itemId = generateDocumentId(reference, stateClass);
+        final DynamoDBCapacityProfiler.Counters capacityCounters = getCapacityCounters(reference, stateClass);
+        final String legacyItemId = generateLegacyDocumentId(reference, stateClass);
+        final DynamoDBTrace trace = startTrace("readState", tableName, stateClass, itemId);
+        final DynamoDBDeadline deadline = DynamoDBDeadline.after(getReadTimeoutMillis(stateClass));
+        final DynamoDBOperationContext operationContext = new DynamoDBOperationContext(deadline, isHedgingReads(stateClass),
+                capacityCounters != null ? capacityCounters::recordReadCapacity : null, trace);
+
+        return finishTrace(trace, withDeadline(operationTracker.track("readState " + itemId, () -> resolveTable(context, tableName)
+                .thenCompose(table ->
+                {
+                    mark(trace, DynamoDBTraceStage.RESOLVE);
+                    // write-behind writes complete before DynamoDB has them, so reads wait for the document's pending writes
+                    return isWriteBehind(stateClass)
+                            ? context.getWriteCoalescer().flush(tableName, itemId).thenRun(() -> mark(trace, DynamoDBTraceStage.QUEUE))
+                            : Task.done();
+                })
+                .thenCompose(ignored ->
+                {
+                    deadline.check("readState " + itemId);
+                    return readDocument(context, shard, itemId, stateClass, operationContext)
+                            .thenCompose(item -> item != null || legacyItemId == null
+                                    ? Task.fromValue(item)
+                                    : readLegacyDocument(context, shard, legacyItemId, stateClass, operationContext));
+                })
+                .thenCompose(item ->
+                {
+                    if (trace != null)
+                    {
+                        trace.markResponse();
+                    }
+
+                    if (item != null && !DynamoDBUtils.isExpired(item))
+                    {
+                        if (capacityCounters != null)
+                        {
+                            capacityCounters.recordRead(itemId, DynamoDBCapacityProfiler.estimateItemBytes(item));
+                        }
+                        readStateInternal(state, stateClass, item, mapper);
+                        mark(trace, DynamoDBTraceStage.DESERIALIZE);
+                        if (isLegacyDocumentRead(shard, legacyItemId))
+                        {
+                            // the migration writes the current schema version as well
+                            return migrateLegacyDocument(reference, state, stateClass).thenApply(ignored -> true);
+                        }
+                        upgradeSchema(context, shard, reference, state, stateClass, itemId, item);
+                        return Task.fromValue(true);
+                    }
+                    else
+                    {
+                        return Task.fromValue(false);
+                    }
+                })), deadline, "readState " + itemId));
+    }
+
+    @Override
+    public Task<Void> writeState(final RemoteReference<?> reference, final Object state)
+    {
+        return writeState(reference, state, state.getClass());
+    }
+
+    public Task<Void> writeState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    {
+        final DynamoDBTableShard shard = getTableShard(reference, stateClass);
+        final DynamoDBConnectionContext context = getContext(shard);
+        final String tableName = shard.getTableName();
+        final String itemId = generateDocumentId(reference, stateClass);
+        final DynamoDBCapacityProfiler.Counters capacityCounters = getCapacityCounters(reference, stateClass);
+        final String legacyItemId = generateLegacyDocumentId(reference, stateClass);
+        final DynamoDBTrace trace = startTrace("writeState", tableName, stateClass, itemId);
+        final DynamoDBDeadline deadline = DynamoDBDeadline.after(getWriteTimeoutMillis(stateClass));
+
+        return finishTrace(trace, withDeadline(operationTracker.track("writeState " + itemId, () -> removeLegacyDocument(context, shard, legacyItemId, stateClass, false, deadline,
+                () -> context.getReadCoalescer().invalidateDuring(tableName, itemId, () ->
+        {
+            if (isMutationLogged(stateClass))
+            {
+                return resolveTable(context, tableName)
+                        .thenCompose(table ->
+                        {
+                            mark(trace, DynamoDBTraceStage.RESOLVE);
+                            final Item newItem = generatePutItem(reference, state, stateClass, itemId, dynamoDBConnection.getMapper());
+                            if (capacityCounters != null)
+                            {
+                                capacityCounters.recordWrite(itemId, DynamoDBCapacityProfiler.estimateItemBytes(newItem));
+                            }
+                            mark(trace, DynamoDBTraceStage.SERIALIZE);
+
+                            deadline.check("writeState " + itemId);
+                            recordExistence(context, tableName, itemId);
+                            return context.getMutationLog().write(tableName, itemId, newItem, deadline)
+                                    .whenComplete((result, error) -> mark(trace, DynamoDBTraceStage.NETWORK));
+                        });
+            }
+
+            if (isCoalescingWrites(stateClass))
+            {
+                // the item is generated before queueing, so a coalesced write persists the state as it was when written
+                return resolveTable(context, tableName)
+                        .thenCompose(table ->
+                        {
+                            mark(trace, DynamoDBTraceStage.RESOLVE);
+                            final Item newItem = generatePutItem(reference, state, stateClass, itemId, dynamoDBConnection.getMapper());
+                            if (localStateCache != null)
+                            {
+                                // a coalesced write may be superseded before it is sent, so its state is not cached
+                                stampVersion(newItem, DynamoDBAttributeCodec.encodeItemBytes(ItemUtils.toAttributeValues(newItem)));
+                                removeFromLocalCache(shard, itemId);
+                            }
+
+                            if (capacityCounters != null)
+                            {
+                                capacityCounters.recordWrite(itemId, DynamoDBCapacityProfiler.estimateItemBytes(newItem));
+                            }
+
+                            mark(trace, DynamoDBTraceStage.SERIALIZE);
+                            recordExistence(context, tableName, itemId);
+                            return submitCoalescedWrite(context, shard, itemId, newItem, stateClass, deadline,
+                                    capacityCounters != null ? capacityCounters::recordWriteCapacity : null)
+                                    .whenComplete((result, error) -> mark(trace, DynamoDBTraceStage.QUEUE));
+                        });
+            }
+
+            return resolveTable(context, tableName)
+                    .thenCompose(table ->
+                    {
+                        mark(trace, DynamoDBTraceStage.RESOLVE);
+                        final Item newItem = generatePutItem(reference, state, stateClass, itemId, dynamoDBConnection.getMapper());
+                        final byte[] cachedItem = localStateCache != null ? DynamoDBAttributeCodec.encodeItemBytes(ItemUtils.toAttributeValues(newItem)) : null;
+                        final long version = cachedItem != null ? stampVersion(newItem, cachedItem) : 0;
+                        mark(trace, DynamoDBTraceStage.SERIALIZE);
+
+                        deadline.check("writeState " + itemId);
+                        recordExistence(context, tableName, itemId);
+                        if (capacityCounters != null)
+                        {
+                            capacityCounters.recordWrite(itemId, DynamoDBCapacityProfiler.estimateItemBytes(newItem));
+                        }
+
+                        return DynamoDBUtils.putItem(context.getConnection(), deadline.apply(new PutItemRequest()
+                                .withTableName(tableName)
+                                .withItem(ItemUtils.toAttributeValues(newItem))
+                                .withReturnConsumedCapacity(capacityCounters != null ? ReturnConsumedCapacity.TOTAL : ReturnConsumedCapacity.NONE)))
+                                .thenAccept(result ->
+                                {
+                                    mark(trace, DynamoDBTraceStage.NETWORK);
+                                    if (capacityCounters != null && result.getConsumedCapacity() != null)
+                                    {
+                                        capacityCounters.recordWriteCapacity(result.getConsumedCapacity().getCapacityUnits());
+                                    }
+                                    if (cachedItem != null)
+                                    {
+                                        putInLocalCache(getLocalCacheKey(shard, itemId), version, cachedItem);
+                                    }
+                                });
+                    });
+        }))), deadline, "writeState " + itemId));
+    }
+
+    /**
+     * Reads the states of many references at once, using BatchGetItem requests that run in parallel per table.
+     *
+     * @return one result per entry, in the order of the entries
+     */
+    public Task<List<DynamoDBBulkResult>> readStates(final Collection<DynamoDBStateEntry> entries)
+    {
+        final List<DynamoDBStateEntry> entryList = new ArrayList<>(entries);
+        final DynamoDBBulkResult[] results = new DynamoDBBulkResult[entryList.size()];
+        final ObjectMapper mapper = dynamoDBConnection.getMapper();
+
+        return operationTracker.track("readStates " + entryList.size(), () ->
+        {
+            final List<Task<Void>> batches = new ArrayList<>();
+
+            groupByTableAndDocument(entryList, results).forEach((shard, entryIndexesByItemId) ->
+            {
+                final DynamoDBConnectionContext context = getContext(shard);
+                final String tableName = shard.getTableName();
+
+                for (final List<String> itemIds : partition(entryIndexesByItemId.keySet(), DynamoDBBatchExecutor.MAX_BATCH_GET_ITEMS))
+                {
+                    batches.add(DynamoDBUtils.getTable(context.getConnection(), tableName)
+                            .thenCompose(table ->
+                            {
+                                final List<String> existingItemIds = new ArrayList<>(itemIds.size());
+                                for (final String itemId : itemIds)
+                                {
+                                    if (mightExist(context, tableName, itemId))
+                                    {
+                                        existingItemIds.add(itemId);
+                                    }
+                                }
+
+                                return existingItemIds.isEmpty()
+                                        ? Task.fromValue(Collections.<String, Item>emptyMap())
+                                        : context.getBatchExecutor().getItems(table.getTableName(), existingItemIds);
+                            })
+                            .thenCompose(items -> readLegacyItems(context, shard, itemIds, entryList, entryIndexesByItemId, items))
+                            .thenApply(items ->
+                            {
+                                for (final String itemId : itemIds)
+                                {
+                                    final Item item = items.get(itemId);
+                                    for (final int index : entryIndexesByItemId.get(itemId))
+                                    {
+                                        results[index] = readBulkResult(entryList.get(index), item, mapper);
+                                    }
+                                }
+                                return (Void) null;
+                            })
+                            .exceptionally(error -> failBulkResults(entryList, results, entryIndexesByItemId, itemIds, error)));
+                }
+            });
+
+            return Task.allOf(batches).thenCompose(ignored -> migrateLegacyDocuments(Arrays.asList(results)));
+        });
+    }
+
+    /**
+     * Writes the states of many references at once, using BatchWriteItem requests that run in parallel per table.
+     * Bulk writes are not coalesced; if several entries share a document the last one is written. Pending coalesced
+     * writes of the states are flushed first, so they cannot overwrite the bulk write afterwards.
+     *
+     * @return one result per entry, in the order of the entries
+     */
+    public Task<List<DynamoDBBulkResult>> writeStates(final Collection<DynamoDBStateEntry> entries)
+    {
+        final List<DynamoDBStateEntry> entryList = new ArrayList<>(entries);
+        final DynamoDBBulkResult[] results = new DynamoDBBulkResult[entryList.size()];
+        final ObjectMapper mapper = dynamoDBConnection.getMapper();
+
+        return operationTracker.track("writeStates " + entryList.size(), () ->
+        {
+            final Item[] items = new Item[entryList.size()];
+            for (int i = 0; i < entryList.size(); i++)
+            {
+                final DynamoDBStateEntry entry = entryList.get(i);
+                try
+                {
+                    items[i] = generatePutItem(entry.getReference(), entry.getState(), entry.getStateClass(),
+                            generateDocumentId(entry.getReference(), entry.getStateClass()), mapper);
+                }
+                catch (RuntimeException e)
+                {
+                    results[i] = new DynamoDBBulkResult(entry, false, e);
+                }
+            }
+
+            return writeBulk(entryList, results, true, entryIndexes ->
+                    new WriteRequest(new PutRequest(ItemUtils.toAttributeValues(items[entryIndexes.get(entryIndexes.size() - 1)]))));
+        });
+    }
+
+    /**
+     * Clears the states of many references at once, using BatchWriteItem requests that run in parallel per table.
+     * Pending coalesced writes of the states are flushed first, so they cannot restore a cleared state afterwards, and
+     * the documents the states had under the actor interface name are deleted after them.
+     *
+     * @return one result per entry, in the order of the entries
+     */
+    public Task<List<DynamoDBBulkResult>> clearStates(final Collection<DynamoDBStateEntry> entries)
+    {
+        final List<DynamoDBStateEntry> entryList = new ArrayList<>(entries);
+        final DynamoDBBulkResult[] results = new DynamoDBBulkResult[entryList.size()];
+
+        return operationTracker.track("clearStates " + entryList.size(), () ->
+                writeBulk(entryList, results, false, entryIndexes ->
+                {
+                    final DynamoDBStateEntry entry = entryList.get(entryIndexes.get(0));
+                    return new WriteRequest(new DeleteRequest(DynamoDBUtils.createKey(dynamoDBConnection, generateDocumentId(entry.getReference(), entry.getStateClass()))));
+                }).thenCompose(ignored -> removeLegacyDocuments(entryList, results)));
+    }
+
+    /**
+     * Writes and clears the states of several references in a single TransactWriteItems request, so either all of
+     * them are persisted or none is. The states may be in different tables of the same connection. Pending coalesced
+     * writes of the states are flushed first, so they cannot overwrite the transaction afterwards.
+     *
+     * @return the versions of the written states in the order of the entries, null for cleared states; fails with a
+     * {@link DynamoDBTransactionConflictException} when a condition does not hold or another transaction is writing
+     * one of the states
+     */
+    public Task<List<Long>> commitStates(final Collection<DynamoDBTransactionEntry> entries)
+    {
+        final List<DynamoDBTransactionEntry> entryList = new ArrayList<>(entries);
+        if (entryList.isEmpty() || entryList.size() > MAX_TRANSACTION_ITEMS)
+        {
+            throw new IllegalArgumentException("A transaction commits between 1 and " + MAX_TRANSACTION_ITEMS + " states, not " + entryList.size());
+        }
+
+        final DynamoDBTableShard[] shards = new DynamoDBTableShard[entryList.size()];
+        final String[] itemIds = new String[entryList.size()];
+        final Set<String> documents = new HashSet<>();
+        for (int i = 0; i < entryList.size(); i++)
+        {
+            final DynamoDBTransactionEntry entry = entryList.get(i);
+            shards[i] = getTableShard(entry.getReference(), entry.getStateClass());
+            itemIds[i] = generateDocumentId(entry.getReference(), entry.getStateClass());
+            if (shards[i].getConnectionIndex() != shards[0].getConnectionIndex())
+            {
+                throw new IllegalArgumentException("A transaction cannot span connections, " + itemIds[i] + " is on another connection than " + itemIds[0]);
+            }
+            if (!documents.add(shards[i].getTableName() + "/" + itemIds[i]))
+            {
+                throw new IllegalArgumentException("A transaction cannot commit the state " + itemIds[i] + " twice");
+            }
+            if (isMutationLogged(entry.getStateClass()))
+            {
+                throw new IllegalArgumentException("A transaction cannot commit the mutation-logged state " + itemIds[i]);
+            }
+        }
+
+        final DynamoDBConnectionContext context = getContext(shards[0]);
+        return operationTracker.track("commitStates " + entryList.size(), () ->
+        {
+            final List<Task<?>> preparations = new ArrayList<>();
+            for (int i = 0; i < entryList.size(); i++)
+            {
+                final String tableName = shards[i].getTableName();
+                context.getReadCoalescer().invalidate(tableName, itemIds[i]);
+                removeFromLocalCache(shards[i], itemIds[i]);
+                preparations.add(DynamoDBUtils.getTable(context.getConnection(), tableName));
+                if (isCoalescingWrites(entryList.get(i).getStateClass()))
+                {
+                    preparations.add(context.getWriteCoalescer().flush(tableName, itemIds[i]));
+                }
+            }
+
+            final Long[] versions = new Long[entryList.size()];
+            final byte[][] encodedItems = new byte[entryList.size()][];
+            return Task.allOf(preparations).thenCompose(ignored ->
+            {
+                final List<TransactWriteItem> transactItems = new ArrayList<>(entryList.size());
+                for (int i = 0; i < entryList.size(); i++)
+                {
+                    final DynamoDBTransactionEntry entry = entryList.get(i);
+                    final Map<String, String> names = new HashMap<>();
+                    final Map<String, AttributeValue> values = new HashMap<>();
+                    final String condition = createTransactionCondition(entry, names, values);
+
+                    if (entry.isClear())
+                    {
+                        transactItems.add(new TransactWriteItem().withDelete(new Delete()
+                                .withTableName(shards[i].getTableName())
+                                .withKey(DynamoDBUtils.createKey(context.getConnection(), itemIds[i]))
+                                .withConditionExpression(condition)
+                                .withExpressionAttributeNames(names.isEmpty() ? null : names)
+                                .withExpressionAttributeValues(values.isEmpty() ? null : values)));
+                    }
+                    else
+                    {
+                        // every transactional write is versioned, so later transactions can be conditioned on it
+                        final Item item = generatePutItem(entry.getReference(), entry.getState(), entry.getStateClass(),
+                                itemIds[i], dynamoDBConnection.getMapper());
+                        encodedItems[i] = DynamoDBAttributeCodec.encodeItemBytes(ItemUtils.toAttributeValues(item));
+                        versions[i] = stampVersion(item, encodedItems[i]);
+
+                        transactItems.add(new TransactWriteItem().withPut(new Put()
+                                .withTableName(shards[i].getTableName())
+                                .withItem(ItemUtils.toAttributeValues(item))
+                                .withConditionExpression(condition)
+                                .withExpressionAttributeNames(names.isEmpty() ? null : names)
+                                .withExpressionAttributeValues(values.isEmpty() ? null : values)));
+                    }
+                }
+
+                // the token makes the SDK's retries of a request that did commit idempotent
+                return DynamoDBUtils.transactWriteItems(context.getConnection(), new TransactWriteItemsRequest()
+                        .withTransactItems(transactItems)
+                        .withClientRequestToken(UUID.randomUUID().toString()));
+            }).whenComplete((result, error) ->
+            {
+                for (int i = 0; i < entryList.size(); i++)
+                {
+                    context.getReadCoalescer().invalidate(shards[i].getTableName(), itemIds[i]);
+                }
+            }).thenApply(result ->
+            {
+                for (int i = 0; i < entryList.size(); i++)
+                {
+                    if (!entryList.get(i).isClear())
+                    {
+                        recordExistence(context, shards[i].getTableName(), itemIds[i]);
+                        if (localStateCache != null)
+                        {
+                            putInLocalCache(getLocalCacheKey(shards[i], itemIds[i]), versions[i], encodedItems[i]);
+                        }
+                    }
+                }
+                return Arrays.asList(versions);
+            }).exceptionally(e ->
+            {
+                throw translateTransactionFailure(entryList, e);
+            });
+        });
+    }
+
+    /**
+     * Reads the version of a persisted state, to condition a later {@link #commitStates} on it.
+     *
+     * @return the version, {@link DynamoDBTransactionEntry#UNVERSIONED} if the state was written without one, or
+     * null if no state is persisted
+     */
+    public Task<Long> readVersion(final RemoteReference<?> reference, final Class<?> stateClass)
+    {
+        final DynamoDBTableShard shard = getTableShard(reference, stateClass);
+        final DynamoDBConnectionContext context = getContext(shard);
+        final String tableName = shard.getTableName();
+        final String itemId = generateDocumentId(reference, stateClass);
+
+        final Map<String, String> names = new HashMap<>();
+        names.put("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID);
+        names.put("#version", DynamoDBUtils.FIELD_NAME_VERSION);
+        final GetItemRequest versionRequest = new GetItemRequest()
+                .withTableName(tableName)
+                .withKey(DynamoDBUtils.createKey(context.getConnection(), itemId))
+                .withProjectionExpression("#id, #version")
+                .withExpressionAttributeNames(names)
+                .withConsistentRead(true);
+
+        return operationTracker.track("readVersion " + itemId, () -> DynamoDBUtils.getTable(context.getConnection(), tableName)
+                .thenCompose(table -> isCoalescingWrites(stateClass) ? context.getWriteCoalescer().flush(tableName, itemId) : Task.done())
+                .thenCompose(ignored -> DynamoDBUtils.getItem(context.getConnection(), versionRequest))
+                .thenApply(result ->
+                {
+                    if (result.getItem() == null || result.getItem().isEmpty())
+                    {
+                        return null;
+                    }
+                    final AttributeValue version = result.getItem().get(DynamoDBUtils.FIELD_NAME_VERSION);
+                    return version != null ? Long.parseLong(version.getN()) : DynamoDBTransactionEntry.UNVERSIONED;
+                }));
+    }
+
+    private static String createTransactionCondition(final DynamoDBTransactionEntry entry, final Map<String, String> names,
+                                                     final Map<String, AttributeValue> values)
+    {
+        if (entry.isExpectAbsent())
+        {
+            names.put("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID);
+            return "attribute_not_exists(#id)";
+        }
+        if (entry.getExpectedVersion() == null)
+        {
+            return null;
+        }
+
+        names.put("#version", DynamoDBUtils.FIELD_NAME_VERSION);
+        if (entry.getExpectedVersion() == DynamoDBTransactionEntry.UNVERSIONED)
+        {
+            names.put("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID);
+            return "attribute_exists(#id) AND attribute_not_exists(#version)";
+        }
+        values.put(":version", new AttributeValue().withN(String.valueOf(entry.getExpectedVersion())));
+        return "#version = :version";
+    }
+
+    private static RuntimeException translateTransactionFailure(final List<DynamoDBTransactionEntry> entries, final Throwable failure)
+    {
+        Throwable cause = failure;
+        while (cause != null && !(cause instanceof TransactionCanceledException))
+        {
+            cause = cause.getCause();
+        }
+
+        final List<CancellationReason> reasons = cause != null ? ((TransactionCanceledException) cause).getCancellationReasons() : null;
+        if (reasons == null)
+        {
+            final Throwable error = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            return error instanceof RuntimeException ? (RuntimeException) error : new UncheckedException(error);
+        }
+
+        final List<DynamoDBTransactionEntry> failedConditions = new ArrayList<>();
+        final List<DynamoDBTransactionEntry> concurrentlyWritten = new ArrayList<>();
+        for (int i = 0; i < reasons.size() && i < entries.size(); i++)
+        {
+            if ("ConditionalCheckFailed".equals(reasons.get(i).getCode()))
+            {
+                failedConditions.add(entries.get(i));
+            }
+            else if ("TransactionConflict".equals(reasons.get(i).getCode()))
+            {
+                concurrentlyWritten.add(entries.get(i));
+            }
+        }
+
+        if (failedConditions.isEmpty() && concurrentlyWritten.isEmpty())
+        {
+            // throttling, validation or item size, which are not conflicts
+            return new UncheckedException(cause);
+        }
+        return new DynamoDBTransactionConflictException(failedConditions, concurrentlyWritten, cause);
+    }
+
+    /**
+     * Reads the states of actors with one query per actor and table instead of one read per state. Needs the
+     * {@link DynamoDBKeyLayout#ACTOR_ID_AND_DECORATION} key layout, otherwise the states are read by {@link #readStates(Collection)}.
+     * Bulk writes of an actor's states already go out together through {@link #writeStates(Collection)}.
+     *
+     * @return one result per entry, in the order of the entries
+     */
+    public Task<List<DynamoDBBulkResult>> readActorStates(final Collection<DynamoDBStateEntry> entries)
+    {
+        if (dynamoDBConfiguration.getKeyLayout() != DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            return readStates(entries);
+        }
+
+        final List<DynamoDBStateEntry> entryList = new ArrayList<>(entries);
+        final DynamoDBBulkResult[] results = new DynamoDBBulkResult[entryList.size()];
+        final ObjectMapper mapper = dynamoDBConnection.getMapper();
+
+        return operationTracker.track("readActorStates " + entryList.size(), () ->
+        {
+            final List<Task<Void>> queries = new ArrayList<>();
+
+            groupByTableAndDocument(entryList, results).forEach((shard, entryIndexesByItemId) ->
+            {
+                final DynamoDBConnectionContext context = getContext(shard);
+                final Map<String, List<String>> itemIdsByActorId = new LinkedHashMap<>();
+                for (final String itemId : entryIndexesByItemId.keySet())
+                {
+                    itemIdsByActorId.computeIfAbsent(DynamoDBUtils.createKey(dynamoDBConnection, itemId).get(DynamoDBUtils.FIELD_NAME_PRIMARY_ID).getS(),
+                            actorId -> new ArrayList<>()).add(itemId);
+                }
+
+                itemIdsByActorId.forEach((actorId, itemIds) ->
+                        queries.add(DynamoDBUtils.getTable(context.getConnection(), shard.getTableName())
+                                .thenCompose(table -> queryAll(context.getConnection(), createPartitionQuery(table.getTableName(), actorId).withConsistentRead(true), new ArrayList<>()))
+                                .thenApply(partitionItems ->
+                                {
+                                    final Map<String, Item> items = new HashMap<>();
+                                    for (final Map<String, AttributeValue> attributes : partitionItems)
+                                    {
+                                        final Item item = ItemUtils.toItem(attributes);
+                                        items.put(DynamoDBUtils.getDocumentId(dynamoDBConnection, item), item);
+                                    }
+
+                                    for (final String itemId : itemIds)
+                                    {
+                                        final Item item = items.containsKey(itemId)
+                                                ? items.get(itemId)
+                                                : getLegacyItem(shard, entryList.get(entryIndexesByItemId.get(itemId).get(0)), items);
+                                        for (final int index : entryIndexesByItemId.get(itemId))
+                                        {
+                                            results[index] = readBulkResult(entryList.get(index), item, mapper);
+                                        }
+                                    }
+                                    return (Void) null;
+                                })
+                                .exceptionally(error -> failBulkResults(entryList, results, entryIndexesByItemId, itemIds, error))));
+            });
+
+            return Task.allOf(queries).thenCompose(ignored -> migrateLegacyDocuments(Arrays.asList(results)));
+        });
+    }
+
+    /**
+     * Removes every state an actor persisted in the tables of the given state classes, or in the default table if
+     * none are given, finding them with one query per table. Needs the {@link DynamoDBKeyLayout#ACTOR_ID_AND_DECORATION}
+     * key layout.
+     */
+    public Task<Void> purgeActorStates(final RemoteReference<?> reference, final Class<?>... stateClasses)
+    {
+        if (dynamoDBConfiguration.getKeyLayout() != DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            return Task.fromException(new IllegalStateException("Purging actor states needs the " + DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION + " key layout"));
+        }
+
+        final Class<?> referenceType = RemoteReference.getInterfaceClass(reference);
+        final String actorId = String.valueOf(RemoteReference.getId(reference));
+
+        final Set<DynamoDBTableShard> shards = new LinkedHashSet<>();
+        for (final Class<?> stateClass : stateClasses)
+        {
+            shards.add(tableResolver.resolve(getTableName(referenceType, stateClass), actorId));
+        }
+        if (shards.isEmpty())
+        {
+            shards.add(tableResolver.resolve(defaultTableName, actorId));
+        }
+
+        return operationTracker.track("purgeActorStates " + actorId, () ->
+        {
+            final List<Task<Void>> purges = new ArrayList<>();
+            for (final DynamoDBTableShard shard : shards)
+            {
+                final DynamoDBConnectionContext context = getContext(shard);
+                final String tableName = shard.getTableName();
+
+                // actors of other interfaces with the same id share the partition
+                final QueryRequest queryRequest = createPartitionQuery(tableName, actorId)
+                        .withConsistentRead(true)
+                        .addExpressionAttributeNamesEntry("#owningType", DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE);
+                final List<String> owningTypes = getOwningTypes(referenceType);
+                final List<String> owningTypeNames = new ArrayList<>(owningTypes.size());
+                for (int i = 0; i < owningTypes.size(); i++)
+                {
+                    owningTypeNames.add(":owningType" + i);
+                    queryRequest.addExpressionAttributeValuesEntry(":owningType" + i, new AttributeValue(owningTypes.get(i)));
+                }
+                queryRequest.setFilterExpression("#owningType IN (" + String.join(", ", owningTypeNames) + ")");
+
+                purges.add(DynamoDBUtils.getTable(context.getConnection(), tableName)
+                        .thenCompose(table -> queryAll(context.getConnection(), queryRequest.withTableName(table.getTableName()), new ArrayList<>()))
+                        .thenCompose(partitionItems ->
+                        {
+                            final List<String> itemIds = new ArrayList<>(partitionItems.size());
+                            for (final Map<String, AttributeValue> attributes : partitionItems)
+                            {
+                                final String itemId = DynamoDBUtils.getDocumentId(context.getConnection(), attributes);
+                                context.getReadCoalescer().invalidate(tableName, itemId);
+                                context.getMutationLog().forget(tableName, itemId);
+                                itemIds.add(itemId);
+                            }
+
+                            final List<Task<Void>> batches = new ArrayList<>();
+                            for (final List<String> batch : partition(itemIds, DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS))
+                            {
+                                final List<WriteRequest> writeRequests = new ArrayList<>(batch.size());
+                                for (final String itemId : batch)
+                                {
+                                    writeRequests.add(new WriteRequest(new DeleteRequest(DynamoDBUtils.createKey(context.getConnection(), itemId))));
+                                }
+                                batches.add(context.getBatchExecutor().writeItems(queryRequest.getTableName(), writeRequests));
+                            }
+                            return Task.allOf(batches)
+                                    .whenComplete((result, error) -> itemIds.forEach(itemId -> context.getReadCoalescer().invalidate(tableName, itemId)));
+                        }));
+            }
+            return Task.allOf(purges).thenApply(ignored -> (Void) null);
+        });
+    }
+
+    private QueryRequest createPartitionQuery(final String tableName, final String actorId)
+    {
+        return new QueryRequest()
+                .withTableName(tableName)
+                .withKeyConditionExpression("#id = :id")
+                .addExpressionAttributeNamesEntry("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID)
+                .addExpressionAttributeValuesEntry(":id", new AttributeValue(actorId));
+    }
+
+    private static Task<List<Map<String, AttributeValue>>> queryAll(final DynamoDBConnection connection, final QueryRequest queryRequest,
+                                                             final List<Map<String, AttributeValue>> items)
+    {
+        return DynamoDBUtils.query(connection, queryRequest)
+                .thenCompose(result ->
+                {
+                    items.addAll(result.getItems());
+                    if (result.getLastEvaluatedKey() == null || result.getLastEvaluatedKey().isEmpty())
+                    {
+                        return Task.fromValue(items);
+                    }
+                    return queryAll(connection, queryRequest.withExclusiveStartKey(result.getLastEvaluatedKey()), items);
+                });
+    }
+
+    private Task<List<DynamoDBBulkResult>> writeBulk(final List<DynamoDBStateEntry> entryList, final DynamoDBBulkResult[] results, final boolean puts,
+                                                    final Function<List<Integer>, WriteRequest> writeRequestFactory)
+    {
+        final List<Task<Void>> batches = new ArrayList<>();
+
+        groupByTableAndDocument(entryList, results).forEach((shard, entryIndexesByItemId) ->
+        {
+            final DynamoDBConnectionContext context = getContext(shard);
+            final String tableName = shard.getTableName();
+
+            for (final List<String> itemIds : partition(entryIndexesByItemId.keySet(), DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS))
+            {
+                final List<WriteRequest> writeRequests = new ArrayList<>(itemIds.size());
+                final List<Task<?>> preparations = new ArrayList<>();
+                preparations.add(DynamoDBUtils.getTable(context.getConnection(), tableName));
+                for (final String itemId : itemIds)
+                {
+                    context.getReadCoalescer().invalidate(tableName, itemId);
+                    removeFromLocalCache(shard, itemId);
+                    writeRequests.add(writeRequestFactory.apply(entryIndexesByItemId.get(itemId)));
+                    // write-behind writes go through the coalescer as well, so this also waits for them
+                    if (isCoalescingWrites(entryList.get(entryIndexesByItemId.get(itemId).get(0)).getStateClass()))
+                    {
+                        preparations.add(context.getWriteCoalescer().flush(tableName, itemId));
+                    }
+                }
+
+                batches.add(Task.allOf(preparations)
+                        .thenCompose(ignored -> DynamoDBUtils.getTable(context.getConnection(), tableName))
+                        .thenCompose(table ->
+                        {
+                            if (puts)
+                            {
+                                itemIds.forEach(itemId -> recordExistence(context, tableName, itemId));
+                            }
+                            return context.getBatchExecutor().writeItems(table.getTableName(), writeRequests);
+                        })
+                        .whenComplete((result, error) -> itemIds.forEach(itemId -> context.getReadCoalescer().invalidate(tableName, itemId)))
+                        .thenApply(ignored ->
+                        {
+                            for (final String itemId : itemIds)
+                            {
+                                for (final int index : entryIndexesByItemId.get(itemId))
+                                {
+                                    results[index] = new DynamoDBBulkResult(entryList.get(index), false, null);
+                                }
+                            }
+                            return (Void) null;
+                        })
+                        .exceptionally(error -> failBulkResults(entryList, results, entryIndexesByItemId, itemIds, error)));
+            }
+        });
+
+        return Task.allOf(batches).thenApply(ignored -> Arrays.asList(results));
+    }
+
+    /**
+     * Groups the entries without a result yet by table shard and document id, since a batch may not contain the same key twice.
+     */
+    private Map<DynamoDBTableShard, Map<String, List<Integer>>> groupByTableAndDocument(final List<DynamoDBStateEntry> entryList, final DynamoDBBulkResult[] results)
+    {
+        final Map<DynamoDBTableShard, Map<String, List<Integer>>> entryIndexesByTable = new LinkedHashMap<>();
+        for (int i = 0; i < entryList.size(); i++)
+        {
+            if (results[i] != null)
+            {
+                continue;
+            }
+
+            final DynamoDBStateEntry entry = entryList.get(i);
+            if (isMutationLogged(entry.getStateClass()))
+            {
+                results[i] = new DynamoDBBulkResult(entry, false,
+                        new IllegalArgumentException("Bulk operations do not support the mutation-logged state " + entry.getStateClass().getName()));
+                continue;
+            }
+
+            final DynamoDBTableShard shard = getTableShard(entry.getReference(), entry.getStateClass());
+            final String itemId = generateDocumentId(entry.getReference(), entry.getStateClass());
+
+            entryIndexesByTable.computeIfAbsent(shard, key -> new LinkedHashMap<>())
+                    .computeIfAbsent(itemId, id -> new ArrayList<>())
+                    .add(i);
+        }
+        return entryIndexesByTable;
+    }
+
+    /**
+     * Adds to the items of a batch read the documents missing from it that are still stored under the actor
+     * interface name, by their current document id.
+     */
+    private Task<Map<String, Item>> readLegacyItems(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final List<String> itemIds,
+                                                    final List<DynamoDBStateEntry> entryList, final Map<String, List<Integer>> entryIndexesByItemId,
+                                                    final Map<String, Item> items)
+    {
+        final Map<String, String> itemIdsByLegacyItemId = new HashMap<>();
+        for (final String itemId : itemIds)
+        {
+            final DynamoDBStateEntry entry = entryList.get(entryIndexesByItemId.get(itemId).get(0));
+            final String legacyItemId = items.containsKey(itemId) ? null : generateLegacyDocumentId(entry.getReference(), entry.getStateClass());
+            if (legacyItemId != null && mightExist(context, shard.getTableName(), legacyItemId))
+            {
+                itemIdsByLegacyItemId.put(legacyItemId, itemId);
+            }
+        }
+
+        if (itemIdsByLegacyItemId.isEmpty())
+        {
+            return Task.fromValue(items);
+        }
+
+        return context.getBatchExecutor().getItems(shard.getTableName(), itemIdsByLegacyItemId.keySet()).thenApply(legacyItems ->
+        {
+            final Map<String, Item> merged = new HashMap<>(items);
+            legacyItems.forEach((legacyItemId, item) ->
+            {
+                merged.put(itemIdsByLegacyItemId.get(legacyItemId), item);
+                legacyDocuments.add(getLocalCacheKey(shard, legacyItemId));
+            });
+            return merged;
+        });
+    }
+
+    /**
+     * @return the item of the entry's document still stored under the actor interface name, among the items of its partition
+     */
+    private Item getLegacyItem(final DynamoDBTableShard shard, final DynamoDBStateEntry entry, final Map<String, Item> partitionItems)
+    {
+        final String legacyItemId = generateLegacyDocumentId(entry.getReference(), entry.getStateClass());
+        final Item item = legacyItemId != null ? partitionItems.get(legacyItemId) : null;
+        if (item != null)
+        {
+            legacyDocuments.add(getLocalCacheKey(shard, legacyItemId));
+        }
+        return item;
+    }
+
+    private static List<List<String>> partition(final Collection<String> itemIds, final int size)
+    {
+        final List<String> itemIdList = new ArrayList<>(itemIds);
+        final List<List<String>> partitions = new ArrayList<>();
+        for (int i = 0; i < itemIdList.size(); i += size)
+        {
+            partitions.add(itemIdList.subList(i, Math.min(i + size, itemIdList.size())));
+        }
+        return partitions;
+    }
+
+    private DynamoDBBulkResult readBulkResult(final DynamoDBStateEntry entry, final Item item, final ObjectMapper mapper)
+    {
+        try
+        {
+            if (item != null && !DynamoDBUtils.isExpired(item))
+            {
+                readStateInternal(entry.getState(), entry.getStateClass(), item, mapper);
+                return new DynamoDBBulkResult(entry, true, null);
+            }
+            return new DynamoDBBulkResult(entry, false, null);
+        }
+        catch (RuntimeException e)
+        {
+            return new DynamoDBBulkResult(entry, false, e);
+        }
+    }
+
+    private static Void failBulkResults(final List<DynamoDBStateEntry> entryList, final DynamoDBBulkResult[] results,
+                                        final Map<String, List<Integer>> entryIndexesByItemId, final List<String> itemIds, final Throwable error)
+    {
+        for (final String itemId : itemIds)
+        {
+            for (final int index : entryIndexesByItemId.get(itemId))
+            {
+                results[index] = new DynamoDBBulkResult(entryList.get(index), false, error);
+            }
+        }
+        return null;
+    }
+
+    public <T> Stream<DynamoDBScannedState<T>> scanStates(final Class<?> actorInterface, final Class<T> stateClass)
+    {
+        return scanStates(actorInterface, stateClass, new DynamoDBScanOptions());
+    }
+
+    /**
+     * Lazily walks every persisted state of an actor interface and state class using a parallel scan of each table shard
+     * in turn. Scanning reads the whole table, use {@link DynamoDBScanOptions#setMaxReadCapacityPerSecond(double)} to leave
+     * capacity for live traffic. The stream must be closed if it is not consumed to the end.
+     */
+    public <T> Stream<DynamoDBScannedState<T>> scanStates(final Class<?> actorInterface, final Class<T> stateClass, final DynamoDBScanOptions scanOptions)
+    {
+        final ObjectMapper mapper = dynamoDBConnection.getMapper();
+        final List<String> idSuffixes = getIdSuffixes(actorInterface, stateClass);
+        final List<String> owningTypes = getOwningTypes(actorInterface);
+        final Map<String, AttributeValue> owningTypeValues = new LinkedHashMap<>();
+        for (int i = 0; i < owningTypes.size(); i++)
+        {
+            owningTypeValues.put(":owningType" + i, new AttributeValue(owningTypes.get(i)));
+        }
+
+        final List<Supplier<DynamoDBParallelScanner<DynamoDBScannedState<T>>>> shardScanners = new ArrayList<>();
+        for (final DynamoDBTableShard shard : tableResolver.getShards(getTableName(actorInterface, stateClass)))
+        {
+            shardScanners.add(() ->
+            {
+                final DynamoDBConnection connection = getContext(shard).getConnection();
+                final Table table = DynamoDBUtils.getTable(connection, shard.getTableName()).join();
+
+                final ScanRequest scanRequest = new ScanRequest()
+                        .withTableName(table.getTableName())
+                        .withFilterExpression("#owningType IN (" + String.join(", ", owningTypeValues.keySet()) + ")")
+                        .withExpressionAttributeNames(Collections.singletonMap("#owningType", DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE))
+                        .withExpressionAttributeValues(owningTypeValues)
+                        .withConsistentRead(scanOptions.isConsistentRead());
+
+                return new DynamoDBParallelScanner<>(connection, scanRequest, scanOptions, attributes ->
+                {
+                    final Item item = ItemUtils.toItem(attributes);
+                    final String documentId = DynamoDBUtils.getDocumentId(connection, item);
+
+                    // other state classes of the same actor interface share the owning type but not the id decoration
+                    final String actorId = getActorId(documentId, idSuffixes);
+                    if (actorId == null || DynamoDBUtils.isExpired(item))
+                    {
+                        return null;
+                    }
+
+                    final T state = newState(stateClass);
+                    readStateInternal(state, stateClass, item, mapper);
+                    return new DynamoDBScannedState<>(documentId, actorId, state);
+                });
+            });
+        }
+
+        final DynamoDBShardScanner<DynamoDBScannedState<T>> scanner = new DynamoDBShardScanner<>(shardScanners);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scanner, Spliterator.NONNULL), false)
+                .onClose(scanner::close);
+    }
+
+    /**
+     * Lists the actors of an interface that have persisted the given state class, one page at a time, using the
+     * owning type index. The cost scales with the number of states persisted by actors of the interface, not with
+     * the size of the table. Requires {@link DynamoDBConfiguration#setOwningTypeIndexEnabled(boolean)}.
+     *
+     * @param pageToken the token of the previous page, or null for the first page
+     * @param pageSize  the most index entries to read for this page
+     */
+    public <T extends Actor> Task<DynamoDBActorPage<T>> queryActors(final Class<T> actorInterface, final Class<?> stateClass,
+                                                                    final String pageToken, final int pageSize)
+    {
+        if (!dynamoDBConfiguration.isOwningTypeIndexEnabled())
+        {
+            return Task.fromException(new IllegalStateException("The owning type index is not enabled"));
+        }
+
+        final List<DynamoDBTableShard> shards = tableResolver.getShards(getTableName(actorInterface, stateClass));
+        final List<String> idSuffixes = getIdSuffixes(actorInterface, stateClass);
+        // each shard is queried for each value the owning type may have, the position counts these queries
+        final List<String> owningTypes = getOwningTypes(actorInterface);
+        final int positions = shards.size() * owningTypes.size();
+
+        final Map<String, AttributeValue> exclusiveStartKey;
+        final int position;
+        try
+        {
+            exclusiveStartKey = decodePageToken(pageToken);
+            position = exclusiveStartKey != null ? Integer.parseInt(exclusiveStartKey.remove(PAGE_TOKEN_SHARD).getS()) : 0;
+            if (position < 0 || position >= positions)
+            {
+                throw new IllegalArgumentException("No position " + position);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            return Task.fromException(new IllegalArgumentException("Invalid page token: " + pageToken, e));
+        }
+
+        final DynamoDBTableShard shard = shards.get(position / owningTypes.size());
+        final String owningType = owningTypes.get(position % owningTypes.size());
+        final DynamoDBConnection connection = getContext(shard).getConnection();
+
+        return operationTracker.track("queryActors " + actorInterface.getName(), () -> DynamoDBUtils.getTable(connection, shard.getTableName())
+                .thenCompose(table -> DynamoDBUtils.query(connection, new QueryRequest()
+                        .withTableName(table.getTableName())
+                        .withIndexName(DynamoDBUtils.OWNING_TYPE_INDEX_NAME)
+                        .withKeyConditionExpression("#owningType = :owningType")
+                        .withExpressionAttributeNames(Collections.singletonMap("#owningType", DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE))
+                        .withExpressionAttributeValues(Collections.singletonMap(":owningType", new AttributeValue(owningType)))
+                        .withExclusiveStartKey(exclusiveStartKey == null || exclusiveStartKey.isEmpty() ? null : exclusiveStartKey)
+                        .withLimit(pageSize)))
+                .thenApply(result ->
+                {
+                    final List<T> actors = new ArrayList<>(result.getItems().size());
+                    for (final Map<String, AttributeValue> attributes : result.getItems())
+                    {
+                        final Item item = ItemUtils.toItem(attributes);
+                        final String documentId = DynamoDBUtils.getDocumentId(connection, item);
+
+                        // other state classes of the same actor interface share the owning type but not the id decoration
+                        final String actorId = getActorId(documentId, idSuffixes);
+                        if (actorId != null && !DynamoDBUtils.isExpired(item))
+                        {
+                            actors.add(Actor.getReference(actorInterface, actorId));
+                        }
+                    }
+
+                    if (result.getLastEvaluatedKey() != null && !result.getLastEvaluatedKey().isEmpty())
+                    {
+                        return new DynamoDBActorPage<>(actors, encodePageToken(position, result.getLastEvaluatedKey()));
+                    }
+
+                    // the next page starts at the beginning of the next query
+                    return new DynamoDBActorPage<>(actors, position + 1 < positions
+                            ? encodePageToken(position + 1, Collections.emptyMap())
+                            : null);
+                }));
+    }
+
+    private String encodePageToken(final int position, final Map<String, AttributeValue> lastEvaluatedKey)
+    {
+        // a plain map is enough here, the key holds strings only
+        final Map<String, String> key = new HashMap<>();
+        lastEvaluatedKey.forEach((name, value) -> key.put(name, value.getS()));
+        key.put(PAGE_TOKEN_SHARD, Integer.toString(position));
+        try
+        {
+            return Base64.getUrlEncoder().encodeToString(dynamoDBConnection.getMapper().writeValueAsBytes(key));
+        }
+        catch (JsonProcessingException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, AttributeValue> decodePageToken(final String pageToken)
+    {
+        if (pageToken == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            final Map<String, String> key = dynamoDBConnection.getMapper().readValue(Base64.getUrlDecoder().decode(pageToken), Map.class);
+            final Map<String, AttributeValue> exclusiveStartKey = new HashMap<>();
+            key.forEach((name, value) -> exclusiveStartKey.put(name, new AttributeValue(value)));
+            return exclusiveStartKey;
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("Invalid page token: " + pageToken, e);
+        }
+    }
+
+    /**
+     * @return the document id suffixes of the state class for each value the owning type of the actor interface may have
+     */
+    private List<String> getIdSuffixes(final Class<?> actorInterface, final Class<?> stateClass)
+    {
+        final Set<String> idSuffixes = new LinkedHashSet<>();
+        for (final String owningType : getOwningTypes(actorInterface))
+        {
+            idSuffixes.add(DOCUMENT_ID_DECORATION_SEPARATOR + getIdDecoration(stateClass, owningType));
+        }
+        return new ArrayList<>(idSuffixes);
+    }
+
+    /**
+     * @return the actor id of the document, or null if it has none of the suffixes
+     */
+    private static String getActorId(final String documentId, final List<String> idSuffixes)
+    {
+        for (final String idSuffix : idSuffixes)
+        {
+            if (documentId.endsWith(idSuffix))
+            {
+                return documentId.substring(0, documentId.length() - idSuffix.length());
+            }
+        }
+        return null;
+    }
+
+    private static <T> T newState(final Class<T> stateClass)
+    {
+        try
+        {
+            return stateClass.newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    /**
+     * Rescans every shard of the logical table into its existence filter, picking up documents written by other nodes.
+     * Does nothing unless the existence filter is enabled.
+     */
+    public Task<Void> refreshExistenceFilter(final String tableName)
+    {
+        final List<Task<Void>> refreshes = new ArrayList<>();
+        for (final DynamoDBTableShard shard : tableResolver.getShards(tableName))
+        {
+            final DynamoDBConnectionContext context = getContext(shard);
+            refreshes.add(DynamoDBUtils.getTable(context.getConnection(), shard.getTableName())
+                    .thenCompose(table ->
+                    {
+                        final DynamoDBExistenceFilter existenceFilter = getExistenceFilter(context, shard.getTableName());
+                        return existenceFilter != null ? existenceFilter.refresh() : Task.done();
+                    }));
+        }
+        return Task.allOf(refreshes).thenApply(ignored -> (Void) null);
+    }
+
+    /**
+     * Notes that other nodes may have written to the logical table, for instance because actors moved to this node
+     * after a cluster membership change. Until a rescan of the table completes, reads no longer trust the existence
+     * filter. Only needed when the existence filter is configured to rely on announced writes.
+     *
+     * @return completes once the existence filter is current again
+     */
+    public Task<Void> announceExternalWrites(final String tableName)
+    {
+        final List<Task<Void>> announcements = new ArrayList<>();
+        for (final DynamoDBTableShard shard : tableResolver.getShards(tableName))
+        {
+            final DynamoDBConnectionContext context = getContext(shard);
+            announcements.add(DynamoDBUtils.getTable(context.getConnection(), shard.getTableName())
+                    .thenCompose(table ->
+                    {
+                        final DynamoDBExistenceFilter existenceFilter = getExistenceFilter(context, shard.getTableName());
+                        return existenceFilter != null ? existenceFilter.announceExternalWrites() : Task.done();
+                    }));
+        }
+        return Task.allOf(announcements).thenApply(ignored -> (Void) null);
+    }
+
+    private DynamoDBExistenceFilter getExistenceFilter(final DynamoDBConnectionContext context, final String tableName)
+    {
+        if (!dynamoDBConfiguration.isExistenceFilterEnabled())
+        {
+            return null;
+        }
+
+        final ConcurrentMap<String, DynamoDBExistenceFilter> existenceFilters = context.getExistenceFilters();
+        DynamoDBExistenceFilter existenceFilter = existenceFilters.get(tableName);
+        if (existenceFilter == null)
+        {
+            final DynamoDBExistenceFilter created = new DynamoDBExistenceFilter(context.getConnection(), dynamoDBConfiguration, tableName,
+                    context.getStreamConsumer());
+            existenceFilter = existenceFilters.putIfAbsent(tableName, created);
+            if (existenceFilter == null)
+            {
+                existenceFilter = created;
+                created.start();
+            }
+        }
+        return existenceFilter;
+    }
+
+    /**
+     * Submits a coalesced write, or delete when the item is null. Write-behind writes complete once journaled, and
+     * are acknowledged in the journal when DynamoDB acknowledges them, so they are never dropped at their deadline.
+     */
+    private Task<Void> submitCoalescedWrite(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String itemId,
+                                            final Item item, final Class<?> stateClass, final DynamoDBDeadline deadline,
+                                            final DoubleConsumer capacityRecorder)
+    {
+        if (!isWriteBehind(stateClass))
+        {
+            return context.getWriteCoalescer().submit(shard.getTableName(), itemId, item, deadline, capacityRecorder);
+        }
+
+        final DynamoDBWriteJournal.Appended appended = writeJournal.append(shard.getConnectionIndex(), shard.getTableName(), itemId,
+                item != null ? ItemUtils.toAttributeValues(item) : null);
+        final String writeBehindKey = getLocalCacheKey(shard, itemId);
+        latestWriteBehinds.merge(writeBehindKey, appended.getSequence(), Math::max);
+
+        final Task<Void> written = new Task<>();
+        sendWriteBehind(context, shard, itemId, item, capacityRecorder, writeBehindKey, appended.getSequence(), 0, written);
+
+        // the caller is still tracked, so stop() also waits for the write and its retries
+        operationTracker.trackContinuation("writeBehind " + itemId, written);
+        return appended.getDurable();
+    }
+
+    /**
+     * Sends a write-behind until it is acknowledged or superseded by a newer write-behind of the document, backing
+     * off between attempts. The caller already considers the state durable, so until then other nodes read the
+     * previous state, and the journal cannot release the entry's segment.
+     */
+    private void sendWriteBehind(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String itemId,
+                                 final Item item, final DoubleConsumer capacityRecorder, final String writeBehindKey,
+                                 final long sequence, final int attempt, final Task<Void> written)
+    {
+        if (isSupersededWriteBehind(writeBehindKey, sequence))
+        {
+            writeJournal.acknowledge(sequence);
+            written.complete(null);
+            return;
+        }
+
+        context.getWriteCoalescer().submit(shard.getTableName(), itemId, item, DynamoDBDeadline.NONE, capacityRecorder).whenComplete((result, error) ->
+        {
+            if (error == null || isSupersededWriteBehind(writeBehindKey, sequence))
+            {
+                writeJournal.acknowledge(sequence);
+                latestWriteBehinds.remove(writeBehindKey, sequence);
+                written.complete(null);
+                return;
+            }
+
+            if (writeBehindStopped)
+            {
+                logger.warn("Write-behind of {} failed while stopping, it will be replayed from the journal at the next start", itemId, error);
+                written.completeExceptionally(error);
+                return;
+            }
+
+            final long maxDelay = Math.min(WRITE_BEHIND_RETRY_MAX_DELAY_MILLIS, WRITE_BEHIND_RETRY_BASE_DELAY_MILLIS << Math.min(attempt, 20));
+            if (attempt == 0)
+            {
+                logger.warn("Write-behind of {} failed, retrying until it succeeds", itemId, error);
+            }
+            else
+            {
+                logger.debug("Write-behind of {} failed {} times", itemId, attempt + 1, error);
+            }
+            try
+            {
+                DynamoDBUtils.delay(context.getConnection(), ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1))
+                        .thenRun(() -> sendWriteBehind(context, shard, itemId, item, capacityRecorder, writeBehindKey, sequence, attempt + 1, written));
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the connection is closed, the journal replays the write at the next start
+                written.completeExceptionally(error);
+            }
+        });
+    }
+
+    private boolean isSupersededWriteBehind(final String writeBehindKey, final long sequence)
+    {
+        final Long latest = latestWriteBehinds.get(writeBehindKey);
+        return latest != null && latest > sequence;
+    }
+
+    private void replayJournal(final List<DynamoDBWriteJournal.Entry> entries)
+    {
+        if (entries.isEmpty())
+        {
+            return;
+        }
+
+        logger.info("Replaying {} unacknowledged writes from the write journal", entries.size());
+        final List<Task<?>> writes = new ArrayList<>(entries.size());
+        for (final DynamoDBWriteJournal.Entry entry : entries)
+        {
+            if (entry.getConnectionIndex() >= connectionContexts.size())
+            {
+                throw new IllegalStateException("The write journal has writes for connection " + entry.getConnectionIndex()
+                        + " but only " + connectionContexts.size() + " connections are configured");
+            }
+
+            final DynamoDBConnection connection = connectionContexts.get(entry.getConnectionIndex()).getConnection();
+            if (entry.getItem() != null)
+            {
+                writes.add(DynamoDBUtils.putItem(connection, new PutItemRequest()
+                        .withTableName(entry.getTableName())
+                        .withItem(entry.getItem())));
+            }
+            else
+            {
+                writes.add(DynamoDBUtils.deleteItem(connection, new DeleteItemRequest()
+                        .withTableName(entry.getTableName())
+                        .withKey(DynamoDBUtils.createKey(connection, entry.getItemId()))));
+            }
+        }
+        Task.allOf(writes).join();
+    }
+
+    private Task<Item> readDocument(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String itemId,
+                                    final Class<?> stateClass, final DynamoDBOperationContext operationContext)
+    {
+        if (!mightExist(context, shard.getTableName(), itemId))
+        {
+            return Task.fromValue(null);
+        }
+        return isMutationLogged(stateClass)
+                ? context.getMutationLog().read(shard.getTableName(), itemId, operationContext.getDeadline())
+                : readItem(context, shard, itemId, operationContext);
+    }
+
+    /**
+     * Reads a document stored under the actor interface name rather than its type code. A document found is
+     * remembered, so the next write of the state removes it.
+     */
+    private Task<Item> readLegacyDocument(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String legacyItemId,
+                                          final Class<?> stateClass, final DynamoDBOperationContext operationContext)
+    {
+        return readDocument(context, shard, legacyItemId, stateClass, operationContext).thenApply(item ->
+        {
+            if (item != null)
+            {
+                legacyDocuments.add(getLocalCacheKey(shard, legacyItemId));
+            }
+            return item;
+        });
+    }
+
+    /**
+     * Once the operation succeeds, deletes the document the state had under the actor interface name: always when
+     * the state is cleared, so the legacy document cannot be read again, and otherwise when it was read by this node.
+     * The deletion is part of the operation, so callers track both together and stop() cannot reject it halfway,
+     * and it is bounded by the operation's deadline.
+     */
+    private Task<Void> removeLegacyDocument(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String legacyItemId,
+                                           final Class<?> stateClass, final boolean cleared, final DynamoDBDeadline deadline,
+                                           final Supplier<Task<Void>> operation)
+    {
+        if (legacyItemId == null)
+        {
+            return operation.get();
+        }
+
+        return operation.get().thenCompose(ignored ->
+        {
+            if (!legacyDocuments.remove(getLocalCacheKey(shard, legacyItemId)) && !cleared)
+            {
+                return Task.done();
+            }
+
+            final String tableName = shard.getTableName();
+            removeFromLocalCache(shard, legacyItemId);
+            return context.getReadCoalescer().invalidateDuring(tableName, legacyItemId, () -> isMutationLogged(stateClass)
+                    ? context.getMutationLog().clear(tableName, legacyItemId, deadline)
+                    : DynamoDBUtils.deleteItem(context.getConnection(), deadline.apply(new DeleteItemRequest()
+                            .withTableName(tableName)
+                            .withKey(DynamoDBUtils.createKey(context.getConnection(), legacyItemId))))
+                            .thenApply(result -> (Void) null));
+        });
+    }
+
+    /**
+     * Deletes the documents the cleared states of a bulk clear had under the actor interface name. An entry whose
+     * legacy document could not be deleted fails, as its state would be read from it again.
+     */
+    private Task<List<DynamoDBBulkResult>> removeLegacyDocuments(final List<DynamoDBStateEntry> entryList, final DynamoDBBulkResult[] results)
+    {
+        final Map<DynamoDBTableShard, Map<String, List<Integer>>> entryIndexesByTable = new LinkedHashMap<>();
+        for (int i = 0; i < entryList.size(); i++)
+        {
+            final DynamoDBStateEntry entry = entryList.get(i);
+            final String legacyItemId = results[i].isSuccess() ? generateLegacyDocumentId(entry.getReference(), entry.getStateClass()) : null;
+            if (legacyItemId != null)
+            {
+                entryIndexesByTable.computeIfAbsent(getTableShard(entry.getReference(), entry.getStateClass()), key -> new LinkedHashMap<>())
+                        .computeIfAbsent(legacyItemId, id -> new ArrayList<>())
+                        .add(i);
+            }
+        }
+
+        final List<Task<Void>> batches = new ArrayList<>();
+        entryIndexesByTable.forEach((shard, entryIndexesByItemId) ->
+        {
+            final DynamoDBConnectionContext context = getContext(shard);
+            final String tableName = shard.getTableName();
+
+            for (final List<String> legacyItemIds : partition(entryIndexesByItemId.keySet(), DynamoDBBatchExecutor.MAX_BATCH_WRITE_ITEMS))
+            {
+                final List<WriteRequest> writeRequests = new ArrayList<>(legacyItemIds.size());
+                for (final String legacyItemId : legacyItemIds)
+                {
+                    legacyDocuments.remove(getLocalCacheKey(shard, legacyItemId));
+                    context.getReadCoalescer().invalidate(tableName, legacyItemId);
+                    removeFromLocalCache(shard, legacyItemId);
+                    writeRequests.add(new WriteRequest(new DeleteRequest(DynamoDBUtils.createKey(context.getConnection(), legacyItemId))));
+                }
+
+                batches.add(context.getBatchExecutor().writeItems(tableName, writeRequests)
+                        .whenComplete((result, error) -> legacyItemIds.forEach(legacyItemId -> context.getReadCoalescer().invalidate(tableName, legacyItemId)))
+                        .exceptionally(error -> failBulkResults(entryList, results, entryIndexesByItemId, legacyItemIds, error)));
+            }
+        });
+
+        return Task.allOf(batches).thenApply(ignored -> Arrays.asList(results));
+    }
+
+    /**
+     * @return whether the state was read from its legacy document and that document has not been removed since
+     */
+    private boolean isLegacyDocumentRead(final DynamoDBTableShard shard, final String legacyItemId)
+    {
+        return legacyItemId != null && legacyDocuments.contains(getLocalCacheKey(shard, legacyItemId));
+    }
+
+    /**
+     * Writes a state read from its legacy document under its current document id, which deletes the legacy document,
+     * so later reads find the state without looking the legacy id up. The read completes once the state is migrated,
+     * so a write of the actor cannot be overtaken by the migration. A failed migration does not fail the read; the
+     * legacy document is then removed by the next write of the state. As with schema upgrades, expiring states are
+     * left to their next write, since rewriting them would renew their expiry.
+     */
+    private Task<Void> migrateLegacyDocument(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    {
+        if (getExpiryEpochSeconds(state, stateClass) > 0)
+        {
+            return Task.done();
+        }
+        return writeState(reference, state, stateClass).exceptionally(error ->
+        {
+            logger.warn("Failed to migrate the legacy document of {} {}", stateClass.getName(), reference, error);
+            return null;
+        });
+    }
+
+    /**
+     * Migrates the legacy documents the states found by a bulk read were read from, once per document.
+     */
+    private Task<List<DynamoDBBulkResult>> migrateLegacyDocuments(final List<DynamoDBBulkResult> results)
+    {
+        final Set<String> migrated = new HashSet<>();
+        final List<Task<Void>> migrations = new ArrayList<>();
+        for (final DynamoDBBulkResult result : results)
+        {
+            final DynamoDBStateEntry entry = result.getEntry();
+            final String legacyItemId = result.isFound() ? generateLegacyDocumentId(entry.getReference(), entry.getStateClass()) : null;
+            final DynamoDBTableShard shard = legacyItemId != null ? getTableShard(entry.getReference(), entry.getStateClass()) : null;
+            if (isLegacyDocumentRead(shard, legacyItemId) && migrated.add(getLocalCacheKey(shard, legacyItemId)))
+            {
+                migrations.add(migrateLegacyDocument(entry.getReference(), entry.getState(), entry.getStateClass()));
+            }
+        }
+        return Task.allOf(migrations).thenApply(ignored -> results);
+    }
+
+    /**
+     * Reads the item through the local cache when it is enabled. A cached item is only used if a read of its version
+     * attribute matches, otherwise the item is read in full and cached for the next read. The version read costs as
+     * much capacity as reading the item, so it is skipped for versions confirmed since the table's stream was
+     * positioned while the stream is caught up, as the stream would have invalidated them since.
+     */
+    private Task<Item> readItem(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String itemId,
+                                final DynamoDBOperationContext operationContext)
+    {
+        if (localStateCache == null)
+        {
+            return context.getReadCoalescer().read(shard.getTableName(), itemId, operationContext);
+        }
+
+        final String cacheKey = getLocalCacheKey(shard, itemId);
+        final DynamoDBLocalStateCache.CachedState cachedState = localStateCache.get(cacheKey);
+        if (cachedState == null)
+        {
+            return readAndCacheItem(context, shard, itemId, cacheKey, operationContext);
+        }
+        if (isConfirmedByStream(context, shard, cacheKey, cachedState.getVersion()))
+        {
+            return Task.fromValue(ItemUtils.toItem(DynamoDBAttributeCodec.decodeItemBytes(cachedState.getValue())));
+        }
+
+        final GetItemRequest versionRequest = new GetItemRequest()
+                .withTableName(shard.getTableName())
+                .withKey(DynamoDBUtils.createKey(context.getConnection(), itemId))
+                .withProjectionExpression("#version")
+                .withExpressionAttributeNames(Collections.singletonMap("#version", DynamoDBUtils.FIELD_NAME_VERSION))
+                .withConsistentRead(true);
+        operationContext.prepare(versionRequest);
 
-    private DynamoDBConfiguration dynamoDBConfiguration = new DynamoDBConfiguration();
-    private String defaultTableName = "orbit";
+        final DynamoDBLocalStateConfirmations.Pending confirmation = localStateConfirmations != null ? localStateConfirmations.begin(cacheKey) : null;
+        return DynamoDBUtils.getItem(context.getConnection(), versionRequest).thenCompose(result ->
+        {
+            operationContext.recordConsumedCapacity(result);
 
+            if (result.getItem() == null)
+            {
+                removeFromLocalCache(shard, itemId);
+                return Task.fromValue((Item) null);
+            }
 
-    public DynamoDBStorageExtension()
-    {
-        dynamoDBConfiguration = new DynamoDBConfiguration();
+            final AttributeValue version = result.getItem().get(DynamoDBUtils.FIELD_NAME_VERSION);
+            if (version != null && Long.parseLong(version.getN()) == cachedState.getVersion())
+            {
+                if (confirmation != null)
+                {
+                    localStateConfirmations.confirm(cacheKey, cachedState.getVersion(), confirmation);
+                }
+                return Task.fromValue(ItemUtils.toItem(DynamoDBAttributeCodec.decodeItemBytes(cachedState.getValue())));
+            }
+            return readAndCacheItem(context, shard, itemId, cacheKey, operationContext);
+        });
     }
 
-    public DynamoDBStorageExtension(final DynamoDBConfiguration dynamoDBConfiguration)
+    private Task<Item> readAndCacheItem(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String itemId,
+                                        final String cacheKey, final DynamoDBOperationContext operationContext)
     {
-        this.dynamoDBConfiguration = dynamoDBConfiguration;
+        final DynamoDBLocalStateConfirmations.Pending confirmation = localStateConfirmations != null ? localStateConfirmations.begin(cacheKey) : null;
+        return context.getReadCoalescer().read(shard.getTableName(), itemId, operationContext).thenApply(item ->
+        {
+            // items written without the local cache have no version to validate a cached copy against
+            if (item != null && item.hasAttribute(DynamoDBUtils.FIELD_NAME_VERSION))
+            {
+                final long version = item.getLong(DynamoDBUtils.FIELD_NAME_VERSION);
+                // the confirmation replaces any of the previous version, which the cache may still return for a while
+                localStateCache.put(cacheKey, version, DynamoDBAttributeCodec.encodeItemBytes(ItemUtils.toAttributeValues(item)));
+                if (confirmation != null)
+                {
+                    localStateConfirmations.confirm(cacheKey, version, confirmation);
+                }
+            }
+            return item;
+        });
     }
 
-    @Override
-     public Task<Void> start()
+    private boolean isConfirmedByStream(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final String cacheKey,
+                                        final long version)
     {
-        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
-
-        DynamoDBUtils.getTable(dynamoDBConnection, defaultTableName).join();
+        final DynamoDBStreamConsumer streamConsumer = context.getStreamConsumer();
+        if (localStateConfirmations == null || streamConsumer == null)
+        {
+            return false;
+        }
 
-        return Task.done();
-    }
+        // changes after the confirmation are on the stream only if it was positioned before
+        final long positionedAtMillis = streamConsumer.getPositionedAtMillis(shard.getTableName());
+        if (positionedAtMillis == 0 || !localStateConfirmations.isConfirmedSince(cacheKey, version, positionedAtMillis))
+        {
+            return false;
+        }
 
-    @Override
-    public Task<Void> stop()
-    {
-        return Task.done();
+        final long caughtUpForMillis = System.currentTimeMillis() - streamConsumer.getCaughtUpAtMillis(shard.getTableName());
+        return caughtUpForMillis <= dynamoDBConfiguration.getStreamPollMillis() + dynamoDBConfiguration.getLocalCacheMaxStreamLagMillis();
     }
 
-    @Override
-    public Task<Void> clearState(final RemoteReference<?> reference, final Object state)
+    private void putInLocalCache(final String cacheKey, final long version, final byte[] cachedItem)
     {
-        return clearState(reference, state, state.getClass());
+        // the cache applies the put later, meanwhile it still returns the previous version
+        if (localStateConfirmations != null)
+        {
+            localStateConfirmations.invalidate(cacheKey);
+        }
+        localStateCache.put(cacheKey, version, cachedItem);
     }
 
-    public Task<Void> clearState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    /**
+     * Stamps the item with a fingerprint of its content, which readers compare with the version of their cached copy.
+     */
+    private static long stampVersion(final Item item, final byte[] encodedItem)
     {
-        final String tableName = getTableName(RemoteReference.getInterfaceClass(reference), stateClass);
-        final String itemId = generateDocumentId(reference, stateClass);
-
-        return DynamoDBUtils.getTable(dynamoDBConnection, tableName)
-                .thenAccept(table -> table.deleteItem(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, itemId));
-
+        final long version = DynamoDBLocalStateCache.fingerprint(encodedItem);
+        item.withLong(DynamoDBUtils.FIELD_NAME_VERSION, version);
+        return version;
     }
 
-    @Override
-    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state)
+    private void removeFromLocalCache(final DynamoDBTableShard shard, final String itemId)
     {
-        return readState(reference, state, state.getClass());
+        if (localStateCache != null)
+        {
+            final String cacheKey = getLocalCacheKey(shard, itemId);
+            if (localStateConfirmations != null)
+            {
+                localStateConfirmations.invalidate(cacheKey);
+            }
+            localStateCache.remove(cacheKey);
+        }
     }
 
-    public Task<Boolean> readState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    private static String getLocalCacheKey(final DynamoDBTableShard shard, final String itemId)
     {
-        final ObjectMapper mapper = dynamoDBConnection.getMapper();
-        final String tableName = getTableName(RemoteReference.getInterfaceClass(reference), stateClass);
-        final String itemId = generateDocumentId(reference, stateClass);
-
-        return DynamoDBUtils.getTable(dynamoDBConnection, tableName)
-                .thenApply(table -> {
-                    GetItemSpec getItemSpec = new GetItemSpec()
-                            .withPrimaryKey(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, itemId)
-                            .withConsistentRead(true);
-
-                    return table.getItem(getItemSpec);
-                })
-                .thenApply(item ->
-                {
-                    if (item != null)
-                    {
-                        readStateInternal(state, stateClass, item, mapper);
-                        return true;
-                    }
-                    else
-                    {
-                        return false;
-                    }
-                });
+        return shard.getConnectionIndex() + ":" + shard.getTableName() + ":" + itemId;
     }
 
-    @Override
-    public Task<Void> writeState(final RemoteReference<?> reference, final Object state)
+    private boolean mightExist(final DynamoDBConnectionContext context, final String tableName, final String itemId)
     {
-        return writeState(reference, state, state.getClass());
+        final DynamoDBExistenceFilter existenceFilter = getExistenceFilter(context, tableName);
+        return existenceFilter == null || existenceFilter.mightExist(itemId);
     }
 
-    public Task<Void> writeState(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    private void recordExistence(final DynamoDBConnectionContext context, final String tableName, final String itemId)
     {
-        final Class<?> referenceType = RemoteReference.getInterfaceClass(reference);
-        final String tableName = getTableName(referenceType, stateClass);
-        final String itemId = generateDocumentId(reference, stateClass);
-
-        return DynamoDBUtils.getTable(dynamoDBConnection, tableName)
-                .thenAccept(table ->
-                {
-                    final Item newItem = generatePutItem(reference, state, stateClass, itemId, dynamoDBConnection.getMapper());
-
-                    table.putItem(newItem);
-                });
+        final DynamoDBExistenceFilter existenceFilter = getExistenceFilter(context, tableName);
+        if (existenceFilter != null)
+        {
+            existenceFilter.recordExistence(itemId);
+        }
     }
 
     @Override
@@ -159,7 +1910,7 @@ public class DynamoDBStorageExtension implements StorageExtension
     public String generateDocumentId(final RemoteReference<?> reference, final Class<?> stateClass)
     {
         Class<?> referenceClass = RemoteReference.getInterfaceClass(reference);
-        String idDecoration = getIdDecoration(stateClass, referenceClass.getName());
+        String idDecoration = getIdDecoration(stateClass, getTypeName(referenceClass));
 
         String documentId = String.format(
                 "%s%s%s",
@@ -170,6 +1921,40 @@ public class DynamoDBStorageExtension implements StorageExtension
         return documentId;
     }
 
+    /**
+     * @return the document id the state had before type codes were enabled, or null if it is the same as its
+     * {@link #generateDocumentId document id} or legacy document ids are disabled
+     */
+    private String generateLegacyDocumentId(final RemoteReference<?> reference, final Class<?> stateClass)
+    {
+        final Class<?> referenceClass = RemoteReference.getInterfaceClass(reference);
+        // an overridden decoration does not hold the type, so it is the same either way
+        if (dynamoDBConfiguration.getTypeCodes() == null || !dynamoDBConfiguration.isLegacyDocumentIdsEnabled()
+                || getIdDecoration(stateClass, null) != null)
+        {
+            return null;
+        }
+        return RemoteReference.getId(reference) + DOCUMENT_ID_DECORATION_SEPARATOR + referenceClass.getName();
+    }
+
+    /**
+     * @return the type code of the actor interface when type codes are enabled, otherwise its name
+     */
+    public String getTypeName(final Class<?> referenceType)
+    {
+        return dynamoDBConfiguration.getTypeCodes() != null ? dynamoDBConfiguration.getTypeCodes().getCode(referenceType) : referenceType.getName();
+    }
+
+    /**
+     * @return the values of the owning type attribute that items of the actor interface may have
+     */
+    private List<String> getOwningTypes(final Class<?> referenceType)
+    {
+        return dynamoDBConfiguration.getTypeCodes() != null
+                ? Arrays.asList(getTypeName(referenceType), referenceType.getName())
+                : Collections.singletonList(referenceType.getName());
+    }
+
     public String getIdDecoration(final Class<?> stateClass, final String defaultIdDecoration)
     {
         DynamoDBStateConfiguration dynamoDBStateConfiguration = stateClass.getAnnotation(DynamoDBStateConfiguration.class);
@@ -192,6 +1977,390 @@ public class DynamoDBStorageExtension implements StorageExtension
         return defaultTableName;
     }
 
+    /**
+     * @return the physical table holding the state, as picked by the configured {@link DynamoDBTableResolver}
+     */
+    public DynamoDBTableShard getTableShard(final RemoteReference<?> reference, final Class<?> stateClass)
+    {
+        return tableResolver.resolve(getTableName(RemoteReference.getInterfaceClass(reference), stateClass),
+                String.valueOf(RemoteReference.getId(reference)));
+    }
+
+    /**
+     * Creates a rebalancer that moves the documents of a logical table from the shards of the previous resolver to
+     * the shards of the configured one, keeping this node's existence filters up to date.
+     */
+    public DynamoDBShardRebalancer createRebalancer(final String logicalTableName, final DynamoDBTableResolver previousResolver,
+                                                   final double maxCapacityPerSecond)
+    {
+        final List<DynamoDBConnection> connections = new ArrayList<>(connectionContexts.size());
+        for (final DynamoDBConnectionContext context : connectionContexts)
+        {
+            connections.add(context.getConnection());
+        }
+
+        final DynamoDBShardRebalancer rebalancer = new DynamoDBShardRebalancer(connections, logicalTableName, previousResolver, tableResolver, maxCapacityPerSecond);
+        rebalancer.setMoveListener((shard, itemId) ->
+        {
+            final DynamoDBConnectionContext context = getContext(shard);
+            context.getReadCoalescer().invalidate(shard.getTableName(), itemId);
+            recordExistence(context, shard.getTableName(), itemId);
+        });
+        return rebalancer;
+    }
+
+    /**
+     * @return how far the slowest stream consumer is behind the changes of other nodes, 0 when caught up or when
+     * stream invalidation is disabled
+     */
+    public long getStreamLagMillis()
+    {
+        long maxLagMillis = 0;
+        for (final DynamoDBStreamConsumer streamConsumer : streamConsumers)
+        {
+            maxLagMillis = Math.max(maxLagMillis, streamConsumer.getLagMillis());
+        }
+        return maxLagMillis;
+    }
+
+    /**
+     * @return the number of changes read from the tables' streams, including this node's own writes
+     */
+    public long getStreamRecordsProcessed()
+    {
+        long recordsProcessed = 0;
+        for (final DynamoDBStreamConsumer streamConsumer : streamConsumers)
+        {
+            recordsProcessed += streamConsumer.getRecordsProcessed();
+        }
+        return recordsProcessed;
+    }
+
+    private void startStreamConsumers()
+    {
+        for (int connectionIndex = 0; connectionIndex < connectionContexts.size(); connectionIndex++)
+        {
+            final int streamConnectionIndex = connectionIndex;
+            final DynamoDBConnectionContext context = connectionContexts.get(connectionIndex);
+            // each connection may point at another account or region, so positions are kept per connection
+            final Path checkpointDirectory = dynamoDBConfiguration.getStreamCheckpointDirectory() != null
+                    ? Paths.get(dynamoDBConfiguration.getStreamCheckpointDirectory(), String.valueOf(connectionIndex))
+                    : null;
+
+            final DynamoDBStreamConsumer streamConsumer = new DynamoDBStreamConsumer(context.getConnection(),
+                    dynamoDBConfiguration.getStreamPollMillis(), checkpointDirectory, (tableName, itemId, eventName) ->
+            {
+                context.getReadCoalescer().invalidate(tableName, itemId);
+                removeFromLocalCache(new DynamoDBTableShard(tableName, streamConnectionIndex), itemId);
+                if (!OperationType.REMOVE.toString().equals(eventName))
+                {
+                    recordExistence(context, tableName, itemId);
+                }
+                else
+                {
+                    // a mutation-logged state removed by its expiry or another node must be written as a snapshot next
+                    context.getMutationLog().forget(tableName, itemId);
+                }
+            });
+
+            try
+            {
+                streamConsumer.start();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedException(e);
+            }
+            streamConsumers.add(streamConsumer);
+            context.setStreamConsumer(streamConsumer);
+        }
+    }
+
+    /**
+     * @return the capacity consumed and the item sizes of state reads and writes per actor interface and state
+     * class, the most expensive first, or an empty list when capacity profiling is disabled
+     */
+    public List<DynamoDBCapacityProfile> getCapacityProfiles()
+    {
+        return capacityProfiler != null ? capacityProfiler.getProfiles() : Collections.emptyList();
+    }
+
+    /**
+     * @return the hedged reads sent for states configured with {@link DynamoDBStateConfiguration#hedgeReads()}
+     */
+    public long getHedgedReadsSent()
+    {
+        long hedgesSent = 0;
+        for (final DynamoDBConnectionContext context : connectionContexts)
+        {
+            hedgesSent += context.getReadCoalescer().getHedger().getHedgesSent();
+        }
+        return hedgesSent;
+    }
+
+    /**
+     * @return the hedged reads that answered before the reads they duplicated
+     */
+    public long getHedgedReadsWon()
+    {
+        long hedgesWon = 0;
+        for (final DynamoDBConnectionContext context : connectionContexts)
+        {
+            hedgesWon += context.getReadCoalescer().getHedger().getHedgesWon();
+        }
+        return hedgesWon;
+    }
+
+    /**
+     * @return a trace of the operation if it is sampled, otherwise null
+     */
+    private DynamoDBTrace startTrace(final String operation, final String tableName, final Class<?> stateClass, final String itemId)
+    {
+        final double sampleRate = dynamoDBConfiguration.getTraceSampleRate();
+        if (dynamoDBConfiguration.getTraceSink() == null || sampleRate <= 0
+                || sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)
+        {
+            return null;
+        }
+        return new DynamoDBTrace(operation, tableName, stateClass, itemId);
+    }
+
+    private <T> Task<T> finishTrace(final DynamoDBTrace trace, final Task<T> operation)
+    {
+        if (trace == null)
+        {
+            return operation;
+        }
+
+        return operation.whenComplete((result, error) ->
+        {
+            try
+            {
+                dynamoDBConfiguration.getTraceSink().export(trace.finish(error));
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("The trace sink failed to export a span", e);
+            }
+        });
+    }
+
+    private static void mark(final DynamoDBTrace trace, final DynamoDBTraceStage stage)
+    {
+        if (trace != null)
+        {
+            trace.mark(stage);
+        }
+    }
+
+    private Task<Table> resolveTable(final DynamoDBConnectionContext context, final String tableName)
+    {
+        return withDeadline(DynamoDBUtils.getTable(context.getConnection(), tableName),
+                DynamoDBDeadline.after(dynamoDBConfiguration.getTableResolveTimeoutMillis()), "resolveTable " + tableName);
+    }
+
+    /**
+     * Fails the operation with a {@link DynamoDBTimeoutException} when it has not completed by the deadline, or when
+     * the client gave up on one of its requests for lack of time. The operation itself is left to complete.
+     */
+    private <T> Task<T> withDeadline(final Task<T> operation, final DynamoDBDeadline deadline, final String description)
+    {
+        if (!deadline.isBounded() || operation.isDone())
+        {
+            return operation;
+        }
+
+        final Task<T> result = new Task<>();
+        final ScheduledFuture<?> timer = dynamoDBConnection.getScheduler().schedule(
+                () -> result.completeExceptionally(new DynamoDBTimeoutException(description, deadline.getTimeoutMillis())),
+                deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+        operation.whenComplete((value, error) ->
+        {
+            timer.cancel(false);
+            if (error == null)
+            {
+                result.complete(value);
+            }
+            else
+            {
+                result.completeExceptionally(isClientTimeout(error) ? new DynamoDBTimeoutException(description, deadline.getTimeoutMillis()) : error);
+            }
+        });
+        return result;
+    }
+
+    private static boolean isClientTimeout(final Throwable error)
+    {
+        for (Throwable cause = error; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof ClientExecutionTimeoutException)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites a state that was just read in an older schema version in its current shape, when the schema upgrade
+     * rate allows. The write is conditional on the item still having the old version, so it never overwrites a
+     * write made since. States that expire are left for their next write, which renews their expiry.
+     */
+    private void upgradeSchema(final DynamoDBConnectionContext context, final DynamoDBTableShard shard, final RemoteReference<?> reference,
+                               final Object state, final Class<?> stateClass, final String itemId, final Item item)
+    {
+        final int itemSchemaVersion = getSchemaVersion(item);
+        if (schemaUpgradeLimiter == null || itemSchemaVersion >= DynamoDBSchemaRegistry.getSchemaVersion(stateClass)
+                || isMutationLogged(stateClass) || getExpiryEpochSeconds(state, stateClass) > 0 || !schemaUpgradeLimiter.tryAcquire())
+        {
+            return;
+        }
+
+        final Item upgradedItem = generatePutItem(reference, state, stateClass, itemId, dynamoDBConnection.getMapper());
+        final PutItemRequest putItemRequest = new PutItemRequest()
+                .withTableName(shard.getTableName())
+                .withItem(ItemUtils.toAttributeValues(upgradedItem))
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .addExpressionAttributeNamesEntry("#schemaVersion", DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION);
+        if (itemSchemaVersion == 0)
+        {
+            putItemRequest.withConditionExpression("attribute_not_exists(#schemaVersion)");
+        }
+        else
+        {
+            putItemRequest.withConditionExpression("#schemaVersion = :schemaVersion")
+                    .addExpressionAttributeValuesEntry(":schemaVersion", new AttributeValue().withN(String.valueOf(itemSchemaVersion)));
+        }
+
+        operationTracker.track("upgradeSchema " + itemId, () -> DynamoDBUtils.putItem(context.getConnection(), putItemRequest)
+                .whenComplete((result, error) ->
+                {
+                    if (error == null)
+                    {
+                        context.getReadCoalescer().invalidate(shard.getTableName(), itemId);
+                        removeFromLocalCache(shard, itemId);
+                        if (result.getConsumedCapacity() != null)
+                        {
+                            schemaUpgradeLimiter.consume(result.getConsumedCapacity().getCapacityUnits());
+                        }
+                    }
+                    else
+                    {
+                        // usually a write made since, which already has the current shape
+                        logger.debug("Skipped the schema upgrade of {}", itemId, error);
+                        schemaUpgradeLimiter.consume(1);
+                    }
+                }));
+    }
+
+    private static int getSchemaVersion(final Item item)
+    {
+        return item.hasAttribute(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION) ? item.getInt(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION) : 0;
+    }
+
+    private DynamoDBCapacityProfiler.Counters getCapacityCounters(final RemoteReference<?> reference, final Class<?> stateClass)
+    {
+        return capacityProfiler != null ? capacityProfiler.getCounters(RemoteReference.getInterfaceClass(reference), stateClass) : null;
+    }
+
+    private DynamoDBConnectionContext getContext(final DynamoDBTableShard shard)
+    {
+        return connectionContexts.get(shard.getConnectionIndex());
+    }
+
+    public boolean isCoalescingWrites(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.coalesceWrites() || isWriteBehind(stateType);
+    }
+
+    public boolean isHedgingReads(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.hedgeReads();
+    }
+
+    public boolean isMutationLogged(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.mutationLog();
+    }
+
+    public boolean isWriteBehind(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return writeJournal != null && dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.writeBehind();
+    }
+
+    /**
+     * @return the milliseconds a read of the state may take, 0 for no timeout
+     */
+    public long getReadTimeoutMillis(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.readTimeoutMillis() >= 0
+                ? dynamoDBStateConfiguration.readTimeoutMillis() : dynamoDBConfiguration.getReadTimeoutMillis();
+    }
+
+    /**
+     * @return the milliseconds a write of the state may take, 0 for no timeout
+     */
+    public long getWriteTimeoutMillis(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.writeTimeoutMillis() >= 0
+                ? dynamoDBStateConfiguration.writeTimeoutMillis() : dynamoDBConfiguration.getWriteTimeoutMillis();
+    }
+
+    /**
+     * @return the milliseconds a clear of the state may take, 0 for no timeout
+     */
+    public long getClearTimeoutMillis(final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        return dynamoDBStateConfiguration != null && dynamoDBStateConfiguration.clearTimeoutMillis() >= 0
+                ? dynamoDBStateConfiguration.clearTimeoutMillis() : dynamoDBConfiguration.getClearTimeoutMillis();
+    }
+
+    /**
+     * @return the epoch second at which the state expires, or 0 if it does not expire
+     */
+    public long getExpiryEpochSeconds(final Object state, final Class<?> stateType)
+    {
+        DynamoDBStateConfiguration dynamoDBStateConfiguration = stateType.getAnnotation(DynamoDBStateConfiguration.class);
+        if (dynamoDBStateConfiguration == null)
+        {
+            return 0;
+        }
+
+        if (dynamoDBStateConfiguration.timeToLiveProvider() != DynamoDBTimeToLiveProvider.class)
+        {
+            if (state == null)
+            {
+                return 0;
+            }
+
+            return timeToLiveProviders.computeIfAbsent(dynamoDBStateConfiguration.timeToLiveProvider(), providerClass ->
+            {
+                try
+                {
+                    return (DynamoDBTimeToLiveProvider) providerClass.newInstance();
+                }
+                catch (ReflectiveOperationException e)
+                {
+                    throw new UncheckedException(e);
+                }
+            }).getExpiryEpochSeconds(state);
+        }
+
+        if (dynamoDBStateConfiguration.timeToLiveSeconds() > 0)
+        {
+            return System.currentTimeMillis() / 1000 + dynamoDBStateConfiguration.timeToLiveSeconds();
+        }
+
+        return 0;
+    }
+
     public void setName(final String name)
     {
         this.name = name;
@@ -223,7 +2392,16 @@ public class DynamoDBStorageExtension implements StorageExtension
                         stateClass.getName()));
             }
 
-            mapper.readerForUpdating(state).readValue(item.getJSON(DynamoDBUtils.FIELD_NAME_DATA));
+            final int itemSchemaVersion = getSchemaVersion(item);
+            if (itemSchemaVersion < DynamoDBSchemaRegistry.getSchemaVersion(stateClass))
+            {
+                mapper.readerForUpdating(state).readValue(dynamoDBConfiguration.getSchemaRegistry().upcast(stateClass, itemSchemaVersion,
+                        mapper.readTree(item.getJSON(DynamoDBUtils.FIELD_NAME_DATA))));
+            }
+            else
+            {
+                mapper.readerForUpdating(state).readValue(item.getJSON(DynamoDBUtils.FIELD_NAME_DATA));
+            }
         }
         catch (IOException e)
         {
@@ -245,13 +2423,25 @@ public class DynamoDBStorageExtension implements StorageExtension
             final Class<?> referenceType = RemoteReference.getInterfaceClass(reference);
 
             final Item item = new Item()
-                    .withPrimaryKey(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, itemId)
-                    .with(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, referenceType.getName());
+                    .withPrimaryKey(DynamoDBUtils.createPrimaryKey(dynamoDBConnection, itemId))
+                    .with(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, getTypeName(referenceType));
+
+            final long expiresAt = getExpiryEpochSeconds(state, stateClass);
+            if (expiresAt > 0)
+            {
+                item.withLong(DynamoDBUtils.FIELD_NAME_EXPIRES_AT, expiresAt);
+            }
 
             if (state != null)
             {
                 final String serializedState = mapper.writeValueAsString(state);
                 item.withJSON(DynamoDBUtils.FIELD_NAME_DATA, serializedState);
+
+                final int schemaVersion = DynamoDBSchemaRegistry.getSchemaVersion(stateClass);
+                if (schemaVersion > 0)
+                {
+                    item.withInt(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION, schemaVersion);
+                }
             }
 
             return item;
@@ -0,0 +1,564 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreamsClient;
+import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
+import com.amazonaws.services.dynamodbv2.model.ExpiredIteratorException;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsRequest;
+import com.amazonaws.services.dynamodbv2.model.GetRecordsResult;
+import com.amazonaws.services.dynamodbv2.model.GetShardIteratorRequest;
+import com.amazonaws.services.dynamodbv2.model.LimitExceededException;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.Shard;
+import com.amazonaws.services.dynamodbv2.model.ShardIteratorType;
+import com.amazonaws.services.dynamodbv2.model.StreamDescription;
+import com.amazonaws.services.dynamodbv2.model.TrimmedDataAccessException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tails the keys-only streams of the tables a connection has opened and reports every changed document to a
+ * listener, so caches kept by this node learn about writes made by other nodes.
+ * <p>
+ * A single thread reads every shard of every stream. The listener only invalidates, which gives the same result
+ * whatever the order of the changes, so child shards are read alongside their parents instead of after them.
+ * The position reached in each shard is checkpointed to a file per table when a directory is configured; without
+ * one, a node starts at the end of the streams and misses the changes made while it was down.
+ * <p>
+ * Every node reads every shard, while DynamoDB Streams throttles shards read by more than two readers at the same
+ * time. Polls start at a random offset so the nodes' reads rarely overlap, and a table whose reads are throttled is
+ * polled less often until they succeed again, which shows as lag to the callers relying on the stream. Clusters
+ * with many nodes should poll less often, keeping the number of nodes divided by the poll interval well under a few
+ * reads per second per shard.
+ */
+class DynamoDBStreamConsumer
+{
+    final static private int MAX_RECORDS_PER_REQUEST = 1000;
+    final static private int MAX_REQUESTS_PER_SHARD = 10;
+    final static private long DESCRIBE_INTERVAL_MILLIS = 60000;
+    final static private long MAX_THROTTLED_DELAY_MILLIS = 30000;
+    final static private String CHECKPOINT_SUFFIX = ".stream-checkpoint";
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBStreamConsumer.class);
+
+    interface ChangeListener
+    {
+        /**
+         * @param eventName INSERT, MODIFY or REMOVE
+         */
+        void onChange(String tableName, String itemId, String eventName);
+    }
+
+    private static class ShardPosition
+    {
+        private final String shardId;
+        private ShardIteratorType initialPosition;
+        private String sequenceNumber;
+        private String iterator;
+        private boolean finished;
+        private long lagMillis;
+
+        private ShardPosition(final String shardId, final ShardIteratorType initialPosition)
+        {
+            this.shardId = shardId;
+            this.initialPosition = initialPosition;
+        }
+    }
+
+    private class TableStream
+    {
+        private final String tableName;
+        private String streamArn;
+        private boolean checkpointed;
+        private final Map<String, ShardPosition> shards = new LinkedHashMap<>();
+        private long describedAt;
+        private boolean describeNeeded = true;
+        private boolean checkpointDirty;
+        private volatile long lagMillis;
+        private volatile long positionedAtMillis;
+        private volatile long caughtUpAtMillis;
+        private int throttledPolls;
+        private long nextPollAt;
+
+        private TableStream(final String tableName)
+        {
+            this.tableName = tableName;
+        }
+
+        private void poll()
+        {
+            if (streamArn == null)
+            {
+                final String latestStreamArn = DynamoDBUtils.getLatestStreamArn(dynamoDBConnection, tableName);
+                if (latestStreamArn == null)
+                {
+                    return;
+                }
+                streamArn = latestStreamArn;
+                loadCheckpoint();
+            }
+
+            if (describeNeeded || System.currentTimeMillis() - describedAt > DESCRIBE_INTERVAL_MILLIS)
+            {
+                describe();
+            }
+
+            final long pollStartedAt = System.currentTimeMillis();
+            boolean caughtUp = true;
+            long maxLagMillis = 0;
+            for (final ShardPosition shard : shards.values())
+            {
+                if (!shard.finished)
+                {
+                    caughtUp &= read(shard);
+                }
+                maxLagMillis = Math.max(maxLagMillis, shard.lagMillis);
+            }
+            lagMillis = maxLagMillis;
+
+            if (caughtUp)
+            {
+                if (positionedAtMillis == 0)
+                {
+                    positionedAtMillis = System.currentTimeMillis();
+                }
+                caughtUpAtMillis = pollStartedAt;
+            }
+
+            if (checkpointDirty)
+            {
+                saveCheckpoint();
+            }
+        }
+
+        private void describe()
+        {
+            final boolean firstDescription = describedAt == 0;
+            final Set<String> currentShardIds = new HashSet<>();
+            String exclusiveStartShardId = null;
+            do
+            {
+                final StreamDescription description = streamsClient.describeStream(new DescribeStreamRequest()
+                        .withStreamArn(streamArn)
+                        .withExclusiveStartShardId(exclusiveStartShardId)).getStreamDescription();
+
+                for (final Shard shard : description.getShards())
+                {
+                    currentShardIds.add(shard.getShardId());
+                    if (shards.containsKey(shard.getShardId()))
+                    {
+                        continue;
+                    }
+
+                    final boolean closed = shard.getSequenceNumberRange().getEndingSequenceNumber() != null;
+                    if (firstDescription && !checkpointed)
+                    {
+                        // the changes before this node started cannot concern its caches
+                        final ShardPosition position = new ShardPosition(shard.getShardId(), ShardIteratorType.LATEST);
+                        position.finished = closed;
+                        shards.put(shard.getShardId(), position);
+                    }
+                    else
+                    {
+                        // a shard split since the last description, or missing from the checkpoint
+                        shards.put(shard.getShardId(), new ShardPosition(shard.getShardId(), ShardIteratorType.TRIM_HORIZON));
+                    }
+                    checkpointDirty = true;
+                }
+
+                exclusiveStartShardId = description.getLastEvaluatedShardId();
+            }
+            while (exclusiveStartShardId != null);
+
+            // shards older than the stream's retention are no longer described
+            if (shards.keySet().retainAll(currentShardIds))
+            {
+                checkpointDirty = true;
+            }
+
+            describedAt = System.currentTimeMillis();
+            describeNeeded = false;
+        }
+
+        /**
+         * @return whether the shard was read to its end
+         */
+        private boolean read(final ShardPosition shard)
+        {
+            try
+            {
+                if (shard.iterator == null)
+                {
+                    shard.iterator = getShardIterator(shard);
+                    if (shard.initialPosition == ShardIteratorType.LATEST)
+                    {
+                        // should the iterator expire before the first change, the shard is read again from its start
+                        shard.initialPosition = ShardIteratorType.TRIM_HORIZON;
+                    }
+                }
+
+                for (int requests = 0; requests < MAX_REQUESTS_PER_SHARD; requests++)
+                {
+                    final GetRecordsResult result = streamsClient.getRecords(new GetRecordsRequest()
+                            .withShardIterator(shard.iterator)
+                            .withLimit(MAX_RECORDS_PER_REQUEST));
+
+                    final List<Record> records = result.getRecords();
+                    for (final Record record : records)
+                    {
+                        listener.onChange(tableName, DynamoDBUtils.getDocumentId(dynamoDBConnection, record.getDynamodb().getKeys()),
+                                record.getEventName());
+                        shard.sequenceNumber = record.getDynamodb().getSequenceNumber();
+                        checkpointDirty = true;
+                    }
+                    recordsProcessed.addAndGet(records.size());
+
+                    shard.iterator = result.getNextShardIterator();
+                    if (shard.iterator == null)
+                    {
+                        shard.finished = true;
+                        shard.lagMillis = 0;
+                        describeNeeded = true;
+                        checkpointDirty = true;
+                        return true;
+                    }
+
+                    if (records.size() < MAX_RECORDS_PER_REQUEST)
+                    {
+                        shard.lagMillis = 0;
+                        return true;
+                    }
+
+                    final Record lastRecord = records.get(records.size() - 1);
+                    shard.lagMillis = lastRecord.getDynamodb().getApproximateCreationDateTime() != null
+                            ? Math.max(0, System.currentTimeMillis() - lastRecord.getDynamodb().getApproximateCreationDateTime().getTime())
+                            : 0;
+                }
+            }
+            catch (ExpiredIteratorException e)
+            {
+                shard.iterator = null;
+            }
+            catch (TrimmedDataAccessException e)
+            {
+                logger.warn("Changes of table {} in stream shard {} were trimmed before being read, cached states may be stale",
+                        tableName, shard.shardId);
+                shard.iterator = null;
+                shard.sequenceNumber = null;
+                shard.initialPosition = ShardIteratorType.TRIM_HORIZON;
+                // changes were lost, so what was derived from the stream so far can no longer be trusted
+                positionedAtMillis = 0;
+            }
+            return false;
+        }
+
+        private String getShardIterator(final ShardPosition shard)
+        {
+            final GetShardIteratorRequest request = new GetShardIteratorRequest()
+                    .withStreamArn(streamArn)
+                    .withShardId(shard.shardId);
+            if (shard.sequenceNumber != null)
+            {
+                request.withShardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).withSequenceNumber(shard.sequenceNumber);
+            }
+            else
+            {
+                request.withShardIteratorType(shard.initialPosition);
+            }
+            return streamsClient.getShardIterator(request).getShardIterator();
+        }
+
+        private void loadCheckpoint()
+        {
+            final Path checkpointFile = getCheckpointFile(tableName);
+            if (checkpointFile == null || !Files.exists(checkpointFile))
+            {
+                return;
+            }
+
+            try
+            {
+                final JsonNode checkpoint = mapper.readTree(checkpointFile.toFile());
+                if (!streamArn.equals(checkpoint.get("streamArn").asText()))
+                {
+                    // the stream was disabled then enabled again, so all of the new one's changes are unseen
+                    checkpointed = true;
+                    return;
+                }
+
+                final Iterator<Map.Entry<String, JsonNode>> fields = checkpoint.get("shards").fields();
+                while (fields.hasNext())
+                {
+                    final Map.Entry<String, JsonNode> field = fields.next();
+                    final ShardPosition position = new ShardPosition(field.getKey(), ShardIteratorType.TRIM_HORIZON);
+                    final JsonNode sequenceNumber = field.getValue().get("sequenceNumber");
+                    position.sequenceNumber = sequenceNumber == null || sequenceNumber.isNull() ? null : sequenceNumber.asText();
+                    position.finished = field.getValue().get("finished").asBoolean();
+                    shards.put(field.getKey(), position);
+                }
+                checkpointed = true;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.warn("Ignoring the unreadable stream checkpoint " + checkpointFile, e);
+            }
+        }
+
+        private void saveCheckpoint()
+        {
+            final Path checkpointFile = getCheckpointFile(tableName);
+            checkpointDirty = false;
+            if (checkpointFile == null)
+            {
+                return;
+            }
+
+            final ObjectNode checkpoint = mapper.createObjectNode();
+            checkpoint.put("streamArn", streamArn);
+            final ObjectNode shardsNode = checkpoint.putObject("shards");
+            for (final ShardPosition shard : shards.values())
+            {
+                shardsNode.putObject(shard.shardId)
+                        .put("sequenceNumber", shard.sequenceNumber)
+                        .put("finished", shard.finished);
+            }
+
+            try
+            {
+                final Path partFile = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".part");
+                Files.write(partFile, mapper.writeValueAsBytes(checkpoint));
+                Files.move(partFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                checkpointDirty = true;
+                logger.warn("Could not save the stream checkpoint " + checkpointFile, e);
+            }
+        }
+    }
+
+    private final DynamoDBConnection dynamoDBConnection;
+    private final AmazonDynamoDBStreamsClient streamsClient;
+    private final long pollMillis;
+    private final Path checkpointDirectory;
+    private final ChangeListener listener;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentMap<String, TableStream> streams = new ConcurrentHashMap<>();
+    private final AtomicLong recordsProcessed = new AtomicLong();
+    private ScheduledExecutorService poller;
+
+    /**
+     * @param checkpointDirectory where positions are kept, or null to start at the end of the streams
+     */
+    DynamoDBStreamConsumer(final DynamoDBConnection dynamoDBConnection, final long pollMillis, final Path checkpointDirectory,
+                           final ChangeListener listener)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+        this.streamsClient = dynamoDBConnection.getStreamsClient();
+        this.pollMillis = pollMillis;
+        this.checkpointDirectory = checkpointDirectory;
+        this.listener = listener;
+    }
+
+    public void start() throws IOException
+    {
+        if (checkpointDirectory != null)
+        {
+            Files.createDirectories(checkpointDirectory);
+        }
+
+        poller = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "orbit-dynamodb-stream-consumer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // nodes started together would otherwise read the same shards at the same time
+        poller.scheduleWithFixedDelay(this::poll, ThreadLocalRandom.current().nextLong(pollMillis + 1), pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling once the current poll completes.
+     */
+    public void stop()
+    {
+        if (poller == null)
+        {
+            return;
+        }
+
+        poller.shutdown();
+        try
+        {
+            if (!poller.awaitTermination(pollMillis + 10000, TimeUnit.MILLISECONDS))
+            {
+                poller.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            poller.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return how far behind the newest change the slowest shard is, or 0 when every shard is caught up
+     */
+    public long getLagMillis()
+    {
+        long maxLagMillis = 0;
+        for (final TableStream stream : streams.values())
+        {
+            maxLagMillis = Math.max(maxLagMillis, stream.lagMillis);
+        }
+        return maxLagMillis;
+    }
+
+    /**
+     * @return when the stream of the table was first read to its end, from which point every change to the table
+     * reaches the listener, or 0 if it has not been yet or changes were lost since
+     */
+    public long getPositionedAtMillis(final String tableName)
+    {
+        final TableStream stream = streams.get(tableName);
+        return stream != null ? stream.positionedAtMillis : 0;
+    }
+
+    /**
+     * @return when the last poll that read the stream of the table to its end started, 0 if none did; the changes
+     * the stream delivered before then have all reached the listener
+     */
+    public long getCaughtUpAtMillis(final String tableName)
+    {
+        final TableStream stream = streams.get(tableName);
+        return stream != null ? stream.caughtUpAtMillis : 0;
+    }
+
+    public long getRecordsProcessed()
+    {
+        return recordsProcessed.get();
+    }
+
+    private void poll()
+    {
+        // a failure escaping the scheduled task would stop every later poll without a trace
+        try
+        {
+            // tables are opened lazily, so new ones are picked up as they appear
+            for (final String tableName : DynamoDBUtils.getOpenedTableNames(dynamoDBConnection))
+            {
+                streams.computeIfAbsent(tableName, TableStream::new);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            logger.error("Could not list the tables whose streams to read, retrying", e);
+        }
+
+        for (final TableStream stream : streams.values())
+        {
+            if (System.currentTimeMillis() < stream.nextPollAt)
+            {
+                continue;
+            }
+
+            try
+            {
+                stream.poll();
+                stream.throttledPolls = 0;
+            }
+            catch (AmazonClientException e)
+            {
+                if (!isThrottling(e))
+                {
+                    logger.warn("Could not read the stream of table " + stream.tableName + ", retrying", e);
+                    continue;
+                }
+
+                logger.warn("Reads of the stream of table {} are throttled, too many nodes may be reading it; next poll in {} ms",
+                        stream.tableName, backOff(stream));
+            }
+            catch (RuntimeException e)
+            {
+                // such as a listener failing on a record; the table stays behind, so nothing takes it as caught up
+                logger.error("Failed to process the stream of table " + stream.tableName + ", next poll in " + backOff(stream) + " ms", e);
+            }
+        }
+    }
+
+    /**
+     * Delays the next poll of the stream, exponentially with the number of failed polls in a row.
+     *
+     * @return the delay
+     */
+    private long backOff(final TableStream stream)
+    {
+        final long maxDelay = Math.min(MAX_THROTTLED_DELAY_MILLIS, pollMillis << Math.min(++stream.throttledPolls, 10));
+        final long delay = ThreadLocalRandom.current().nextLong(maxDelay / 2, maxDelay + 1);
+        stream.nextPollAt = System.currentTimeMillis() + delay;
+        return delay;
+    }
+
+    private static boolean isThrottling(final AmazonClientException e)
+    {
+        return e instanceof LimitExceededException
+                || e instanceof AmazonServiceException && "ThrottlingException".equals(((AmazonServiceException) e).getErrorCode());
+    }
+
+    private Path getCheckpointFile(final String tableName)
+    {
+        return checkpointDirectory != null ? checkpointDirectory.resolve(tableName + CHECKPOINT_SUFFIX) : null;
+    }
+}
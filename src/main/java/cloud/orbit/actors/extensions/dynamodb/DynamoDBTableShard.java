@@ -0,0 +1,82 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+/**
+ * A physical table, and the index of the connection it is reached through: 0 for the extension's own connection,
+ * 1 and above for {@link DynamoDBConfiguration#getShardConnections()}.
+ */
+public final class DynamoDBTableShard
+{
+    private final String tableName;
+    private final int connectionIndex;
+
+    public DynamoDBTableShard(final String tableName, final int connectionIndex)
+    {
+        this.tableName = tableName;
+        this.connectionIndex = connectionIndex;
+    }
+
+    public String getTableName()
+    {
+        return tableName;
+    }
+
+    public int getConnectionIndex()
+    {
+        return connectionIndex;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (this == other)
+        {
+            return true;
+        }
+        if (!(other instanceof DynamoDBTableShard))
+        {
+            return false;
+        }
+        final DynamoDBTableShard shard = (DynamoDBTableShard) other;
+        return connectionIndex == shard.connectionIndex && tableName.equals(shard.tableName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * tableName.hashCode() + connectionIndex;
+    }
+
+    @Override
+    public String toString()
+    {
+        return tableName + "@" + connectionIndex;
+    }
+}
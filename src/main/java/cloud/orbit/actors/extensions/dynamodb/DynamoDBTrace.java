@@ -0,0 +1,111 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.event.ProgressEvent;
+import com.amazonaws.event.ProgressEventType;
+import com.amazonaws.event.SyncProgressListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the stages of a sampled storage operation. Each mark closes a stage that began at the previous mark, so
+ * the stages cover the operation without gaps.
+ */
+class DynamoDBTrace
+{
+    private final String name;
+    private final long startEpochMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private final List<DynamoDBSpan.Stage> stages = new ArrayList<>();
+    private long lastMarkNanos = startNanos;
+    private boolean requestSent;
+
+    DynamoDBTrace(final String name, final String tableName, final Class<?> stateClass, final String itemId)
+    {
+        this.name = name;
+        attributes.put(DynamoDBSpan.ATTRIBUTE_DB_SYSTEM, "dynamodb");
+        attributes.put(DynamoDBSpan.ATTRIBUTE_TABLE_NAME, tableName);
+        attributes.put(DynamoDBSpan.ATTRIBUTE_STATE_CLASS, stateClass.getName());
+        attributes.put(DynamoDBSpan.ATTRIBUTE_DOCUMENT_ID, itemId);
+    }
+
+    public synchronized void mark(final DynamoDBTraceStage stage)
+    {
+        final long now = System.nanoTime();
+        stages.add(new DynamoDBSpan.Stage(stage, lastMarkNanos - startNanos, now - lastMarkNanos));
+        lastMarkNanos = now;
+    }
+
+    /**
+     * Marks the response reaching the extension: the hop from the client's thread if the request reported its
+     * progress, otherwise the whole wait, as for reads that joined one in flight.
+     */
+    public synchronized void markResponse()
+    {
+        mark(requestSent ? DynamoDBTraceStage.CALLBACK : DynamoDBTraceStage.NETWORK);
+    }
+
+    /**
+     * @return a listener to set on the request, splitting the wait for its thread from its time on the network
+     */
+    public SyncProgressListener getProgressListener()
+    {
+        return new SyncProgressListener()
+        {
+            @Override
+            public void progressChanged(final ProgressEvent progressEvent)
+            {
+                if (progressEvent.getEventType() == ProgressEventType.CLIENT_REQUEST_STARTED_EVENT)
+                {
+                    mark(DynamoDBTraceStage.QUEUE);
+                }
+                else if (progressEvent.getEventType() == ProgressEventType.HTTP_RESPONSE_COMPLETED_EVENT)
+                {
+                    synchronized (DynamoDBTrace.this)
+                    {
+                        mark(DynamoDBTraceStage.NETWORK);
+                        requestSent = true;
+                    }
+                }
+            }
+        };
+    }
+
+    public synchronized DynamoDBSpan finish(final Throwable error)
+    {
+        return new DynamoDBSpan(name, startEpochMillis, System.nanoTime() - startNanos,
+                Collections.unmodifiableMap(attributes), Collections.unmodifiableList(new ArrayList<>(stages)), error);
+    }
+}
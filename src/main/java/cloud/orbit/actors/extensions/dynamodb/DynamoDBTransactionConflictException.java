@@ -0,0 +1,69 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import cloud.orbit.exception.UncheckedException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when {@link DynamoDBStorageExtension#commitStates} is cancelled because the condition of an entry did not
+ * hold or another transaction was writing one of its states. Nothing was written.
+ */
+public class DynamoDBTransactionConflictException extends UncheckedException
+{
+    private final List<DynamoDBTransactionEntry> failedConditions;
+    private final List<DynamoDBTransactionEntry> concurrentlyWritten;
+
+    public DynamoDBTransactionConflictException(final List<DynamoDBTransactionEntry> failedConditions,
+                                                final List<DynamoDBTransactionEntry> concurrentlyWritten, final Throwable cause)
+    {
+        super("Transaction cancelled: " + failedConditions.size() + " failed conditions, "
+                + concurrentlyWritten.size() + " states written concurrently", cause);
+        this.failedConditions = Collections.unmodifiableList(failedConditions);
+        this.concurrentlyWritten = Collections.unmodifiableList(concurrentlyWritten);
+    }
+
+    /**
+     * @return the entries whose version or absence condition did not hold, which a retry would fail again
+     */
+    public List<DynamoDBTransactionEntry> getFailedConditions()
+    {
+        return failedConditions;
+    }
+
+    /**
+     * @return the entries whose states another transaction was writing, which may succeed when retried
+     */
+    public List<DynamoDBTransactionEntry> getConcurrentlyWritten()
+    {
+        return concurrentlyWritten;
+    }
+}
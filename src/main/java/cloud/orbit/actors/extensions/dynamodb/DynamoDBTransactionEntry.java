@@ -0,0 +1,131 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import cloud.orbit.actors.runtime.RemoteReference;
+
+/**
+ * A state to write or clear as part of {@link DynamoDBStorageExtension#commitStates}, optionally conditioned on the
+ * version of the state currently persisted.
+ * <p>
+ * Versions are fingerprints of the persisted item, as returned by {@link DynamoDBStorageExtension#readVersion} and
+ * {@link DynamoDBStorageExtension#commitStates}. A condition on a version therefore holds when the persisted state
+ * has the expected content, even if it was changed and changed back in between.
+ */
+public class DynamoDBTransactionEntry
+{
+    /**
+     * The version of a persisted state whose writer did not stamp one.
+     */
+    public static final long UNVERSIONED = 0;
+
+    private final RemoteReference<?> reference;
+    private final Object state;
+    private final Class<?> stateClass;
+    private final boolean clear;
+    private Long expectedVersion;
+    private boolean expectAbsent;
+
+    private DynamoDBTransactionEntry(final RemoteReference<?> reference, final Object state, final Class<?> stateClass, final boolean clear)
+    {
+        this.reference = reference;
+        this.state = state;
+        this.stateClass = stateClass;
+        this.clear = clear;
+    }
+
+    public static DynamoDBTransactionEntry write(final RemoteReference<?> reference, final Object state)
+    {
+        return write(reference, state, state.getClass());
+    }
+
+    public static DynamoDBTransactionEntry write(final RemoteReference<?> reference, final Object state, final Class<?> stateClass)
+    {
+        return new DynamoDBTransactionEntry(reference, state, stateClass, false);
+    }
+
+    public static DynamoDBTransactionEntry clear(final RemoteReference<?> reference, final Class<?> stateClass)
+    {
+        return new DynamoDBTransactionEntry(reference, null, stateClass, true);
+    }
+
+    /**
+     * Commits only if the persisted state exists and has this version; {@link #UNVERSIONED} matches any state
+     * persisted without a version.
+     */
+    public DynamoDBTransactionEntry ifVersion(final long expectedVersion)
+    {
+        this.expectedVersion = expectedVersion;
+        this.expectAbsent = false;
+        return this;
+    }
+
+    /**
+     * Commits only if no state is persisted.
+     */
+    public DynamoDBTransactionEntry ifAbsent()
+    {
+        this.expectedVersion = null;
+        this.expectAbsent = true;
+        return this;
+    }
+
+    public RemoteReference<?> getReference()
+    {
+        return reference;
+    }
+
+    public Object getState()
+    {
+        return state;
+    }
+
+    public Class<?> getStateClass()
+    {
+        return stateClass;
+    }
+
+    public boolean isClear()
+    {
+        return clear;
+    }
+
+    /**
+     * @return the version the persisted state must have, or null
+     */
+    public Long getExpectedVersion()
+    {
+        return expectedVersion;
+    }
+
+    public boolean isExpectAbsent()
+    {
+        return expectAbsent;
+    }
+}
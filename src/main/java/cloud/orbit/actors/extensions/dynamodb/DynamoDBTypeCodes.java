@@ -0,0 +1,120 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Short, stable codes that stand for actor interface names in document ids and in the owning type attribute, which
+ * otherwise repeat the full class name in every item and index entry. A type's code is the one registered for it, or
+ * a hash of its class name. Codes must never change once items are written with them.
+ *
+ * @see DynamoDBConfiguration#setTypeCodes(DynamoDBTypeCodes)
+ */
+public class DynamoDBTypeCodes
+{
+    final static private int HASH_BYTES = 6;
+
+    private final ConcurrentMap<String, String> codesByTypeName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> typeNamesByCode = new ConcurrentHashMap<>();
+
+    /**
+     * Assigns a code to a type instead of the hash of its name, for instance to keep the code when the type is renamed.
+     */
+    public DynamoDBTypeCodes register(final Class<?> type, final String code)
+    {
+        if (code == null || code.isEmpty() || code.contains(DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR))
+        {
+            throw new IllegalArgumentException("Invalid type code for " + type.getName() + ": " + code);
+        }
+        final String registered = codesByTypeName.putIfAbsent(type.getName(), code);
+        if (registered != null && !registered.equals(code))
+        {
+            throw new IllegalStateException(type.getName() + " already has the type code " + registered);
+        }
+        claim(code, type.getName());
+        return this;
+    }
+
+    public String getCode(final Class<?> type)
+    {
+        final String code = codesByTypeName.get(type.getName());
+        if (code != null)
+        {
+            return code;
+        }
+
+        final String hash = hash(type.getName());
+        final String previous = codesByTypeName.putIfAbsent(type.getName(), hash);
+        if (previous != null)
+        {
+            return previous;
+        }
+        claim(hash, type.getName());
+        return hash;
+    }
+
+    /**
+     * @return the name of the type with the code, or null if no type with the code was registered or encoded yet
+     */
+    public String getTypeName(final String code)
+    {
+        return typeNamesByCode.get(code);
+    }
+
+    private void claim(final String code, final String typeName)
+    {
+        final String owner = typeNamesByCode.putIfAbsent(code, typeName);
+        if (owner != null && !owner.equals(typeName))
+        {
+            codesByTypeName.remove(typeName, code);
+            throw new IllegalStateException("The type code " + code + " of " + typeName + " is already used by " + owner
+                    + ", register another code for one of them");
+        }
+    }
+
+    static String hash(final String typeName)
+    {
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(typeName.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, HASH_BYTES));
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
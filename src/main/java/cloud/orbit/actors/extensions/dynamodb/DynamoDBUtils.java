@@ -28,35 +28,80 @@
 
 package cloud.orbit.actors.extensions.dynamodb;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.CreateGlobalSecondaryIndexAction;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexUpdate;
 import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProjectionType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
 import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.StreamSpecification;
+import com.amazonaws.services.dynamodbv2.model.StreamViewType;
 import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveSpecification;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import cloud.orbit.concurrent.Task;
 import cloud.orbit.exception.UncheckedException;
 import cloud.orbit.util.ExceptionUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 public class DynamoDBUtils
 {
     final static private int WAITING_FOR_ACTIVE_TABLE_STATUS_MAX_ATTEMPTS = 66;
     final static long WAITING_FOR_ACTIVE_TABLE_STATUS_RETRY_DELAY_MILLIS = 600;
     final static public String FIELD_NAME_PRIMARY_ID = "_id";
+    final static public String FIELD_NAME_DECORATION = "_decoration";
     final static public String FIELD_NAME_DATA = "_state";
     final static public String FIELD_NAME_OWNING_ACTOR_TYPE = "_owningType";
+    final static public String FIELD_NAME_EXPIRES_AT = "_expiresAt";
+    final static public String FIELD_NAME_VERSION = "_version";
+    final static public String FIELD_NAME_SCHEMA_VERSION = "_schemaVersion";
+    final static public String OWNING_TYPE_INDEX_NAME = "_owningType-index";
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBUtils.class);
 
     private static ConcurrentMap<String, Table> tableCache = new ConcurrentHashMap<>();
 
@@ -71,7 +116,7 @@ public class DynamoDBUtils
         }
         else
         {
-            return Task.fromFuture(dynamoDBConnection.getDynamoClient().describeTableAsync(tableName))
+            return Task.fromFuture(dynamoDBConnection.getAsyncClient().describeTableAsync(tableName))
                     .thenApply(DescribeTableResult::getTable)
                     .thenCompose(descriptor -> {
                         if (descriptor.getTableStatus().equals(TableStatus.CREATING.name()))
@@ -84,6 +129,10 @@ public class DynamoDBUtils
                         }
                     })
                     .thenApply(descriptor -> {
+                        verifyKeyLayout(dynamoDBConnection, descriptor);
+                        ensureOwningTypeIndex(dynamoDBConnection, descriptor);
+                        ensureStream(dynamoDBConnection, descriptor);
+
                         final Table retrievedTable = dynamoDBConnection.getDynamoDB().getTable(descriptor.getTableName());
                         tableCache.putIfAbsent(tableCacheId, retrievedTable);
                         return retrievedTable;
@@ -119,13 +168,162 @@ public class DynamoDBUtils
         }
     }
 
+    public static void evictTables(final DynamoDBConnection dynamoDBConnection)
+    {
+        final String tableCacheIdPrefix = generateTableCacheId(dynamoDBConnection, "");
+        tableCache.keySet().removeIf(tableCacheId -> tableCacheId.startsWith(tableCacheIdPrefix));
+    }
+
+    /**
+     * @return the names of the tables the connection has opened
+     */
+    public static List<String> getOpenedTableNames(final DynamoDBConnection dynamoDBConnection)
+    {
+        final String tableCacheIdPrefix = generateTableCacheId(dynamoDBConnection, "");
+        final List<String> tableNames = new ArrayList<>();
+        tableCache.forEach((tableCacheId, table) ->
+        {
+            if (tableCacheId.startsWith(tableCacheIdPrefix))
+            {
+                tableNames.add(table.getTableName());
+            }
+        });
+        return tableNames;
+    }
+
+    /**
+     * DynamoDB deletes expired items in the background, sometimes days later, so reads must check the expiry themselves.
+     */
+    public static boolean isExpired(final Item item)
+    {
+        return item.hasAttribute(FIELD_NAME_EXPIRES_AT)
+                && item.getLong(FIELD_NAME_EXPIRES_AT) <= System.currentTimeMillis() / 1000;
+    }
+
+    public static Map<String, AttributeValue> createKey(final DynamoDBConnection dynamoDBConnection, final String itemId)
+    {
+        if (dynamoDBConnection.getConfiguration().getKeyLayout() == DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            final int separator = getDecorationSeparatorIndex(itemId);
+            final Map<String, AttributeValue> key = new HashMap<>(2);
+            key.put(FIELD_NAME_PRIMARY_ID, new AttributeValue(itemId.substring(0, separator)));
+            key.put(FIELD_NAME_DECORATION, new AttributeValue(itemId.substring(separator + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR.length())));
+            return key;
+        }
+
+        return Collections.singletonMap(FIELD_NAME_PRIMARY_ID, new AttributeValue(itemId));
+    }
+
+    public static PrimaryKey createPrimaryKey(final DynamoDBConnection dynamoDBConnection, final String itemId)
+    {
+        final PrimaryKey primaryKey = new PrimaryKey();
+        createKey(dynamoDBConnection, itemId).forEach((name, value) -> primaryKey.addComponent(name, value.getS()));
+        return primaryKey;
+    }
+
+    /**
+     * The document id of an item or key, in the form produced by {@link DynamoDBStorageExtension#generateDocumentId}
+     * whatever the key layout.
+     */
+    public static String getDocumentId(final DynamoDBConnection dynamoDBConnection, final Map<String, AttributeValue> attributes)
+    {
+        if (dynamoDBConnection.getConfiguration().getKeyLayout() == DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            return attributes.get(FIELD_NAME_PRIMARY_ID).getS()
+                    + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR
+                    + attributes.get(FIELD_NAME_DECORATION).getS();
+        }
+
+        return attributes.get(FIELD_NAME_PRIMARY_ID).getS();
+    }
+
+    public static String getDocumentId(final DynamoDBConnection dynamoDBConnection, final Item item)
+    {
+        if (dynamoDBConnection.getConfiguration().getKeyLayout() == DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            return item.getString(FIELD_NAME_PRIMARY_ID)
+                    + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR
+                    + item.getString(FIELD_NAME_DECORATION);
+        }
+
+        return item.getString(FIELD_NAME_PRIMARY_ID);
+    }
+
+    /**
+     * Actor ids may contain the separator, decorations are class names or overrides without it, so the last one splits.
+     */
+    private static int getDecorationSeparatorIndex(final String itemId)
+    {
+        final int separator = itemId.lastIndexOf(DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR);
+        if (separator < 0)
+        {
+            throw new IllegalArgumentException("Document id has no decoration: " + itemId);
+        }
+        return separator;
+    }
+
+    public static Task<GetItemResult> getItem(final DynamoDBConnection dynamoDBConnection, final GetItemRequest getItemRequest)
+    {
+        return new DynamoDBAsyncHandler<GetItemRequest, GetItemResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().getItemAsync(getItemRequest, handler));
+    }
+
+    public static Task<PutItemResult> putItem(final DynamoDBConnection dynamoDBConnection, final PutItemRequest putItemRequest)
+    {
+        return new DynamoDBAsyncHandler<PutItemRequest, PutItemResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().putItemAsync(putItemRequest, handler));
+    }
+
+    public static Task<DeleteItemResult> deleteItem(final DynamoDBConnection dynamoDBConnection, final DeleteItemRequest deleteItemRequest)
+    {
+        return new DynamoDBAsyncHandler<DeleteItemRequest, DeleteItemResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().deleteItemAsync(deleteItemRequest, handler));
+    }
+
+    public static Task<BatchGetItemResult> batchGetItem(final DynamoDBConnection dynamoDBConnection, final BatchGetItemRequest batchGetItemRequest)
+    {
+        return new DynamoDBAsyncHandler<BatchGetItemRequest, BatchGetItemResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().batchGetItemAsync(batchGetItemRequest, handler));
+    }
+
+    public static Task<BatchWriteItemResult> batchWriteItem(final DynamoDBConnection dynamoDBConnection, final BatchWriteItemRequest batchWriteItemRequest)
+    {
+        return new DynamoDBAsyncHandler<BatchWriteItemRequest, BatchWriteItemResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().batchWriteItemAsync(batchWriteItemRequest, handler));
+    }
+
+    public static Task<TransactWriteItemsResult> transactWriteItems(final DynamoDBConnection dynamoDBConnection, final TransactWriteItemsRequest transactWriteItemsRequest)
+    {
+        return new DynamoDBAsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().transactWriteItemsAsync(transactWriteItemsRequest, handler));
+    }
+
+    public static Task<ScanResult> scan(final DynamoDBConnection dynamoDBConnection, final ScanRequest scanRequest)
+    {
+        return new DynamoDBAsyncHandler<ScanRequest, ScanResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().scanAsync(scanRequest, handler));
+    }
+
+    public static Task<QueryResult> query(final DynamoDBConnection dynamoDBConnection, final QueryRequest queryRequest)
+    {
+        return new DynamoDBAsyncHandler<QueryRequest, QueryResult>()
+                .submit(handler -> dynamoDBConnection.getAsyncClient().queryAsync(queryRequest, handler));
+    }
+
+    public static Task<Void> delay(final DynamoDBConnection dynamoDBConnection, final long delayMillis)
+    {
+        final Task<Void> task = new Task<>();
+        dynamoDBConnection.getScheduler().schedule(() -> task.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        return task;
+    }
+
     private static Task<TableDescription> waitForActiveTableStatus(final DynamoDBConnection dynamoDBConnection, final String tableName)
     {
         try
         {
             for (int i = 0; i < WAITING_FOR_ACTIVE_TABLE_STATUS_MAX_ATTEMPTS; i++)
             {
-                final DescribeTableResult describe = dynamoDBConnection.getDynamoClient().describeTable(tableName);
+                final DescribeTableResult describe = dynamoDBConnection.getAsyncClient().describeTable(tableName);
                 if (describe.getTable().getTableStatus().equals(TableStatus.ACTIVE.name()))
                 {
                     return Task.fromValue(describe.getTable());
@@ -145,15 +343,186 @@ public class DynamoDBUtils
 
     private static Table createTable(final DynamoDBConnection dynamoDBConnection, final String tableName) throws InterruptedException
     {
-        final CreateTableRequest createTableRequest = createCreateTableRequest(tableName);
+        final CreateTableRequest createTableRequest = createCreateTableRequest(tableName, dynamoDBConnection.getConfiguration());
 
         final Table table = dynamoDBConnection.getDynamoDB().createTable(createTableRequest);
 
         table.waitForActive();
+        enableTimeToLive(dynamoDBConnection, tableName);
         return table;
     }
 
-    private static CreateTableRequest createCreateTableRequest(final String tableName)
+    private static void enableTimeToLive(final DynamoDBConnection dynamoDBConnection, final String tableName)
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().updateTimeToLive(new UpdateTimeToLiveRequest()
+                    .withTableName(tableName)
+                    .withTimeToLiveSpecification(new TimeToLiveSpecification()
+                            .withAttributeName(FIELD_NAME_EXPIRES_AT)
+                            .withEnabled(true)));
+        }
+        catch (AmazonServiceException e)
+        {
+            // expired states still read as absent, they are just not deleted in the background
+            logger.warn("Could not enable time to live on table " + tableName, e);
+        }
+    }
+
+    private static void verifyKeyLayout(final DynamoDBConnection dynamoDBConnection, final TableDescription descriptor)
+    {
+        boolean hasDecorationKey = false;
+        for (final KeySchemaElement keySchemaElement : descriptor.getKeySchema())
+        {
+            hasDecorationKey |= keySchemaElement.getAttributeName().equals(FIELD_NAME_DECORATION);
+        }
+
+        final DynamoDBKeyLayout keyLayout = dynamoDBConnection.getConfiguration().getKeyLayout();
+        if (hasDecorationKey != (keyLayout == DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION))
+        {
+            throw new UncheckedException("Table " + descriptor.getTableName() + " has key schema " + descriptor.getKeySchema()
+                    + " which does not match the configured key layout " + keyLayout);
+        }
+    }
+
+    /**
+     * Adds the owning type index to a table created before the index was enabled. DynamoDB backfills it in the
+     * background, the table stays usable meanwhile.
+     */
+    private static void ensureOwningTypeIndex(final DynamoDBConnection dynamoDBConnection, final TableDescription descriptor)
+    {
+        if (!dynamoDBConnection.getConfiguration().isOwningTypeIndexEnabled())
+        {
+            return;
+        }
+
+        final GlobalSecondaryIndexDescription existing = getOwningTypeIndex(descriptor);
+        if (existing != null)
+        {
+            // the projection of an index cannot be changed, only the index dropped and added again
+            if (!projectsExpiry(existing.getProjection()))
+            {
+                logger.warn("Index {} of table {} does not project {}, queries by owning type may return expired states",
+                        OWNING_TYPE_INDEX_NAME, descriptor.getTableName(), FIELD_NAME_EXPIRES_AT);
+            }
+            return;
+        }
+
+        final GlobalSecondaryIndex index = createOwningTypeIndex(dynamoDBConnection.getConfiguration());
+        try
+        {
+            dynamoDBConnection.getAsyncClient().updateTable(new UpdateTableRequest()
+                    .withTableName(descriptor.getTableName())
+                    .withAttributeDefinitions(new AttributeDefinition(FIELD_NAME_PRIMARY_ID, ScalarAttributeType.S),
+                            new AttributeDefinition(FIELD_NAME_OWNING_ACTOR_TYPE, ScalarAttributeType.S))
+                    .withGlobalSecondaryIndexUpdates(new GlobalSecondaryIndexUpdate()
+                            .withCreate(new CreateGlobalSecondaryIndexAction()
+                                    .withIndexName(index.getIndexName())
+                                    .withKeySchema(index.getKeySchema())
+                                    .withProjection(index.getProjection())
+                                    .withProvisionedThroughput(index.getProvisionedThroughput()))));
+            logger.info("Adding index {} to table {}", OWNING_TYPE_INDEX_NAME, descriptor.getTableName());
+        }
+        catch (ResourceInUseException e)
+        {
+            // another node is already updating the table
+        }
+        catch (AmazonServiceException e)
+        {
+            // queries by owning type fail until the index exists, everything else is unaffected
+            logger.warn("Could not add index " + OWNING_TYPE_INDEX_NAME + " to table " + descriptor.getTableName(), e);
+        }
+    }
+
+    /**
+     * Enables a keys-only stream on a table created without one. Tables that already stream any view are left as they are.
+     */
+    private static void ensureStream(final DynamoDBConnection dynamoDBConnection, final TableDescription descriptor)
+    {
+        if (!dynamoDBConnection.getConfiguration().isStreamInvalidationEnabled()
+                || descriptor.getStreamSpecification() != null && Boolean.TRUE.equals(descriptor.getStreamSpecification().getStreamEnabled()))
+        {
+            return;
+        }
+
+        try
+        {
+            dynamoDBConnection.getAsyncClient().updateTable(new UpdateTableRequest()
+                    .withTableName(descriptor.getTableName())
+                    .withStreamSpecification(createStreamSpecification()));
+            logger.info("Enabling the stream of table {}", descriptor.getTableName());
+        }
+        catch (AmazonServiceException e)
+        {
+            // includes another update of the table in progress; the next node to start retries
+            logger.warn("Could not enable the stream of table " + descriptor.getTableName() + ", cached reads are not invalidated by other nodes' writes", e);
+        }
+    }
+
+    /**
+     * @return the ARN of the table's current stream, or null if it has none
+     */
+    public static String getLatestStreamArn(final DynamoDBConnection dynamoDBConnection, final String tableName)
+    {
+        return dynamoDBConnection.getAsyncClient().describeTable(tableName).getTable().getLatestStreamArn();
+    }
+
+    private static StreamSpecification createStreamSpecification()
+    {
+        return new StreamSpecification()
+                .withStreamEnabled(true)
+                .withStreamViewType(StreamViewType.KEYS_ONLY);
+    }
+
+    private static GlobalSecondaryIndexDescription getOwningTypeIndex(final TableDescription descriptor)
+    {
+        if (descriptor.getGlobalSecondaryIndexes() != null)
+        {
+            for (final GlobalSecondaryIndexDescription index : descriptor.getGlobalSecondaryIndexes())
+            {
+                if (index.getIndexName().equals(OWNING_TYPE_INDEX_NAME))
+                {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean projectsExpiry(final Projection projection)
+    {
+        return ProjectionType.ALL.toString().equals(projection.getProjectionType())
+                || projection.getNonKeyAttributes() != null && projection.getNonKeyAttributes().contains(FIELD_NAME_EXPIRES_AT);
+    }
+
+    private static GlobalSecondaryIndex createOwningTypeIndex(final DynamoDBConfiguration dynamoDBConfiguration)
+    {
+        final Projection projection = new Projection();
+        if (dynamoDBConfiguration.getOwningTypeIndexProjection() == ProjectionType.ALL)
+        {
+            projection.withProjectionType(ProjectionType.ALL);
+        }
+        else
+        {
+            // queries skip expired states before DynamoDB deletes them, which needs the expiry in the index
+            final List<String> attributes = new ArrayList<>(dynamoDBConfiguration.getOwningTypeIndexAttributes());
+            if (!attributes.contains(FIELD_NAME_EXPIRES_AT))
+            {
+                attributes.add(FIELD_NAME_EXPIRES_AT);
+            }
+            projection.withProjectionType(ProjectionType.INCLUDE).withNonKeyAttributes(attributes);
+        }
+
+        // the id as range key gives pages a stable order
+        return new GlobalSecondaryIndex()
+                .withIndexName(OWNING_TYPE_INDEX_NAME)
+                .withKeySchema(new KeySchemaElement(FIELD_NAME_OWNING_ACTOR_TYPE, KeyType.HASH),
+                        new KeySchemaElement(FIELD_NAME_PRIMARY_ID, KeyType.RANGE))
+                .withProjection(projection)
+                .withProvisionedThroughput(new ProvisionedThroughput(1L, 1L));
+    }
+
+    private static CreateTableRequest createCreateTableRequest(final String tableName, final DynamoDBConfiguration dynamoDBConfiguration)
     {
         final List<KeySchemaElement> keySchema = new ArrayList<>();
         final List<AttributeDefinition> tableAttributes = new ArrayList<>();
@@ -161,12 +530,30 @@ public class DynamoDBUtils
         keySchema.add(new KeySchemaElement(FIELD_NAME_PRIMARY_ID, KeyType.HASH));
         tableAttributes.add(new AttributeDefinition(FIELD_NAME_PRIMARY_ID, ScalarAttributeType.S));
 
+        if (dynamoDBConfiguration.getKeyLayout() == DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+        {
+            keySchema.add(new KeySchemaElement(FIELD_NAME_DECORATION, KeyType.RANGE));
+            tableAttributes.add(new AttributeDefinition(FIELD_NAME_DECORATION, ScalarAttributeType.S));
+        }
 
-        return new CreateTableRequest()
+        final CreateTableRequest createTableRequest = new CreateTableRequest()
                 .withTableName(tableName)
                 .withKeySchema(keySchema)
                 .withAttributeDefinitions(tableAttributes)
                 .withProvisionedThroughput(new ProvisionedThroughput(1L, 1L));
+
+        if (dynamoDBConfiguration.isStreamInvalidationEnabled())
+        {
+            createTableRequest.withStreamSpecification(createStreamSpecification());
+        }
+
+        if (dynamoDBConfiguration.isOwningTypeIndexEnabled())
+        {
+            tableAttributes.add(new AttributeDefinition(FIELD_NAME_OWNING_ACTOR_TYPE, ScalarAttributeType.S));
+            createTableRequest.withGlobalSecondaryIndexes(createOwningTypeIndex(dynamoDBConfiguration));
+        }
+
+        return createTableRequest;
     }
 
     private static String generateTableCacheId(final DynamoDBConnection dynamoDBConnection, final String tableName)
@@ -0,0 +1,251 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ItemUtils;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Keeps at most one write per document in flight.
+ * Writes submitted while another write to the same document is in flight replace the pending payload
+ * (last write wins), and all of their callers complete when that pending payload is acknowledged.
+ * A pending payload is dropped rather than sent once the deadlines of all of its callers have passed.
+ */
+class DynamoDBWriteCoalescer
+{
+    private static class PendingWrite
+    {
+        private Item item;
+        private DynamoDBDeadline deadline;
+        private DoubleConsumer capacityRecorder;
+        private final List<Task<Void>> callers = new ArrayList<>();
+    }
+
+    private static class DocumentWrites
+    {
+        private PendingWrite inFlight;
+        private PendingWrite pending;
+    }
+
+    private final ConcurrentMap<String, DocumentWrites> documentWrites = new ConcurrentHashMap<>();
+    private final DynamoDBConnection dynamoDBConnection;
+
+    DynamoDBWriteCoalescer(final DynamoDBConnection dynamoDBConnection)
+    {
+        this.dynamoDBConnection = dynamoDBConnection;
+    }
+
+    /**
+     * Submits a write of the given item, or a delete of the document when the item is null.
+     */
+    public Task<Void> submit(final String tableName, final String itemId, final Item item)
+    {
+        return submit(tableName, itemId, item, DynamoDBDeadline.NONE);
+    }
+
+    /**
+     * @param deadline after which the caller no longer needs the write; writes that must not be lost, such as
+     *                 journaled ones, are submitted without a deadline
+     */
+    public Task<Void> submit(final String tableName, final String itemId, final Item item, final DynamoDBDeadline deadline)
+    {
+        return submit(tableName, itemId, item, deadline, null);
+    }
+
+    /**
+     * @param capacityRecorder receives the write capacity consumed by the request that persists the write, or null
+     */
+    public Task<Void> submit(final String tableName, final String itemId, final Item item, final DynamoDBDeadline deadline,
+                             final DoubleConsumer capacityRecorder)
+    {
+        final String documentKey = tableName + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + itemId;
+        final Task<Void> caller = new Task<>();
+        final PendingWrite[] started = new PendingWrite[1];
+
+        documentWrites.compute(documentKey, (key, writes) ->
+        {
+            if (writes == null)
+            {
+                writes = new DocumentWrites();
+                writes.inFlight = new PendingWrite();
+                writes.inFlight.item = item;
+                writes.inFlight.deadline = deadline;
+                writes.inFlight.capacityRecorder = capacityRecorder;
+                writes.inFlight.callers.add(caller);
+                started[0] = writes.inFlight;
+            }
+            else
+            {
+                if (writes.pending == null)
+                {
+                    writes.pending = new PendingWrite();
+                    writes.pending.deadline = deadline;
+                }
+                else
+                {
+                    writes.pending.deadline = writes.pending.deadline.latest(deadline);
+                }
+                writes.pending.item = item;
+                if (capacityRecorder != null)
+                {
+                    // every write of a document belongs to the same actor type and state class
+                    writes.pending.capacityRecorder = capacityRecorder;
+                }
+                writes.pending.callers.add(caller);
+            }
+            return writes;
+        });
+
+        if (started[0] != null)
+        {
+            send(documentKey, tableName, itemId, started[0]);
+        }
+
+        return caller;
+    }
+
+    /**
+     * @return a task that completes once the writes submitted so far to the document are acknowledged or have failed
+     */
+    public Task<Void> flush(final String tableName, final String itemId)
+    {
+        final String documentKey = tableName + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + itemId;
+        final Task<Void> flushed = new Task<>();
+        final boolean[] waiting = new boolean[1];
+
+        documentWrites.computeIfPresent(documentKey, (key, writes) ->
+        {
+            (writes.pending != null ? writes.pending : writes.inFlight).callers.add(flushed);
+            waiting[0] = true;
+            return writes;
+        });
+
+        return waiting[0] ? flushed.exceptionally(error -> null) : Task.done();
+    }
+
+    public int getPendingDocumentCount()
+    {
+        return documentWrites.size();
+    }
+
+    private void send(final String documentKey, final String tableName, final String itemId, final PendingWrite write)
+    {
+        final ReturnConsumedCapacity returnConsumedCapacity = write.capacityRecorder != null ? ReturnConsumedCapacity.TOTAL : ReturnConsumedCapacity.NONE;
+        final Task<ConsumedCapacity> request;
+        if (write.item != null)
+        {
+            request = DynamoDBUtils.putItem(dynamoDBConnection, write.deadline.apply(new PutItemRequest()
+                    .withTableName(tableName)
+                    .withItem(ItemUtils.toAttributeValues(write.item))
+                    .withReturnConsumedCapacity(returnConsumedCapacity)))
+                    .thenApply(PutItemResult::getConsumedCapacity);
+        }
+        else
+        {
+            request = DynamoDBUtils.deleteItem(dynamoDBConnection, write.deadline.apply(new DeleteItemRequest()
+                    .withTableName(tableName)
+                    .withKey(DynamoDBUtils.createKey(dynamoDBConnection, itemId))
+                    .withReturnConsumedCapacity(returnConsumedCapacity)))
+                    .thenApply(DeleteItemResult::getConsumedCapacity);
+        }
+
+        request.whenComplete((consumedCapacity, error) ->
+        {
+            if (consumedCapacity != null && write.capacityRecorder != null)
+            {
+                write.capacityRecorder.accept(consumedCapacity.getCapacityUnits());
+            }
+            onWriteCompleted(documentKey, tableName, itemId, write, error);
+        });
+    }
+
+    private void onWriteCompleted(final String documentKey, final String tableName, final String itemId, final PendingWrite completed, final Throwable error)
+    {
+        final PendingWrite[] next = new PendingWrite[1];
+        final PendingWrite[] dropped = new PendingWrite[1];
+
+        documentWrites.computeIfPresent(documentKey, (key, writes) ->
+        {
+            if (writes.pending == null)
+            {
+                return null;
+            }
+            if (writes.pending.deadline.isExpired())
+            {
+                dropped[0] = writes.pending;
+                return null;
+            }
+            writes.inFlight = writes.pending;
+            writes.pending = null;
+            next[0] = writes.inFlight;
+            return writes;
+        });
+
+        if (next[0] != null)
+        {
+            send(documentKey, tableName, itemId, next[0]);
+        }
+
+        if (dropped[0] != null)
+        {
+            final DynamoDBTimeoutException timeout = new DynamoDBTimeoutException(
+                    (dropped[0].item != null ? "writeState " : "clearState ") + itemId, dropped[0].deadline.getTimeoutMillis());
+            for (final Task<Void> caller : dropped[0].callers)
+            {
+                caller.completeExceptionally(timeout);
+            }
+        }
+
+        for (final Task<Void> caller : completed.callers)
+        {
+            if (error != null)
+            {
+                caller.completeExceptionally(error);
+            }
+            else
+            {
+                caller.complete(null);
+            }
+        }
+    }
+}
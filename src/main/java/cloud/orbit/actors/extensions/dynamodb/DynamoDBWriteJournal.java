@@ -0,0 +1,608 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cloud.orbit.concurrent.Task;
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Node-local, append-only journal of the writes that complete before DynamoDB acknowledges them. A single thread
+ * writes everything queued since its previous commit at once and forces it to disk according to the sync policy,
+ * so concurrent writers share one sync.
+ * <p>
+ * Acknowledgements are journaled without waiting for the disk, and a segment is deleted once all of its entries
+ * are acknowledged. Entries whose acknowledgement is missing are replayed at the next start, which at worst
+ * repeats a write that already reached DynamoDB.
+ */
+class DynamoDBWriteJournal
+{
+    // frame layout: magic, payload length, checksum, sequence, kind, payload
+    final static private int FRAME_MAGIC = 0x4F444A31;
+    final static private int FRAME_HEADER_BYTES = 4 + 4 + 4 + 8 + 1;
+    final static private byte KIND_ENTRY = 0;
+    final static private byte KIND_ACKNOWLEDGEMENT = 1;
+    final static private String SEGMENT_PREFIX = "journal-";
+    final static private String SEGMENT_SUFFIX = ".log";
+    final static private int MAX_COMMIT_RECORDS = 1024;
+    final static private long POLL_MILLIS = 50;
+    final static private long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    private static final Logger logger = LoggerFactory.getLogger(DynamoDBWriteJournal.class);
+
+    static class Entry
+    {
+        private final long sequence;
+        private final int connectionIndex;
+        private final String tableName;
+        private final String itemId;
+        private final Map<String, AttributeValue> item;
+
+        Entry(final long sequence, final int connectionIndex, final String tableName, final String itemId, final Map<String, AttributeValue> item)
+        {
+            this.sequence = sequence;
+            this.connectionIndex = connectionIndex;
+            this.tableName = tableName;
+            this.itemId = itemId;
+            this.item = item;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public int getConnectionIndex()
+        {
+            return connectionIndex;
+        }
+
+        public String getTableName()
+        {
+            return tableName;
+        }
+
+        public String getItemId()
+        {
+            return itemId;
+        }
+
+        /**
+         * @return the item to put, or null if the document is deleted
+         */
+        public Map<String, AttributeValue> getItem()
+        {
+            return item;
+        }
+    }
+
+    static class Appended
+    {
+        private final long sequence;
+        private final Task<Void> durable;
+
+        Appended(final long sequence, final Task<Void> durable)
+        {
+            this.sequence = sequence;
+            this.durable = durable;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        /**
+         * Completes once the entry is written according to the sync policy.
+         */
+        public Task<Void> getDurable()
+        {
+            return durable;
+        }
+    }
+
+    private static class QueuedRecord
+    {
+        private final long sequence;
+        private final byte kind;
+        private final byte[] payload;
+        private final Task<Void> durable;
+
+        QueuedRecord(final long sequence, final byte kind, final byte[] payload, final Task<Void> durable)
+        {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.payload = payload;
+            this.durable = durable;
+        }
+    }
+
+    private final Path directory;
+    private final DynamoDBJournalSyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final long segmentBytes;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlockingQueue<QueuedRecord> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<Long, Long> segmentBySequence = new ConcurrentHashMap<>();
+    private final List<Path> recoveredSegments = new ArrayList<>();
+    private long nextSequence;
+    private volatile boolean closing;
+    private Thread writer;
+
+    // only used by the writer thread once started
+    private final NavigableMap<Long, Integer> outstandingBySegment = new TreeMap<>();
+    private long activeSegmentId;
+    private FileChannel activeChannel;
+    private long activeBytes;
+    private boolean unsynced;
+    private long lastSyncMillis;
+
+    DynamoDBWriteJournal(final Path directory, final DynamoDBJournalSyncPolicy syncPolicy, final long syncIntervalMillis, final long segmentBytes)
+    {
+        this.directory = directory;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Reads the segments left by the previous run. A torn frame ends the segment it is in.
+     *
+     * @return the latest unacknowledged entry of each document, in journal order
+     */
+    public List<Entry> recover() throws IOException
+    {
+        Files.createDirectories(directory);
+
+        final NavigableMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX))
+        {
+            for (final Path path : stream)
+            {
+                final String fileName = path.getFileName().toString();
+                segments.put(Long.parseLong(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length())), path);
+            }
+        }
+
+        final Map<String, Entry> latestEntries = new LinkedHashMap<>();
+        final Set<Long> acknowledged = new HashSet<>();
+        for (final Map.Entry<Long, Path> segment : segments.entrySet())
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment.getValue()));
+            while (buffer.hasRemaining())
+            {
+                final QueuedRecord record = readFrame(buffer);
+                if (record == null)
+                {
+                    logger.warn("Write journal segment {} is truncated at offset {}", segment.getValue(), buffer.position());
+                    break;
+                }
+
+                nextSequence = Math.max(nextSequence, record.sequence + 1);
+                if (record.kind == KIND_ACKNOWLEDGEMENT)
+                {
+                    acknowledged.add(record.sequence);
+                }
+                else
+                {
+                    final Entry entry = decodeEntry(record.sequence, record.payload);
+                    final String documentKey = entry.getConnectionIndex() + ":" + entry.getTableName() + ":" + entry.getItemId();
+                    // moved to the end, so documents are replayed in the order of their last write
+                    latestEntries.remove(documentKey);
+                    latestEntries.put(documentKey, entry);
+                }
+            }
+            recoveredSegments.add(segment.getValue());
+            activeSegmentId = segment.getKey() + 1;
+        }
+
+        final List<Entry> unacknowledged = new ArrayList<>();
+        for (final Entry entry : latestEntries.values())
+        {
+            if (!acknowledged.contains(entry.getSequence()))
+            {
+                unacknowledged.add(entry);
+            }
+        }
+        return unacknowledged;
+    }
+
+    /**
+     * Deletes the recovered segments, whose entries must have been replayed, and starts accepting writes.
+     */
+    public void start() throws IOException
+    {
+        for (final Path path : recoveredSegments)
+        {
+            Files.deleteIfExists(path);
+        }
+        recoveredSegments.clear();
+
+        openSegment();
+        writer = new Thread(this::run, "orbit-dynamodb-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the queued records and closes the active segment, deleting it if all of its entries were acknowledged.
+     */
+    public void close()
+    {
+        if (writer == null)
+        {
+            return;
+        }
+
+        synchronized (queue)
+        {
+            closing = true;
+        }
+        try
+        {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive())
+        {
+            logger.warn("Write journal still committing after {} ms", CLOSE_TIMEOUT_MILLIS);
+            return;
+        }
+
+        try
+        {
+            activeChannel.force(false);
+            activeChannel.close();
+            if (!outstandingBySegment.containsKey(activeSegmentId))
+            {
+                Files.deleteIfExists(getSegmentPath(activeSegmentId));
+            }
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not close the write journal", e);
+        }
+    }
+
+    /**
+     * Queues an entry for the next group commit.
+     *
+     * @param item the item to put, or null to delete the document
+     */
+    public Appended append(final int connectionIndex, final String tableName, final String itemId, final Map<String, AttributeValue> item)
+    {
+        final ObjectNode payload = mapper.createObjectNode()
+                .put("connection", connectionIndex)
+                .put("table", tableName)
+                .put("id", itemId);
+        if (item != null)
+        {
+            payload.set("item", DynamoDBAttributeCodec.encodeItem(item));
+        }
+        final byte[] payloadBytes = toBytes(payload);
+        final Task<Void> durable = new Task<>();
+
+        // sequences follow the queue order, which is the order of the segments
+        synchronized (queue)
+        {
+            if (closing)
+            {
+                throw new IllegalStateException("The write journal is closed");
+            }
+            final long sequence = nextSequence++;
+            queue.add(new QueuedRecord(sequence, KIND_ENTRY, payloadBytes, durable));
+            return new Appended(sequence, durable);
+        }
+    }
+
+    /**
+     * Records that DynamoDB acknowledged the entry, so it is not replayed.
+     */
+    public void acknowledge(final long sequence)
+    {
+        queue.add(new QueuedRecord(sequence, KIND_ACKNOWLEDGEMENT, new byte[0], null));
+    }
+
+    int getUnacknowledgedCount()
+    {
+        return segmentBySequence.size();
+    }
+
+    private void run()
+    {
+        final List<QueuedRecord> batch = new ArrayList<>();
+        while (true)
+        {
+            try
+            {
+                final QueuedRecord first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    if (closing)
+                    {
+                        return;
+                    }
+                    syncIfDue();
+                    continue;
+                }
+
+                batch.add(first);
+                queue.drainTo(batch, MAX_COMMIT_RECORDS - 1);
+                commit(batch);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.error("Write journal commit failed", e);
+                for (final QueuedRecord record : batch)
+                {
+                    if (record.durable != null)
+                    {
+                        record.durable.completeExceptionally(e);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(final List<QueuedRecord> batch) throws IOException
+    {
+        final ByteBuffer[] frames = new ByteBuffer[batch.size()];
+        long batchBytes = 0;
+        for (int i = 0; i < batch.size(); i++)
+        {
+            frames[i] = writeFrame(batch.get(i));
+            batchBytes += frames[i].remaining();
+        }
+
+        if (activeBytes > 0 && activeBytes + batchBytes > segmentBytes)
+        {
+            rollSegment();
+        }
+
+        long written = 0;
+        while (written < batchBytes)
+        {
+            written += activeChannel.write(frames);
+        }
+        activeBytes += batchBytes;
+        unsynced = true;
+
+        for (final QueuedRecord record : batch)
+        {
+            if (record.kind == KIND_ACKNOWLEDGEMENT)
+            {
+                release(record.sequence);
+            }
+            else
+            {
+                segmentBySequence.put(record.sequence, activeSegmentId);
+                outstandingBySegment.merge(activeSegmentId, 1, Integer::sum);
+            }
+        }
+
+        if (syncPolicy == DynamoDBJournalSyncPolicy.EVERY_COMMIT)
+        {
+            sync();
+        }
+        else
+        {
+            syncIfDue();
+        }
+
+        for (final QueuedRecord record : batch)
+        {
+            if (record.durable != null)
+            {
+                record.durable.complete(null);
+            }
+        }
+    }
+
+    private void release(final long sequence)
+    {
+        final Long segmentId = segmentBySequence.remove(sequence);
+        if (segmentId == null)
+        {
+            return;
+        }
+
+        if (outstandingBySegment.merge(segmentId, -1, Integer::sum) == 0)
+        {
+            outstandingBySegment.remove(segmentId);
+            if (segmentId != activeSegmentId)
+            {
+                deleteSegment(segmentId);
+            }
+        }
+    }
+
+    private void syncIfDue() throws IOException
+    {
+        if (syncPolicy == DynamoDBJournalSyncPolicy.INTERVAL && unsynced
+                && System.currentTimeMillis() - lastSyncMillis >= syncIntervalMillis)
+        {
+            sync();
+        }
+    }
+
+    private void sync() throws IOException
+    {
+        activeChannel.force(false);
+        unsynced = false;
+        lastSyncMillis = System.currentTimeMillis();
+    }
+
+    private void rollSegment() throws IOException
+    {
+        if (syncPolicy != DynamoDBJournalSyncPolicy.NEVER)
+        {
+            sync();
+        }
+        activeChannel.close();
+        if (!outstandingBySegment.containsKey(activeSegmentId))
+        {
+            deleteSegment(activeSegmentId);
+        }
+
+        activeSegmentId++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException
+    {
+        activeChannel = FileChannel.open(getSegmentPath(activeSegmentId),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        activeBytes = 0;
+    }
+
+    private void deleteSegment(final long segmentId)
+    {
+        try
+        {
+            Files.deleteIfExists(getSegmentPath(segmentId));
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not delete write journal segment {}", segmentId, e);
+        }
+    }
+
+    private Path getSegmentPath(final long segmentId)
+    {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+    }
+
+    private Entry decodeEntry(final long sequence, final byte[] payload) throws IOException
+    {
+        final JsonNode node = mapper.readTree(payload);
+        return new Entry(sequence,
+                node.get("connection").intValue(),
+                node.get("table").textValue(),
+                node.get("id").textValue(),
+                node.has("item") ? DynamoDBAttributeCodec.decodeItem(node.get("item")) : null);
+    }
+
+    private byte[] toBytes(final JsonNode node)
+    {
+        try
+        {
+            return mapper.writeValueAsBytes(node);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    private static ByteBuffer writeFrame(final QueuedRecord record)
+    {
+        final ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + record.payload.length);
+        frame.putInt(FRAME_MAGIC)
+                .putInt(record.payload.length)
+                .putInt(checksum(record.sequence, record.kind, record.payload))
+                .putLong(record.sequence)
+                .put(record.kind)
+                .put(record.payload);
+        frame.flip();
+        return frame;
+    }
+
+    private static QueuedRecord readFrame(final ByteBuffer buffer)
+    {
+        if (buffer.remaining() < FRAME_HEADER_BYTES || buffer.getInt(buffer.position()) != FRAME_MAGIC)
+        {
+            return null;
+        }
+
+        final int start = buffer.position();
+        final int payloadLength = buffer.getInt(start + 4);
+        if (payloadLength < 0 || payloadLength > buffer.remaining() - FRAME_HEADER_BYTES)
+        {
+            return null;
+        }
+
+        final int checksum = buffer.getInt(start + 8);
+        final long sequence = buffer.getLong(start + 12);
+        final byte kind = buffer.get(start + 20);
+        final byte[] payload = new byte[payloadLength];
+        buffer.position(start + FRAME_HEADER_BYTES);
+        buffer.get(payload);
+
+        if (checksum(sequence, kind, payload) != checksum)
+        {
+            buffer.position(start);
+            return null;
+        }
+        return new QueuedRecord(sequence, kind, payload, null);
+    }
+
+    private static int checksum(final long sequence, final byte kind, final byte[] payload)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(9).putLong(sequence).put(kind).array());
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
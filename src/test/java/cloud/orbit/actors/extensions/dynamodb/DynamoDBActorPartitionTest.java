@@ -0,0 +1,147 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBActorPartitionTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBActorPartitionTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withKeyLayout(DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testReadAndPurgeActorStates()
+    {
+        createStage();
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "partition/1");
+        // same id, different actor interface, so the same partition
+        final RemoteReference<?> otherReference = (RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, "partition/1");
+
+        final HelloState state = new HelloState();
+        state.lastName = "first";
+        final HelloStateWithIdOverride overrideState = new HelloStateWithIdOverride();
+        overrideState.lastName = "second";
+        dynamoExtension.writeState(reference, state).join();
+        dynamoExtension.writeState(reference, overrideState).join();
+
+        final HelloState otherState = new HelloState();
+        otherState.lastName = "other";
+        dynamoExtension.writeState(otherReference, otherState, HelloState.class).join();
+
+        final List<DynamoDBBulkResult> results = dynamoExtension.readActorStates(Arrays.asList(
+                new DynamoDBStateEntry(reference, new HelloState()),
+                new DynamoDBStateEntry(reference, new HelloStateWithIdOverride()))).join();
+        assertTrue(results.get(0).isFound());
+        assertEquals("first", ((HelloState) results.get(0).getEntry().getState()).lastName());
+        assertTrue(results.get(1).isFound());
+        assertEquals("second", ((HelloState) results.get(1).getEntry().getState()).lastName());
+
+        final HelloState readState = new HelloState();
+        assertTrue(dynamoExtension.readState(reference, readState).join());
+        assertEquals("first", readState.lastName());
+
+        dynamoExtension.purgeActorStates(reference).join();
+
+        assertFalse(dynamoExtension.readState(reference, new HelloState()).join());
+        assertFalse(dynamoExtension.readState(reference, new HelloStateWithIdOverride()).join());
+
+        final HelloState readOtherState = new HelloState();
+        assertTrue(dynamoExtension.readState(otherReference, readOtherState, HelloState.class).join());
+        assertEquals("other", readOtherState.lastName());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBBloomFilterTest
+{
+    @Test
+    public void testNoFalseNegatives()
+    {
+        final DynamoDBBloomFilter filter = new DynamoDBBloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+        {
+            filter.put("actor" + i + "/" + Hello.class.getName());
+        }
+
+        for (int i = 0; i < 10000; i++)
+        {
+            assertTrue(filter.mightContain("actor" + i + "/" + Hello.class.getName()));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate()
+    {
+        final DynamoDBBloomFilter filter = new DynamoDBBloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+        {
+            filter.put("actor" + i + "/" + Hello.class.getName());
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++)
+        {
+            if (filter.mightContain("missing" + i + "/" + Hello.class.getName()))
+            {
+                falsePositives++;
+            }
+        }
+
+        assertTrue("False positive rate too high: " + falsePositives, falsePositives < 2000);
+    }
+
+    @Test
+    public void testPutAll()
+    {
+        final DynamoDBBloomFilter filter = new DynamoDBBloomFilter(1000, 0.01);
+        final DynamoDBBloomFilter other = new DynamoDBBloomFilter(1000, 0.01);
+        other.put("other");
+
+        assertFalse(filter.mightContain("other"));
+        filter.putAll(other);
+        assertTrue(filter.mightContain("other"));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBBulkStateTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+    private static final String COLLECTION_TABLE_NAME = "helloCollection";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBBulkStateTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        for (final String tableName : new String[]{ DEFAULT_TABLE_NAME, COLLECTION_TABLE_NAME })
+        {
+            try
+            {
+                dynamoDBConnection.getAsyncClient().describeTable(tableName);
+                dynamoDBConnection.getAsyncClient().deleteTable(tableName);
+            }
+            catch (ResourceNotFoundException e)
+            {
+
+            }
+        }
+    }
+
+    @Test
+    public void testBulkWriteReadAndClear()
+    {
+        createStage();
+
+        // spans two tables and more items than fit in a single batch request
+        final List<DynamoDBStateEntry> written = new ArrayList<>();
+        for (int i = 0; i < 120; i++)
+        {
+            final HelloState state = i % 2 == 0 ? new HelloState() : new HelloStateWithCollection();
+            state.lastName = "name" + i;
+            written.add(new DynamoDBStateEntry(reference(i), state));
+        }
+
+        for (final DynamoDBBulkResult result : dynamoExtension.writeStates(written).join())
+        {
+            assertTrue(result.isSuccess());
+        }
+
+        final List<DynamoDBStateEntry> read = new ArrayList<>();
+        for (int i = 0; i < 120; i++)
+        {
+            read.add(new DynamoDBStateEntry(reference(i), i % 2 == 0 ? new HelloState() : new HelloStateWithCollection()));
+        }
+
+        final List<DynamoDBBulkResult> readResults = dynamoExtension.readStates(read).join();
+        for (int i = 0; i < 120; i++)
+        {
+            assertTrue(readResults.get(i).isFound());
+            assertEquals("name" + i, ((HelloState) readResults.get(i).getEntry().getState()).lastName());
+        }
+
+        for (final DynamoDBBulkResult result : dynamoExtension.clearStates(written).join())
+        {
+            assertTrue(result.isSuccess());
+        }
+
+        for (final DynamoDBBulkResult result : dynamoExtension.readStates(read).join())
+        {
+            assertTrue(result.isSuccess());
+            assertFalse(result.isFound());
+        }
+    }
+
+    @Test
+    public void testBulkWritesFollowCoalescedWrites()
+    {
+        // the latency keeps the coalesced writes in flight while the bulk operations are submitted
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(new DynamoDBInMemoryTransport.Builder().withLatencyMillis(20).build())
+                .build());
+        extension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        extension.start().join();
+        try
+        {
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, "mixed");
+
+            final Task<Void> first = extension.writeState(reference, coalescedState("first"));
+            final Task<Void> second = extension.writeState(reference, coalescedState("second"));
+            final List<DynamoDBBulkResult> written = extension.writeStates(Collections.singletonList(
+                    new DynamoDBStateEntry(reference, coalescedState("bulk")))).join();
+            first.join();
+            second.join();
+            assertTrue(written.get(0).isSuccess());
+
+            final HelloStateWithCoalescedWrites state = new HelloStateWithCoalescedWrites();
+            assertTrue(extension.readState(reference, state).join());
+            assertEquals("bulk", state.lastName());
+
+            final Task<Void> third = extension.writeState(reference, coalescedState("third"));
+            final List<DynamoDBBulkResult> cleared = extension.clearStates(Collections.singletonList(
+                    new DynamoDBStateEntry(reference, new HelloStateWithCoalescedWrites()))).join();
+            third.join();
+            assertTrue(cleared.get(0).isSuccess());
+            assertFalse(extension.readState(reference, new HelloStateWithCoalescedWrites()).join());
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    private static HelloStateWithCoalescedWrites coalescedState(final String lastName)
+    {
+        final HelloStateWithCoalescedWrites state = new HelloStateWithCoalescedWrites();
+        state.lastName = lastName;
+        return state;
+    }
+
+    private RemoteReference<?> reference(final int i)
+    {
+        final Class<? extends Hello> actorInterface = i % 2 == 0 ? Hello.class : HelloWithCollection.class;
+        return (RemoteReference<?>) Actor.getReference(actorInterface, "bulk" + i);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBCapacityProfilerTest
+{
+    @Test
+    public void testEstimatesItemBytes()
+    {
+        final Item item = new Item()
+                .withString("_id", "abc")
+                .withNumber("n", 12345)
+                .withMap("m", Collections.singletonMap("a", "bc"));
+
+        // "_id" + "abc", "n" + 3 base 100 digits + 1, "m" + 3 + ("a" + "bc" + 1)
+        assertEquals(6 + 5 + 8, DynamoDBCapacityProfiler.estimateItemBytes(item));
+    }
+
+    @Test
+    public void testKeepsLargestDocuments()
+    {
+        final DynamoDBCapacityProfiler profiler = new DynamoDBCapacityProfiler(2);
+        final DynamoDBCapacityProfiler.Counters counters = profiler.getCounters(Hello.class, HelloState.class);
+        counters.recordWrite("small", 10);
+        counters.recordWrite("largest", 30);
+        counters.recordWrite("large", 20);
+        counters.recordRead("smallest", 5);
+
+        final List<DynamoDBCapacityProfile> profiles = profiler.getProfiles();
+        assertEquals(1, profiles.size());
+        final DynamoDBCapacityProfile profile = profiles.get(0);
+        assertEquals(Hello.class.getName(), profile.getActorType());
+        assertEquals(3, profile.getWrites());
+        assertEquals(1, profile.getReads());
+        assertEquals(2, profile.getLargestDocuments().size());
+        assertEquals("largest", profile.getLargestDocuments().get(0).getDocumentId());
+        assertEquals("large", profile.getLargestDocuments().get(1).getDocumentId());
+    }
+
+    @Test
+    public void testSummarizesSizesAndCapacity()
+    {
+        final DynamoDBCapacityProfiler profiler = new DynamoDBCapacityProfiler(10);
+        final DynamoDBCapacityProfiler.Counters counters = profiler.getCounters(Hello.class, HelloState.class);
+        for (int i = 0; i < 98; i++)
+        {
+            counters.recordWrite("small" + i, 100);
+            counters.recordWriteCapacity(1);
+        }
+        counters.recordWrite("large0", 5000);
+        counters.recordWrite("large1", 5000);
+        counters.recordWriteCapacity(5);
+        counters.recordReadCapacity(0.5);
+
+        final DynamoDBCapacityProfile profile = profiler.getProfiles().get(0);
+        assertEquals(128, profile.getMedianItemBytes());
+        assertEquals(5000, profile.getP99ItemBytes());
+        assertEquals(5000, profile.getMaxItemBytes());
+        assertEquals(103, profile.getConsumedWriteCapacity(), 0.001);
+        assertEquals(0.5, profile.getConsumedReadCapacity(), 0.001);
+    }
+
+    @Test
+    public void testRecordsConsumedCapacityOfCoalescedWrites()
+    {
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport();
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withCapacityProfilingEnabled(true)
+                .build());
+        extension.setDefaultTableName("orbit-capacity-test");
+        extension.start().join();
+        try
+        {
+            final HelloStateWithCoalescedWrites state = new HelloStateWithCoalescedWrites();
+            for (int i = 0; i < 10; i++)
+            {
+                // large enough to take several write units, which an estimate per write would not match exactly
+                state.lastName = String.join("", Collections.nCopies(1000 + i * 500, "x"));
+                extension.writeState((RemoteReference<?>) Actor.getReference(Hello.class, "capacity" + i), state,
+                        HelloStateWithCoalescedWrites.class).join();
+            }
+
+            final DynamoDBCapacityProfile profile = extension.getCapacityProfiles().get(0);
+            assertEquals(HelloStateWithCoalescedWrites.class.getName(), profile.getStateClass());
+            assertTrue(profile.getConsumedWriteCapacity() > 10);
+            assertEquals(transport.getConsumedWriteCapacity("orbit-capacity-test"), profile.getConsumedWriteCapacity(), 0.001);
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.StorageTest;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBCoalescedWritesPersistenceTest extends DynamoDBPersistenceTest
+{
+    @Override
+    public Class<? extends StorageTest> getActorInterfaceClass()
+    {
+        return HelloWithCoalescedWrites.class;
+    }
+
+    @Test
+    public void testConcurrentWritesKeepLastState()
+    {
+        createStage();
+
+        final String actorId = "coalesced";
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, actorId);
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+
+        final List<Task<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+        {
+            final HelloStateWithCoalescedWrites state = new HelloStateWithCoalescedWrites();
+            state.lastName = "name" + i;
+            writes.add(extension.writeState(reference, state));
+        }
+
+        Task.allOf(writes).join();
+        assertEquals("name49", readState(actorId).lastName());
+    }
+
+    @Test
+    public void testStopFlushesPendingWrites()
+    {
+        createStage();
+
+        final String actorId = "stopping";
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, actorId);
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        extension.setDefaultTableName(getTableName());
+        extension.start().join();
+
+        final List<Task<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            final HelloStateWithCoalescedWrites state = new HelloStateWithCoalescedWrites();
+            state.lastName = "name" + i;
+            writes.add(extension.writeState(reference, state));
+        }
+
+        extension.stop().join();
+
+        assertTrue(writes.stream().allMatch(write -> write.isDone() && !write.isCompletedExceptionally()));
+        assertEquals("name19", readState(actorId).lastName());
+        assertTrue(extension.writeState(reference, new HelloStateWithCoalescedWrites()).isCompletedExceptionally());
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBDeadlineTest
+{
+    @Test
+    public void testNoTimeoutNeverExpires()
+    {
+        final DynamoDBDeadline deadline = DynamoDBDeadline.after(0);
+        assertSame(DynamoDBDeadline.NONE, deadline);
+        assertFalse(deadline.isBounded());
+        assertFalse(deadline.isExpired());
+        assertEquals(Long.MAX_VALUE, deadline.getRemainingMillis());
+        assertNull(deadline.apply(new GetItemRequest()).getSdkClientExecutionTimeout());
+        deadline.check("readState none");
+    }
+
+    @Test
+    public void testDeadlineExpires() throws InterruptedException
+    {
+        final DynamoDBDeadline deadline = DynamoDBDeadline.after(1);
+        assertTrue(deadline.isBounded());
+        Thread.sleep(10);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.getRemainingMillis());
+        // the client is still given a timeout, as 0 would disable it
+        assertEquals(Integer.valueOf(1), deadline.apply(new GetItemRequest()).getSdkClientExecutionTimeout());
+
+        try
+        {
+            deadline.check("readState expired");
+            fail();
+        }
+        catch (DynamoDBTimeoutException e)
+        {
+            assertEquals("readState expired", e.getOperation());
+            assertEquals(1, e.getTimeoutMillis());
+        }
+    }
+
+    @Test
+    public void testLatestDeadline()
+    {
+        final DynamoDBDeadline early = DynamoDBDeadline.after(1000);
+        final DynamoDBDeadline late = DynamoDBDeadline.after(60000);
+        assertSame(late, early.latest(late));
+        assertSame(late, late.latest(early));
+        assertSame(DynamoDBDeadline.NONE, early.latest(DynamoDBDeadline.NONE));
+        assertSame(DynamoDBDeadline.NONE, DynamoDBDeadline.NONE.latest(late));
+    }
+
+    @Test
+    public void testDefaultWritesAndClearsAreBounded()
+    {
+        final List<Integer> putTimeouts = new CopyOnWriteArrayList<>();
+        final List<Integer> deleteTimeouts = new CopyOnWriteArrayList<>();
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport()
+        {
+            @Override
+            public Future<PutItemResult> putItemAsync(final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> asyncHandler)
+            {
+                putTimeouts.add(request.getSdkClientExecutionTimeout());
+                return super.putItemAsync(request, asyncHandler);
+            }
+
+            @Override
+            public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest request, final AsyncHandler<DeleteItemRequest, DeleteItemResult> asyncHandler)
+            {
+                deleteTimeouts.add(request.getSdkClientExecutionTimeout());
+                return super.deleteItemAsync(request, asyncHandler);
+            }
+        };
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withWriteTimeoutMillis(60000)
+                .withClearTimeoutMillis(60000)
+                .build());
+        extension.setDefaultTableName("orbit-deadline-test");
+        extension.start().join();
+        try
+        {
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "deadline");
+            final HelloState state = new HelloState();
+            state.lastName = "bounded";
+            extension.writeState(reference, state).join();
+            extension.clearState(reference, state).join();
+
+            assertEquals(1, putTimeouts.size());
+            assertTrue(putTimeouts.get(0) != null && putTimeouts.get(0) > 0 && putTimeouts.get(0) <= 60000);
+            assertEquals(1, deleteTimeouts.size());
+            assertTrue(deleteTimeouts.get(0) != null && deleteTimeouts.get(0) > 0 && deleteTimeouts.get(0) <= 60000);
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    @Test
+    public void testMutationLoggedReadsAndClearsAreBounded()
+    {
+        final List<Integer> queryTimeouts = new CopyOnWriteArrayList<>();
+        final List<Integer> deleteTimeouts = new CopyOnWriteArrayList<>();
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport()
+        {
+            @Override
+            public Future<QueryResult> queryAsync(final QueryRequest request, final AsyncHandler<QueryRequest, QueryResult> asyncHandler)
+            {
+                queryTimeouts.add(request.getSdkClientExecutionTimeout());
+                return super.queryAsync(request, asyncHandler);
+            }
+
+            @Override
+            public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest request, final AsyncHandler<DeleteItemRequest, DeleteItemResult> asyncHandler)
+            {
+                deleteTimeouts.add(request.getSdkClientExecutionTimeout());
+                return super.deleteItemAsync(request, asyncHandler);
+            }
+        };
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withKeyLayout(DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+                .withReadTimeoutMillis(60000)
+                .withClearTimeoutMillis(60000)
+                .build());
+        extension.setDefaultTableName("orbit-deadline-test");
+        extension.start().join();
+        try
+        {
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "logged");
+            final HelloStateWithMutationLog state = new HelloStateWithMutationLog();
+            extension.readState(reference, state).join();
+            extension.clearState(reference, state).join();
+
+            assertFalse(queryTimeouts.isEmpty());
+            assertFalse(deleteTimeouts.isEmpty());
+            for (final Integer timeout : queryTimeouts)
+            {
+                assertTrue(timeout != null && timeout > 0 && timeout <= 60000);
+            }
+            for (final Integer timeout : deleteTimeouts)
+            {
+                assertTrue(timeout != null && timeout > 0 && timeout <= 60000);
+            }
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+}
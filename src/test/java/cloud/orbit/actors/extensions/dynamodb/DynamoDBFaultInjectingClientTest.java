@@ -0,0 +1,312 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBFaultInjectingClientTest
+{
+    private static final String TABLE_NAME = "orbit-fault-injection-test";
+
+    private DynamoDBInMemoryTransport transport;
+
+    @Before
+    public void setup()
+    {
+        transport = new DynamoDBInMemoryTransport.Builder()
+                .withStripes(4)
+                .build();
+        transport.createTable(new CreateTableRequest()
+                .withTableName(TABLE_NAME)
+                .withKeySchema(new KeySchemaElement("_id", KeyType.HASH), new KeySchemaElement("_decoration", KeyType.RANGE))
+                .withAttributeDefinitions(new AttributeDefinition("_id", ScalarAttributeType.S), new AttributeDefinition("_decoration", ScalarAttributeType.S))
+                .withProvisionedThroughput(new ProvisionedThroughput(1L, 1L)));
+        transport.putItem(new PutItemRequest(TABLE_NAME, item("actor", "state", "state")));
+    }
+
+    @Test
+    public void testSeededScenariosRepeat()
+    {
+        final DynamoDBFaultProfile profile = new DynamoDBFaultProfile.Builder()
+                .withThrottleRate(0.3)
+                .build();
+        final List<Boolean> first = throttledRequests(new DynamoDBFaultScenario.Builder().withPhase(Long.MAX_VALUE, profile).withSeed(42).build());
+        final List<Boolean> second = throttledRequests(new DynamoDBFaultScenario.Builder().withPhase(Long.MAX_VALUE, profile).withSeed(42).build());
+
+        assertEquals(first, second);
+        assertTrue(first.contains(true));
+        assertTrue(first.contains(false));
+    }
+
+    @Test
+    public void testPhasesAndOperations()
+    {
+        final DynamoDBFaultInjectingClient client = new DynamoDBFaultInjectingClient(transport, new DynamoDBFaultScenario.Builder()
+                .withPhase(200, new DynamoDBFaultProfile.Builder()
+                        .withServerErrorRate(1)
+                        .withOperations("PutItem")
+                        .build())
+                .build());
+
+        try
+        {
+            client.putItem(new PutItemRequest(TABLE_NAME, item("actor", "state", "failed")));
+            fail();
+        }
+        catch (InternalServerErrorException e)
+        {
+            assertEquals(500, e.getStatusCode());
+        }
+        assertEquals("state", client.getItem(new GetItemRequest(TABLE_NAME, key("actor", "state"))).getItem().get("_state").getS());
+
+        sleep(300);
+        client.putItem(new PutItemRequest(TABLE_NAME, item("actor", "state", "written")));
+        assertEquals("written", transport.getItem(new GetItemRequest(TABLE_NAME, key("actor", "state"))).getItem().get("_state").getS());
+        assertEquals(1, client.getInjectedCount(DynamoDBFault.SERVER_ERROR));
+    }
+
+    @Test
+    public void testConnectionResetsAfterApplying()
+    {
+        final DynamoDBFaultInjectingClient client = new DynamoDBFaultInjectingClient(transport, DynamoDBFaultScenario.constant(
+                new DynamoDBFaultProfile.Builder()
+                        .withConnectionResetRate(1)
+                        .build()));
+
+        try
+        {
+            client.putItemAsync(new PutItemRequest(TABLE_NAME, item("reset", "state", "applied"))).get();
+            fail();
+        }
+        catch (Exception e)
+        {
+            assertTrue(e.getCause() instanceof SdkClientException);
+        }
+        assertEquals("applied", transport.getItem(new GetItemRequest(TABLE_NAME, key("reset", "state"))).getItem().get("_state").getS());
+    }
+
+    @Test
+    public void testUnprocessedItems()
+    {
+        final DynamoDBFaultInjectingClient client = new DynamoDBFaultInjectingClient(transport, DynamoDBFaultScenario.constant(
+                new DynamoDBFaultProfile.Builder()
+                        .withUnprocessedItemsRate(0.5)
+                        .build()));
+
+        final List<WriteRequest> writeRequests = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            writeRequests.add(new WriteRequest(new PutRequest(item("batch" + i, "state", "state " + i))));
+        }
+        final Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+        requestItems.put(TABLE_NAME, writeRequests);
+        final BatchWriteItemResult result = client.batchWriteItem(new BatchWriteItemRequest(requestItems));
+
+        final List<WriteRequest> unprocessed = result.getUnprocessedItems().get(TABLE_NAME);
+        assertNotNull(unprocessed);
+        for (int i = 0; i < 20; i++)
+        {
+            final boolean written = transport.getItem(new GetItemRequest(TABLE_NAME, key("batch" + i, "state"))).getItem() != null;
+            assertEquals(!written, unprocessed.contains(writeRequests.get(i)));
+        }
+        assertTrue(unprocessed.size() < 20);
+    }
+
+    @Test
+    public void testAsyncLatency() throws Exception
+    {
+        final DynamoDBFaultInjectingClient client = new DynamoDBFaultInjectingClient(transport, DynamoDBFaultScenario.constant(
+                new DynamoDBFaultProfile.Builder()
+                        .withLatencyMillis(50)
+                        .build()));
+
+        final long start = System.nanoTime();
+        assertNotNull(client.getItemAsync(new GetItemRequest(TABLE_NAME, key("actor", "state"))).get().getItem());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50);
+        assertNull(client.getItemAsync(new GetItemRequest(TABLE_NAME, key("missing", "state"))).get().getItem());
+    }
+
+    @Test
+    public void testBulkWritesRetryUnprocessedItems()
+    {
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withFaultScenario(DynamoDBFaultScenario.constant(new DynamoDBFaultProfile.Builder()
+                        .withUnprocessedItemsRate(0.3)
+                        .build()))
+                .build());
+        extension.setDefaultTableName("orbit-fault-injection-states");
+        extension.start().join();
+        try
+        {
+            final List<DynamoDBStateEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 50; i++)
+            {
+                final HelloState state = new HelloState();
+                state.lastName = "name " + i;
+                entries.add(new DynamoDBStateEntry((RemoteReference<?>) Actor.getReference(Hello.class, String.valueOf(i)), state));
+            }
+
+            for (final DynamoDBBulkResult result : extension.writeStates(entries).join())
+            {
+                assertTrue(result.isSuccess());
+            }
+            for (final DynamoDBStateEntry entry : entries)
+            {
+                final HelloState state = new HelloState();
+                assertTrue(extension.readState(entry.getReference(), state).join());
+                assertEquals(((HelloState) entry.getState()).lastName, state.lastName);
+            }
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    @Test
+    public void testFailedWriteBehindIsRetried() throws Exception
+    {
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withJournalDirectory(Files.createTempDirectory("orbit-dynamodb-journal").toString())
+                .withFaultScenario(new DynamoDBFaultScenario.Builder()
+                        .withPhase(500, new DynamoDBFaultProfile.Builder()
+                                .withServerErrorRate(1)
+                                .withOperations("PutItem")
+                                .build())
+                        .build())
+                .build());
+        extension.setDefaultTableName("orbit-fault-injection-states");
+        extension.start().join();
+        try
+        {
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "writeBehind");
+            final HelloStateWithWriteBehind state = new HelloStateWithWriteBehind();
+            state.lastName = "retried";
+            // durable once journaled, while every PutItem still fails
+            extension.writeState(reference, state, HelloStateWithWriteBehind.class).join();
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            final HelloStateWithWriteBehind read = new HelloStateWithWriteBehind();
+            while (!extension.readState(reference, read, HelloStateWithWriteBehind.class).join())
+            {
+                assertTrue("The write-behind was not retried", System.currentTimeMillis() < deadline);
+                sleep(100);
+            }
+            assertEquals("retried", read.lastName);
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    private List<Boolean> throttledRequests(final DynamoDBFaultScenario scenario)
+    {
+        final DynamoDBFaultInjectingClient client = new DynamoDBFaultInjectingClient(transport, scenario);
+        final List<Boolean> throttled = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            try
+            {
+                client.getItem(new GetItemRequest(TABLE_NAME, key("actor", "state")));
+                throttled.add(false);
+            }
+            catch (ProvisionedThroughputExceededException e)
+            {
+                throttled.add(true);
+            }
+        }
+        assertEquals(throttled.stream().filter(value -> value).count(), client.getInjectedCount(DynamoDBFault.THROTTLE));
+        return throttled;
+    }
+
+    private static void sleep(final long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            fail();
+        }
+    }
+
+    private static Map<String, AttributeValue> key(final String id, final String decoration)
+    {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("_id", new AttributeValue(id));
+        key.put("_decoration", new AttributeValue(decoration));
+        return key;
+    }
+
+    private static Map<String, AttributeValue> item(final String id, final String decoration, final String state)
+    {
+        final Map<String, AttributeValue> item = key(id, decoration);
+        item.put("_state", new AttributeValue(state));
+        return item;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the storage extension against the in-process transport under each fault profile, reporting throughput and,
+ * from the sampled times, latency percentiles. Failed operations are counted rather than thrown, so a profile's error
+ * rate shows next to its latencies.
+ * Run with the test classpath: {@code java -cp ... cloud.orbit.actors.extensions.dynamodb.DynamoDBFaultInjectionBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class DynamoDBFaultInjectionBenchmark
+{
+    private static final String TABLE_NAME = "orbit-fault-benchmark";
+    private static final int ACTORS = 10000;
+    private static final int BATCH_SIZE = 25;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes
+    {
+        public long failures;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            failures = 0;
+        }
+    }
+
+    @Param({ "healthy", "slow", "throttled", "unprocessed", "resets" })
+    public String profile;
+
+    private DynamoDBStorageExtension extension;
+    private RemoteReference<?>[] references;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(new DynamoDBInMemoryTransport.Builder().build())
+                .withFaultScenario(scenario(profile))
+                .build());
+        extension.setDefaultTableName(TABLE_NAME);
+        extension.start().join();
+
+        references = new RemoteReference<?>[ACTORS];
+        final List<DynamoDBStateEntry> entries = new ArrayList<>();
+        for (int i = 0; i < ACTORS; i++)
+        {
+            references[i] = (RemoteReference<?>) Actor.getReference(Hello.class, String.valueOf(i));
+            entries.add(new DynamoDBStateEntry(references[i], state(i)));
+            if (entries.size() == BATCH_SIZE)
+            {
+                extension.writeStates(entries).join();
+                entries.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        extension.stop().join();
+    }
+
+    /**
+     * Every profile adds a millisecond or two of network latency; the faults come on top of that.
+     */
+    private static DynamoDBFaultScenario scenario(final String profile)
+    {
+        final DynamoDBFaultProfile.Builder builder = new DynamoDBFaultProfile.Builder()
+                .withLatencyMillis(1)
+                .withLatencyJitterMillis(1);
+        switch (profile)
+        {
+            case "healthy":
+                return DynamoDBFaultScenario.constant(builder.build());
+
+            case "slow":
+                return DynamoDBFaultScenario.constant(builder
+                        .withSlowResponseRate(0.01)
+                        .withSlowResponseMillis(100)
+                        .build());
+
+            case "throttled":
+                // bursts of throttling, a second in every five
+                return new DynamoDBFaultScenario.Builder()
+                        .withPhase(4000, builder.build())
+                        .withPhase(1000, new DynamoDBFaultProfile.Builder()
+                                .withLatencyMillis(1)
+                                .withLatencyJitterMillis(1)
+                                .withThrottleRate(0.5)
+                                .build())
+                        .withRepeat(true)
+                        .build();
+
+            case "unprocessed":
+                return DynamoDBFaultScenario.constant(builder
+                        .withUnprocessedItemsRate(0.2)
+                        .withOperations("BatchGetItem", "BatchWriteItem")
+                        .build());
+
+            case "resets":
+                return DynamoDBFaultScenario.constant(builder
+                        .withConnectionResetRate(0.01)
+                        .build());
+
+            default:
+                throw new IllegalArgumentException("Unknown fault profile: " + profile);
+        }
+    }
+
+    @Benchmark
+    public boolean readState(final Outcomes outcomes)
+    {
+        try
+        {
+            return extension.readState(references[ThreadLocalRandom.current().nextInt(ACTORS)], new HelloState()).join();
+        }
+        catch (RuntimeException e)
+        {
+            outcomes.failures++;
+            return false;
+        }
+    }
+
+    @Benchmark
+    public void writeState(final Outcomes outcomes)
+    {
+        final int index = ThreadLocalRandom.current().nextInt(ACTORS);
+        try
+        {
+            extension.writeState(references[index], state(index)).join();
+        }
+        catch (RuntimeException e)
+        {
+            outcomes.failures++;
+        }
+    }
+
+    @Benchmark
+    public void writeStates(final Outcomes outcomes)
+    {
+        final List<DynamoDBStateEntry> entries = new ArrayList<>(BATCH_SIZE);
+        final int first = ThreadLocalRandom.current().nextInt(ACTORS - BATCH_SIZE);
+        for (int i = first; i < first + BATCH_SIZE; i++)
+        {
+            entries.add(new DynamoDBStateEntry(references[i], state(i)));
+        }
+        try
+        {
+            for (final DynamoDBBulkResult result : extension.writeStates(entries).join())
+            {
+                if (!result.isSuccess())
+                {
+                    outcomes.failures++;
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            outcomes.failures += BATCH_SIZE;
+        }
+    }
+
+    private static HelloState state(final int index)
+    {
+        final HelloState state = new HelloState();
+        state.lastName = "name " + index;
+        return state;
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(DynamoDBFaultInjectionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBGeneratedSerializersTest
+{
+    public static class PlaceholderState
+    {
+        public String emptyName = "";
+        public String name = "name";
+        public byte[] emptyBytes = new byte[0];
+        public int count = 3;
+        private String hidden = "hidden";
+    }
+
+    public static class PrivateState
+    {
+        private String name = "name";
+        private int count = 3;
+        private long total = 10000000000L;
+    }
+
+    private static DynamoDBConnection createConnection(final boolean generatedSerializersEnabled)
+    {
+        return new DynamoDBConnection(new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withGeneratedSerializersEnabled(generatedSerializersEnabled)
+                .withGeneratedSerializerClasses(Collections.singletonList(PlaceholderState.class))
+                .build());
+    }
+
+    @Test
+    public void testGeneratedSerializersMatchReflectiveOutput() throws Exception
+    {
+        final DynamoDBConnection reflective = createConnection(false);
+        final DynamoDBConnection generated = createConnection(true);
+
+        final String reflectiveJson = reflective.getMapper().writeValueAsString(new PlaceholderState());
+        final String generatedJson = generated.getMapper().writeValueAsString(new PlaceholderState());
+
+        assertEquals(reflective.getMapper().readTree(reflectiveJson), generated.getMapper().readTree(generatedJson));
+        assertTrue(generatedJson.contains("OrbitEmptyString"));
+        assertTrue(generatedJson.contains("hidden"));
+
+        reflective.close();
+        generated.close();
+    }
+
+    @Test
+    public void testGeneratedDeserializersRestorePlaceholders() throws Exception
+    {
+        final DynamoDBConnection generated = createConnection(true);
+
+        final PlaceholderState state = new PlaceholderState();
+        state.name = "changed";
+        final PlaceholderState read = generated.getMapper().readValue(generated.getMapper().writeValueAsString(state), PlaceholderState.class);
+
+        assertEquals("", read.emptyName);
+        assertEquals("changed", read.name);
+        assertArrayEquals(new byte[0], read.emptyBytes);
+        assertEquals(3, read.count);
+
+        generated.close();
+    }
+
+    @Test
+    public void testPrivateFieldsRoundTrip() throws Exception
+    {
+        final DynamoDBConnection reflective = createConnection(false);
+        final DynamoDBConnection generated = createConnection(true);
+
+        final PrivateState state = new PrivateState();
+        state.name = "changed";
+        final String generatedJson = generated.getMapper().writeValueAsString(state);
+        assertEquals(reflective.getMapper().readTree(reflective.getMapper().writeValueAsString(state)), generated.getMapper().readTree(generatedJson));
+
+        final PrivateState read = generated.getMapper().readValue(generatedJson, PrivateState.class);
+        assertEquals("changed", read.name);
+        assertEquals(3, read.count);
+        assertEquals(10000000000L, read.total);
+
+        reflective.close();
+        generated.close();
+    }
+}
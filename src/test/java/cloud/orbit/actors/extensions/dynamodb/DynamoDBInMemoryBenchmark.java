@@ -0,0 +1,135 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the storage extension against the in-process transport, without network or DynamoDB Local in the way.
+ * Run with the test classpath: {@code java -cp ... cloud.orbit.actors.extensions.dynamodb.DynamoDBInMemoryBenchmark}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class DynamoDBInMemoryBenchmark
+{
+    private static final String TABLE_NAME = "orbit-benchmark";
+    private static final int ACTORS = 10000;
+
+    @Param({ "0", "1" })
+    public long latencyMillis;
+
+    private DynamoDBInMemoryTransport transport;
+    private DynamoDBStorageExtension extension;
+    private RemoteReference<?>[] references;
+    private String[] itemIds;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        transport = new DynamoDBInMemoryTransport.Builder()
+                .withLatencyMillis(latencyMillis)
+                .build();
+        extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .build());
+        extension.setDefaultTableName(TABLE_NAME);
+        extension.start().join();
+
+        references = new RemoteReference<?>[ACTORS];
+        itemIds = new String[ACTORS];
+        for (int i = 0; i < ACTORS; i++)
+        {
+            references[i] = (RemoteReference<?>) Actor.getReference(Hello.class, String.valueOf(i));
+            itemIds[i] = extension.generateDocumentId(references[i], HelloState.class);
+
+            final HelloState state = new HelloState();
+            state.lastName = "name " + i;
+            extension.writeState(references[i], state).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        extension.stop().join();
+    }
+
+    @Benchmark
+    public GetItemResult getItem()
+    {
+        return transport.getItem(new GetItemRequest(TABLE_NAME,
+                Collections.singletonMap(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, new AttributeValue(itemIds[ThreadLocalRandom.current().nextInt(ACTORS)]))));
+    }
+
+    @Benchmark
+    public boolean readState()
+    {
+        return extension.readState(references[ThreadLocalRandom.current().nextInt(ACTORS)], new HelloState()).join();
+    }
+
+    @Benchmark
+    public void writeState()
+    {
+        final int index = ThreadLocalRandom.current().nextInt(ACTORS);
+        final HelloState state = new HelloState();
+        state.lastName = "name " + index;
+        extension.writeState(references[index], state).join();
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(DynamoDBInMemoryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,617 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.services.dynamodbv2.model.AmazonDynamoDBException;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A condition, filter or key condition expression evaluated by {@link DynamoDBInMemoryTransport}. Supports comparisons,
+ * BETWEEN, IN, AND, OR, NOT, parentheses and the attribute_exists, attribute_not_exists, begins_with and contains functions.
+ */
+abstract class DynamoDBInMemoryExpression
+{
+    private static final int MAX_PARSED_EXPRESSIONS = 10000;
+
+    // requests reuse a small set of expressions, their values come from placeholders
+    private static final ConcurrentMap<String, DynamoDBInMemoryExpression> parsedExpressions = new ConcurrentHashMap<>();
+
+    static DynamoDBInMemoryExpression parse(final String expression)
+    {
+        DynamoDBInMemoryExpression parsed = parsedExpressions.get(expression);
+        if (parsed == null)
+        {
+            final Parser parser = new Parser(expression);
+            parsed = parser.parseOr();
+            parser.expectEnd();
+            if (parsedExpressions.size() >= MAX_PARSED_EXPRESSIONS)
+            {
+                parsedExpressions.clear();
+            }
+            parsedExpressions.put(expression, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * @return the top level attribute names a projection expression selects
+     */
+    static List<String> parseProjection(final String projection, final Map<String, String> names)
+    {
+        final List<String> attributeNames = new ArrayList<>();
+        for (final String path : projection.split(","))
+        {
+            attributeNames.add(resolveName(path.trim().split("\\.")[0], names));
+        }
+        return attributeNames;
+    }
+
+    abstract boolean evaluate(Map<String, AttributeValue> item, Map<String, String> names, Map<String, AttributeValue> values);
+
+    /**
+     * @return the value the expression requires the attribute to equal, or null if it does not constrain it to one value
+     */
+    AttributeValue findEquality(final String attributeName, final Map<String, String> names, final Map<String, AttributeValue> values)
+    {
+        return null;
+    }
+
+    static AmazonDynamoDBException validationException(final String message)
+    {
+        final AmazonDynamoDBException exception = new AmazonDynamoDBException(message);
+        exception.setErrorCode("ValidationException");
+        exception.setStatusCode(400);
+        return exception;
+    }
+
+    private static String resolveName(final String name, final Map<String, String> names)
+    {
+        if (!name.startsWith("#"))
+        {
+            return name;
+        }
+        final String resolved = names != null ? names.get(name) : null;
+        if (resolved == null)
+        {
+            throw validationException("An expression attribute name used in the document path is not defined; attribute name: " + name);
+        }
+        return resolved;
+    }
+
+    private static int compare(final AttributeValue left, final AttributeValue right)
+    {
+        if (left.getS() != null && right.getS() != null)
+        {
+            return left.getS().compareTo(right.getS());
+        }
+        if (left.getN() != null && right.getN() != null)
+        {
+            return new BigDecimal(left.getN()).compareTo(new BigDecimal(right.getN()));
+        }
+        if (left.getB() != null && right.getB() != null)
+        {
+            // binary values compare as unsigned bytes
+            final ByteBuffer leftBytes = left.getB();
+            final ByteBuffer rightBytes = right.getB();
+            final int length = Math.min(leftBytes.remaining(), rightBytes.remaining());
+            for (int i = 0; i < length; i++)
+            {
+                final int difference = (leftBytes.get(leftBytes.position() + i) & 0xff) - (rightBytes.get(rightBytes.position() + i) & 0xff);
+                if (difference != 0)
+                {
+                    return difference;
+                }
+            }
+            return leftBytes.remaining() - rightBytes.remaining();
+        }
+        throw validationException("Incorrect operand type for operator or function");
+    }
+
+    private static boolean isEqual(final AttributeValue left, final AttributeValue right)
+    {
+        if (left.getN() != null && right.getN() != null)
+        {
+            return new BigDecimal(left.getN()).compareTo(new BigDecimal(right.getN())) == 0;
+        }
+        return left.equals(right);
+    }
+
+    private static class Operand
+    {
+        private final String token;
+
+        Operand(final String token)
+        {
+            this.token = token;
+        }
+
+        boolean isValue()
+        {
+            return token.startsWith(":");
+        }
+
+        String getAttributeName(final Map<String, String> names)
+        {
+            return isValue() || token.contains(".") ? null : resolveName(token, names);
+        }
+
+        AttributeValue resolve(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            if (isValue())
+            {
+                final AttributeValue value = values != null ? values.get(token) : null;
+                if (value == null)
+                {
+                    throw validationException("An expression attribute value used in expression is not defined; attribute value: " + token);
+                }
+                return value;
+            }
+
+            AttributeValue value = null;
+            Map<String, AttributeValue> document = item;
+            for (final String name : token.split("\\."))
+            {
+                value = document != null ? document.get(resolveName(name, names)) : null;
+                document = value != null ? value.getM() : null;
+            }
+            return value;
+        }
+    }
+
+    private static class And extends DynamoDBInMemoryExpression
+    {
+        private final DynamoDBInMemoryExpression left;
+        private final DynamoDBInMemoryExpression right;
+
+        And(final DynamoDBInMemoryExpression left, final DynamoDBInMemoryExpression right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            return left.evaluate(item, names, values) && right.evaluate(item, names, values);
+        }
+
+        @Override
+        AttributeValue findEquality(final String attributeName, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final AttributeValue value = left.findEquality(attributeName, names, values);
+            return value != null ? value : right.findEquality(attributeName, names, values);
+        }
+    }
+
+    private static class Or extends DynamoDBInMemoryExpression
+    {
+        private final DynamoDBInMemoryExpression left;
+        private final DynamoDBInMemoryExpression right;
+
+        Or(final DynamoDBInMemoryExpression left, final DynamoDBInMemoryExpression right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            return left.evaluate(item, names, values) || right.evaluate(item, names, values);
+        }
+    }
+
+    private static class Not extends DynamoDBInMemoryExpression
+    {
+        private final DynamoDBInMemoryExpression operand;
+
+        Not(final DynamoDBInMemoryExpression operand)
+        {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            return !operand.evaluate(item, names, values);
+        }
+    }
+
+    private static class Comparison extends DynamoDBInMemoryExpression
+    {
+        private final Operand left;
+        private final String operator;
+        private final Operand right;
+
+        Comparison(final Operand left, final String operator, final Operand right)
+        {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final AttributeValue leftValue = left.resolve(item, names, values);
+            final AttributeValue rightValue = right.resolve(item, names, values);
+            if (leftValue == null || rightValue == null)
+            {
+                // comparisons with missing attributes are false, whatever the operator
+                return false;
+            }
+
+            switch (operator)
+            {
+                case "=":
+                    return isEqual(leftValue, rightValue);
+                case "<>":
+                    return !isEqual(leftValue, rightValue);
+                case "<":
+                    return compare(leftValue, rightValue) < 0;
+                case "<=":
+                    return compare(leftValue, rightValue) <= 0;
+                case ">":
+                    return compare(leftValue, rightValue) > 0;
+                default:
+                    return compare(leftValue, rightValue) >= 0;
+            }
+        }
+
+        @Override
+        AttributeValue findEquality(final String attributeName, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            if (!operator.equals("="))
+            {
+                return null;
+            }
+            if (attributeName.equals(left.getAttributeName(names)) && right.isValue())
+            {
+                return right.resolve(null, names, values);
+            }
+            if (attributeName.equals(right.getAttributeName(names)) && left.isValue())
+            {
+                return left.resolve(null, names, values);
+            }
+            return null;
+        }
+    }
+
+    private static class Between extends DynamoDBInMemoryExpression
+    {
+        private final Operand operand;
+        private final Operand lower;
+        private final Operand upper;
+
+        Between(final Operand operand, final Operand lower, final Operand upper)
+        {
+            this.operand = operand;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final AttributeValue value = operand.resolve(item, names, values);
+            final AttributeValue lowerValue = lower.resolve(item, names, values);
+            final AttributeValue upperValue = upper.resolve(item, names, values);
+            return value != null && lowerValue != null && upperValue != null
+                    && compare(value, lowerValue) >= 0 && compare(value, upperValue) <= 0;
+        }
+    }
+
+    private static class In extends DynamoDBInMemoryExpression
+    {
+        private final Operand operand;
+        private final List<Operand> candidates;
+
+        In(final Operand operand, final List<Operand> candidates)
+        {
+            this.operand = operand;
+            this.candidates = candidates;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final AttributeValue value = operand.resolve(item, names, values);
+            if (value == null)
+            {
+                return false;
+            }
+            for (final Operand candidate : candidates)
+            {
+                final AttributeValue candidateValue = candidate.resolve(item, names, values);
+                if (candidateValue != null && isEqual(value, candidateValue))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class Function extends DynamoDBInMemoryExpression
+    {
+        private final String name;
+        private final List<Operand> arguments;
+
+        Function(final String name, final List<Operand> arguments)
+        {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        @Override
+        boolean evaluate(final Map<String, AttributeValue> item, final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final AttributeValue value = arguments.get(0).resolve(item, names, values);
+            switch (name)
+            {
+                case "attribute_exists":
+                    return value != null;
+                case "attribute_not_exists":
+                    return value == null;
+                case "begins_with":
+                {
+                    final AttributeValue prefix = arguments.get(1).resolve(item, names, values);
+                    return value != null && value.getS() != null && prefix.getS() != null && value.getS().startsWith(prefix.getS());
+                }
+                default:
+                {
+                    final AttributeValue element = arguments.get(1).resolve(item, names, values);
+                    if (value == null)
+                    {
+                        return false;
+                    }
+                    if (value.getS() != null)
+                    {
+                        return element.getS() != null && value.getS().contains(element.getS());
+                    }
+                    if (value.getSS() != null)
+                    {
+                        return value.getSS().contains(element.getS());
+                    }
+                    if (value.getNS() != null)
+                    {
+                        return value.getNS().contains(element.getN());
+                    }
+                    return value.getL() != null && value.getL().contains(element);
+                }
+            }
+        }
+    }
+
+    private static class Parser
+    {
+        private final String expression;
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        Parser(final String expression)
+        {
+            this.expression = expression;
+
+            int i = 0;
+            while (i < expression.length())
+            {
+                final char c = expression.charAt(i);
+                if (Character.isWhitespace(c))
+                {
+                    i++;
+                }
+                else if (c == '(' || c == ')' || c == ',' || c == '=')
+                {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+                else if (c == '<' || c == '>')
+                {
+                    final boolean twoCharacters = i + 1 < expression.length()
+                            && (expression.charAt(i + 1) == '=' || c == '<' && expression.charAt(i + 1) == '>');
+                    tokens.add(expression.substring(i, twoCharacters ? i + 2 : i + 1));
+                    i += twoCharacters ? 2 : 1;
+                }
+                else
+                {
+                    final int start = i;
+                    while (i < expression.length() && isNameCharacter(expression.charAt(i)))
+                    {
+                        i++;
+                    }
+                    if (start == i)
+                    {
+                        throw syntaxError("unexpected character " + c);
+                    }
+                    tokens.add(expression.substring(start, i));
+                }
+            }
+        }
+
+        private static boolean isNameCharacter(final char c)
+        {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '#' || c == ':' || c == '.' || c == '-';
+        }
+
+        DynamoDBInMemoryExpression parseOr()
+        {
+            DynamoDBInMemoryExpression expression = parseAnd();
+            while (acceptKeyword("OR"))
+            {
+                expression = new Or(expression, parseAnd());
+            }
+            return expression;
+        }
+
+        private DynamoDBInMemoryExpression parseAnd()
+        {
+            DynamoDBInMemoryExpression expression = parseNot();
+            while (acceptKeyword("AND"))
+            {
+                expression = new And(expression, parseNot());
+            }
+            return expression;
+        }
+
+        private DynamoDBInMemoryExpression parseNot()
+        {
+            return acceptKeyword("NOT") ? new Not(parseNot()) : parsePrimary();
+        }
+
+        private DynamoDBInMemoryExpression parsePrimary()
+        {
+            if (accept("("))
+            {
+                final DynamoDBInMemoryExpression expression = parseOr();
+                expect(")");
+                return expression;
+            }
+
+            final String token = next();
+            if (accept("("))
+            {
+                final String function = token.toLowerCase(Locale.ROOT);
+                final List<Operand> arguments = parseOperands();
+                final int arity = function.equals("attribute_exists") || function.equals("attribute_not_exists") ? 1
+                        : function.equals("begins_with") || function.equals("contains") ? 2 : -1;
+                if (arity != arguments.size())
+                {
+                    throw syntaxError("unsupported function " + token);
+                }
+                return new Function(function, arguments);
+            }
+
+            final Operand operand = new Operand(token);
+            if (acceptKeyword("BETWEEN"))
+            {
+                final Operand lower = new Operand(next());
+                if (!acceptKeyword("AND"))
+                {
+                    throw syntaxError("expected AND");
+                }
+                return new Between(operand, lower, new Operand(next()));
+            }
+            if (acceptKeyword("IN"))
+            {
+                expect("(");
+                return new In(operand, parseOperands());
+            }
+
+            final String operator = next();
+            switch (operator)
+            {
+                case "=":
+                case "<>":
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return new Comparison(operand, operator, new Operand(next()));
+                default:
+                    throw syntaxError("unexpected token " + operator);
+            }
+        }
+
+        /**
+         * Parses a comma separated list up to the closing parenthesis, the opening one already consumed.
+         */
+        private List<Operand> parseOperands()
+        {
+            final List<Operand> operands = new ArrayList<>();
+            do
+            {
+                operands.add(new Operand(next()));
+            }
+            while (accept(","));
+            expect(")");
+            return operands.size() == 1 ? Collections.singletonList(operands.get(0)) : operands;
+        }
+
+        void expectEnd()
+        {
+            if (position < tokens.size())
+            {
+                throw syntaxError("unexpected token " + tokens.get(position));
+            }
+        }
+
+        private String next()
+        {
+            if (position >= tokens.size())
+            {
+                throw syntaxError("unexpected end");
+            }
+            return tokens.get(position++);
+        }
+
+        private boolean accept(final String token)
+        {
+            if (position < tokens.size() && tokens.get(position).equals(token))
+            {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptKeyword(final String keyword)
+        {
+            if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword))
+            {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String token)
+        {
+            if (!accept(token))
+            {
+                throw syntaxError("expected " + token);
+            }
+        }
+
+        private AmazonDynamoDBException syntaxError(final String message)
+        {
+            return validationException("Invalid expression: " + message + " in \"" + expression + "\"");
+        }
+    }
+}
@@ -0,0 +1,1652 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.CancellationReason;
+import com.amazonaws.services.dynamodbv2.model.ConditionCheck;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.CreateTableResult;
+import com.amazonaws.services.dynamodbv2.model.Delete;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTimeToLiveResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndex;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexUpdate;
+import com.amazonaws.services.dynamodbv2.model.IndexStatus;
+import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.ListTablesRequest;
+import com.amazonaws.services.dynamodbv2.model.ListTablesResult;
+import com.amazonaws.services.dynamodbv2.model.Projection;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputDescription;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceInUseException;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.StreamSpecification;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveDescription;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveSpecification;
+import com.amazonaws.services.dynamodbv2.model.TimeToLiveStatus;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsResult;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTableResult;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateTimeToLiveResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * In-process stand-in for DynamoDB, for tests and benchmarks that should not depend on a DynamoDB Local process.
+ * Plug it in with {@link DynamoDBConfiguration#setTransport}; connections sharing a transport see the same tables.
+ * <p>
+ * It implements the operations the storage extension uses: item reads and writes, batches, queries including those
+ * on global secondary indexes, scans, write transactions and table management. Items live in lock-striped sorted
+ * maps, so operations on different keys run in parallel. Responses report the capacity DynamoDB would bill, and
+ * latency, throttling and server errors can be injected. The SDK client's retries are not simulated, so injected
+ * failures reach the caller. Streams, update expressions and local secondary indexes are not supported.
+ */
+public class DynamoDBInMemoryTransport extends AbstractAmazonDynamoDBAsync
+{
+    public static class Builder
+    {
+        private DynamoDBInMemoryTransport transport;
+
+        public Builder()
+        {
+            transport = new DynamoDBInMemoryTransport();
+        }
+
+        public Builder withStripes(final int stripes)
+        {
+            transport.setStripes(stripes);
+            return this;
+        }
+
+        public Builder withThreads(final int threads)
+        {
+            transport.setThreads(threads);
+            return this;
+        }
+
+        public Builder withLatencyMillis(final long latencyMillis)
+        {
+            transport.setLatencyMillis(latencyMillis);
+            return this;
+        }
+
+        public Builder withLatencyJitterMillis(final long latencyJitterMillis)
+        {
+            transport.setLatencyJitterMillis(latencyJitterMillis);
+            return this;
+        }
+
+        public Builder withThrottleRate(final double throttleRate)
+        {
+            transport.setThrottleRate(throttleRate);
+            return this;
+        }
+
+        public Builder withErrorRate(final double errorRate)
+        {
+            transport.setErrorRate(errorRate);
+            return this;
+        }
+
+        public Builder withReadCapacityUnitsPerSecond(final double readCapacityUnitsPerSecond)
+        {
+            transport.setReadCapacityUnitsPerSecond(readCapacityUnitsPerSecond);
+            return this;
+        }
+
+        public Builder withWriteCapacityUnitsPerSecond(final double writeCapacityUnitsPerSecond)
+        {
+            transport.setWriteCapacityUnitsPerSecond(writeCapacityUnitsPerSecond);
+            return this;
+        }
+
+        public DynamoDBInMemoryTransport build()
+        {
+            return transport;
+        }
+    }
+
+    private static final String SERVICE_NAME = "AmazonDynamoDBv2";
+    private static final int MAX_BATCH_GET_KEYS = 100;
+    private static final int MAX_BATCH_WRITES = 25;
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+    private static final long MAX_PAGE_BYTES = 1024 * 1024;
+    private static final AtomicInteger transportCount = new AtomicInteger();
+
+    private final ConcurrentMap<String, InMemoryTable> tables = new ConcurrentHashMap<>();
+    private final AtomicLong stripeCount = new AtomicLong();
+    private final int transportIndex = transportCount.incrementAndGet();
+    private ScheduledExecutorService executor;
+
+    private int stripes = 64;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private volatile long latencyMillis = 0;
+    private volatile long latencyJitterMillis = 0;
+    private volatile double throttleRate = 0;
+    private volatile double errorRate = 0;
+    private double readCapacityUnitsPerSecond = 0;
+    private double writeCapacityUnitsPerSecond = 0;
+
+    /**
+     * Number of lock stripes per table; operations on items of different stripes do not contend.
+     */
+    public int getStripes()
+    {
+        return stripes;
+    }
+
+    public void setStripes(final int stripes)
+    {
+        this.stripes = stripes;
+    }
+
+    /**
+     * Number of threads completing asynchronous requests.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(final int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Delay added to every request.
+     */
+    public long getLatencyMillis()
+    {
+        return latencyMillis;
+    }
+
+    public void setLatencyMillis(final long latencyMillis)
+    {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Upper bound of a uniformly random delay added on top of {@link #getLatencyMillis()}.
+     */
+    public long getLatencyJitterMillis()
+    {
+        return latencyJitterMillis;
+    }
+
+    public void setLatencyJitterMillis(final long latencyJitterMillis)
+    {
+        this.latencyJitterMillis = latencyJitterMillis;
+    }
+
+    /**
+     * Fraction of requests failed with a {@link ProvisionedThroughputExceededException}, between 0 and 1.
+     */
+    public double getThrottleRate()
+    {
+        return throttleRate;
+    }
+
+    public void setThrottleRate(final double throttleRate)
+    {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Fraction of requests failed with an {@link InternalServerErrorException}, between 0 and 1.
+     */
+    public double getErrorRate()
+    {
+        return errorRate;
+    }
+
+    public void setErrorRate(final double errorRate)
+    {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Read capacity of each table created afterwards, 0 for unlimited. Requests made once it is spent are throttled.
+     */
+    public double getReadCapacityUnitsPerSecond()
+    {
+        return readCapacityUnitsPerSecond;
+    }
+
+    public void setReadCapacityUnitsPerSecond(final double readCapacityUnitsPerSecond)
+    {
+        this.readCapacityUnitsPerSecond = readCapacityUnitsPerSecond;
+    }
+
+    /**
+     * Write capacity of each table created afterwards, 0 for unlimited. Requests made once it is spent are throttled.
+     */
+    public double getWriteCapacityUnitsPerSecond()
+    {
+        return writeCapacityUnitsPerSecond;
+    }
+
+    public void setWriteCapacityUnitsPerSecond(final double writeCapacityUnitsPerSecond)
+    {
+        this.writeCapacityUnitsPerSecond = writeCapacityUnitsPerSecond;
+    }
+
+    /**
+     * @return the read capacity units the table's requests consumed, 0 if it does not exist
+     */
+    public double getConsumedReadCapacity(final String tableName)
+    {
+        final InMemoryTable table = tables.get(tableName);
+        return table != null ? table.consumedReadCapacity.sum() : 0;
+    }
+
+    /**
+     * @return the write capacity units the table's requests consumed, 0 if it does not exist
+     */
+    public double getConsumedWriteCapacity(final String tableName)
+    {
+        final InMemoryTable table = tables.get(tableName);
+        return table != null ? table.consumedWriteCapacity.sum() : 0;
+    }
+
+    // ----- items
+
+    @Override
+    public GetItemResult getItem(final GetItemRequest request)
+    {
+        return call(request, this::executeGetItem);
+    }
+
+    @Override
+    public Future<GetItemResult> getItemAsync(final GetItemRequest request, final AsyncHandler<GetItemRequest, GetItemResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeGetItem);
+    }
+
+    @Override
+    public PutItemResult putItem(final PutItemRequest request)
+    {
+        return call(request, this::executePutItem);
+    }
+
+    @Override
+    public Future<PutItemResult> putItemAsync(final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executePutItem);
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(final DeleteItemRequest request)
+    {
+        return call(request, this::executeDeleteItem);
+    }
+
+    @Override
+    public Future<DeleteItemResult> deleteItemAsync(final DeleteItemRequest request, final AsyncHandler<DeleteItemRequest, DeleteItemResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeDeleteItem);
+    }
+
+    @Override
+    public BatchGetItemResult batchGetItem(final BatchGetItemRequest request)
+    {
+        return call(request, this::executeBatchGetItem);
+    }
+
+    @Override
+    public Future<BatchGetItemResult> batchGetItemAsync(final BatchGetItemRequest request, final AsyncHandler<BatchGetItemRequest, BatchGetItemResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeBatchGetItem);
+    }
+
+    @Override
+    public BatchWriteItemResult batchWriteItem(final BatchWriteItemRequest request)
+    {
+        return call(request, this::executeBatchWriteItem);
+    }
+
+    @Override
+    public Future<BatchWriteItemResult> batchWriteItemAsync(final BatchWriteItemRequest request, final AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeBatchWriteItem);
+    }
+
+    @Override
+    public TransactWriteItemsResult transactWriteItems(final TransactWriteItemsRequest request)
+    {
+        return call(request, this::executeTransactWriteItems);
+    }
+
+    @Override
+    public Future<TransactWriteItemsResult> transactWriteItemsAsync(final TransactWriteItemsRequest request,
+                                                                    final AsyncHandler<TransactWriteItemsRequest, TransactWriteItemsResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeTransactWriteItems);
+    }
+
+    @Override
+    public QueryResult query(final QueryRequest request)
+    {
+        return call(request, this::executeQuery);
+    }
+
+    @Override
+    public Future<QueryResult> queryAsync(final QueryRequest request, final AsyncHandler<QueryRequest, QueryResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeQuery);
+    }
+
+    @Override
+    public ScanResult scan(final ScanRequest request)
+    {
+        return call(request, this::executeScan);
+    }
+
+    @Override
+    public Future<ScanResult> scanAsync(final ScanRequest request, final AsyncHandler<ScanRequest, ScanResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeScan);
+    }
+
+    // ----- tables
+
+    @Override
+    public CreateTableResult createTable(final CreateTableRequest request)
+    {
+        return call(request, this::executeCreateTable);
+    }
+
+    @Override
+    public Future<CreateTableResult> createTableAsync(final CreateTableRequest request, final AsyncHandler<CreateTableRequest, CreateTableResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeCreateTable);
+    }
+
+    @Override
+    public DescribeTableResult describeTable(final DescribeTableRequest request)
+    {
+        return call(request, this::executeDescribeTable);
+    }
+
+    @Override
+    public Future<DescribeTableResult> describeTableAsync(final DescribeTableRequest request, final AsyncHandler<DescribeTableRequest, DescribeTableResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeDescribeTable);
+    }
+
+    @Override
+    public UpdateTableResult updateTable(final UpdateTableRequest request)
+    {
+        return call(request, this::executeUpdateTable);
+    }
+
+    @Override
+    public Future<UpdateTableResult> updateTableAsync(final UpdateTableRequest request, final AsyncHandler<UpdateTableRequest, UpdateTableResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeUpdateTable);
+    }
+
+    @Override
+    public DeleteTableResult deleteTable(final DeleteTableRequest request)
+    {
+        return call(request, this::executeDeleteTable);
+    }
+
+    @Override
+    public Future<DeleteTableResult> deleteTableAsync(final DeleteTableRequest request, final AsyncHandler<DeleteTableRequest, DeleteTableResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeDeleteTable);
+    }
+
+    @Override
+    public ListTablesResult listTables(final ListTablesRequest request)
+    {
+        return call(request, this::executeListTables);
+    }
+
+    @Override
+    public Future<ListTablesResult> listTablesAsync(final ListTablesRequest request, final AsyncHandler<ListTablesRequest, ListTablesResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeListTables);
+    }
+
+    @Override
+    public UpdateTimeToLiveResult updateTimeToLive(final UpdateTimeToLiveRequest request)
+    {
+        return call(request, this::executeUpdateTimeToLive);
+    }
+
+    @Override
+    public Future<UpdateTimeToLiveResult> updateTimeToLiveAsync(final UpdateTimeToLiveRequest request,
+                                                                final AsyncHandler<UpdateTimeToLiveRequest, UpdateTimeToLiveResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeUpdateTimeToLive);
+    }
+
+    @Override
+    public DescribeTimeToLiveResult describeTimeToLive(final DescribeTimeToLiveRequest request)
+    {
+        return call(request, this::executeDescribeTimeToLive);
+    }
+
+    @Override
+    public Future<DescribeTimeToLiveResult> describeTimeToLiveAsync(final DescribeTimeToLiveRequest request,
+                                                                    final AsyncHandler<DescribeTimeToLiveRequest, DescribeTimeToLiveResult> asyncHandler)
+    {
+        return submit(request, asyncHandler, this::executeDescribeTimeToLive);
+    }
+
+    /**
+     * Connections shut their client down when they close, and may share the transport, so this keeps its tables.
+     * The threads completing requests are daemons.
+     */
+    @Override
+    public void shutdown()
+    {
+    }
+
+    // ----- request execution
+
+    private <REQUEST extends AmazonWebServiceRequest, RESULT> RESULT call(final REQUEST request, final Function<REQUEST, RESULT> operation)
+    {
+        final long delayMillis = nextLatencyMillis();
+        if (delayMillis > 0)
+        {
+            try
+            {
+                Thread.sleep(delayMillis);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AbortedException(e);
+            }
+        }
+
+        injectFaults();
+        return operation.apply(request);
+    }
+
+    private <REQUEST extends AmazonWebServiceRequest, RESULT> Future<RESULT> submit(final REQUEST request, final AsyncHandler<REQUEST, RESULT> asyncHandler,
+                                                                                    final Function<REQUEST, RESULT> operation)
+    {
+        final CompletableFuture<RESULT> future = new CompletableFuture<>();
+        final Runnable execution = () ->
+        {
+            final RESULT result;
+            try
+            {
+                injectFaults();
+                result = operation.apply(request);
+            }
+            catch (Exception e)
+            {
+                if (asyncHandler != null)
+                {
+                    asyncHandler.onError(e);
+                }
+                future.completeExceptionally(e);
+                return;
+            }
+
+            if (asyncHandler != null)
+            {
+                asyncHandler.onSuccess(request, result);
+            }
+            future.complete(result);
+        };
+
+        final long delayMillis = nextLatencyMillis();
+        if (delayMillis > 0)
+        {
+            getExecutor().schedule(execution, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            getExecutor().execute(execution);
+        }
+        return future;
+    }
+
+    private synchronized ScheduledExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), runnable ->
+            {
+                final Thread thread = new Thread(runnable, "orbit-dynamodb-in-memory-" + transportIndex + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private long nextLatencyMillis()
+    {
+        final long jitterMillis = latencyJitterMillis;
+        return latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+    }
+
+    private void injectFaults()
+    {
+        final double throttleRate = this.throttleRate;
+        final double errorRate = this.errorRate;
+        if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate)
+        {
+            throw serviceException(new ProvisionedThroughputExceededException("Injected throttling"), 400);
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+        {
+            throw serviceException(new InternalServerErrorException("Injected server error"), 500);
+        }
+    }
+
+    private GetItemResult executeGetItem(final GetItemRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        table.acquireRead();
+
+        final ItemKey key = table.getKey(request.getKey(), true);
+        final Map<String, AttributeValue> item = table.getStripe(key).get(key);
+
+        final double units = readUnits(item != null ? DynamoDBCapacityProfiler.estimateItemBytes(item) : 0, Boolean.TRUE.equals(request.getConsistentRead()));
+        table.consumeRead(units);
+        return new GetItemResult()
+                .withItem(item != null ? project(item, request.getProjectionExpression(), request.getExpressionAttributeNames()) : null)
+                .withConsumedCapacity(consumedCapacity(request.getReturnConsumedCapacity(), table, units));
+    }
+
+    private PutItemResult executePutItem(final PutItemRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        table.acquireWrite();
+
+        final Map<String, AttributeValue> item = new HashMap<>(request.getItem());
+        final ItemKey key = table.getKey(item, false);
+        final Stripe stripe = table.getStripe(key);
+        final Map<String, AttributeValue> previousItem;
+        stripe.lock.lock();
+        try
+        {
+            previousItem = stripe.items.get(key);
+            checkCondition(previousItem, request.getConditionExpression(), request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+            stripe.items.put(key, item);
+        }
+        finally
+        {
+            stripe.lock.unlock();
+        }
+
+        final double units = writeUnits(Math.max(DynamoDBCapacityProfiler.estimateItemBytes(item),
+                previousItem != null ? DynamoDBCapacityProfiler.estimateItemBytes(previousItem) : 0));
+        table.consumeWrite(units);
+        return new PutItemResult()
+                .withAttributes(ReturnValue.ALL_OLD.toString().equals(request.getReturnValues()) && previousItem != null ? new HashMap<>(previousItem) : null)
+                .withConsumedCapacity(consumedCapacity(request.getReturnConsumedCapacity(), table, units));
+    }
+
+    private DeleteItemResult executeDeleteItem(final DeleteItemRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        table.acquireWrite();
+
+        final ItemKey key = table.getKey(request.getKey(), true);
+        final Stripe stripe = table.getStripe(key);
+        final Map<String, AttributeValue> previousItem;
+        stripe.lock.lock();
+        try
+        {
+            previousItem = stripe.items.get(key);
+            checkCondition(previousItem, request.getConditionExpression(), request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+            stripe.items.remove(key);
+        }
+        finally
+        {
+            stripe.lock.unlock();
+        }
+
+        final double units = writeUnits(previousItem != null ? DynamoDBCapacityProfiler.estimateItemBytes(previousItem) : 0);
+        table.consumeWrite(units);
+        return new DeleteItemResult()
+                .withAttributes(ReturnValue.ALL_OLD.toString().equals(request.getReturnValues()) && previousItem != null ? new HashMap<>(previousItem) : null)
+                .withConsumedCapacity(consumedCapacity(request.getReturnConsumedCapacity(), table, units));
+    }
+
+    private BatchGetItemResult executeBatchGetItem(final BatchGetItemRequest request)
+    {
+        int keyCount = 0;
+        for (final KeysAndAttributes keysAndAttributes : request.getRequestItems().values())
+        {
+            keyCount += keysAndAttributes.getKeys().size();
+        }
+        if (keyCount > MAX_BATCH_GET_KEYS)
+        {
+            throw DynamoDBInMemoryExpression.validationException("Too many items requested for the BatchGetItem call");
+        }
+
+        final Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        final List<ConsumedCapacity> consumedCapacities = new ArrayList<>();
+        for (final Map.Entry<String, KeysAndAttributes> entry : request.getRequestItems().entrySet())
+        {
+            final InMemoryTable table = getTable(entry.getKey());
+            table.acquireRead();
+
+            final KeysAndAttributes keysAndAttributes = entry.getValue();
+            final List<Map<String, AttributeValue>> items = new ArrayList<>();
+            double units = 0;
+            for (final Map<String, AttributeValue> attributes : keysAndAttributes.getKeys())
+            {
+                final ItemKey key = table.getKey(attributes, true);
+                final Map<String, AttributeValue> item = table.getStripe(key).get(key);
+                units += readUnits(item != null ? DynamoDBCapacityProfiler.estimateItemBytes(item) : 0, Boolean.TRUE.equals(keysAndAttributes.getConsistentRead()));
+                if (item != null)
+                {
+                    items.add(project(item, keysAndAttributes.getProjectionExpression(), keysAndAttributes.getExpressionAttributeNames()));
+                }
+            }
+
+            table.consumeRead(units);
+            responses.put(entry.getKey(), items);
+            final ConsumedCapacity consumedCapacity = consumedCapacity(request.getReturnConsumedCapacity(), table, units);
+            if (consumedCapacity != null)
+            {
+                consumedCapacities.add(consumedCapacity);
+            }
+        }
+
+        return new BatchGetItemResult()
+                .withResponses(responses)
+                .withUnprocessedKeys(Collections.emptyMap())
+                .withConsumedCapacity(consumedCapacities.isEmpty() ? null : consumedCapacities);
+    }
+
+    private BatchWriteItemResult executeBatchWriteItem(final BatchWriteItemRequest request)
+    {
+        int writeCount = 0;
+        for (final List<WriteRequest> writeRequests : request.getRequestItems().values())
+        {
+            writeCount += writeRequests.size();
+        }
+        if (writeCount > MAX_BATCH_WRITES)
+        {
+            throw DynamoDBInMemoryExpression.validationException("Too many items requested for the BatchWriteItem call");
+        }
+
+        final List<ConsumedCapacity> consumedCapacities = new ArrayList<>();
+        for (final Map.Entry<String, List<WriteRequest>> entry : request.getRequestItems().entrySet())
+        {
+            final InMemoryTable table = getTable(entry.getKey());
+            table.acquireWrite();
+
+            double units = 0;
+            for (final WriteRequest writeRequest : entry.getValue())
+            {
+                final Map<String, AttributeValue> item = writeRequest.getPutRequest() != null ? new HashMap<>(writeRequest.getPutRequest().getItem()) : null;
+                final ItemKey key = item != null ? table.getKey(item, false) : table.getKey(writeRequest.getDeleteRequest().getKey(), true);
+                final Stripe stripe = table.getStripe(key);
+                final Map<String, AttributeValue> previousItem;
+                stripe.lock.lock();
+                try
+                {
+                    previousItem = item != null ? stripe.items.put(key, item) : stripe.items.remove(key);
+                }
+                finally
+                {
+                    stripe.lock.unlock();
+                }
+                units += writeUnits(Math.max(item != null ? DynamoDBCapacityProfiler.estimateItemBytes(item) : 0,
+                        previousItem != null ? DynamoDBCapacityProfiler.estimateItemBytes(previousItem) : 0));
+            }
+
+            table.consumeWrite(units);
+            final ConsumedCapacity consumedCapacity = consumedCapacity(request.getReturnConsumedCapacity(), table, units);
+            if (consumedCapacity != null)
+            {
+                consumedCapacities.add(consumedCapacity);
+            }
+        }
+
+        return new BatchWriteItemResult()
+                .withUnprocessedItems(Collections.emptyMap())
+                .withConsumedCapacity(consumedCapacities.isEmpty() ? null : consumedCapacities);
+    }
+
+    private TransactWriteItemsResult executeTransactWriteItems(final TransactWriteItemsRequest request)
+    {
+        if (request.getTransactItems().size() > MAX_TRANSACTION_ITEMS)
+        {
+            throw DynamoDBInMemoryExpression.validationException("Member must have length less than or equal to " + MAX_TRANSACTION_ITEMS);
+        }
+
+        final List<TransactionOperation> operations = new ArrayList<>();
+        final Set<String> itemIds = new HashSet<>();
+        final TreeSet<Stripe> lockedStripes = new TreeSet<>(Comparator.comparingLong((Stripe stripe) -> stripe.order));
+        for (final TransactWriteItem transactItem : request.getTransactItems())
+        {
+            final TransactionOperation operation = new TransactionOperation(transactItem);
+            if (!itemIds.add(operation.table.tableName + "/" + operation.key))
+            {
+                throw DynamoDBInMemoryExpression.validationException("Transaction request cannot include multiple operations on one item");
+            }
+            operation.table.acquireWrite();
+            operations.add(operation);
+            lockedStripes.add(operation.stripe);
+        }
+
+        // locking the stripes in a global order keeps concurrent transactions from deadlocking
+        for (final Stripe stripe : lockedStripes)
+        {
+            stripe.lock.lock();
+        }
+        final List<Double> units = new ArrayList<>();
+        try
+        {
+            final List<CancellationReason> reasons = new ArrayList<>();
+            boolean cancelled = false;
+            for (final TransactionOperation operation : operations)
+            {
+                final Map<String, AttributeValue> existingItem = operation.stripe.items.get(operation.key);
+                final boolean satisfied = operation.condition == null || DynamoDBInMemoryExpression.parse(operation.condition)
+                        .evaluate(existingItem != null ? existingItem : Collections.emptyMap(), operation.names, operation.values);
+                reasons.add(satisfied ? new CancellationReason().withCode("None")
+                        : new CancellationReason().withCode("ConditionalCheckFailed").withMessage("The conditional request failed"));
+                cancelled |= !satisfied;
+            }
+
+            if (cancelled)
+            {
+                final List<String> codes = new ArrayList<>();
+                for (final CancellationReason reason : reasons)
+                {
+                    codes.add(reason.getCode());
+                }
+                final TransactionCanceledException exception = serviceException(new TransactionCanceledException(
+                        "Transaction cancelled, please refer cancellation reasons for specific reasons " + codes), 400);
+                exception.setCancellationReasons(reasons);
+                throw exception;
+            }
+
+            for (final TransactionOperation operation : operations)
+            {
+                final Map<String, AttributeValue> previousItem = operation.item != null ? operation.stripe.items.put(operation.key, operation.item)
+                        : operation.isDelete ? operation.stripe.items.remove(operation.key) : operation.stripe.items.get(operation.key);
+                // transactional writes cost twice as much as plain ones
+                units.add(2 * writeUnits(Math.max(operation.item != null ? DynamoDBCapacityProfiler.estimateItemBytes(operation.item) : 0,
+                        previousItem != null ? DynamoDBCapacityProfiler.estimateItemBytes(previousItem) : 0)));
+            }
+        }
+        finally
+        {
+            for (final Stripe stripe : lockedStripes.descendingSet())
+            {
+                stripe.lock.unlock();
+            }
+        }
+
+        final Map<InMemoryTable, Double> unitsByTable = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++)
+        {
+            unitsByTable.merge(operations.get(i).table, units.get(i), Double::sum);
+        }
+        final List<ConsumedCapacity> consumedCapacities = new ArrayList<>();
+        unitsByTable.forEach((table, tableUnits) ->
+        {
+            table.consumeWrite(tableUnits);
+            final ConsumedCapacity consumedCapacity = consumedCapacity(request.getReturnConsumedCapacity(), table, tableUnits);
+            if (consumedCapacity != null)
+            {
+                consumedCapacities.add(consumedCapacity);
+            }
+        });
+        return new TransactWriteItemsResult().withConsumedCapacity(consumedCapacities.isEmpty() ? null : consumedCapacities);
+    }
+
+    private QueryResult executeQuery(final QueryRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        if (request.getKeyConditionExpression() == null)
+        {
+            throw DynamoDBInMemoryExpression.validationException("Either the KeyConditions or KeyConditionExpression parameter must be specified in the request");
+        }
+        final DynamoDBInMemoryExpression keyCondition = DynamoDBInMemoryExpression.parse(request.getKeyConditionExpression());
+        final Map<String, String> names = request.getExpressionAttributeNames();
+        final Map<String, AttributeValue> values = request.getExpressionAttributeValues();
+        final boolean consistentRead = Boolean.TRUE.equals(request.getConsistentRead());
+        table.acquireRead();
+
+        final List<Map<String, AttributeValue>> candidates = new ArrayList<>();
+        final List<String> sortKeyNames = new ArrayList<>();
+        final List<String> keyNames = new ArrayList<>(table.getKeyNames());
+        if (request.getIndexName() == null)
+        {
+            final AttributeValue hashValue = keyCondition.findEquality(table.hashKeyName, names, values);
+            if (hashValue == null)
+            {
+                throw DynamoDBInMemoryExpression.validationException("Query condition missed key schema element: " + table.hashKeyName);
+            }
+            final Stripe stripe = table.getStripe(new ItemKey(toKeyString(hashValue), ""));
+            stripe.lock.lock();
+            try
+            {
+                for (final Map<String, AttributeValue> item : stripe.getPartition(toKeyString(hashValue)))
+                {
+                    if (keyCondition.evaluate(item, names, values))
+                    {
+                        candidates.add(item);
+                    }
+                }
+            }
+            finally
+            {
+                stripe.lock.unlock();
+            }
+            if (table.rangeKeyName != null)
+            {
+                sortKeyNames.add(table.rangeKeyName);
+            }
+        }
+        else
+        {
+            final GlobalSecondaryIndexDescription index = table.indexes.get(request.getIndexName());
+            if (index == null)
+            {
+                throw DynamoDBInMemoryExpression.validationException("The table does not have the specified index: " + request.getIndexName());
+            }
+            if (consistentRead)
+            {
+                throw DynamoDBInMemoryExpression.validationException("Consistent reads are not supported on global secondary indexes");
+            }
+
+            final List<String> indexKeyNames = getKeyNames(index.getKeySchema());
+            if (keyCondition.findEquality(indexKeyNames.get(0), names, values) == null)
+            {
+                throw DynamoDBInMemoryExpression.validationException("Query condition missed key schema element: " + indexKeyNames.get(0));
+            }
+
+            // indexes are sparse, items without the index keys are not in them
+            for (final Stripe stripe : table.stripes)
+            {
+                stripe.lock.lock();
+                try
+                {
+                    for (final Map<String, AttributeValue> item : stripe.items.values())
+                    {
+                        if (item.keySet().containsAll(indexKeyNames) && keyCondition.evaluate(item, names, values))
+                        {
+                            candidates.add(item);
+                        }
+                    }
+                }
+                finally
+                {
+                    stripe.lock.unlock();
+                }
+            }
+
+            sortKeyNames.addAll(indexKeyNames.subList(1, indexKeyNames.size()));
+            sortKeyNames.addAll(keyNames);
+            for (final String indexKeyName : indexKeyNames)
+            {
+                if (!keyNames.contains(indexKeyName))
+                {
+                    keyNames.add(indexKeyName);
+                }
+            }
+            candidates.sort(getKeyComparator(sortKeyNames));
+        }
+
+        if (Boolean.FALSE.equals(request.getScanIndexForward()))
+        {
+            Collections.reverse(candidates);
+        }
+
+        final Page page = new Page(candidates, request.getExclusiveStartKey(), getKeyComparator(sortKeyNames),
+                !Boolean.FALSE.equals(request.getScanIndexForward()), request.getLimit(), keyNames, false);
+        final List<Map<String, AttributeValue>> items = page.filter(request.getFilterExpression(), request.getProjectionExpression(), names, values);
+
+        final double units = readUnits(page.bytes, consistentRead);
+        table.consumeRead(units);
+        return new QueryResult()
+                .withItems(items)
+                .withCount(items.size())
+                .withScannedCount(page.items.size())
+                .withLastEvaluatedKey(page.lastEvaluatedKey)
+                .withConsumedCapacity(consumedCapacity(request.getReturnConsumedCapacity(), table, units));
+    }
+
+    private ScanResult executeScan(final ScanRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        if (request.getIndexName() != null)
+        {
+            throw DynamoDBInMemoryExpression.validationException("Scans of indexes are not supported by the in-memory transport");
+        }
+        final int totalSegments = request.getTotalSegments() != null ? request.getTotalSegments() : 1;
+        final int segment = request.getSegment() != null ? request.getSegment() : 0;
+        final int limit = request.getLimit() != null ? request.getLimit() : Integer.MAX_VALUE;
+        final ItemKey startKey = request.getExclusiveStartKey() != null ? table.getKey(request.getExclusiveStartKey(), false) : null;
+        table.acquireRead();
+
+        // each stripe is sorted by key, so the page is the first items of the merged stripes
+        final List<Map<String, AttributeValue>> candidates = new ArrayList<>();
+        boolean truncated = false;
+        for (final Stripe stripe : table.stripes)
+        {
+            stripe.lock.lock();
+            try
+            {
+                int count = 0;
+                long bytes = 0;
+                for (final Map.Entry<ItemKey, Map<String, AttributeValue>> entry : (startKey != null ? stripe.items.tailMap(startKey, false) : stripe.items).entrySet())
+                {
+                    if (count >= limit || bytes >= MAX_PAGE_BYTES)
+                    {
+                        truncated = true;
+                        break;
+                    }
+                    if (totalSegments == 1 || Math.floorMod(entry.getKey().hash.hashCode(), totalSegments) == segment)
+                    {
+                        candidates.add(entry.getValue());
+                        count++;
+                        bytes += DynamoDBCapacityProfiler.estimateItemBytes(entry.getValue());
+                    }
+                }
+            }
+            finally
+            {
+                stripe.lock.unlock();
+            }
+        }
+
+        final List<String> keyNames = table.getKeyNames();
+        candidates.sort(getKeyComparator(keyNames));
+        final Page page = new Page(candidates, null, null, true, request.getLimit(), keyNames, truncated);
+        final List<Map<String, AttributeValue>> items = page.filter(request.getFilterExpression(), request.getProjectionExpression(),
+                request.getExpressionAttributeNames(), request.getExpressionAttributeValues());
+
+        final double units = readUnits(page.bytes, Boolean.TRUE.equals(request.getConsistentRead()));
+        table.consumeRead(units);
+        return new ScanResult()
+                .withItems(items)
+                .withCount(items.size())
+                .withScannedCount(page.items.size())
+                .withLastEvaluatedKey(page.lastEvaluatedKey)
+                .withConsumedCapacity(consumedCapacity(request.getReturnConsumedCapacity(), table, units));
+    }
+
+    private CreateTableResult executeCreateTable(final CreateTableRequest request)
+    {
+        if (request.getLocalSecondaryIndexes() != null && !request.getLocalSecondaryIndexes().isEmpty())
+        {
+            throw DynamoDBInMemoryExpression.validationException("Local secondary indexes are not supported by the in-memory transport");
+        }
+
+        final InMemoryTable table = new InMemoryTable(request);
+        if (tables.putIfAbsent(table.tableName, table) != null)
+        {
+            throw serviceException(new ResourceInUseException("Table already exists: " + table.tableName), 400);
+        }
+        return new CreateTableResult().withTableDescription(table.describe(TableStatus.ACTIVE));
+    }
+
+    private DescribeTableResult executeDescribeTable(final DescribeTableRequest request)
+    {
+        return new DescribeTableResult().withTable(getTable(request.getTableName()).describe(TableStatus.ACTIVE));
+    }
+
+    private UpdateTableResult executeUpdateTable(final UpdateTableRequest request)
+    {
+        final InMemoryTable table = getTable(request.getTableName());
+        synchronized (table)
+        {
+            if (request.getAttributeDefinitions() != null)
+            {
+                for (final AttributeDefinition attributeDefinition : request.getAttributeDefinitions())
+                {
+                    if (!table.attributeDefinitions.contains(attributeDefinition))
+                    {
+                        table.attributeDefinitions.add(attributeDefinition);
+                    }
+                }
+            }
+            if (request.getGlobalSecondaryIndexUpdates() != null)
+            {
+                for (final GlobalSecondaryIndexUpdate update : request.getGlobalSecondaryIndexUpdates())
+                {
+                    if (update.getCreate() != null)
+                    {
+                        if (table.indexes.containsKey(update.getCreate().getIndexName()))
+                        {
+                            throw DynamoDBInMemoryExpression.validationException("Attempting to create an index which already exists: " + update.getCreate().getIndexName());
+                        }
+                        table.addIndex(update.getCreate().getIndexName(), update.getCreate().getKeySchema(), update.getCreate().getProjection(),
+                                update.getCreate().getProvisionedThroughput());
+                    }
+                    if (update.getDelete() != null)
+                    {
+                        table.indexes.remove(update.getDelete().getIndexName());
+                    }
+                }
+            }
+            if (request.getStreamSpecification() != null)
+            {
+                table.streamSpecification = request.getStreamSpecification();
+            }
+        }
+        return new UpdateTableResult().withTableDescription(table.describe(TableStatus.ACTIVE));
+    }
+
+    private DeleteTableResult executeDeleteTable(final DeleteTableRequest request)
+    {
+        final InMemoryTable table = tables.remove(request.getTableName());
+        if (table == null)
+        {
+            throw tableNotFound(request.getTableName());
+        }
+        return new DeleteTableResult().withTableDescription(table.describe(TableStatus.DELETING));
+    }
+
+    private ListTablesResult executeListTables(final ListTablesRequest request)
+    {
+        final List<String> tableNames = new ArrayList<>(new TreeSet<>(tables.keySet()).tailSet(
+                request.getExclusiveStartTableName() != null ? request.getExclusiveStartTableName() : "", request.getExclusiveStartTableName() == null));
+        final int limit = request.getLimit() != null ? request.getLimit() : 100;
+        return new ListTablesResult()
+                .withTableNames(tableNames.size() > limit ? tableNames.subList(0, limit) : tableNames)
+                .withLastEvaluatedTableName(tableNames.size() > limit ? tableNames.get(limit - 1) : null);
+    }
+
+    private UpdateTimeToLiveResult executeUpdateTimeToLive(final UpdateTimeToLiveRequest request)
+    {
+        // expired items are kept, readers of this library check the expiry themselves
+        getTable(request.getTableName()).timeToLive = request.getTimeToLiveSpecification();
+        return new UpdateTimeToLiveResult().withTimeToLiveSpecification(request.getTimeToLiveSpecification());
+    }
+
+    private DescribeTimeToLiveResult executeDescribeTimeToLive(final DescribeTimeToLiveRequest request)
+    {
+        final TimeToLiveSpecification timeToLive = getTable(request.getTableName()).timeToLive;
+        return new DescribeTimeToLiveResult().withTimeToLiveDescription(timeToLive != null && Boolean.TRUE.equals(timeToLive.getEnabled())
+                ? new TimeToLiveDescription().withTimeToLiveStatus(TimeToLiveStatus.ENABLED).withAttributeName(timeToLive.getAttributeName())
+                : new TimeToLiveDescription().withTimeToLiveStatus(TimeToLiveStatus.DISABLED));
+    }
+
+    // ----- helpers
+
+    private InMemoryTable getTable(final String tableName)
+    {
+        final InMemoryTable table = tables.get(tableName);
+        if (table == null)
+        {
+            throw tableNotFound(tableName);
+        }
+        return table;
+    }
+
+    private static ResourceNotFoundException tableNotFound(final String tableName)
+    {
+        return serviceException(new ResourceNotFoundException("Requested resource not found: Table: " + tableName + " not found"), 400);
+    }
+
+    static <EXCEPTION extends AmazonServiceException> EXCEPTION serviceException(final EXCEPTION exception, final int statusCode)
+    {
+        exception.setServiceName(SERVICE_NAME);
+        exception.setErrorCode(exception.getClass().getSimpleName());
+        exception.setStatusCode(statusCode);
+        exception.setErrorType(statusCode >= 500 ? AmazonServiceException.ErrorType.Service : AmazonServiceException.ErrorType.Client);
+        return exception;
+    }
+
+    private static void checkCondition(final Map<String, AttributeValue> item, final String condition, final Map<String, String> names,
+                                       final Map<String, AttributeValue> values)
+    {
+        if (condition != null && !DynamoDBInMemoryExpression.parse(condition).evaluate(item != null ? item : Collections.emptyMap(), names, values))
+        {
+            throw serviceException(new ConditionalCheckFailedException("The conditional request failed"), 400);
+        }
+    }
+
+    private static Map<String, AttributeValue> project(final Map<String, AttributeValue> item, final String projection, final Map<String, String> names)
+    {
+        if (projection == null)
+        {
+            return new HashMap<>(item);
+        }
+        final Map<String, AttributeValue> projected = new HashMap<>();
+        for (final String attributeName : DynamoDBInMemoryExpression.parseProjection(projection, names))
+        {
+            final AttributeValue value = item.get(attributeName);
+            if (value != null)
+            {
+                projected.put(attributeName, value);
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * Reads are billed per 4 KB, half as much when eventually consistent.
+     */
+    private static double readUnits(final long bytes, final boolean consistentRead)
+    {
+        final double units = Math.max(1, Math.ceil(bytes / 4096.0));
+        return consistentRead ? units : units / 2;
+    }
+
+    /**
+     * Writes are billed per 1 KB of the larger of the old and new item.
+     */
+    private static double writeUnits(final long bytes)
+    {
+        return Math.max(1, Math.ceil(bytes / 1024.0));
+    }
+
+    private static ConsumedCapacity consumedCapacity(final String returnConsumedCapacity, final InMemoryTable table, final double units)
+    {
+        if (returnConsumedCapacity == null || ReturnConsumedCapacity.NONE.toString().equals(returnConsumedCapacity))
+        {
+            return null;
+        }
+        return new ConsumedCapacity().withTableName(table.tableName).withCapacityUnits(units);
+    }
+
+    private static String toKeyString(final AttributeValue value)
+    {
+        if (value.getS() != null)
+        {
+            return value.getS();
+        }
+        if (value.getN() != null)
+        {
+            return value.getN();
+        }
+        if (value.getB() != null)
+        {
+            final byte[] bytes = new byte[value.getB().remaining()];
+            value.getB().duplicate().get(bytes);
+            return Base64.getEncoder().encodeToString(bytes);
+        }
+        throw DynamoDBInMemoryExpression.validationException("The provided key element does not match the schema");
+    }
+
+    private static List<String> getKeyNames(final List<KeySchemaElement> keySchema)
+    {
+        final List<String> keyNames = new ArrayList<>(keySchema.size());
+        for (final KeySchemaElement element : keySchema)
+        {
+            if (KeyType.HASH.toString().equals(element.getKeyType()))
+            {
+                keyNames.add(0, element.getAttributeName());
+            }
+            else
+            {
+                keyNames.add(element.getAttributeName());
+            }
+        }
+        return keyNames;
+    }
+
+    /**
+     * Orders items by the string form of the given key attributes, missing ones first.
+     */
+    private static Comparator<Map<String, AttributeValue>> getKeyComparator(final List<String> keyNames)
+    {
+        return (left, right) ->
+        {
+            for (final String keyName : keyNames)
+            {
+                final AttributeValue leftValue = left.get(keyName);
+                final AttributeValue rightValue = right.get(keyName);
+                final int comparison = (leftValue != null ? toKeyString(leftValue) : "").compareTo(rightValue != null ? toKeyString(rightValue) : "");
+                if (comparison != 0)
+                {
+                    return comparison;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * The items a query or scan evaluates: those after the exclusive start key, up to the limit or 1 MB.
+     */
+    private static class Page
+    {
+        private final List<Map<String, AttributeValue>> items = new ArrayList<>();
+        private long bytes;
+        private Map<String, AttributeValue> lastEvaluatedKey;
+
+        Page(final List<Map<String, AttributeValue>> candidates, final Map<String, AttributeValue> exclusiveStartKey,
+             final Comparator<Map<String, AttributeValue>> comparator, final boolean forward, final Integer limit, final List<String> keyNames,
+             final boolean truncated)
+        {
+            boolean more = truncated;
+            for (int i = 0; i < candidates.size(); i++)
+            {
+                final Map<String, AttributeValue> item = candidates.get(i);
+                if (exclusiveStartKey != null && comparator != null)
+                {
+                    final int comparison = comparator.compare(item, exclusiveStartKey);
+                    if (forward ? comparison <= 0 : comparison >= 0)
+                    {
+                        continue;
+                    }
+                }
+
+                items.add(item);
+                bytes += DynamoDBCapacityProfiler.estimateItemBytes(item);
+                if ((limit != null && items.size() >= limit || bytes >= MAX_PAGE_BYTES) && i < candidates.size() - 1)
+                {
+                    more = true;
+                    break;
+                }
+            }
+
+            // truncated candidates may have more items after the last one, as a page cut short does
+            if (more && !items.isEmpty())
+            {
+                final Map<String, AttributeValue> item = items.get(items.size() - 1);
+                lastEvaluatedKey = new HashMap<>();
+                for (final String keyName : keyNames)
+                {
+                    lastEvaluatedKey.put(keyName, item.get(keyName));
+                }
+            }
+        }
+
+        List<Map<String, AttributeValue>> filter(final String filterExpression, final String projectionExpression,
+                                                 final Map<String, String> names, final Map<String, AttributeValue> values)
+        {
+            final DynamoDBInMemoryExpression filter = filterExpression != null ? DynamoDBInMemoryExpression.parse(filterExpression) : null;
+            final List<Map<String, AttributeValue>> filtered = new ArrayList<>(items.size());
+            for (final Map<String, AttributeValue> item : items)
+            {
+                if (filter == null || filter.evaluate(item, names, values))
+                {
+                    filtered.add(project(item, projectionExpression, names));
+                }
+            }
+            return filtered;
+        }
+    }
+
+    /**
+     * One write of a transaction, resolved to the stripe holding its item.
+     */
+    private class TransactionOperation
+    {
+        private final InMemoryTable table;
+        private final ItemKey key;
+        private final Stripe stripe;
+        private final Map<String, AttributeValue> item;
+        private final boolean isDelete;
+        private final String condition;
+        private final Map<String, String> names;
+        private final Map<String, AttributeValue> values;
+
+        TransactionOperation(final TransactWriteItem transactItem)
+        {
+            if (transactItem.getPut() != null)
+            {
+                final Put put = transactItem.getPut();
+                table = getTable(put.getTableName());
+                item = new HashMap<>(put.getItem());
+                key = table.getKey(item, false);
+                isDelete = false;
+                condition = put.getConditionExpression();
+                names = put.getExpressionAttributeNames();
+                values = put.getExpressionAttributeValues();
+            }
+            else if (transactItem.getDelete() != null)
+            {
+                final Delete delete = transactItem.getDelete();
+                table = getTable(delete.getTableName());
+                item = null;
+                key = table.getKey(delete.getKey(), true);
+                isDelete = true;
+                condition = delete.getConditionExpression();
+                names = delete.getExpressionAttributeNames();
+                values = delete.getExpressionAttributeValues();
+            }
+            else if (transactItem.getConditionCheck() != null)
+            {
+                final ConditionCheck conditionCheck = transactItem.getConditionCheck();
+                table = getTable(conditionCheck.getTableName());
+                item = null;
+                key = table.getKey(conditionCheck.getKey(), true);
+                isDelete = false;
+                condition = conditionCheck.getConditionExpression();
+                names = conditionCheck.getExpressionAttributeNames();
+                values = conditionCheck.getExpressionAttributeValues();
+            }
+            else
+            {
+                throw new UnsupportedOperationException("Only Put, Delete and ConditionCheck transaction items are supported by the in-memory transport");
+            }
+            stripe = table.getStripe(key);
+        }
+    }
+
+    private static class ItemKey implements Comparable<ItemKey>
+    {
+        private final String hash;
+        // null sorts after every range key of the partition
+        private final String range;
+
+        ItemKey(final String hash, final String range)
+        {
+            this.hash = hash;
+            this.range = range;
+        }
+
+        @Override
+        public int compareTo(final ItemKey other)
+        {
+            final int comparison = hash.compareTo(other.hash);
+            if (comparison != 0)
+            {
+                return comparison;
+            }
+            if (range == null || other.range == null)
+            {
+                return range == null ? (other.range == null ? 0 : 1) : -1;
+            }
+            return range.compareTo(other.range);
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            return other instanceof ItemKey && compareTo((ItemKey) other) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash.hashCode() * 31 + (range != null ? range.hashCode() : 0);
+        }
+
+        @Override
+        public String toString()
+        {
+            return range != null && !range.isEmpty() ? hash + "/" + range : hash;
+        }
+    }
+
+    private static class Stripe
+    {
+        private final long order;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final TreeMap<ItemKey, Map<String, AttributeValue>> items = new TreeMap<>();
+
+        Stripe(final long order)
+        {
+            this.order = order;
+        }
+
+        Map<String, AttributeValue> get(final ItemKey key)
+        {
+            lock.lock();
+            try
+            {
+                return items.get(key);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the items of a partition in range key order, the lock must be held
+         */
+        Iterable<Map<String, AttributeValue>> getPartition(final String hash)
+        {
+            return items.subMap(new ItemKey(hash, ""), true, new ItemKey(hash, null), false).values();
+        }
+    }
+
+    private class InMemoryTable
+    {
+        private final String tableName;
+        private final String hashKeyName;
+        private final String rangeKeyName;
+        private final List<KeySchemaElement> keySchema;
+        private final List<AttributeDefinition> attributeDefinitions;
+        private final ProvisionedThroughput provisionedThroughput;
+        private final Map<String, GlobalSecondaryIndexDescription> indexes = new ConcurrentHashMap<>();
+        private final Date creationDateTime = new Date();
+        private final Stripe[] stripes;
+        private final DynamoDBRateLimiter readLimiter = new DynamoDBRateLimiter(readCapacityUnitsPerSecond);
+        private final DynamoDBRateLimiter writeLimiter = new DynamoDBRateLimiter(writeCapacityUnitsPerSecond);
+        private final DoubleAdder consumedReadCapacity = new DoubleAdder();
+        private final DoubleAdder consumedWriteCapacity = new DoubleAdder();
+        private volatile StreamSpecification streamSpecification;
+        private volatile TimeToLiveSpecification timeToLive;
+
+        InMemoryTable(final CreateTableRequest request)
+        {
+            tableName = request.getTableName();
+            keySchema = new ArrayList<>(request.getKeySchema());
+            final List<String> keyNames = getKeyNames(keySchema);
+            hashKeyName = keyNames.get(0);
+            rangeKeyName = keyNames.size() > 1 ? keyNames.get(1) : null;
+            attributeDefinitions = new ArrayList<>(request.getAttributeDefinitions());
+            provisionedThroughput = request.getProvisionedThroughput();
+            streamSpecification = request.getStreamSpecification();
+            if (request.getGlobalSecondaryIndexes() != null)
+            {
+                for (final GlobalSecondaryIndex index : request.getGlobalSecondaryIndexes())
+                {
+                    addIndex(index.getIndexName(), index.getKeySchema(), index.getProjection(), index.getProvisionedThroughput());
+                }
+            }
+
+            stripes = new Stripe[Math.max(1, DynamoDBInMemoryTransport.this.stripes)];
+            for (int i = 0; i < stripes.length; i++)
+            {
+                stripes[i] = new Stripe(stripeCount.incrementAndGet());
+            }
+        }
+
+        void addIndex(final String indexName, final List<KeySchemaElement> indexKeySchema, final Projection projection,
+                      final ProvisionedThroughput indexProvisionedThroughput)
+        {
+            indexes.put(indexName, new GlobalSecondaryIndexDescription()
+                    .withIndexName(indexName)
+                    .withKeySchema(indexKeySchema)
+                    .withProjection(projection)
+                    .withIndexStatus(IndexStatus.ACTIVE)
+                    .withProvisionedThroughput(describeThroughput(indexProvisionedThroughput)));
+        }
+
+        List<String> getKeyNames()
+        {
+            return rangeKeyName != null ? Arrays.asList(hashKeyName, rangeKeyName) : Collections.singletonList(hashKeyName);
+        }
+
+        /**
+         * @param exact whether the attributes must be the key and nothing else, as in a GetItem or DeleteItem key
+         */
+        ItemKey getKey(final Map<String, AttributeValue> attributes, final boolean exact)
+        {
+            final AttributeValue hashValue = attributes.get(hashKeyName);
+            final AttributeValue rangeValue = rangeKeyName != null ? attributes.get(rangeKeyName) : null;
+            if (hashValue == null || rangeKeyName != null && rangeValue == null
+                    || exact && attributes.size() != (rangeKeyName != null ? 2 : 1))
+            {
+                throw DynamoDBInMemoryExpression.validationException("The provided key element does not match the schema");
+            }
+            return new ItemKey(toKeyString(hashValue), rangeValue != null ? toKeyString(rangeValue) : "");
+        }
+
+        Stripe getStripe(final ItemKey key)
+        {
+            // all the items of a partition share a stripe, so queries lock one
+            final int hash = key.hash.hashCode();
+            return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+        }
+
+        void acquireRead()
+        {
+            if (!readLimiter.tryAcquire())
+            {
+                throw serviceException(new ProvisionedThroughputExceededException("The level of configured provisioned throughput for the table was exceeded"), 400);
+            }
+        }
+
+        void acquireWrite()
+        {
+            if (!writeLimiter.tryAcquire())
+            {
+                throw serviceException(new ProvisionedThroughputExceededException("The level of configured provisioned throughput for the table was exceeded"), 400);
+            }
+        }
+
+        void consumeRead(final double units)
+        {
+            consumedReadCapacity.add(units);
+            readLimiter.consume(units);
+        }
+
+        void consumeWrite(final double units)
+        {
+            consumedWriteCapacity.add(units);
+            writeLimiter.consume(units);
+        }
+
+        TableDescription describe(final TableStatus tableStatus)
+        {
+            long itemCount = 0;
+            for (final Stripe stripe : stripes)
+            {
+                stripe.lock.lock();
+                try
+                {
+                    itemCount += stripe.items.size();
+                }
+                finally
+                {
+                    stripe.lock.unlock();
+                }
+            }
+
+            synchronized (this)
+            {
+                return new TableDescription()
+                        .withTableName(tableName)
+                        .withTableStatus(tableStatus)
+                        .withKeySchema(keySchema)
+                        .withAttributeDefinitions(new ArrayList<>(attributeDefinitions))
+                        .withCreationDateTime(creationDateTime)
+                        .withItemCount(itemCount)
+                        .withProvisionedThroughput(describeThroughput(provisionedThroughput))
+                        .withGlobalSecondaryIndexes(indexes.isEmpty() ? null : new ArrayList<>(indexes.values()))
+                        .withStreamSpecification(streamSpecification);
+            }
+        }
+
+        private ProvisionedThroughputDescription describeThroughput(final ProvisionedThroughput throughput)
+        {
+            return throughput == null ? null : new ProvisionedThroughputDescription()
+                    .withReadCapacityUnits(throughput.getReadCapacityUnits())
+                    .withWriteCapacityUnits(throughput.getWriteCapacityUnits());
+        }
+    }
+}
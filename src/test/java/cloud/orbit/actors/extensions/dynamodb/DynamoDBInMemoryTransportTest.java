@@ -0,0 +1,290 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.Put;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughput;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItem;
+import com.amazonaws.services.dynamodbv2.model.TransactWriteItemsRequest;
+import com.amazonaws.services.dynamodbv2.model.TransactionCanceledException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.concurrent.Task;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBInMemoryTransportTest
+{
+    private static final String TABLE_NAME = "orbit-in-memory-test";
+
+    private DynamoDBInMemoryTransport transport;
+
+    @Before
+    public void setup()
+    {
+        transport = new DynamoDBInMemoryTransport.Builder()
+                .withStripes(4)
+                .build();
+        transport.createTable(new CreateTableRequest()
+                .withTableName(TABLE_NAME)
+                .withKeySchema(new KeySchemaElement("_id", KeyType.HASH), new KeySchemaElement("_decoration", KeyType.RANGE))
+                .withAttributeDefinitions(new AttributeDefinition("_id", ScalarAttributeType.S), new AttributeDefinition("_decoration", ScalarAttributeType.S))
+                .withProvisionedThroughput(new ProvisionedThroughput(1L, 1L)));
+    }
+
+    @Test
+    public void testConditionalWrites()
+    {
+        final PutItemRequest putItemRequest = new PutItemRequest()
+                .withTableName(TABLE_NAME)
+                .withItem(item("actor", "state", "first"))
+                .withConditionExpression("attribute_not_exists(#id)")
+                .addExpressionAttributeNamesEntry("#id", "_id");
+        transport.putItem(putItemRequest);
+
+        try
+        {
+            transport.putItem(putItemRequest.withItem(item("actor", "state", "second")));
+            fail();
+        }
+        catch (ConditionalCheckFailedException e)
+        {
+            // expected, the item exists
+        }
+
+        final Map<String, AttributeValue> item = transport.getItem(new GetItemRequest()
+                .withTableName(TABLE_NAME)
+                .withKey(key("actor", "state"))
+                .withConsistentRead(true)).getItem();
+        assertEquals("first", item.get("_state").getS());
+    }
+
+    @Test
+    public void testQueryPages()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            transport.putItem(new PutItemRequest(TABLE_NAME, item("actor", "log#" + i, "patch " + i)));
+        }
+        transport.putItem(new PutItemRequest(TABLE_NAME, item("other", "log#0", "other")));
+
+        final QueryRequest queryRequest = new QueryRequest()
+                .withTableName(TABLE_NAME)
+                .withKeyConditionExpression("#id = :id AND #decoration BETWEEN :from AND :to")
+                .addExpressionAttributeNamesEntry("#id", "_id")
+                .addExpressionAttributeNamesEntry("#decoration", "_decoration")
+                .addExpressionAttributeValuesEntry(":id", new AttributeValue("actor"))
+                .addExpressionAttributeValuesEntry(":from", new AttributeValue("log#2"))
+                .addExpressionAttributeValuesEntry(":to", new AttributeValue("log#8"))
+                .withLimit(4);
+
+        final QueryResult first = transport.query(queryRequest);
+        assertEquals(4, first.getCount().intValue());
+        assertEquals("log#2", first.getItems().get(0).get("_decoration").getS());
+
+        final QueryResult second = transport.query(queryRequest.withExclusiveStartKey(first.getLastEvaluatedKey()));
+        assertEquals(3, second.getCount().intValue());
+        assertEquals("log#8", second.getItems().get(2).get("_decoration").getS());
+        assertNull(second.getLastEvaluatedKey());
+    }
+
+    @Test
+    public void testScanSegmentsCoverEveryItemOnce()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            transport.putItem(new PutItemRequest(TABLE_NAME, item("actor" + i, "state", "state " + i)));
+        }
+
+        final Set<String> ids = new HashSet<>();
+        for (int segment = 0; segment < 3; segment++)
+        {
+            Map<String, AttributeValue> exclusiveStartKey = null;
+            do
+            {
+                final ScanResult result = transport.scan(new ScanRequest()
+                        .withTableName(TABLE_NAME)
+                        .withSegment(segment)
+                        .withTotalSegments(3)
+                        .withLimit(7)
+                        .withExclusiveStartKey(exclusiveStartKey));
+                for (final Map<String, AttributeValue> item : result.getItems())
+                {
+                    assertTrue(ids.add(item.get("_id").getS()));
+                }
+                exclusiveStartKey = result.getLastEvaluatedKey();
+            }
+            while (exclusiveStartKey != null);
+        }
+        assertEquals(100, ids.size());
+    }
+
+    @Test
+    public void testCancelledTransactionWritesNothing()
+    {
+        transport.putItem(new PutItemRequest(TABLE_NAME, item("existing", "state", "existing")));
+
+        try
+        {
+            transport.transactWriteItems(new TransactWriteItemsRequest().withTransactItems(
+                    new TransactWriteItem().withPut(new Put().withTableName(TABLE_NAME).withItem(item("new", "state", "new"))),
+                    new TransactWriteItem().withPut(new Put().withTableName(TABLE_NAME).withItem(item("existing", "state", "overwritten"))
+                            .withConditionExpression("attribute_not_exists(#id)")
+                            .addExpressionAttributeNamesEntry("#id", "_id"))));
+            fail();
+        }
+        catch (TransactionCanceledException e)
+        {
+            assertEquals("None", e.getCancellationReasons().get(0).getCode());
+            assertEquals("ConditionalCheckFailed", e.getCancellationReasons().get(1).getCode());
+        }
+
+        assertNull(transport.getItem(new GetItemRequest(TABLE_NAME, key("new", "state"))).getItem());
+        assertEquals("existing", transport.getItem(new GetItemRequest(TABLE_NAME, key("existing", "state"))).getItem().get("_state").getS());
+    }
+
+    @Test
+    public void testConsumedCapacity()
+    {
+        final StringBuilder state = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+        {
+            state.append('x');
+        }
+
+        final double units = transport.putItem(new PutItemRequest(TABLE_NAME, item("actor", "state", state.toString()))
+                .withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL)).getConsumedCapacity().getCapacityUnits();
+        assertEquals(3, units, 0);
+        assertEquals(3, transport.getConsumedWriteCapacity(TABLE_NAME), 0);
+
+        transport.getItem(new GetItemRequest(TABLE_NAME, key("actor", "state")));
+        assertEquals(0.5, transport.getConsumedReadCapacity(TABLE_NAME), 0);
+    }
+
+    @Test
+    public void testInjectedFailures() throws InterruptedException
+    {
+        transport.setThrottleRate(1);
+        try
+        {
+            transport.getItemAsync(new GetItemRequest(TABLE_NAME, key("actor", "state"))).get();
+            fail();
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof ProvisionedThroughputExceededException);
+        }
+
+        transport.setThrottleRate(0);
+        try
+        {
+            transport.getItem(new GetItemRequest("missing", key("actor", "state")));
+            fail();
+        }
+        catch (ResourceNotFoundException e)
+        {
+            // expected, the table does not exist
+        }
+    }
+
+    @Test
+    public void testStopDrainsWithoutReleasingTheTransport()
+    {
+        final AtomicBoolean shutDown = new AtomicBoolean();
+        final DynamoDBInMemoryTransport configured = new DynamoDBInMemoryTransport()
+        {
+            @Override
+            public void shutdown()
+            {
+                shutDown.set(true);
+            }
+        };
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(configured)
+                .build());
+        extension.setDefaultTableName(TABLE_NAME + "-stop");
+        extension.start().join();
+
+        configured.setLatencyMillis(200);
+        final Task<Void> write = extension.writeState((RemoteReference<?>) Actor.getReference(Hello.class, "stopping"), new HelloState());
+        final Task<Void> stop = extension.stop();
+        // the caller is not held while the write drains
+        assertFalse(stop.isDone());
+        stop.join();
+
+        assertTrue(write.isDone() && !write.isCompletedExceptionally());
+        assertFalse(shutDown.get());
+    }
+
+    private static Map<String, AttributeValue> key(final String id, final String decoration)
+    {
+        final Map<String, AttributeValue> key = new HashMap<>();
+        key.put("_id", new AttributeValue(id));
+        key.put("_decoration", new AttributeValue(decoration));
+        return key;
+    }
+
+    private static Map<String, AttributeValue> item(final String id, final String decoration, final String state)
+    {
+        final Map<String, AttributeValue> item = key(id, decoration);
+        item.put("_state", new AttributeValue(state));
+        return item;
+    }
+}
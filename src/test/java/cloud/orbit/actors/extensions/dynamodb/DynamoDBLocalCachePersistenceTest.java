@@ -0,0 +1,155 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.exception.UncheckedException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBLocalCachePersistenceTest extends DynamoDBPersistenceTest
+{
+    public DynamoDBLocalCachePersistenceTest()
+    {
+        try
+        {
+            dynamoDBConfiguration.setLocalCacheDirectory(Files.createTempDirectory("orbit-dynamodb-cache").toString());
+            dynamoDBConfiguration.setLocalCacheSegmentBytes(1024 * 1024);
+            dynamoDBConfiguration.setLocalCacheMaxBytes(4 * 1024 * 1024);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedException(e);
+        }
+    }
+
+    @Test
+    public void testCachedStateIsValidatedAgainstTable()
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "cached");
+
+        final HelloState state = new HelloState();
+        state.lastName = "cached";
+        extension.writeState(reference, state).join();
+
+        final HelloState cached = new HelloState();
+        assertTrue(extension.readState(reference, cached).join());
+        assertEquals("cached", cached.lastName);
+
+        // another node without the local cache overwrites the state, leaving no version behind
+        final DynamoDBConnection connection = new DynamoDBConnection(dynamoDBConfiguration);
+        connection.getDynamoDB().getTable(getTableName()).putItem(new Item()
+                .withPrimaryKey(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, extension.generateDocumentId(reference, HelloState.class))
+                .withJSON(DynamoDBUtils.FIELD_NAME_DATA, "{\"lastName\":\"overwritten\"}"));
+        connection.close();
+
+        final HelloState overwritten = new HelloState();
+        assertTrue(extension.readState(reference, overwritten).join());
+        assertEquals("overwritten", overwritten.lastName);
+
+        extension.clearState(reference, state).join();
+        assertFalse(extension.readState(reference, new HelloState()).join());
+    }
+
+    @Test
+    public void testStreamConfirmedStateIsReadWithoutCapacity() throws InterruptedException
+    {
+        dynamoDBConfiguration.setStreamInvalidationEnabled(true);
+        dynamoDBConfiguration.setStreamPollMillis(100);
+        dynamoDBConfiguration.setLocalCacheMaxStreamLagMillis(1000);
+        dynamoDBConfiguration.setCapacityProfilingEnabled(true);
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "confirmed");
+
+        final HelloState state = new HelloState();
+        state.lastName = "confirmed";
+        extension.writeState(reference, state).join();
+        // the stream is positioned once it delivers the write, which also invalidates the cached state
+        awaitTrue(() -> extension.getStreamRecordsProcessed() > 0);
+
+        // the first read confirms the cached version, the next ones rely on the stream
+        assertTrue(extension.readState(reference, new HelloState()).join());
+        final double confirmedCapacity = getConsumedReadCapacity(extension);
+        assertTrue(confirmedCapacity > 0);
+        for (int i = 0; i < 10; i++)
+        {
+            final HelloState cached = new HelloState();
+            assertTrue(extension.readState(reference, cached).join());
+            assertEquals("confirmed", cached.lastName);
+        }
+        assertEquals(confirmedCapacity, getConsumedReadCapacity(extension), 0.001);
+
+        // a write by another node reaches the stream, which makes the next read confirm the version again
+        final DynamoDBConnection connection = new DynamoDBConnection(dynamoDBConfiguration);
+        connection.getDynamoDB().getTable(getTableName()).putItem(new Item()
+                .withPrimaryKey(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, extension.generateDocumentId(reference, HelloState.class))
+                .withJSON(DynamoDBUtils.FIELD_NAME_DATA, "{\"lastName\":\"overwritten\"}"));
+        connection.close();
+
+        awaitTrue(() ->
+        {
+            final HelloState overwritten = new HelloState();
+            extension.readState(reference, overwritten).join();
+            return "overwritten".equals(overwritten.lastName);
+        });
+    }
+
+    private static double getConsumedReadCapacity(final DynamoDBStorageExtension extension)
+    {
+        return extension.getCapacityProfiles().stream()
+                .filter(profile -> profile.getStateClass().equals(HelloState.class.getName()))
+                .mapToDouble(DynamoDBCapacityProfile::getConsumedReadCapacity)
+                .sum();
+    }
+
+    private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("Timed out waiting for the stream", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+}
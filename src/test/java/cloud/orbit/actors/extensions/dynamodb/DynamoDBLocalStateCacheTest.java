@@ -0,0 +1,175 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBLocalStateCacheTest
+{
+    private static final int SEGMENT_BYTES = 4096;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DynamoDBLocalStateCache open(final Path directory, final long maxBytes) throws Exception
+    {
+        final DynamoDBLocalStateCache cache = new DynamoDBLocalStateCache(directory, maxBytes, SEGMENT_BYTES, 0);
+        cache.open();
+        return cache;
+    }
+
+    private static byte[] value(final String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testReopenRecoversStates() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBLocalStateCache cache = open(directory, 16 * SEGMENT_BYTES);
+        for (int i = 0; i < 100; i++)
+        {
+            cache.put("state" + i, i, value("value" + i));
+        }
+        cache.put("state1", 101, value("updated"));
+        cache.remove("state2");
+        cache.close();
+
+        final DynamoDBLocalStateCache reopened = open(directory, 16 * SEGMENT_BYTES);
+        assertEquals(99, reopened.size());
+        assertEquals(101, reopened.get("state1").getVersion());
+        assertArrayEquals(value("updated"), reopened.get("state1").getValue());
+        assertNull(reopened.get("state2"));
+        assertArrayEquals(value("value99"), reopened.get("state99").getValue());
+        reopened.close();
+    }
+
+    @Test
+    public void testTruncatedSegmentIsCut() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBLocalStateCache cache = open(directory, 16 * SEGMENT_BYTES);
+        cache.put("first", 1, value("complete"));
+        cache.put("second", 2, value("torn"));
+        cache.close();
+
+        // damage the last byte of the second record, as if the node crashed while writing it
+        final int firstLength = 24 + "first".length() + "complete".length();
+        final int secondEnd = firstLength + 24 + "second".length() + "torn".length();
+        try (FileChannel channel = FileChannel.open(directory.resolve(String.format("segment-%016d.cache", 0)), StandardOpenOption.WRITE))
+        {
+            channel.write(ByteBuffer.wrap(new byte[]{ 0 }), secondEnd - 1);
+        }
+
+        final DynamoDBLocalStateCache recovered = open(directory, 16 * SEGMENT_BYTES);
+        assertArrayEquals(value("complete"), recovered.get("first").getValue());
+        assertNull(recovered.get("second"));
+        recovered.put("third", 3, value("appended"));
+        recovered.close();
+
+        final DynamoDBLocalStateCache reopened = open(directory, 16 * SEGMENT_BYTES);
+        assertEquals(2, reopened.size());
+        assertArrayEquals(value("appended"), reopened.get("third").getValue());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactionKeepsDiskBudget() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBLocalStateCache cache = open(directory, 4 * SEGMENT_BYTES);
+        final byte[] padding = new byte[200];
+        for (int round = 0; round < 50; round++)
+        {
+            for (int i = 0; i < 10; i++)
+            {
+                cache.put("state" + i, round, padding);
+            }
+        }
+        cache.flush();
+
+        assertTrue(cache.getDiskBytes() <= 4 * SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++)
+        {
+            assertEquals(49, cache.get("state" + i).getVersion());
+        }
+
+        cache.compact();
+        assertEquals(10, cache.size());
+        assertTrue(cache.getSegmentCount() <= 2);
+        cache.close();
+    }
+
+    @Test
+    public void testCompactionKeepsRemovalsOfOlderRecords() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBLocalStateCache cache = open(directory, 16 * SEGMENT_BYTES);
+        // fills the first segment but for a few bytes, so it stays mostly live and the removal goes to the second
+        cache.put("removed", 1, new byte[1000]);
+        cache.put("kept0", 1, new byte[1000]);
+        cache.put("kept1", 1, new byte[1000]);
+        cache.put("kept2", 1, new byte[968]);
+        cache.remove("removed");
+        // supersedes most of the second segment, so compaction rewrites it
+        for (int i = 0; i < 4; i++)
+        {
+            cache.put("temp", i, new byte[1000]);
+        }
+        cache.compact();
+        assertEquals(2, cache.getSegmentCount());
+        cache.close();
+
+        final DynamoDBLocalStateCache reopened = open(directory, 16 * SEGMENT_BYTES);
+        assertNull(reopened.get("removed"));
+        assertEquals(4, reopened.size());
+        assertEquals(3, reopened.get("temp").getVersion());
+        reopened.close();
+    }
+
+    @Test
+    public void testFingerprintFollowsContent()
+    {
+        assertEquals(DynamoDBLocalStateCache.fingerprint(value("state")), DynamoDBLocalStateCache.fingerprint(value("state")));
+        assertTrue(DynamoDBLocalStateCache.fingerprint(value("state")) != DynamoDBLocalStateCache.fingerprint(value("other")));
+    }
+}
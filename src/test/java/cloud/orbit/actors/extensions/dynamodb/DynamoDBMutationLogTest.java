@@ -0,0 +1,177 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBMutationLogTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBMutationLogTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withKeyLayout(DynamoDBKeyLayout.ACTOR_ID_AND_DECORATION)
+                .withMutationLogCompactRecords(3)
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testDiffAndApply() throws Exception
+    {
+        final ObjectMapper mapper = new ObjectMapper();
+        final JsonNode before = mapper.readTree("{\"name\":\"a\",\"removed\":1,\"nested\":{\"kept\":true,\"changed\":1},\"list\":[1,2]}");
+        final JsonNode after = mapper.readTree("{\"name\":null,\"nested\":{\"kept\":true,\"changed\":2,\"added\":\"x\"},\"list\":[1,2,3]}");
+
+        final JsonNode patches = DynamoDBMutationLog.diff(before, after);
+        assertEquals(after, DynamoDBMutationLog.apply(before.deepCopy(), patches));
+        // only what changed is written: the name, the removal, two nested fields and the list
+        assertEquals(5, patches.size());
+
+        assertEquals(0, DynamoDBMutationLog.diff(after, after).size());
+        assertEquals(after, DynamoDBMutationLog.apply(mapper.readTree("[]"), DynamoDBMutationLog.diff(mapper.readTree("[]"), after)));
+    }
+
+    @Test
+    public void testWritesAreLoggedAndCompacted()
+    {
+        createStage();
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "logged");
+        final HelloStateWithMutationLog state = new HelloStateWithMutationLog();
+        state.sampleData = new HelloDto();
+        state.sampleData.setNameProperties(new HashMap<>());
+        for (int i = 0; i < 50; i++)
+        {
+            state.sampleData.getNameProperties().put("key" + i, "a value that makes the state larger than its patches");
+        }
+
+        for (int i = 0; i < 6; i++)
+        {
+            state.lastName = "write" + i;
+            state.sampleData.getNameProperties().put("key" + i, i);
+            dynamoExtension.writeState(reference, state).join();
+
+            final HelloStateWithMutationLog readState = new HelloStateWithMutationLog();
+            assertTrue(dynamoExtension.readState(reference, readState).join());
+            assertEquals("write" + i, readState.lastName());
+            assertEquals(i, readState.sampleData.getNameProperties().get("key" + i));
+        }
+
+        // the first write and the fifth are snapshots, the fifth numbered after the three patches it replaced
+        final Map<String, AttributeValue> snapshot = getSnapshot(reference);
+        assertEquals("5", snapshot.get(DynamoDBMutationLog.FIELD_NAME_LOG_SEQUENCE).getN());
+
+        dynamoExtension.clearState(reference, state).join();
+        assertFalse(dynamoExtension.readState(reference, new HelloStateWithMutationLog()).join());
+    }
+
+    private Map<String, AttributeValue> getSnapshot(final RemoteReference<?> reference)
+    {
+        final Map<String, AttributeValue> key = DynamoDBUtils.createKey(dynamoDBConnection,
+                dynamoExtension.generateDocumentId(reference, HelloStateWithMutationLog.class));
+        final List<Map<String, AttributeValue>> items = dynamoDBConnection.getAsyncClient().query(new QueryRequest()
+                .withTableName(DEFAULT_TABLE_NAME)
+                .withConsistentRead(true)
+                .withKeyConditionExpression("#id = :id AND #decoration = :decoration")
+                .addExpressionAttributeNamesEntry("#id", DynamoDBUtils.FIELD_NAME_PRIMARY_ID)
+                .addExpressionAttributeNamesEntry("#decoration", DynamoDBUtils.FIELD_NAME_DECORATION)
+                .addExpressionAttributeValuesEntry(":id", key.get(DynamoDBUtils.FIELD_NAME_PRIMARY_ID))
+                .addExpressionAttributeValuesEntry(":decoration", key.get(DynamoDBUtils.FIELD_NAME_DECORATION))).getItems();
+        assertEquals(1, items.size());
+        return items.get(0);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.GlobalSecondaryIndexDescription;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBOwningTypeIndexTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBOwningTypeIndexTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withOwningTypeIndexEnabled(true)
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testQueryActorsByOwningType()
+    {
+        createStage();
+
+        for (int i = 0; i < 50; i++)
+        {
+            final HelloState state = new HelloState();
+            state.lastName = "name" + i;
+            dynamoExtension.writeState((RemoteReference<?>) Actor.getReference(Hello.class, "query" + i), state).join();
+
+            // same table, different owning type
+            dynamoExtension.writeState((RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, "other" + i), state, HelloState.class).join();
+        }
+
+        final Set<Hello> actors = new HashSet<>();
+        String pageToken = null;
+        int pages = 0;
+        do
+        {
+            final DynamoDBActorPage<Hello> page = dynamoExtension.queryActors(Hello.class, HelloState.class, pageToken, 7).join();
+            for (final Hello actor : page.getActors())
+            {
+                assertTrue(String.valueOf(RemoteReference.getId((RemoteReference<?>) actor)).startsWith("query"));
+                actors.add(actor);
+            }
+            pageToken = page.getNextPageToken();
+            pages++;
+        }
+        while (pageToken != null);
+
+        assertEquals(50, actors.size());
+        assertTrue(pages >= 8);
+    }
+
+    @Test
+    public void testIndexProjectsExpiry()
+    {
+        createStage();
+
+        final GlobalSecondaryIndexDescription index = dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME)
+                .getTable().getGlobalSecondaryIndexes().stream()
+                .filter(description -> description.getIndexName().equals(DynamoDBUtils.OWNING_TYPE_INDEX_NAME))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertTrue(index.getProjection().getNonKeyAttributes().contains(DynamoDBUtils.FIELD_NAME_EXPIRES_AT));
+    }
+}
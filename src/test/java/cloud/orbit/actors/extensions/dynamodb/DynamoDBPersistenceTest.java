@@ -68,7 +68,7 @@ public class DynamoDBPersistenceTest extends StorageBaseTest
     private static final String DEFAULT_TABLE_NAME = "orbit-test";
 
     private DynamoDBConnection dynamoDBConnection;
-    private DynamoDBConfiguration dynamoDBConfiguration;
+    protected DynamoDBConfiguration dynamoDBConfiguration;
     private DynamoDBStorageExtension dynamoExtension;
 
 
@@ -115,8 +115,8 @@ public class DynamoDBPersistenceTest extends StorageBaseTest
     {
         try
         {
-            dynamoDBConnection.getDynamoClient().describeTable(getTableName());
-            dynamoDBConnection.getDynamoClient().deleteTable(getTableName());
+            dynamoDBConnection.getAsyncClient().describeTable(getTableName());
+            dynamoDBConnection.getAsyncClient().deleteTable(getTableName());
         }
         catch(ResourceNotFoundException e)
         {
@@ -351,7 +351,7 @@ public class DynamoDBPersistenceTest extends StorageBaseTest
         {
             while (true)
             {
-                final DescribeTableResult describe = dynamoDBConnection.getDynamoClient().describeTable(tableName);
+                final DescribeTableResult describe = dynamoDBConnection.getAsyncClient().describeTable(tableName);
                 if (describe.getTable().getTableStatus().equals(TableStatus.ACTIVE.name()))
                 {
                     return;
@@ -0,0 +1,215 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+
+import cloud.orbit.concurrent.Task;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBReadCoalescerTest
+{
+    private static final String TABLE_NAME = "orbit-read-coalescer-test";
+    private static final String ITEM_ID = "actor/state";
+
+    /**
+     * Reads the item when the request is sent, as DynamoDB does, but holds the response until the gate opens.
+     */
+    private static class GatedTransport extends DynamoDBInMemoryTransport
+    {
+        private final AtomicInteger getItemRequests = new AtomicInteger();
+        private volatile CompletableFuture<Void> gate = CompletableFuture.completedFuture(null);
+        private volatile RuntimeException failure;
+
+        @Override
+        public Future<GetItemResult> getItemAsync(final GetItemRequest request, final AsyncHandler<GetItemRequest, GetItemResult> asyncHandler)
+        {
+            getItemRequests.incrementAndGet();
+            final CompletableFuture<GetItemResult> future = new CompletableFuture<>();
+            final RuntimeException error = failure;
+            final GetItemResult result = error == null ? getItem(request) : null;
+
+            gate.thenRun(() ->
+            {
+                if (error != null)
+                {
+                    asyncHandler.onError(error);
+                    future.completeExceptionally(error);
+                }
+                else
+                {
+                    asyncHandler.onSuccess(request, result);
+                    future.complete(result);
+                }
+            });
+            return future;
+        }
+    }
+
+    private GatedTransport transport;
+    private DynamoDBConnection connection;
+    private DynamoDBReadCoalescer readCoalescer;
+
+    @Before
+    public void setup()
+    {
+        transport = new GatedTransport();
+        connection = new DynamoDBConnection(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .build());
+        DynamoDBUtils.getTable(connection, TABLE_NAME).join();
+        readCoalescer = new DynamoDBReadCoalescer(connection);
+        putState("first");
+    }
+
+    @After
+    public void tearDown()
+    {
+        connection.close();
+    }
+
+    @Test
+    public void testConcurrentReadsJoin()
+    {
+        transport.gate = new CompletableFuture<>();
+        final Task<Item> first = readCoalescer.read(TABLE_NAME, ITEM_ID);
+        final Task<Item> second = readCoalescer.read(TABLE_NAME, ITEM_ID);
+        assertFalse(first.isDone());
+
+        transport.gate.complete(null);
+        assertEquals("first", first.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+        assertEquals("first", second.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+        assertEquals(1, transport.getItemRequests.get());
+
+        // the shared read is over, so the next read sends its own request
+        readCoalescer.read(TABLE_NAME, ITEM_ID).join();
+        assertEquals(2, transport.getItemRequests.get());
+    }
+
+    @Test
+    public void testReadsDoNotJoinShorterDeadlines()
+    {
+        transport.gate = new CompletableFuture<>();
+        final Task<Item> shortDeadline = readCoalescer.read(TABLE_NAME, ITEM_ID, context(DynamoDBDeadline.after(1000)));
+        final Task<Item> noDeadline = readCoalescer.read(TABLE_NAME, ITEM_ID, context(DynamoDBDeadline.NONE));
+        final Task<Item> laterDeadline = readCoalescer.read(TABLE_NAME, ITEM_ID, context(DynamoDBDeadline.after(60000)));
+
+        transport.gate.complete(null);
+        for (final Task<Item> read : Arrays.asList(shortDeadline, noDeadline, laterDeadline))
+        {
+            assertEquals("first", read.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+        }
+        // the read without a deadline does not join the first, the last joins the one without a deadline
+        assertEquals(2, transport.getItemRequests.get());
+    }
+
+    @Test
+    public void testReadsDoNotJoinAcrossWrites()
+    {
+        transport.gate = new CompletableFuture<>();
+        final Task<Item> beforeWrite = readCoalescer.read(TABLE_NAME, ITEM_ID);
+
+        final Task<Void> writeSent = new Task<>();
+        final Task<Void> written = readCoalescer.invalidateDuring(TABLE_NAME, ITEM_ID, () -> writeSent);
+        final Task<Item> duringWrite = readCoalescer.read(TABLE_NAME, ITEM_ID);
+
+        putState("second");
+        writeSent.complete(null);
+        written.join();
+        final Task<Item> afterWrite = readCoalescer.read(TABLE_NAME, ITEM_ID);
+
+        transport.gate.complete(null);
+        assertEquals(3, transport.getItemRequests.get());
+        assertEquals("first", beforeWrite.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+        assertEquals("first", duringWrite.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+        assertEquals("second", afterWrite.join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+    }
+
+    @Test
+    public void testErrorsReachEveryJoinedRead()
+    {
+        transport.gate = new CompletableFuture<>();
+        transport.failure = new InternalServerErrorException("injected");
+        final Task<Item> first = readCoalescer.read(TABLE_NAME, ITEM_ID);
+        final Task<Item> second = readCoalescer.read(TABLE_NAME, ITEM_ID);
+
+        transport.failure = null;
+        transport.gate.complete(null);
+        for (final Task<Item> read : Arrays.asList(first, second))
+        {
+            try
+            {
+                read.join();
+                fail();
+            }
+            catch (CompletionException e)
+            {
+                assertTrue(e.getCause() instanceof InternalServerErrorException);
+            }
+        }
+        assertEquals(1, transport.getItemRequests.get());
+
+        // a failed read is not shared with the reads after it
+        assertEquals("first", readCoalescer.read(TABLE_NAME, ITEM_ID).join().getString(DynamoDBUtils.FIELD_NAME_DATA));
+    }
+
+    private static DynamoDBOperationContext context(final DynamoDBDeadline deadline)
+    {
+        return new DynamoDBOperationContext(deadline, false, null, null);
+    }
+
+    private void putState(final String state)
+    {
+        final Map<String, AttributeValue> item = new HashMap<>(DynamoDBUtils.createKey(connection, ITEM_ID));
+        item.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue(state));
+        transport.putItem(new PutItemRequest(TABLE_NAME, item));
+    }
+}
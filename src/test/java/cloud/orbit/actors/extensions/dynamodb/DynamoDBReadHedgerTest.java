@@ -0,0 +1,113 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBReadHedgerTest
+{
+    private static final String TABLE_NAME = "orbit-hedge-test";
+    private static final String ITEM_ID = "hedged";
+
+    private DynamoDBConnection dynamoDBConnection;
+
+    @Before
+    public void setup()
+    {
+        // hedging any read slower than the fastest one, with a budget for every read
+        dynamoDBConnection = new DynamoDBConnection(new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withHedgePercentile(0)
+                .withHedgeMinDelayMillis(0)
+                .withHedgeBudgetPercent(100)
+                .build());
+
+        deleteTable();
+        DynamoDBUtils.getTable(dynamoDBConnection, TABLE_NAME).join();
+    }
+
+    @After
+    public void after()
+    {
+        deleteTable();
+        dynamoDBConnection.close();
+    }
+
+    private void deleteTable()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+        DynamoDBUtils.evictTables(dynamoDBConnection);
+    }
+
+    @Test
+    public void testSlowReadsAreHedged()
+    {
+        final Map<String, AttributeValue> item = new HashMap<>(DynamoDBUtils.createKey(dynamoDBConnection, ITEM_ID));
+        item.put("value", new AttributeValue("hedged"));
+        DynamoDBUtils.putItem(dynamoDBConnection, new PutItemRequest(TABLE_NAME, item)).join();
+
+        final DynamoDBReadHedger hedger = new DynamoDBReadHedger(dynamoDBConnection);
+        for (int i = 0; i < 500; i++)
+        {
+            final GetItemResult result = hedger.getItem(TABLE_NAME, new GetItemRequest()
+                    .withTableName(TABLE_NAME)
+                    .withKey(DynamoDBUtils.createKey(dynamoDBConnection, ITEM_ID))
+                    .withConsistentRead(true), DynamoDBDeadline.NONE).join();
+            assertEquals("hedged", result.getItem().get("value").getS());
+        }
+
+        assertTrue(hedger.getHedgesSent() > 0);
+        assertTrue(hedger.getHedgesWon() <= hedger.getHedgesSent());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class DynamoDBScanStatesTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBScanStatesTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testScanStates()
+    {
+        createStage();
+
+        for (int i = 0; i < 50; i++)
+        {
+            final HelloState state = new HelloState();
+            state.lastName = "name" + i;
+            dynamoExtension.writeState((RemoteReference<?>) Actor.getReference(Hello.class, "scan" + i), state).join();
+
+            // same table, different owning type
+            final HelloState otherState = new HelloState();
+            otherState.lastName = "other" + i;
+            dynamoExtension.writeState((RemoteReference<?>) Actor.getReference(HelloWithCoalescedWrites.class, "scan" + i), otherState, HelloState.class).join();
+        }
+
+        final DynamoDBScanOptions scanOptions = new DynamoDBScanOptions.Builder()
+                .withTotalSegments(3)
+                .withPageSize(7)
+                .withBufferedPages(2)
+                .build();
+
+        try (Stream<DynamoDBScannedState<HelloState>> states = dynamoExtension.scanStates(Hello.class, HelloState.class, scanOptions))
+        {
+            final Set<String> scanned = states
+                    .map(scannedState ->
+                    {
+                        assertEquals(scannedState.getActorId().replace("scan", "name"), scannedState.getState().lastName());
+                        return scannedState.getActorId();
+                    })
+                    .collect(Collectors.toSet());
+
+            assertEquals(50, scanned.size());
+        }
+    }
+}
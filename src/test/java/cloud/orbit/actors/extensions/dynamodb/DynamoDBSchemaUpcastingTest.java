@@ -0,0 +1,184 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBSchemaUpcastingTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    @DynamoDBStateConfiguration(idDecorationOverride = "Person")
+    public static class PersonStateV0
+    {
+        public String name;
+    }
+
+    @DynamoDBStateConfiguration(idDecorationOverride = "Person", schemaVersion = 1)
+    public static class PersonStateV1
+    {
+        public String firstName;
+        public String lastName;
+    }
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBSchemaUpcastingTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withSchemaRegistry(new DynamoDBSchemaRegistry().register(PersonStateV1.class, 0, state ->
+                {
+                    final String[] names = state.get("name").asText().split(" ", 2);
+                    final ObjectNode upcast = (ObjectNode) state;
+                    upcast.remove("name");
+                    upcast.put("firstName", names[0]);
+                    upcast.put("lastName", names[1]);
+                    return upcast;
+                }))
+                .withSchemaUpgradeUnitsPerSecond(100)
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testOldStatesAreUpcastOnReadAndUpgraded() throws InterruptedException
+    {
+        createStage();
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "upcast");
+        final PersonStateV0 oldState = new PersonStateV0();
+        oldState.name = "Ada Lovelace";
+        dynamoExtension.writeState(reference, oldState).join();
+        assertNull(getItem(reference).get(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION));
+
+        final PersonStateV1 state = new PersonStateV1();
+        assertTrue(dynamoExtension.readState(reference, state).join());
+        assertEquals("Ada", state.firstName);
+        assertEquals("Lovelace", state.lastName);
+
+        // the read rewrites the state in its new shape in the background
+        for (int i = 0; i < 50 && getItem(reference).get(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION) == null; i++)
+        {
+            Thread.sleep(100);
+        }
+        final Map<String, AttributeValue> upgraded = getItem(reference);
+        assertEquals("1", upgraded.get(DynamoDBUtils.FIELD_NAME_SCHEMA_VERSION).getN());
+
+        final PersonStateV1 upgradedState = new PersonStateV1();
+        assertTrue(dynamoExtension.readState(reference, upgradedState).join());
+        assertEquals("Ada", upgradedState.firstName);
+        assertEquals("Lovelace", upgradedState.lastName);
+    }
+
+    @Test
+    public void testMissingUpcasterFails()
+    {
+        final DynamoDBSchemaRegistry registry = new DynamoDBSchemaRegistry();
+        try
+        {
+            registry.upcast(PersonStateV1.class, 0, JsonNodeFactory.instance.objectNode());
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    private Map<String, AttributeValue> getItem(final RemoteReference<?> reference)
+    {
+        return dynamoDBConnection.getAsyncClient().getItem(new GetItemRequest()
+                .withTableName(DEFAULT_TABLE_NAME)
+                .withKey(DynamoDBUtils.createKey(dynamoDBConnection, dynamoExtension.generateDocumentId(reference, PersonStateV1.class)))
+                .withConsistentRead(true)).getItem();
+    }
+}
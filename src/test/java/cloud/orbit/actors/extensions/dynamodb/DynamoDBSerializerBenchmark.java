@@ -0,0 +1,431 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares reflective and generated state serializers on a wide state class, with public fields, private fields
+ * and accessors, since the gain of generated accessors depends on which of them a state class uses.
+ * Run with the test classpath: {@code java -cp ... cloud.orbit.actors.extensions.dynamodb.DynamoDBSerializerBenchmark}
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class DynamoDBSerializerBenchmark
+{
+    /**
+     * Public fields, the best case for generated accessors.
+     */
+    public static class WideState
+    {
+        public String name0 = "name";
+        public String name1 = "";
+        public String name2 = "a somewhat longer name";
+        public String name3 = "name";
+        public String name4 = "name";
+        public int count0 = 1;
+        public int count1 = 2;
+        public int count2 = 3;
+        public int count3 = 4;
+        public int count4 = 5;
+        public long total0 = 10000000000L;
+        public long total1 = 20000000000L;
+        public long total2 = 30000000000L;
+        public double ratio0 = 0.5;
+        public double ratio1 = 0.25;
+        public boolean flag0 = true;
+        public boolean flag1 = false;
+        public byte[] bytes = new byte[]{ 1, 2, 3, 4 };
+        public List<String> tags = new ArrayList<>(Arrays.asList("first", "second"));
+        public HelloDto dto = new HelloDto();
+    }
+
+    /**
+     * Private fields, which generated accessors cannot reach and leave reflective, as in most actor states.
+     */
+    public static class PrivateWideState
+    {
+        private String name0 = "name";
+        private String name1 = "";
+        private String name2 = "a somewhat longer name";
+        private String name3 = "name";
+        private String name4 = "name";
+        private int count0 = 1;
+        private int count1 = 2;
+        private int count2 = 3;
+        private int count3 = 4;
+        private int count4 = 5;
+        private long total0 = 10000000000L;
+        private long total1 = 20000000000L;
+        private long total2 = 30000000000L;
+        private double ratio0 = 0.5;
+        private double ratio1 = 0.25;
+        private boolean flag0 = true;
+        private boolean flag1 = false;
+        private byte[] bytes = new byte[]{ 1, 2, 3, 4 };
+        private List<String> tags = new ArrayList<>(Arrays.asList("first", "second"));
+        private HelloDto dto = new HelloDto();
+    }
+
+    /**
+     * Private fields behind getters and setters, serialized through the accessors by a mapper configured for them.
+     */
+    public static class GetterWideState
+    {
+        private String name0 = "name";
+        private String name1 = "";
+        private String name2 = "a somewhat longer name";
+        private String name3 = "name";
+        private String name4 = "name";
+        private int count0 = 1;
+        private int count1 = 2;
+        private int count2 = 3;
+        private int count3 = 4;
+        private int count4 = 5;
+        private long total0 = 10000000000L;
+        private long total1 = 20000000000L;
+        private long total2 = 30000000000L;
+        private double ratio0 = 0.5;
+        private double ratio1 = 0.25;
+        private boolean flag0 = true;
+        private boolean flag1 = false;
+        private byte[] bytes = new byte[]{ 1, 2, 3, 4 };
+        private List<String> tags = new ArrayList<>(Arrays.asList("first", "second"));
+        private HelloDto dto = new HelloDto();
+
+        public String getName0()
+        {
+            return name0;
+        }
+
+        public void setName0(final String name0)
+        {
+            this.name0 = name0;
+        }
+
+        public String getName1()
+        {
+            return name1;
+        }
+
+        public void setName1(final String name1)
+        {
+            this.name1 = name1;
+        }
+
+        public String getName2()
+        {
+            return name2;
+        }
+
+        public void setName2(final String name2)
+        {
+            this.name2 = name2;
+        }
+
+        public String getName3()
+        {
+            return name3;
+        }
+
+        public void setName3(final String name3)
+        {
+            this.name3 = name3;
+        }
+
+        public String getName4()
+        {
+            return name4;
+        }
+
+        public void setName4(final String name4)
+        {
+            this.name4 = name4;
+        }
+
+        public int getCount0()
+        {
+            return count0;
+        }
+
+        public void setCount0(final int count0)
+        {
+            this.count0 = count0;
+        }
+
+        public int getCount1()
+        {
+            return count1;
+        }
+
+        public void setCount1(final int count1)
+        {
+            this.count1 = count1;
+        }
+
+        public int getCount2()
+        {
+            return count2;
+        }
+
+        public void setCount2(final int count2)
+        {
+            this.count2 = count2;
+        }
+
+        public int getCount3()
+        {
+            return count3;
+        }
+
+        public void setCount3(final int count3)
+        {
+            this.count3 = count3;
+        }
+
+        public int getCount4()
+        {
+            return count4;
+        }
+
+        public void setCount4(final int count4)
+        {
+            this.count4 = count4;
+        }
+
+        public long getTotal0()
+        {
+            return total0;
+        }
+
+        public void setTotal0(final long total0)
+        {
+            this.total0 = total0;
+        }
+
+        public long getTotal1()
+        {
+            return total1;
+        }
+
+        public void setTotal1(final long total1)
+        {
+            this.total1 = total1;
+        }
+
+        public long getTotal2()
+        {
+            return total2;
+        }
+
+        public void setTotal2(final long total2)
+        {
+            this.total2 = total2;
+        }
+
+        public double getRatio0()
+        {
+            return ratio0;
+        }
+
+        public void setRatio0(final double ratio0)
+        {
+            this.ratio0 = ratio0;
+        }
+
+        public double getRatio1()
+        {
+            return ratio1;
+        }
+
+        public void setRatio1(final double ratio1)
+        {
+            this.ratio1 = ratio1;
+        }
+
+        public boolean isFlag0()
+        {
+            return flag0;
+        }
+
+        public void setFlag0(final boolean flag0)
+        {
+            this.flag0 = flag0;
+        }
+
+        public boolean isFlag1()
+        {
+            return flag1;
+        }
+
+        public void setFlag1(final boolean flag1)
+        {
+            this.flag1 = flag1;
+        }
+
+        public byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        public void setBytes(final byte[] bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        public List<String> getTags()
+        {
+            return tags;
+        }
+
+        public void setTags(final List<String> tags)
+        {
+            this.tags = tags;
+        }
+
+        public HelloDto getDto()
+        {
+            return dto;
+        }
+
+        public void setDto(final HelloDto dto)
+        {
+            this.dto = dto;
+        }
+    }
+
+    public enum Shape
+    {
+        PUBLIC_FIELDS,
+        PRIVATE_FIELDS,
+        GETTERS
+    }
+
+    @Param({ "false", "true" })
+    public boolean generated;
+
+    @Param({ "PUBLIC_FIELDS", "PRIVATE_FIELDS", "GETTERS" })
+    public Shape shape;
+
+    private DynamoDBConnection connection;
+    private ObjectMapper mapper;
+    private Class<?> stateClass;
+    private Object state;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        connection = new DynamoDBConnection(new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withGeneratedSerializersEnabled(generated)
+                .withMapperConfigurer(shape == Shape.GETTERS ? DynamoDBSerializerBenchmark::useAccessors : null)
+                .build());
+        mapper = connection.getMapper();
+        stateClass = shape == Shape.PUBLIC_FIELDS ? WideState.class
+                : shape == Shape.PRIVATE_FIELDS ? PrivateWideState.class
+                : GetterWideState.class;
+        state = newState();
+        json = mapper.writeValueAsString(state);
+    }
+
+    private static ObjectMapper useAccessors(final ObjectMapper mapper)
+    {
+        return mapper.setVisibility(mapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.NONE)
+                .withGetterVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY)
+                .withSetterVisibility(JsonAutoDetect.Visibility.PUBLIC_ONLY));
+    }
+
+    private Object newState()
+    {
+        try
+        {
+            return stateClass.newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        connection.close();
+    }
+
+    @Benchmark
+    public String write() throws IOException
+    {
+        return mapper.writeValueAsString(state);
+    }
+
+    @Benchmark
+    public Object read() throws IOException
+    {
+        return mapper.readValue(json, stateClass);
+    }
+
+    @Benchmark
+    public Object readForUpdating() throws IOException
+    {
+        return mapper.readerForUpdating(newState()).readValue(json);
+    }
+
+    public static void main(final String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder().include(DynamoDBSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBShardedTableResolverTest
+{
+    @Test
+    public void testResolutionIsStable()
+    {
+        final DynamoDBTableResolver resolver = new DynamoDBShardedTableResolver.Builder()
+                .withShardedTable("orbit", 8)
+                .withConnectionCount(3)
+                .build();
+
+        for (int i = 0; i < 1000; i++)
+        {
+            final DynamoDBTableShard shard = resolver.resolve("orbit", "actor" + i);
+            assertSame(shard, resolver.resolve("orbit", "actor" + i));
+            assertTrue(resolver.getShards("orbit").contains(shard));
+        }
+
+        assertEquals(8, resolver.getShards("orbit").size());
+        assertEquals("orbit", resolver.getShards("orbit").get(0).getTableName());
+        assertEquals("orbit-5", resolver.getShards("orbit").get(5).getTableName());
+        assertEquals(2, resolver.getShards("orbit").get(5).getConnectionIndex());
+        assertEquals(new DynamoDBTableShard("other", 0), resolver.resolve("other", "actor"));
+    }
+
+    @Test
+    public void testGrowingMovesOnlyToNewShards()
+    {
+        final DynamoDBTableResolver before = new DynamoDBShardedTableResolver.Builder().withShardedTable("orbit", 4).build();
+        final DynamoDBTableResolver after = new DynamoDBShardedTableResolver.Builder().withShardedTable("orbit", 5).build();
+
+        final int[] counts = new int[5];
+        int moved = 0;
+        for (int i = 0; i < 10000; i++)
+        {
+            final DynamoDBTableShard previous = before.resolve("orbit", "actor" + i);
+            final DynamoDBTableShard current = after.resolve("orbit", "actor" + i);
+            if (!previous.equals(current))
+            {
+                assertEquals("orbit-4", current.getTableName());
+                moved++;
+            }
+            counts[after.getShards("orbit").indexOf(current)]++;
+        }
+
+        // about a fifth moves, and every shard ends up with about a fifth
+        assertTrue(moved > 1700 && moved < 2300);
+        for (final int count : counts)
+        {
+            assertTrue(count > 1700 && count < 2300);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBShardingTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBShardingTest()
+    {
+        dynamoExtension = new DynamoDBStorageExtension(createConfiguration(4));
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    private static DynamoDBConfiguration createConfiguration(final int shardCount)
+    {
+        return new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withTableResolver(createResolver(shardCount))
+                .build();
+    }
+
+    private static DynamoDBTableResolver createResolver(final int shardCount)
+    {
+        return new DynamoDBShardedTableResolver.Builder()
+                .withShardedTable(DEFAULT_TABLE_NAME, shardCount)
+                .build();
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(createConfiguration(1));
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        for (final String tableName : new String[]{ DEFAULT_TABLE_NAME, DEFAULT_TABLE_NAME + "-1", DEFAULT_TABLE_NAME + "-2", DEFAULT_TABLE_NAME + "-3" })
+        {
+            try
+            {
+                dynamoDBConnection.getAsyncClient().describeTable(tableName);
+                dynamoDBConnection.getAsyncClient().deleteTable(tableName);
+            }
+            catch (ResourceNotFoundException e)
+            {
+
+            }
+        }
+    }
+
+    @Test
+    public void testShardedStatesAndRebalancing() throws Exception
+    {
+        createStage();
+
+        // written with three shards, then read with four after rebalancing
+        final DynamoDBStorageExtension previousExtension = new DynamoDBStorageExtension(createConfiguration(3));
+        previousExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        previousExtension.start().join();
+
+        final Set<String> tables = new HashSet<>();
+        for (int i = 0; i < 60; i++)
+        {
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "shard" + i);
+            final HelloState state = new HelloState();
+            state.lastName = "name" + i;
+            previousExtension.writeState(reference, state).join();
+            tables.add(previousExtension.getTableShard(reference, HelloState.class).getTableName());
+        }
+        assertEquals(3, tables.size());
+        previousExtension.stop().join();
+
+        final DynamoDBShardRebalancer rebalancer = dynamoExtension.createRebalancer(DEFAULT_TABLE_NAME, createResolver(3), 0);
+        rebalancer.rebalance();
+        assertEquals(60, rebalancer.getScannedItems());
+        assertTrue(rebalancer.getMovedItems() > 0 && rebalancer.getMovedItems() < 30);
+
+        for (int i = 0; i < 60; i++)
+        {
+            final HelloState state = new HelloState();
+            assertTrue(dynamoExtension.readState((RemoteReference<?>) Actor.getReference(Hello.class, "shard" + i), state).join());
+            assertEquals("name" + i, state.lastName());
+        }
+
+        try (Stream<DynamoDBScannedState<HelloState>> states = dynamoExtension.scanStates(Hello.class, HelloState.class))
+        {
+            assertEquals(60, states.count());
+        }
+    }
+}
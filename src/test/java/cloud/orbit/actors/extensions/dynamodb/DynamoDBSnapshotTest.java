@@ -0,0 +1,151 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DynamoDBSnapshotTest
+{
+    private static final String SOURCE_TABLE_NAME = "orbit-snapshot-source";
+    private static final String TARGET_TABLE_NAME = "orbit-snapshot-target";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DynamoDBConnection dynamoDBConnection;
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .build());
+
+        deleteTable(SOURCE_TABLE_NAME);
+        deleteTable(TARGET_TABLE_NAME);
+    }
+
+    @After
+    public void after()
+    {
+        deleteTable(SOURCE_TABLE_NAME);
+        deleteTable(TARGET_TABLE_NAME);
+        dynamoDBConnection.close();
+    }
+
+    private void deleteTable(final String tableName)
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(tableName);
+            dynamoDBConnection.getAsyncClient().deleteTable(tableName);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testAttributeCodecRoundTrip()
+    {
+        final Map<String, AttributeValue> item = new HashMap<>();
+        item.put("s", new AttributeValue().withS("text"));
+        item.put("n", new AttributeValue().withN("12.5"));
+        item.put("b", new AttributeValue().withB(ByteBuffer.wrap(new byte[]{ 1, 2, 3 })));
+        item.put("bool", new AttributeValue().withBOOL(true));
+        item.put("null", new AttributeValue().withNULL(true));
+        item.put("ss", new AttributeValue().withSS("a", "b"));
+        item.put("ns", new AttributeValue().withNS("1", "2"));
+        item.put("m", new AttributeValue().withM(Collections.singletonMap("inner", new AttributeValue().withS("value"))));
+        item.put("l", new AttributeValue().withL(new AttributeValue().withN("1"), new AttributeValue().withS("two")));
+
+        assertEquals(item, DynamoDBAttributeCodec.decodeItem(DynamoDBAttributeCodec.encodeItem(item)));
+    }
+
+    @Test
+    public void testExportImportRoundTrip() throws Exception
+    {
+        DynamoDBUtils.getTable(dynamoDBConnection, SOURCE_TABLE_NAME).join();
+        for (int i = 0; i < 250; i++)
+        {
+            final Map<String, AttributeValue> item = new HashMap<>();
+            item.put(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, new AttributeValue().withS("snapshot" + i));
+            item.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue().withM(Collections.singletonMap("index", new AttributeValue().withN(Integer.toString(i)))));
+            item.put("tags", new AttributeValue().withSS(Arrays.asList("a" + i, "b" + i)));
+            dynamoDBConnection.getAsyncClient().putItem(SOURCE_TABLE_NAME, item);
+        }
+
+        final Path directory = temporaryFolder.newFolder().toPath();
+
+        final DynamoDBSnapshotExporter exporter = new DynamoDBSnapshotExporter(dynamoDBConnection, SOURCE_TABLE_NAME, directory, 3, 40, 0);
+        exporter.export();
+        assertEquals(250, exporter.getExportedItems());
+
+        // a second run resumes from the completed checkpoints without scanning again
+        final DynamoDBSnapshotExporter resumedExporter = new DynamoDBSnapshotExporter(dynamoDBConnection, SOURCE_TABLE_NAME, directory, 3, 40, 0);
+        resumedExporter.export();
+        assertEquals(250, resumedExporter.getExportedItems());
+
+        final DynamoDBSnapshotImporter importer = new DynamoDBSnapshotImporter(dynamoDBConnection, TARGET_TABLE_NAME, directory, 2, 0);
+        importer.importSnapshot();
+        assertEquals(250, importer.getImportedItems());
+
+        final DynamoDBSnapshotImporter resumedImporter = new DynamoDBSnapshotImporter(dynamoDBConnection, TARGET_TABLE_NAME, directory, 2, 0);
+        resumedImporter.importSnapshot();
+        assertEquals(0, resumedImporter.getImportedItems());
+
+        for (final Map<String, AttributeValue> item : dynamoDBConnection.getAsyncClient().scan(new ScanRequest(SOURCE_TABLE_NAME)).getItems())
+        {
+            assertEquals(item, dynamoDBConnection.getAsyncClient()
+                    .getItem(TARGET_TABLE_NAME, Collections.singletonMap(DynamoDBUtils.FIELD_NAME_PRIMARY_ID, item.get(DynamoDBUtils.FIELD_NAME_PRIMARY_ID)))
+                    .getItem());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBStreamInvalidationTest extends DynamoDBPersistenceTest
+{
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    public DynamoDBStreamInvalidationTest()
+    {
+        dynamoDBConfiguration.setExistenceFilterEnabled(true);
+        dynamoDBConfiguration.setStreamInvalidationEnabled(true);
+        dynamoDBConfiguration.setStreamPollMillis(100);
+    }
+
+    @Test
+    public void testWriteFromAnotherNodeIsSeen() throws InterruptedException
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        extension.refreshExistenceFilter(getTableName()).join();
+
+        // once this node reads its own write back from the stream, it is positioned before any other node's
+        final HelloState ownState = new HelloState();
+        ownState.lastName = "own";
+        extension.writeState((RemoteReference<?>) Actor.getReference(Hello.class, "ownWrite"), ownState).join();
+        awaitTrue(() -> extension.getStreamRecordsProcessed() > 0);
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "otherNode");
+        assertFalse(extension.readState(reference, new HelloState()).join());
+
+        final DynamoDBStorageExtension otherNode = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        otherNode.setDefaultTableName(getTableName());
+        otherNode.start().join();
+        try
+        {
+            final HelloState state = new HelloState();
+            state.lastName = "other";
+            otherNode.writeState(reference, state).join();
+        }
+        finally
+        {
+            otherNode.stop().join();
+        }
+
+        awaitTrue(() -> extension.readState(reference, new HelloState()).join());
+
+        final HelloState readState = new HelloState();
+        extension.readState(reference, readState).join();
+        assertEquals("other", readState.lastName);
+        assertEquals(0, extension.getStreamLagMillis());
+    }
+
+    private static void awaitTrue(final BooleanSupplier condition) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean())
+        {
+            assertTrue("Timed out waiting for the stream", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+}
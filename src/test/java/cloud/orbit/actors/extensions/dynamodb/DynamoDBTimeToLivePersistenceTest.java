@@ -0,0 +1,70 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.StorageTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBTimeToLivePersistenceTest extends DynamoDBPersistenceTest
+{
+    @Override
+    public Class<? extends StorageTest> getActorInterfaceClass()
+    {
+        return HelloWithTimeToLive.class;
+    }
+
+    @Test
+    public void testExpiredStateReadsAsAbsent()
+    {
+        createStage();
+
+        final String actorId = "expiring";
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(HelloWithTimeToLive.class, actorId);
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+
+        final HelloStateWithTimeToLive state = new HelloStateWithTimeToLive();
+        state.lastName = "alive";
+        extension.writeState(reference, state).join();
+        assertTrue(extension.readState(reference, new HelloStateWithTimeToLive()).join());
+
+        state.lastName = HelloStateWithTimeToLive.EXPIRED_NAME;
+        extension.writeState(reference, state).join();
+
+        // the item is still in the table until DynamoDB's background deletion gets to it
+        assertEquals(HelloWithTimeToLive.class.getName(), readOwningType(actorId));
+        assertFalse(extension.readState(reference, new HelloStateWithTimeToLive()).join());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBTracingPersistenceTest extends DynamoDBPersistenceTest
+{
+    private final List<DynamoDBSpan> spans = new CopyOnWriteArrayList<>();
+
+    public DynamoDBTracingPersistenceTest()
+    {
+        dynamoDBConfiguration.setTraceSampleRate(1);
+        dynamoDBConfiguration.setTraceSink(spans::add);
+    }
+
+    @Test
+    public void testOperationsAreTracedByStage()
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "traced");
+        final HelloState state = new HelloState();
+        state.lastName = "traced";
+
+        spans.clear();
+        extension.writeState(reference, state).join();
+        assertTrue(extension.readState(reference, new HelloState()).join());
+
+        assertEquals(2, spans.size());
+        final DynamoDBSpan write = spans.get(0);
+        assertEquals("writeState", write.getName());
+        assertEquals(getTableName(), write.getAttributes().get(DynamoDBSpan.ATTRIBUTE_TABLE_NAME));
+        assertEquals(HelloState.class.getName(), write.getAttributes().get(DynamoDBSpan.ATTRIBUTE_STATE_CLASS));
+        assertEquals(EnumSet.of(DynamoDBTraceStage.RESOLVE, DynamoDBTraceStage.SERIALIZE, DynamoDBTraceStage.NETWORK), getStages(write));
+        assertNull(write.getError());
+
+        final DynamoDBSpan read = spans.get(1);
+        assertEquals("readState", read.getName());
+        assertEquals(EnumSet.of(DynamoDBTraceStage.RESOLVE, DynamoDBTraceStage.QUEUE, DynamoDBTraceStage.NETWORK,
+                DynamoDBTraceStage.CALLBACK, DynamoDBTraceStage.DESERIALIZE), getStages(read));
+
+        long stagesNanos = 0;
+        for (final DynamoDBSpan.Stage stage : read.getStages())
+        {
+            stagesNanos += stage.getDurationNanos();
+        }
+        assertTrue(stagesNanos <= read.getDurationNanos());
+    }
+
+    private static Set<DynamoDBTraceStage> getStages(final DynamoDBSpan span)
+    {
+        final Set<DynamoDBTraceStage> stages = EnumSet.noneOf(DynamoDBTraceStage.class);
+        for (final DynamoDBSpan.Stage stage : span.getStages())
+        {
+            stages.add(stage.getStage());
+        }
+        return stages;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Test;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.runtime.RemoteReference;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBTransactionTest extends DynamoDBPersistenceTest
+{
+    @Test
+    public void testCommitWritesAndClearsStates()
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> buyer = (RemoteReference<?>) Actor.getReference(Hello.class, "buyer");
+        final RemoteReference<?> seller = (RemoteReference<?>) Actor.getReference(Hello.class, "seller");
+
+        final List<Long> versions = extension.commitStates(Arrays.asList(
+                DynamoDBTransactionEntry.write(buyer, createState("sword")).ifAbsent(),
+                DynamoDBTransactionEntry.write(seller, createState("gold")).ifAbsent())).join();
+        assertNotNull(versions.get(0));
+        assertEquals(versions.get(0), extension.readVersion(buyer, HelloState.class).join());
+        assertEquals("sword", readLastName(extension, buyer));
+        assertEquals("gold", readLastName(extension, seller));
+
+        final List<Long> clearVersions = extension.commitStates(Arrays.asList(
+                DynamoDBTransactionEntry.clear(buyer, HelloState.class).ifVersion(versions.get(0)),
+                DynamoDBTransactionEntry.write(seller, createState("sword")).ifVersion(versions.get(1)))).join();
+        assertNull(clearVersions.get(0));
+        assertFalse(extension.readState(buyer, new HelloState()).join());
+        assertNull(extension.readVersion(buyer, HelloState.class).join());
+        assertEquals("sword", readLastName(extension, seller));
+    }
+
+    @Test
+    public void testFailedConditionWritesNothing()
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> buyer = (RemoteReference<?>) Actor.getReference(Hello.class, "buyer");
+        final RemoteReference<?> seller = (RemoteReference<?>) Actor.getReference(Hello.class, "seller");
+
+        final List<Long> versions = extension.commitStates(Arrays.asList(
+                DynamoDBTransactionEntry.write(buyer, createState("gold")),
+                DynamoDBTransactionEntry.write(seller, createState("sword")))).join();
+
+        // a plain write replaces the versioned item with an unversioned one
+        extension.writeState(buyer, createState("silver")).join();
+        assertEquals(Long.valueOf(DynamoDBTransactionEntry.UNVERSIONED), extension.readVersion(buyer, HelloState.class).join());
+
+        final DynamoDBTransactionEntry buyerEntry = DynamoDBTransactionEntry.write(buyer, createState("sword")).ifVersion(versions.get(0));
+        final DynamoDBTransactionEntry sellerEntry = DynamoDBTransactionEntry.write(seller, createState("gold")).ifVersion(versions.get(1));
+        try
+        {
+            extension.commitStates(Arrays.asList(buyerEntry, sellerEntry)).join();
+            fail("The transaction should have been cancelled");
+        }
+        catch (CompletionException e)
+        {
+            assertTrue(e.getCause() instanceof DynamoDBTransactionConflictException);
+            final DynamoDBTransactionConflictException conflict = (DynamoDBTransactionConflictException) e.getCause();
+            assertEquals(1, conflict.getFailedConditions().size());
+            assertSame(buyerEntry, conflict.getFailedConditions().get(0));
+        }
+
+        assertEquals("silver", readLastName(extension, buyer));
+        assertEquals("sword", readLastName(extension, seller));
+
+        extension.commitStates(Collections.singletonList(
+                DynamoDBTransactionEntry.write(buyer, createState("sword")).ifVersion(DynamoDBTransactionEntry.UNVERSIONED))).join();
+        assertEquals("sword", readLastName(extension, buyer));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSameStateTwiceIsRejected()
+    {
+        createStage();
+
+        final DynamoDBStorageExtension extension = (DynamoDBStorageExtension) getStorageExtension();
+        final RemoteReference<?> buyer = (RemoteReference<?>) Actor.getReference(Hello.class, "buyer");
+
+        extension.commitStates(Arrays.asList(
+                DynamoDBTransactionEntry.write(buyer, createState("gold")),
+                DynamoDBTransactionEntry.clear(buyer, HelloState.class)));
+    }
+
+    private static HelloState createState(final String lastName)
+    {
+        final HelloState state = new HelloState();
+        state.lastName = lastName;
+        return state;
+    }
+
+    private static String readLastName(final DynamoDBStorageExtension extension, final RemoteReference<?> reference)
+    {
+        final HelloState state = new HelloState();
+        assertTrue(extension.readState(reference, state).join());
+        return state.lastName;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+
+import cloud.orbit.actors.Actor;
+import cloud.orbit.actors.Stage;
+import cloud.orbit.actors.extensions.StorageExtension;
+import cloud.orbit.actors.runtime.RemoteReference;
+import cloud.orbit.actors.test.ActorBaseTest;
+import cloud.orbit.concurrent.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DynamoDBTypeCodesTest extends ActorBaseTest
+{
+    private static final String DEFAULT_TABLE_NAME = "orbit-test";
+
+    private DynamoDBConnection dynamoDBConnection;
+    private DynamoDBConfiguration dynamoDBConfiguration;
+    private DynamoDBStorageExtension dynamoExtension;
+
+    public DynamoDBTypeCodesTest()
+    {
+        dynamoDBConfiguration = new DynamoDBConfiguration.Builder()
+                .withCredentialType(AmazonCredentialType.BASIC_CREDENTIALS)
+                .withAccessKey("dummy")
+                .withSecretKey("dummy")
+                .withEndpoint("http://localhost:35458/")
+                .withTypeCodes(new DynamoDBTypeCodes().register(HelloWithCoalescedWrites.class, "hc"))
+                .build();
+
+        dynamoExtension = new DynamoDBStorageExtension(dynamoDBConfiguration);
+        dynamoExtension.setDefaultTableName(DEFAULT_TABLE_NAME);
+    }
+
+    @Before
+    public void setup()
+    {
+        dynamoDBConnection = new DynamoDBConnection(dynamoDBConfiguration);
+
+        closeStorage();
+    }
+
+    @Override
+    protected void installExtensions(final Stage stage)
+    {
+        stage.getExtensions().removeAll(stage.getAllExtensions(StorageExtension.class));
+        stage.addExtension(dynamoExtension);
+    }
+
+    @Override
+    public void after()
+    {
+        super.after();
+        closeStorage();
+    }
+
+    public void closeStorage()
+    {
+        try
+        {
+            dynamoDBConnection.getAsyncClient().describeTable(DEFAULT_TABLE_NAME);
+            dynamoDBConnection.getAsyncClient().deleteTable(DEFAULT_TABLE_NAME);
+        }
+        catch (ResourceNotFoundException e)
+        {
+
+        }
+    }
+
+    @Test
+    public void testCodes()
+    {
+        final DynamoDBTypeCodes typeCodes = new DynamoDBTypeCodes().register(HelloWithCoalescedWrites.class, "hc");
+        assertEquals("hc", typeCodes.getCode(HelloWithCoalescedWrites.class));
+
+        final String code = typeCodes.getCode(Hello.class);
+        assertEquals(8, code.length());
+        assertEquals(code, new DynamoDBTypeCodes().getCode(Hello.class));
+        assertEquals(Hello.class.getName(), typeCodes.getTypeName(code));
+        assertNull(typeCodes.getTypeName("unknown"));
+
+        try
+        {
+            typeCodes.register(Hello.class, "hc");
+            fail();
+        }
+        catch (IllegalStateException e)
+        {
+            // expected, the code is taken
+        }
+    }
+
+    @Test
+    public void testLegacyItemsAreReadAndReplaced()
+    {
+        createStage();
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "legacy");
+        final String itemId = dynamoExtension.generateDocumentId(reference, HelloState.class);
+        final String legacyItemId = "legacy" + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + Hello.class.getName();
+        assertEquals("legacy" + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + new DynamoDBTypeCodes().getCode(Hello.class), itemId);
+
+        final Map<String, AttributeValue> legacyItem = new HashMap<>(DynamoDBUtils.createKey(dynamoDBConnection, legacyItemId));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, new AttributeValue(Hello.class.getName()));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue("{\"lastName\":\"legacy\"}"));
+        dynamoDBConnection.getAsyncClient().putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+
+        final HelloState state = new HelloState();
+        assertTrue(dynamoExtension.readState(reference, state).join());
+        assertEquals("legacy", state.lastName());
+
+        // the read migrates the document, so it is not looked up again
+        assertNull(getItem(legacyItemId));
+        assertEquals(dynamoExtension.getTypeName(Hello.class), getItem(itemId).get(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE).getS());
+
+        state.lastName = "compact";
+        dynamoExtension.writeState(reference, state).join();
+
+        final HelloState readState = new HelloState();
+        assertTrue(dynamoExtension.readState(reference, readState).join());
+        assertEquals("compact", readState.lastName());
+
+        dynamoDBConnection.getAsyncClient().putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+        dynamoExtension.clearState(reference, state).join();
+        assertFalse(dynamoExtension.readState(reference, new HelloState()).join());
+    }
+
+    @Test
+    public void testLegacyCleanupCompletesWhileStopping()
+    {
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport.Builder()
+                .withLatencyMillis(50)
+                .build();
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withTypeCodes(new DynamoDBTypeCodes())
+                .build());
+        extension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        extension.start().join();
+
+        final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "stopping");
+        final String legacyItemId = "stopping" + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + Hello.class.getName();
+        final Map<String, AttributeValue> legacyItem = new HashMap<>(DynamoDBUtils.createKey(extension.getDynamoDBConnection(), legacyItemId));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, new AttributeValue(Hello.class.getName()));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue("{\"lastName\":\"legacy\"}"));
+        transport.putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+
+        final HelloState state = new HelloState();
+        assertTrue(extension.readState(reference, state).join());
+        transport.putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+
+        // the clear is still in flight when stop() stops accepting operations, its cleanup must not be rejected
+        final Task<Void> clear = extension.clearState(reference, state);
+        extension.stop().join();
+        clear.join();
+
+        assertNull(transport.getItem(new GetItemRequest()
+                .withTableName(DEFAULT_TABLE_NAME)
+                .withKey(DynamoDBUtils.createKey(extension.getDynamoDBConnection(), legacyItemId))).getItem());
+    }
+
+    @Test
+    public void testBulkClearRemovesLegacyItems()
+    {
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport();
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withTypeCodes(new DynamoDBTypeCodes())
+                .build());
+        extension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        extension.start().join();
+        try
+        {
+            final List<DynamoDBStateEntry> entries = new ArrayList<>();
+            for (int i = 0; i < 30; i++)
+            {
+                final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "bulk" + i);
+                putLegacyItem(transport, extension.getDynamoDBConnection(), "bulk" + i);
+                entries.add(new DynamoDBStateEntry(reference, new HelloState(), HelloState.class));
+            }
+
+            for (final DynamoDBBulkResult result : extension.clearStates(entries).join())
+            {
+                assertTrue(result.isSuccess());
+            }
+            for (final DynamoDBBulkResult result : extension.readStates(entries).join())
+            {
+                assertFalse(result.isFound());
+            }
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    @Test
+    public void testExpiringLegacyItemsKeepTheirExpiry()
+    {
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport();
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withTypeCodes(new DynamoDBTypeCodes())
+                .build());
+        extension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        extension.start().join();
+        try
+        {
+            final String legacyItemId = "expiring" + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + HelloWithTimeToLive.class.getName();
+            final String expiresAt = String.valueOf(System.currentTimeMillis() / 1000 + 60);
+            final Map<String, AttributeValue> legacyItem = new HashMap<>(DynamoDBUtils.createKey(extension.getDynamoDBConnection(), legacyItemId));
+            legacyItem.put(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, new AttributeValue(HelloWithTimeToLive.class.getName()));
+            legacyItem.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue("{\"lastName\":\"legacy\"}"));
+            legacyItem.put(DynamoDBUtils.FIELD_NAME_EXPIRES_AT, new AttributeValue().withN(expiresAt));
+            transport.putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(HelloWithTimeToLive.class, "expiring");
+            final HelloStateWithTimeToLive state = new HelloStateWithTimeToLive();
+            assertTrue(extension.readState(reference, state).join());
+            assertEquals("legacy", state.lastName());
+
+            // reading does not rewrite the state, which would renew its expiry
+            final Map<String, AttributeValue> readItem = transport.getItem(new GetItemRequest()
+                    .withTableName(DEFAULT_TABLE_NAME)
+                    .withKey(DynamoDBUtils.createKey(extension.getDynamoDBConnection(), legacyItemId))).getItem();
+            assertEquals(expiresAt, readItem.get(DynamoDBUtils.FIELD_NAME_EXPIRES_AT).getN());
+            assertNull(transport.getItem(new GetItemRequest()
+                    .withTableName(DEFAULT_TABLE_NAME)
+                    .withKey(DynamoDBUtils.createKey(extension.getDynamoDBConnection(),
+                            extension.generateDocumentId(reference, HelloStateWithTimeToLive.class)))).getItem());
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    @Test
+    public void testLegacyLookupsCanBeDisabled()
+    {
+        final DynamoDBInMemoryTransport transport = new DynamoDBInMemoryTransport();
+        final DynamoDBStorageExtension extension = new DynamoDBStorageExtension(new DynamoDBConfiguration.Builder()
+                .withTransport(transport)
+                .withTypeCodes(new DynamoDBTypeCodes())
+                .withLegacyDocumentIdsEnabled(false)
+                .build());
+        extension.setDefaultTableName(DEFAULT_TABLE_NAME);
+        extension.start().join();
+        try
+        {
+            putLegacyItem(transport, extension.getDynamoDBConnection(), "disabled");
+            final RemoteReference<?> reference = (RemoteReference<?>) Actor.getReference(Hello.class, "disabled");
+            assertFalse(extension.readState(reference, new HelloState()).join());
+        }
+        finally
+        {
+            extension.stop().join();
+        }
+    }
+
+    private static void putLegacyItem(final DynamoDBInMemoryTransport transport, final DynamoDBConnection connection, final String actorId)
+    {
+        final String legacyItemId = actorId + DynamoDBStorageExtension.DOCUMENT_ID_DECORATION_SEPARATOR + Hello.class.getName();
+        final Map<String, AttributeValue> legacyItem = new HashMap<>(DynamoDBUtils.createKey(connection, legacyItemId));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_OWNING_ACTOR_TYPE, new AttributeValue(Hello.class.getName()));
+        legacyItem.put(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue("{\"lastName\":\"legacy\"}"));
+        transport.putItem(new PutItemRequest(DEFAULT_TABLE_NAME, legacyItem));
+    }
+
+    private Map<String, AttributeValue> getItem(final String itemId)
+    {
+        return dynamoDBConnection.getAsyncClient().getItem(new GetItemRequest()
+                .withTableName(DEFAULT_TABLE_NAME)
+                .withKey(DynamoDBUtils.createKey(dynamoDBConnection, itemId))
+                .withConsistentRead(true)).getItem();
+    }
+}
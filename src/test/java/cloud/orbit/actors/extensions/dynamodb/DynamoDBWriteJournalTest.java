@@ -0,0 +1,138 @@
+/*
+ Copyright (C) 2016 Electronic Arts Inc.  All rights reserved.
+
+ Redistribution and use in source and binary forms, with or without
+ modification, are permitted provided that the following conditions
+ are met:
+
+ 1.  Redistributions of source code must retain the above copyright
+     notice, this list of conditions and the following disclaimer.
+ 2.  Redistributions in binary form must reproduce the above copyright
+     notice, this list of conditions and the following disclaimer in the
+     documentation and/or other materials provided with the distribution.
+ 3.  Neither the name of Electronic Arts, Inc. ("EA") nor the names of
+     its contributors may be used to endorse or promote products derived
+     from this software without specific prior written permission.
+
+ THIS SOFTWARE IS PROVIDED BY ELECTRONIC ARTS AND ITS CONTRIBUTORS "AS IS" AND ANY
+ EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ DISCLAIMED. IN NO EVENT SHALL ELECTRONIC ARTS OR ITS CONTRIBUTORS BE LIABLE FOR ANY
+ DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package cloud.orbit.actors.extensions.dynamodb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DynamoDBWriteJournalTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Map<String, AttributeValue> item(final String value)
+    {
+        return Collections.singletonMap(DynamoDBUtils.FIELD_NAME_DATA, new AttributeValue().withS(value));
+    }
+
+    private static DynamoDBWriteJournal start(final Path directory, final long segmentBytes) throws Exception
+    {
+        final DynamoDBWriteJournal journal = new DynamoDBWriteJournal(directory, DynamoDBJournalSyncPolicy.EVERY_COMMIT, 0, segmentBytes);
+        journal.recover();
+        journal.start();
+        return journal;
+    }
+
+    private static long countSegments(final Path directory) throws Exception
+    {
+        return Files.list(directory).count();
+    }
+
+    @Test
+    public void testRecoverReturnsLatestUnacknowledgedWrites() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBWriteJournal journal = start(directory, 1024 * 1024);
+
+        final DynamoDBWriteJournal.Appended first = journal.append(0, "orbit", "a/Hello", item("first"));
+        journal.append(0, "orbit", "a/Hello", item("second"));
+        final DynamoDBWriteJournal.Appended acknowledged = journal.append(1, "orbit", "b/Hello", item("acknowledged"));
+        final DynamoDBWriteJournal.Appended deleted = journal.append(0, "orbit", "c/Hello", null);
+        journal.acknowledge(first.getSequence());
+        journal.acknowledge(acknowledged.getSequence());
+        deleted.getDurable().join();
+        journal.close();
+
+        final List<DynamoDBWriteJournal.Entry> entries = new DynamoDBWriteJournal(directory, DynamoDBJournalSyncPolicy.EVERY_COMMIT, 0, 1024 * 1024).recover();
+        assertEquals(2, entries.size());
+        assertEquals("a/Hello", entries.get(0).getItemId());
+        assertEquals("second", entries.get(0).getItem().get(DynamoDBUtils.FIELD_NAME_DATA).getS());
+        assertEquals("c/Hello", entries.get(1).getItemId());
+        assertNull(entries.get(1).getItem());
+    }
+
+    @Test
+    public void testTornFrameEndsRecovery() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBWriteJournal journal = start(directory, 1024 * 1024);
+        journal.append(0, "orbit", "a/Hello", item("complete")).getDurable().join();
+        journal.append(0, "orbit", "b/Hello", item("torn")).getDurable().join();
+        journal.close();
+
+        final Path segment = Files.list(directory).findFirst().get();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE))
+        {
+            channel.truncate(channel.size() - 3);
+        }
+
+        final List<DynamoDBWriteJournal.Entry> entries = new DynamoDBWriteJournal(directory, DynamoDBJournalSyncPolicy.EVERY_COMMIT, 0, 1024 * 1024).recover();
+        assertEquals(1, entries.size());
+        assertEquals("a/Hello", entries.get(0).getItemId());
+    }
+
+    @Test
+    public void testAcknowledgedSegmentsAreDeleted() throws Exception
+    {
+        final Path directory = temporaryFolder.newFolder().toPath();
+        final DynamoDBWriteJournal journal = start(directory, 512);
+
+        for (int i = 0; i < 50; i++)
+        {
+            final DynamoDBWriteJournal.Appended appended = journal.append(0, "orbit", "actor" + i + "/Hello", item("state" + i));
+            appended.getDurable().join();
+            journal.acknowledge(appended.getSequence());
+        }
+        journal.append(0, "orbit", "last/Hello", item("last")).getDurable().join();
+
+        assertEquals(1, journal.getUnacknowledgedCount());
+        assertTrue(countSegments(directory) <= 2);
+        journal.close();
+
+        final DynamoDBWriteJournal reopened = new DynamoDBWriteJournal(directory, DynamoDBJournalSyncPolicy.EVERY_COMMIT, 0, 512);
+        assertEquals(1, reopened.recover().size());
+        reopened.start();
+        reopened.close();
+        assertEquals(0, countSegments(directory));
+    }
+}
@@ -100,8 +100,8 @@ public class StateClassVerificationTest extends ActorBaseTest
     {
         try
         {
-            dynamoDBConnection.getDynamoClient().describeTable(getTableName());
-            dynamoDBConnection.getDynamoClient().deleteTable(getTableName());
+            dynamoDBConnection.getAsyncClient().describeTable(getTableName());
+            dynamoDBConnection.getAsyncClient().deleteTable(getTableName());
         }
         catch (ResourceNotFoundException e)
         {